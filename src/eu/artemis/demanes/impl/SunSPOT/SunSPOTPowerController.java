@@ -38,6 +38,7 @@ import eu.artemis.demanes.impl.SunSPOT.common.RadioProperties;
 import eu.artemis.demanes.impl.SunSPOT.common.ReconfigurationContext;
 import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
 import eu.artemis.demanes.impl.SunSPOT.common.SystemProperties;
+import eu.artemis.demanes.impl.SunSPOT.communications.ConfigurationDissemination;
 import eu.artemis.demanes.impl.SunSPOT.communications.RemoteManagement;
 import eu.artemis.demanes.impl.SunSPOT.communications.RoutingListener;
 import eu.artemis.demanes.impl.SunSPOT.fuzzyReasoner.PowerScalingControllerFactory;
@@ -198,8 +199,10 @@ public class SunSPOTPowerController extends MIDlet implements ISwitchListener {
         LowPan.getInstance().addDataEventListener(rl);
         
         // STEP 4
-        // Launch remote management thread
-        (new Thread(new RemoteManagement(reconfigurationProperties))).start();
+        // Launch remote management and configuration dissemination threads
+        RemoteManagement remoteManagement = new RemoteManagement(context, reconfigurationProperties);
+        (new Thread(remoteManagement)).start();
+        (new Thread(new ConfigurationDissemination(remoteManagement, reconfigurationProperties))).start();
     }
 
     protected void pauseApp() {
@@ -243,12 +246,14 @@ public class SunSPOTPowerController extends MIDlet implements ISwitchListener {
         // Add other system properties
         reconfigurationProperties.setProperty(SystemProperties.BASESTATION_ADDR_PROPERTY, SystemProperties.DEFAULT_BS_ADDRESS);
         reconfigurationProperties.setProperty(SystemProperties.BASESTATION_PORT, Integer.toString(SystemProperties.DEFAULT_BS_PORT));
+        reconfigurationProperties.setProperty(SystemProperties.BASESTATION_RELIABLE, String.valueOf(SystemProperties.DEFAULT_BS_RELIABLE));
         reconfigurationProperties.setProperty(SystemProperties.EXECUTION_CONTEXT, Integer.toString(SystemProperties.DEFAULT_EXECUTION_CONTEXT));
         reconfigurationProperties.setProperty(SystemProperties.REMOTE_MANAGEMENT_PORT, Integer.toString(SystemProperties.DEFAULT_REMOTE_MANAGEMENT_PORT));
+        reconfigurationProperties.setProperty(SystemProperties.DISSEMINATION_PORT, Integer.toString(SystemProperties.DEFAULT_DISSEMINATION_PORT));
 
         // STEP 4
         // Add running environment properties
-        reconfigurationProperties.setProperty("reset", "true");
+        reconfigurationProperties.setProperty(SystemProperties.RESET, SystemProperties.RESET_ALL);
         reconfigurationProperties.setProperty("ptx", Integer.toString(RadioProperties.MINIMUM_POWER_TRANSMISSION));
         reconfigurationProperties.setProperty("reasoning.status", "started");
         
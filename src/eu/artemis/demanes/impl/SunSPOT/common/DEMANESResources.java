@@ -32,6 +32,16 @@ public class DEMANESResources {
     public static final String BLObservationURN = "urn:demanes:cmsdemo:observation:BLObservation";
     /** Node Degree Observation URN. */
     public static final String NDObservationURN = "urn:demanes:cmsdemo:observation:NDObservation";
+    /** Transmission Power Observation URN. */
+    public static final String PTXObservationURN = "urn:demanes:cmsdemo:observation:PTXObservation";
+    /** Forwarding Load Observation URN. */
+    public static final String FWDObservationURN = "urn:demanes:cmsdemo:observation:FWDObservation";
+    /** Route Error Rate Observation URN. */
+    public static final String RERRObservationURN = "urn:demanes:cmsdemo:observation:RERRObservation";
+    /** Delivery Ratio Observation URN. */
+    public static final String DLVObservationURN = "urn:demanes:cmsdemo:observation:DLVObservation";
+    /** Round Trip Time Observation URN. */
+    public static final String RTTObservationURN = "urn:demanes:cmsdemo:observation:RTTObservation";
     /** Power Transmission Action URN. */
     public static final String PTActionURN = "urn:demanes:cmsdemo:action:updatePowerTransmission";
     /** Trigger Reason Observation URN. */
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licenses/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.common;
+
+/**
+ * Properties used by the neighbor discovery that provides the node degree.
+ * 
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ */
+public class NeighborDiscoveryProperties {
+
+    /** Neighbor discovery protocol used for the node degree, "ondemand", "periodic", "threeway" or "passive". */
+    public static final String NEIGHBOR_DISCOVERY_TYPE_PROPERTY = "neighbordiscovery.type";
+    /** Time in milliseconds after which a neighbor not heard is removed (passive). */
+    public static final String NEIGHBOR_EXPIRY_PROPERTY = "neighbordiscovery.expiry";
+    /** Time in milliseconds between broadcast requests (passive). */
+    public static final String BROADCAST_PERIOD_PROPERTY = "neighbordiscovery.broadcast.period";
+    /** Time in milliseconds between discoveries (periodic). */
+    public static final String PERIOD_PROPERTY = "neighbordiscovery.period";
+
+    /** Node degree given by the observation, "raw", "usable" or "weighted". */
+    public static final String DEGREE_PROPERTY = "neighbordiscovery.degree";
+    /** Number of rounds a neighbor must be present in to be counted, M of K. */
+    public static final String ADMISSION_ROUNDS_PROPERTY = "neighbordiscovery.admission.rounds";
+    /** Number of last rounds considered for counting a neighbor, K. */
+    public static final String HISTORY_ROUNDS_PROPERTY = "neighbordiscovery.history.rounds";
+    /** LQI below which a link is not usable. */
+    public static final String LOW_LINK_QUALITY_PROPERTY = "neighbordiscovery.lqi.low";
+    /** LQI from which a link is fully usable. */
+    public static final String HIGH_LINK_QUALITY_PROPERTY = "neighbordiscovery.lqi.high";
+    /** Whether the responses carry the neighborhood of the responder, "true" or "false". */
+    public static final String TWO_HOP_PROPERTY = "neighbordiscovery.twohop";
+    /** Whether the discoveries are scheduled with a Trickle timer, "true" or "false". */
+    public static final String TRICKLE_PROPERTY = "neighbordiscovery.trickle";
+    /** Minimum interval of the Trickle timer in milliseconds, Imin. */
+    public static final String TRICKLE_MINIMUM_INTERVAL_PROPERTY = "neighbordiscovery.trickle.imin";
+    /** Number of doublings of the minimum interval of the Trickle timer. */
+    public static final String TRICKLE_DOUBLINGS_PROPERTY = "neighbordiscovery.trickle.doublings";
+    /** Redundancy constant of the Trickle timer, k. */
+    public static final String TRICKLE_REDUNDANCY_PROPERTY = "neighbordiscovery.trickle.redundancy";
+
+    /** Value of the type property for the on demand neighbor discovery. */
+    public static final String ON_DEMAND_TYPE = "ondemand";
+    /** Value of the type property for the passive neighbor discovery. */
+    public static final String PASSIVE_TYPE = "passive";
+    /** Value of the type property for the periodic neighbor discovery. */
+    public static final String PERIODIC_TYPE = "periodic";
+    /** Value of the type property for the three-way handshake neighbor discovery. */
+    public static final String THREE_WAY_TYPE = "threeway";
+
+    /** Value of the degree property for counting every neighbor. */
+    public static final String RAW_DEGREE = "raw";
+    /** Value of the degree property for counting the neighbors with a usable link. */
+    public static final String USABLE_DEGREE = "usable";
+    /** Value of the degree property for weighting the neighbors by link quality. */
+    public static final String WEIGHTED_DEGREE = "weighted";
+}
@@ -48,10 +48,66 @@ public class ReconfigurationContext {
     private static final int DEFAULT_ND_MIN = 1;
     private static final int DEFAULT_DELTA_ND_MIN = 1;
     private static final int DEFAULT_DELTA_CR_MIN = 1;
+    private static final String DEFAULT_NEIGHBOR_DISCOVERY_TYPE = NeighborDiscoveryProperties.ON_DEMAND_TYPE;
+    private static final long DEFAULT_NEIGHBOR_EXPIRY = 10000;
+    private static final long DEFAULT_BROADCAST_PERIOD = 60000;
+    private static final long DEFAULT_DISCOVERY_PERIOD = 5000;
+    private static final String DEFAULT_NODE_DEGREE = NeighborDiscoveryProperties.USABLE_DEGREE;
+    private static final int DEFAULT_LOW_LINK_QUALITY = 180;
+    private static final int DEFAULT_ADMISSION_ROUNDS = 2;
+    private static final int DEFAULT_HISTORY_ROUNDS = 3;
+    private static final int DEFAULT_HIGH_LINK_QUALITY = 230;
+    private static final boolean DEFAULT_TWO_HOP = false;
+    private static final boolean DEFAULT_TRICKLE = false;
+    private static final long DEFAULT_TRICKLE_MINIMUM_INTERVAL = 2000;
+    private static final int DEFAULT_TRICKLE_DOUBLINGS = 3;
+    private static final int DEFAULT_TRICKLE_REDUNDANCY = 2;
+
+    // Trigger rules of the reconfiguration algorithm v10, in evaluation order
+    private static final String DEFAULT_TRIGGER_RULES = "saturation,oscillation,nd.event,bl.event,ndref.update";
+    private static final String[][] DEFAULT_TRIGGER_RULE_DEFINITIONS = {
+        // Rule 1: adapt the ND error when the communication range is saturated
+        {"saturation",
+            "abs(e_ND) <= KSI_ND & CR_f >= CR_MAX & ND_R_prev != ND_R | abs(e_ND) <= KSI_ND & CR_f >= CR_MAX & e_ND < e_ND_prev",
+            "set e_ND = e_ND_sat",
+            null},
+        // Rule 2: do nothing while the communication range oscillates
+        {"oscillation",
+            "e_ND_prev * e_ND > 0 & dcr_prev == 0 | e_ND < -KSI_ND & e_ND_prev > KSI_ND & dcr_prev == DELTA_CR_MIN | e_ND > KSI_ND & e_ND_prev < -KSI_ND & dcr_prev == -DELTA_CR_MIN",
+            "none",
+            null},
+        // Rule 3: otherwise trigger the primary loop
+        {"nd.event",
+            "abs(e_ND) > KSI_ND | ND < ND_MIN",
+            "fire ND e_ND",
+            "oscillation"},
+        // Rule 4: trigger the secondary loop when the battery is critical
+        {"bl.event",
+            "abs(e_BL) <= e_BL_tol",
+            "fire BL e_BL",
+            null},
+        // Extra rule: trigger the secondary loop to update ND_R upon a change of ND_Ref
+        {"ndref.update",
+            "NDRef != NDRef_prev",
+            "fire BL e_BL",
+            null}
+    };
 
     private Properties defaultProperties;
 
     public ReconfigurationContext() {
+        this(((ESpot) Resources.lookup(ESpot.class)).getPowerController().getBattery().getMaximumCapacity(), RadioProperties.getRadioChannel());
+    }
+
+    /**
+     * Public constructor for a battery with the given maximum capacity and a
+     * radio using the given channel. It does not access the hardware, so it
+     * can be used out of the mote.
+     * 
+     * @param maximumCapacity The maximum capacity of the battery in mAh.
+     * @param channel The radio channel.
+     */
+    public ReconfigurationContext(double maximumCapacity, int channel) {
         defaultProperties = new Properties();
 
         defaultProperties.setProperty(ReasonerProperties.E_CR_FACTOR_PROPERTY, Double.toString(DEFAULT_E_CR_FACTOR));
@@ -69,20 +125,72 @@ public class ReconfigurationContext {
         
         defaultProperties.setProperty(TriggerPolicyProperties.KSI_ND_PROPERTY, Integer.toString(DEFAULT_KSI_ND));
         defaultProperties.setProperty(TriggerPolicyProperties.ND_MIN_PROPERTY, Integer.toString(DEFAULT_ND_MIN));
-        defaultProperties.setProperty(TriggerPolicyProperties.CR_MAX_PROPERTY, Integer.toString(RadioProperties.getMaximumPTXIndex(RadioProperties.getRadioChannel())));
-        defaultProperties.setProperty(TriggerPolicyProperties.CR_MIN_PROPERTY, Integer.toString(RadioProperties.getMinimumPTXIndex(RadioProperties.getRadioChannel())));
+        defaultProperties.setProperty(TriggerPolicyProperties.CR_MAX_PROPERTY, Integer.toString(RadioProperties.getMaximumPTXIndex(channel)));
+        defaultProperties.setProperty(TriggerPolicyProperties.CR_MIN_PROPERTY, Integer.toString(RadioProperties.getMinimumPTXIndex(channel)));
         defaultProperties.setProperty(TriggerPolicyProperties.DELTA_ND_MIN_PROPERTY, Integer.toString(DEFAULT_DELTA_ND_MIN));
         defaultProperties.setProperty(TriggerPolicyProperties.DELTA_CR_MIN_PROPERTY, Integer.toString(DEFAULT_DELTA_CR_MIN));
         defaultProperties.setProperty(TriggerPolicyProperties.TRIGGER_INTERVAL_PROPERTY, Integer.toString(DEFAULT_TRIGGER_INTERVAL));        
         
-        updateProperties(defaultProperties);
+        defaultProperties.setProperty(NeighborDiscoveryProperties.NEIGHBOR_DISCOVERY_TYPE_PROPERTY, DEFAULT_NEIGHBOR_DISCOVERY_TYPE);
+        defaultProperties.setProperty(NeighborDiscoveryProperties.NEIGHBOR_EXPIRY_PROPERTY, Long.toString(DEFAULT_NEIGHBOR_EXPIRY));
+        defaultProperties.setProperty(NeighborDiscoveryProperties.BROADCAST_PERIOD_PROPERTY, Long.toString(DEFAULT_BROADCAST_PERIOD));
+        defaultProperties.setProperty(NeighborDiscoveryProperties.PERIOD_PROPERTY, Long.toString(DEFAULT_DISCOVERY_PERIOD));
+        defaultProperties.setProperty(NeighborDiscoveryProperties.DEGREE_PROPERTY, DEFAULT_NODE_DEGREE);
+        defaultProperties.setProperty(NeighborDiscoveryProperties.ADMISSION_ROUNDS_PROPERTY, Integer.toString(DEFAULT_ADMISSION_ROUNDS));
+        defaultProperties.setProperty(NeighborDiscoveryProperties.HISTORY_ROUNDS_PROPERTY, Integer.toString(DEFAULT_HISTORY_ROUNDS));
+        defaultProperties.setProperty(NeighborDiscoveryProperties.LOW_LINK_QUALITY_PROPERTY, Integer.toString(DEFAULT_LOW_LINK_QUALITY));
+        defaultProperties.setProperty(NeighborDiscoveryProperties.HIGH_LINK_QUALITY_PROPERTY, Integer.toString(DEFAULT_HIGH_LINK_QUALITY));
+        defaultProperties.setProperty(NeighborDiscoveryProperties.TWO_HOP_PROPERTY, String.valueOf(DEFAULT_TWO_HOP));
+        defaultProperties.setProperty(NeighborDiscoveryProperties.TRICKLE_PROPERTY, String.valueOf(DEFAULT_TRICKLE));
+        defaultProperties.setProperty(NeighborDiscoveryProperties.TRICKLE_MINIMUM_INTERVAL_PROPERTY, Long.toString(DEFAULT_TRICKLE_MINIMUM_INTERVAL));
+        defaultProperties.setProperty(NeighborDiscoveryProperties.TRICKLE_DOUBLINGS_PROPERTY, Integer.toString(DEFAULT_TRICKLE_DOUBLINGS));
+        defaultProperties.setProperty(NeighborDiscoveryProperties.TRICKLE_REDUNDANCY_PROPERTY, Integer.toString(DEFAULT_TRICKLE_REDUNDANCY));
+        
+        setDefaultTriggerRules(defaultProperties);
+        
+        updateProperties(defaultProperties, maximumCapacity);
     }
 
     public Properties getProperties() {
         return this.defaultProperties;
     } 
     
+    /**
+     * Get the default trigger rules.
+     * 
+     * @return The properties declaring the default trigger rules.
+     */
+    public static Properties getDefaultTriggerRules() {
+        Properties properties = new Properties();
+        setDefaultTriggerRules(properties);
+        return properties;
+    }
+
+    private static void setDefaultTriggerRules(Properties properties) {
+        properties.setProperty(TriggerPolicyProperties.TRIGGER_RULES_PROPERTY, DEFAULT_TRIGGER_RULES);
+        for (int rule = 0; rule < DEFAULT_TRIGGER_RULE_DEFINITIONS.length; rule++) {
+            String prefix = TriggerPolicyProperties.TRIGGER_RULE_PREFIX + DEFAULT_TRIGGER_RULE_DEFINITIONS[rule][0];
+            properties.setProperty(prefix + TriggerPolicyProperties.TRIGGER_RULE_WHEN_SUFFIX, DEFAULT_TRIGGER_RULE_DEFINITIONS[rule][1]);
+            properties.setProperty(prefix + TriggerPolicyProperties.TRIGGER_RULE_THEN_SUFFIX, DEFAULT_TRIGGER_RULE_DEFINITIONS[rule][2]);
+            if (DEFAULT_TRIGGER_RULE_DEFINITIONS[rule][3] != null) {
+                properties.setProperty(prefix + TriggerPolicyProperties.TRIGGER_RULE_UNLESS_SUFFIX, DEFAULT_TRIGGER_RULE_DEFINITIONS[rule][3]);
+            }
+        }
+    }
+    
     public Properties updateProperties(Properties properties) {
+        return updateProperties(properties, ((ESpot) Resources.lookup(ESpot.class)).getPowerController().getBattery().getMaximumCapacity());
+    }
+    
+    /**
+     * Update the derived reconfiguration properties for a battery with the
+     * given maximum capacity.
+     * 
+     * @param properties The reconfiguration properties.
+     * @param maximumCapacity The maximum capacity of the battery in mAh.
+     * @return The updated reconfiguration properties.
+     */
+    public Properties updateProperties(Properties properties, double maximumCapacity) {
         double E_cr;
         double E_cr_factor;
         double kE;
@@ -95,7 +203,7 @@ public class ReconfigurationContext {
         ND_Ref = Integer.parseInt(properties.getProperty(ReasonerProperties.NDRefPROPERTY, Integer.toString(DEFAULT_ND_REF)));
         kdeltaND = Integer.parseInt(properties.getProperty(ReasonerProperties.KdeltaND_PROPERTY, Integer.toString(DEFAULT_K_DELTA_ND)));
         
-        E_cr = (((ESpot) Resources.lookup(ESpot.class)).getPowerController().getBattery().getMaximumCapacity()) * E_cr_factor;
+        E_cr = maximumCapacity * E_cr_factor;
         kE = 2.0 / E_cr;
         k_ND = 2.0 / ND_Ref;
         ND_R = ND_Ref + kdeltaND;
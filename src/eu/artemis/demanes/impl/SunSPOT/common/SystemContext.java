@@ -24,6 +24,8 @@ package eu.artemis.demanes.impl.SunSPOT.common;
 import com.sun.spot.core.resources.Resources;
 import com.sun.spot.espot.peripheral.ESpot;
 import eu.artemis.demanes.impl.SunSPOT.communications.CommunicationManager;
+import eu.artemis.demanes.impl.SunSPOT.communications.ReliableDelivery;
+import eu.artemis.demanes.impl.SunSPOT.communications.RoutingMetrics;
 import eu.artemis.demanes.impl.SunSPOT.reconfiguration.actions.PowerTransmissionActuator;
 import eu.artemis.demanes.impl.SunSPOT.utils.LEDMarquee.Marquee;
 import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
@@ -39,8 +41,9 @@ public class SystemContext {
     private static final CommunicationManager communicationManager = new CommunicationManager();
     private static final Logger logger = new Logger();
     private static final Marquee marquee = new Marquee();
+    private static final RoutingMetrics routingMetrics = new RoutingMetrics();
     
-    private static final boolean USBStatus = ((ESpot) Resources.lookup(ESpot.class)).getUsbPowerDaemon().isUsbPowered();
+    private static final boolean USBStatus = isUSBPowered();
     private static final Level logLevel = Level.INFO;
     
     private PowerTransmissionActuator ptact;
@@ -79,6 +82,24 @@ public class SystemContext {
         return marquee;
     }
     
+    /**
+     * Get the routing and forwarding metrics of the system.
+     * 
+     * @return The routing metrics.
+     */
+    public static RoutingMetrics getRoutingMetrics() {
+        return routingMetrics;
+    }
+    
+    /**
+     * Get the reliable delivery of the communication manager of the system.
+     * 
+     * @return The reliable delivery.
+     */
+    public static ReliableDelivery getReliableDelivery() {
+        return communicationManager.getReliableDelivery();
+    }
+    
     /**
      * Check if the system is USB connected.
      * 
@@ -88,6 +109,17 @@ public class SystemContext {
         return USBStatus;
     }
     
+    /**
+     * Check the USB power daemon. Out of the mote, for instance when replaying
+     * traces in the host, there is no {@code ESpot} and it is never powered.
+     * 
+     * @return True if the mote is USB powered, false otherwise.
+     */
+    private static boolean isUSBPowered() {
+        ESpot espot = (ESpot) Resources.lookup(ESpot.class);
+        return (espot != null) && espot.getUsbPowerDaemon().isUsbPowered();
+    }
+    
     /**
      * Check if debug mode is active.
      * 
@@ -54,16 +54,28 @@ public class SystemProperties {
     /** Base station port. */
     public final static String BASESTATION_PORT = "basestation.port";
     
+    /** Base station reliable mode, "basestation.reliable". */
+    public final static String BASESTATION_RELIABLE = "basestation.reliable";
+    
     /** Execution context. */
     public final static String EXECUTION_CONTEXT = "execution.context";
     
     /** Remote management port .*/
     public final static String REMOTE_MANAGEMENT_PORT = "remotemng.port";
     
+    /** Configuration dissemination port. */
+    public final static String DISSEMINATION_PORT = "dissemination.port";
+    
+    /** Version of the configuration applied by remote management. */
+    public final static String CONFIG_VERSION = "config.version";
+    
+    /** Parts of the controller to be reset by the monitor, "reset". */
+    public final static String RESET = "reset";
+    
     
     // DEFAULT VALUES
     /** The SunSPOT IEEE Address. */
-    public final static String IEEE_ADDRESS_VALUE = IEEEAddress.toDottedHex(espot.getIEEEAddress());
+    public final static String IEEE_ADDRESS_VALUE = IEEEAddress.toDottedHex(espot != null ? espot.getIEEEAddress() : 0);
     
     /** The default value for the NSS part for construction any URN, "SunSPOT" + last four bytes of IEEE address. */
     public final static String SPOT_URN_NSS_VALUE = "sunspot" + IEEE_ADDRESS_VALUE.substring(IEEE_ADDRESS_VALUE.length() - 4);
@@ -89,6 +101,9 @@ public class SystemProperties {
     /** Default base station port. */
     public final static int DEFAULT_BS_PORT = 100;
     
+    /** Default base station reliable mode: status reports are sent unreliably. */
+    public final static boolean DEFAULT_BS_RELIABLE = false;
+    
     /** Execution context: CMS. */
     public final static byte EXECUTION_CONTEXT_CMS = 0x01;
     
@@ -100,4 +115,22 @@ public class SystemProperties {
     
     /** Default remote management port. */
     public final static int DEFAULT_REMOTE_MANAGEMENT_PORT = 201;
+    
+    /** Default configuration dissemination port. */
+    public final static int DEFAULT_DISSEMINATION_PORT = 202;
+    
+    /** Default version of the configuration, before any has been applied. */
+    public final static int DEFAULT_CONFIG_VERSION = 0;
+    
+    /** Reset value for resetting every part of the controller. */
+    public final static String RESET_ALL = "true";
+    
+    /** Reset value for resetting nothing. */
+    public final static String RESET_NONE = "false";
+    
+    /** Reset value for setting the transmission power again and resetting the actuator. */
+    public final static String RESET_POWER = "ptx";
+    
+    /** Reset value for resetting the trigger and loading its rules again. */
+    public final static String RESET_TRIGGER = "trigger";
 }
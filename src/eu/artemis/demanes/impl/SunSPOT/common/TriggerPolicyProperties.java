@@ -37,4 +37,11 @@ public class TriggerPolicyProperties {
     public static final String CR_MIN_PROPERTY = "CR_MIN";
     public static final String DELTA_ND_MIN_PROPERTY = "DELTA_ND_MIN";
     public static final String DELTA_CR_MIN_PROPERTY = "DELTA_CR_MIN";
+
+    // following parameters declare the trigger rules
+    public static final String TRIGGER_RULES_PROPERTY = "trigger.rules";
+    public static final String TRIGGER_RULE_PREFIX = "trigger.rule.";
+    public static final String TRIGGER_RULE_WHEN_SUFFIX = ".when";
+    public static final String TRIGGER_RULE_THEN_SUFFIX = ".then";
+    public static final String TRIGGER_RULE_UNLESS_SUFFIX = ".unless";
 }
@@ -22,17 +22,46 @@
 package eu.artemis.demanes.impl.SunSPOT.communications;
 
 import com.sun.spot.ieee_802_15_4_radio.util.IEEEAddress;
-import com.sun.spot.multihop.io.j2me.radiogram.Radiogram;
-import com.sun.spot.multihop.io.j2me.radiogram.RadiogramConnection;
 import com.sun.spot.multihop.radio.NoRouteException;
 import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
+import eu.artemis.demanes.impl.SunSPOT.utils.fragmentation.FragmentPDU;
+import eu.artemis.demanes.impl.SunSPOT.utils.queue.BoundedQueue;
+import eu.artemis.demanes.impl.SunSPOT.utils.radiogram.RadiogramConnectionPool;
+import eu.artemis.demanes.impl.SunSPOT.utils.radiogram.RadiogramConnectionPool.PooledConnection;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import javax.microedition.io.Connector;
+import java.util.Hashtable;
 
 /**
  * Manager for the communications. All communications with other resources
  * should be done through this class.
+ * <p>
+ * Messages can be sent at once, blocking the caller until the radio has sent
+ * them, or queued to be sent by a sender thread. There is a bounded queue for
+ * each priority, and the queue of high priority is always emptied first. When
+ * a queue is full, a message of normal importance is dropped, while a message
+ * of high importance is sent at once in the thread of the caller.
+ * <p>
+ * Messages longer than a radiogram are split into fragments, which are
+ * reassembled by the receiver with a
+ * {@link eu.artemis.demanes.impl.SunSPOT.utils.fragmentation.Reassembler}.
+ * The last fragmented messages are kept, so that the fragments missing at
+ * the receiver can be sent again with {@link #retransmit(long, byte[], int, int)}.
+ * <p>
+ * Messages can also be sent in reliable mode with
+ * {@link #sendReliable(Destination, byte[], int, int, SendListener)}, which
+ * are acknowledged by the receiver and sent again until then, as implemented
+ * by {@link ReliableDelivery}.
+ * <p>
+ * Queued messages without a listener are copied into recycled buffers, and
+ * a {@link MessageBuffer} is read in place, so that queuing them does not
+ * allocate once the buffers have grown to the size of the messages. The
+ * destinations resolved are kept, so a destination given as a string is only
+ * parsed the first time. Broadcast messages are sent through a pooled
+ * connection and datagram; unicast messages still open a connection, with its
+ * datagram, on every transmission, as explained in
+ * {@link RadiogramConnectionPool}.
  * 
  * @author N&eacute;stor Lucas Mart&iacute;nez
  * @version 1.0.0
@@ -50,18 +79,70 @@ public class CommunicationManager {
 
     /** Message priority normal. */
     public static final int PRIORITY_NORMAL = 0x00;
+    /** Message priority high. Queued messages of high priority are sent first. */
+    public static final int PRIORITY_HIGH = 0x01;
 
-    /** Message importance normal. */
+    /** Message importance normal. Dropped when its queue is full. */
     public static final int IMPORTANCE_NORMAL = 0x00;
+    /** Message importance high. Never dropped when its queue is full. */
+    public static final int IMPORTANCE_HIGH = 0x01;
+
+    /** Default number of messages in each send queue. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 8;
+
+    /**
+     * Number of fragmented messages kept for retransmission, enough for a
+     * whole window of reliable messages. A reliable message sent again is
+     * fragmented under a new ID, because the receiver drops the fragments of
+     * the messages it has already reassembled.
+     */
+    public static final int RETAINED_MESSAGES = ReliableDelivery.DEFAULT_WINDOW;
+
+    /**
+     * Number of queued messages kept for reuse, enough for both queues full
+     * and the message being sent.
+     */
+    public static final int RECYCLED_MESSAGES = 2 * DEFAULT_QUEUE_CAPACITY + 1;
+
+    /** Maximum number of resolved destinations kept. */
+    public static final int RESOLVED_DESTINATIONS = 16;
+
+    private final BoundedQueue[] sendQueues;
+    private final Object sendLock = new Object();
+    private Thread senderThread;
+
+    private long queuedSent;
+    private long queuedFailed;
+    private long degraded;
+    private long totalLatency;
+    private long maximumLatency;
+
+    private final SentMessage[] sentMessages = new SentMessage[RETAINED_MESSAGES];
+    private int nextSentMessage;
+    private int messageIdCounter;
+    private long fragmentedMessages;
+    private long fragmentsSent;
+    private long fragmentsResent;
+
+    private final OutgoingMessage[] recycledMessages = new OutgoingMessage[RECYCLED_MESSAGES];
+    private int recycledCount;
+
+    private final Hashtable[] resolvedDestinations = new Hashtable[]{new Hashtable(), new Hashtable()};
+
+    private final ReliableDelivery reliableDelivery;
     
     /**
      * 
      */
-    public CommunicationManager() { }
+    public CommunicationManager() {
+        this.sendQueues = new BoundedQueue[]{new BoundedQueue(DEFAULT_QUEUE_CAPACITY), new BoundedQueue(DEFAULT_QUEUE_CAPACITY)};
+        this.reliableDelivery = new ReliableDelivery(this);
+    }
 
     /**
      * Sends a message to a specified destination using the specified
-     * mode, priority and importance.
+     * mode, priority and importance. The caller is blocked until the message
+     * has been sent.
      * 
      * @param message The message to be sent.
      * @param size The size of the message to be sent.
@@ -72,51 +153,469 @@ public class CommunicationManager {
      * @return True if the message is sent, false otherwise.
      */
     public boolean send(ByteArrayOutputStream message, int size, int mode, String destination, int priority, int importance) {
-        RadiogramConnection connection = null;
-        Radiogram radiogram;
-        RadiogramAddress destinationAddress;
+        if (message instanceof MessageBuffer) {
+            return transmit(resolve(destination, mode), ((MessageBuffer) message).getBuffer(), 0, message.size());
+        }
+        byte[] payload = message.toByteArray();
+        return transmit(resolve(destination, mode), payload, 0, payload.length);
+    }
+
+    /**
+     * Sends a message to a destination resolved with
+     * {@link #resolve(String, int)}. The caller is blocked until the message
+     * has been sent, and the message can be reused after that.
+     * 
+     * @param destination The resolved destination.
+     * @param message The buffer holding the message.
+     * @param offset The offset of the message in the buffer.
+     * @param length The length of the message.
+     * @return True if the message is sent, false otherwise.
+     */
+    public boolean send(Destination destination, byte[] message, int offset, int length) {
+        return transmit(destination, message, offset, length);
+    }
+
+    /**
+     * Queues a message to be sent to a specified destination using the
+     * specified mode, priority and importance, and returns at once.
+     * 
+     * @param message The message to be sent.
+     * @param mode The mode to be used for the communication.
+     * @param destination The message destination.
+     * @param priority The message priority, {@link #PRIORITY_NORMAL} or
+     * {@link #PRIORITY_HIGH}.
+     * @param importance The message importance, {@link #IMPORTANCE_NORMAL} or
+     * {@link #IMPORTANCE_HIGH}.
+     * @param listener The listener notified when the message has been sent or
+     * has failed, or null for not being notified.
+     * @return True if the message has been queued or, being of high
+     * importance, sent. False if it has been dropped, in which case the
+     * listener is not notified.
+     */
+    public boolean sendAsync(ByteArrayOutputStream message, int mode, String destination, int priority, int importance, SendListener listener) {
+        return sendAsync(resolve(destination, mode), message, priority, importance, listener);
+    }
+
+    /**
+     * Queues a message to be sent to a destination resolved with
+     * {@link #resolve(String, int)}, and returns at once. The message is
+     * copied, so the buffer can be reused as soon as this method returns.
+     * 
+     * @param destination The resolved destination.
+     * @param message The buffer holding the message.
+     * @param offset The offset of the message in the buffer.
+     * @param length The length of the message.
+     * @param priority The message priority, {@link #PRIORITY_NORMAL} or
+     * {@link #PRIORITY_HIGH}.
+     * @param importance The message importance, {@link #IMPORTANCE_NORMAL} or
+     * {@link #IMPORTANCE_HIGH}.
+     * @param listener The listener notified when the message has been sent or
+     * has failed, or null for not being notified.
+     * @return True if the message has been queued or, being of high
+     * importance, sent. False if it has been dropped, in which case the
+     * listener is not notified.
+     */
+    public boolean sendAsync(Destination destination, byte[] message, int offset, int length, int priority, int importance, SendListener listener) {
+        return enqueue(obtain(destination, message, offset, length, listener), priority, importance);
+    }
+
+    /**
+     * Queues the content of a stream to be sent to a destination resolved with
+     * {@link #resolve(String, int)}, and returns at once. The stream can be
+     * reset and reused as soon as this method returns. The content of a
+     * {@link MessageBuffer} is copied without allocating.
+     * 
+     * @param destination The resolved destination.
+     * @param message The message to be sent.
+     * @param priority The message priority, {@link #PRIORITY_NORMAL} or
+     * {@link #PRIORITY_HIGH}.
+     * @param importance The message importance, {@link #IMPORTANCE_NORMAL} or
+     * {@link #IMPORTANCE_HIGH}.
+     * @param listener The listener notified when the message has been sent or
+     * has failed, or null for not being notified.
+     * @return True if the message has been queued or, being of high
+     * importance, sent. False if it has been dropped, in which case the
+     * listener is not notified.
+     */
+    public boolean sendAsync(Destination destination, ByteArrayOutputStream message, int priority, int importance, SendListener listener) {
+        if (message instanceof MessageBuffer) {
+            return sendAsync(destination, ((MessageBuffer) message).getBuffer(), 0, message.size(), priority, importance, listener);
+        }
+        byte[] payload = message.toByteArray();
+        return sendAsync(destination, payload, 0, payload.length, priority, importance, listener);
+    }
+
+    private OutgoingMessage obtain(Destination destination, byte[] message, int offset, int length, SendListener listener) {
+        OutgoingMessage outgoing = null;
+
+        synchronized (recycledMessages) {
+            if (recycledCount > 0) {
+                recycledCount--;
+                outgoing = recycledMessages[recycledCount];
+                recycledMessages[recycledCount] = null;
+            }
+        }
+        if (outgoing == null) {
+            outgoing = new OutgoingMessage();
+        }
+
+        // A listener is handed the payload, which may keep it, so it gets a
+        // buffer of its own
+        if (listener != null || outgoing.payload == null || outgoing.payload.length < length) {
+            outgoing.payload = new byte[length];
+        }
+        System.arraycopy(message, offset, outgoing.payload, 0, length);
+        outgoing.length = length;
+        outgoing.destination = destination;
+        outgoing.listener = listener;
+        outgoing.queuedTime = Clock.getClock().currentTimeMillis();
+        return outgoing;
+    }
+
+    private void recycle(OutgoingMessage outgoing) {
+        if (outgoing.listener != null) {
+            outgoing.payload = null;
+        }
+        outgoing.destination = null;
+        outgoing.listener = null;
+
+        synchronized (recycledMessages) {
+            if (recycledCount < recycledMessages.length) {
+                recycledMessages[recycledCount++] = outgoing;
+            }
+        }
+    }
+
+    private boolean enqueue(OutgoingMessage outgoing, int priority, int importance) {
+        Destination destination = outgoing.destination;
+        BoundedQueue queue = sendQueues[priority == PRIORITY_HIGH ? PRIORITY_HIGH : PRIORITY_NORMAL];
+
+        startSender();
+
+        if (queue.offer(outgoing)) {
+            synchronized (sendLock) {
+                Clock.getClock().signalAll(sendLock);
+            }
+            return true;
+        }
+
+        if (importance == IMPORTANCE_HIGH) {
+            // The queue is full, but the message is not worth losing
+            synchronized (sendLock) {
+                degraded++;
+            }
+            complete(outgoing, transmit(destination, outgoing.payload, 0, outgoing.length));
+            return true;
+        }
 
-        destinationAddress = resolveDestination(destination);
+        SystemContext.getLogger().debug("CommunicationManager.sendAsync: Send queue full, message to " + destination + " dropped.");
+        recycle(outgoing);
+        return false;
+    }
+
+    private boolean transmit(Destination destination, byte[] message, int offset, int length) {
+        RadiogramConnectionPool pool = RadiogramConnectionPool.getPool();
+        PooledConnection connection = null;
 
         try {
-            switch (mode) {
-                case MODE_BROADCAST:
-                    connection = (RadiogramConnection) Connector.open("radiogram://broadcast:" + destinationAddress.getPort());
-                    radiogram = (Radiogram) connection.newDatagram(connection.getMaximumLength());
-                    break;
-                case MODE_UNICAST:
-                    connection = (RadiogramConnection) Connector.open("radiogram://" + destinationAddress.getAddressAsString() + ":" + destinationAddress.getPort());
-                    radiogram = (Radiogram) connection.newDatagram(connection.getMaximumLength());
-                    break;               
-                    
-                default: // Default mode is unicast
-                    connection = (RadiogramConnection) Connector.open("radiogram://broadcast:" + destinationAddress.getPort());
-                    radiogram = (Radiogram) connection.newDatagram(connection.getMaximumLength());
-            }
-
-            radiogram.reset();
-            radiogram.write(message.toByteArray());
-            connection.send(radiogram);
+            connection = pool.acquire(destination.key);
+            int maximumLength = connection.getConnection().getMaximumLength();
+            if (length <= maximumLength) {
+                connection.getDatagram().write(message, offset, length);
+                connection.send();
+            } else if (!sendFragments(connection, destination, message, offset, length, maximumLength)) {
+                pool.release(connection);
+                return false;
+            }
+            pool.release(connection);
             return true;
         } catch (NoRouteException ex) {
-            SystemContext.getLogger().warning("--- No route found to: " + destinationAddress.getAddressAsString());
+            SystemContext.getLogger().warning("--- No route found to: " + IEEEAddress.toDottedHex(destination.address));
+            pool.release(connection);
         } catch (IOException ex) {
             if (SystemContext.isUSBConnected() & SystemContext.isDebugActive()) {
                 ex.printStackTrace();
             }
-        } finally {
-            if (connection != null) {
-                try {
-                    connection.close();
-                } catch (IOException ex) {
-                    if (SystemContext.isUSBConnected() & SystemContext.isDebugActive()) {
-                        ex.printStackTrace();
-                    }
+            pool.discard(connection);
+        }
+
+        return false;
+    }
+
+    private boolean sendFragments(PooledConnection connection, Destination destination, byte[] message, int offset, int length, int maximumLength) throws IOException {
+        int count = FragmentPDU.fragmentCount(length, maximumLength - FragmentPDU.HEADER_LENGTH);
+
+        if (count > FragmentPDU.MAX_FRAGMENTS || length > FragmentPDU.MAX_MESSAGE_LENGTH) {
+            SystemContext.getLogger().warning("CommunicationManager.sendFragments: Message of " + length + " bytes to " + destination + " too large.");
+            return false;
+        }
+
+        // The fragments are kept, as the caller may reuse its buffer before
+        // the receiver asks for the missing ones
+        SentMessage sent = retain(destination, message, offset, length, count);
+        byte[] header = new byte[FragmentPDU.HEADER_LENGTH];
+
+        for (int index = 0; index < count; index++) {
+            sendFragment(connection, sent, index, header);
+        }
+        return true;
+    }
+
+    private void sendFragment(PooledConnection connection, SentMessage sent, int index, byte[] header) throws IOException {
+        int fragmentOffset = FragmentPDU.fragmentOffset(index, sent.count, sent.payload.length);
+        int fragmentLength = FragmentPDU.fragmentLength(index, sent.count, sent.payload.length);
+
+        FragmentPDU.encodeData(header, 0, sent.messageID, index, sent.count, sent.payload.length);
+        connection.getDatagram().reset();
+        connection.getDatagram().write(header, 0, FragmentPDU.HEADER_LENGTH);
+        connection.getDatagram().write(sent.payload, fragmentOffset, fragmentLength);
+        connection.send();
+
+        synchronized (sentMessages) {
+            fragmentsSent++;
+        }
+    }
+
+    private SentMessage retain(Destination destination, byte[] message, int offset, int length, int count) {
+        byte[] payload = new byte[length];
+        System.arraycopy(message, offset, payload, 0, length);
+
+        synchronized (sentMessages) {
+            messageIdCounter = (messageIdCounter + 1) & 0xFFFF;
+            SentMessage sent = new SentMessage(destination, messageIdCounter, count, payload);
+            sentMessages[nextSentMessage] = sent;
+            nextSentMessage = (nextSentMessage + 1) % sentMessages.length;
+            fragmentedMessages++;
+            return sent;
+        }
+    }
+
+    /**
+     * Sends again the fragments asked for by a retransmit request, if the
+     * message is one of the last fragmented messages sent to the requester.
+     * 
+     * @param source The address of the requester.
+     * @param request The buffer holding the request.
+     * @param offset The offset of the request in the buffer.
+     * @param length The length of the request.
+     * @return The number of fragments sent again.
+     */
+    public int retransmit(long source, byte[] request, int offset, int length) {
+        FragmentPDU pdu = new FragmentPDU();
+        SentMessage sent = null;
+
+        if (!pdu.wrap(request, offset, length) || pdu.getType() != FragmentPDU.TYPE_RETRANSMIT) {
+            return 0;
+        }
+
+        synchronized (sentMessages) {
+            for (int index = 0; index < sentMessages.length; index++) {
+                SentMessage candidate = sentMessages[index];
+                if (candidate != null && candidate.destination.address == source && candidate.messageID == pdu.getMessageID()
+                        && candidate.count == pdu.getCount() && candidate.payload.length == pdu.getTotal()) {
+                    sent = candidate;
                 }
             }
         }
+        if (sent == null) {
+            SystemContext.getLogger().debug("CommunicationManager.retransmit: Message " + pdu.getMessageID() + " to " + IEEEAddress.toDottedHex(source) + " no longer kept.");
+            return 0;
+        }
 
-        return false;
+        RadiogramConnectionPool pool = RadiogramConnectionPool.getPool();
+        PooledConnection connection = null;
+        byte[] header = new byte[FragmentPDU.HEADER_LENGTH];
+        int resent = 0;
+
+        try {
+            connection = pool.acquire(sent.destination.key);
+            for (int index = 0; index < sent.count; index++) {
+                if (pdu.isRequested(index)) {
+                    sendFragment(connection, sent, index, header);
+                    resent++;
+                }
+            }
+            pool.release(connection);
+        } catch (NoRouteException ex) {
+            SystemContext.getLogger().warning("--- No route found to: " + IEEEAddress.toDottedHex(source));
+            pool.release(connection);
+        } catch (IOException ex) {
+            if (SystemContext.isUSBConnected() & SystemContext.isDebugActive()) {
+                ex.printStackTrace();
+            }
+            pool.discard(connection);
+        }
+
+        synchronized (sentMessages) {
+            fragmentsResent += resent;
+        }
+        return resent;
+    }
+
+    /**
+     * Resolves a destination once, so that messages can be sent to it again
+     * and again without parsing it. The last destinations resolved are kept,
+     * and resolving them again returns the same destination.
+     * 
+     * @param destination The destination address and port, as
+     * {@code "address:port"}.
+     * @param mode The mode to be used for the communication.
+     * @return The resolved destination.
+     */
+    public Destination resolve(String destination, int mode) {
+        Hashtable resolved = resolvedDestinations[mode == MODE_UNICAST ? 0 : 1];
+        Destination cached;
+
+        synchronized (resolved) {
+            cached = (Destination) resolved.get(destination);
+        }
+        if (cached != null) {
+            return cached;
+        }
+
+        RadiogramAddress radiogramAddress = resolveDestination(destination);
+        String key;
+
+        if (mode == MODE_UNICAST) {
+            key = RadiogramConnectionPool.keyOf(radiogramAddress.getAddressAsString(), radiogramAddress.getPort());
+        } else {
+            // Anycast and multicast are not implemented and go as broadcast
+            key = RadiogramConnectionPool.keyOf(RadiogramConnectionPool.BROADCAST, radiogramAddress.getPort());
+        }
+        cached = new Destination(destination, radiogramAddress.getAddressAsLong(), radiogramAddress.getPort(), mode != MODE_UNICAST, key);
+
+        synchronized (resolved) {
+            if (resolved.size() >= RESOLVED_DESTINATIONS) {
+                resolved.clear();
+            }
+            resolved.put(destination, cached);
+        }
+        return cached;
+    }
+
+    private void startSender() {
+        synchronized (sendLock) {
+            if (senderThread == null) {
+                senderThread = new Thread(new Sender());
+                senderThread.start();
+            }
+        }
+    }
+
+    private OutgoingMessage awaitNextMessage() throws InterruptedException {
+        synchronized (sendLock) {
+            while (sendQueues[PRIORITY_HIGH].size() == 0 && sendQueues[PRIORITY_NORMAL].size() == 0) {
+                Clock.getClock().await(sendLock, 0);
+            }
+        }
+
+        // The sender is the only consumer, so a queue not empty stays so
+        BoundedQueue queue = (sendQueues[PRIORITY_HIGH].size() > 0) ? sendQueues[PRIORITY_HIGH] : sendQueues[PRIORITY_NORMAL];
+        return (OutgoingMessage) queue.take(0);
+    }
+
+    private void complete(OutgoingMessage outgoing, boolean sent) {
+        long latency = Clock.getClock().currentTimeMillis() - outgoing.queuedTime;
+
+        synchronized (sendLock) {
+            if (sent) {
+                queuedSent++;
+            } else {
+                queuedFailed++;
+            }
+            totalLatency += latency;
+            if (latency > maximumLatency) {
+                maximumLatency = latency;
+            }
+        }
+
+        if (outgoing.listener != null) {
+            try {
+                outgoing.listener.sendCompleted(outgoing.payload, outgoing.destination.toString(), sent);
+            } catch (RuntimeException ex) {
+                SystemContext.getLogger().warning("CommunicationManager.complete: Send listener failed for message to " + outgoing.destination);
+            }
+        }
+        recycle(outgoing);
+    }
+
+    /**
+     * Get the number of messages waiting in a send queue.
+     * 
+     * @param priority The priority of the queue, {@link #PRIORITY_NORMAL} or
+     * {@link #PRIORITY_HIGH}.
+     * @return The number of messages queued.
+     */
+    public int getQueueDepth(int priority) {
+        return sendQueues[priority == PRIORITY_HIGH ? PRIORITY_HIGH : PRIORITY_NORMAL].size();
+    }
+
+    /**
+     * Get the number of messages dropped because their queue was full.
+     * 
+     * @return The number of messages dropped.
+     */
+    public long getDropped() {
+        return sendQueues[PRIORITY_HIGH].getDropped() + sendQueues[PRIORITY_NORMAL].getDropped() - getDegraded();
+    }
+
+    /**
+     * Get the number of messages of high importance sent at once because
+     * their queue was full.
+     * 
+     * @return The number of messages sent at once.
+     */
+    public long getDegraded() {
+        synchronized (sendLock) {
+            return degraded;
+        }
+    }
+
+    /**
+     * Get the number of messages given to {@code sendAsync} that have been
+     * sent.
+     * 
+     * @return The number of messages sent.
+     */
+    public long getQueuedSent() {
+        synchronized (sendLock) {
+            return queuedSent;
+        }
+    }
+
+    /**
+     * Get the number of messages given to {@code sendAsync} that have failed.
+     * 
+     * @return The number of messages failed.
+     */
+    public long getQueuedFailed() {
+        synchronized (sendLock) {
+            return queuedFailed;
+        }
+    }
+
+    /**
+     * Get the average time from queuing a message to its completion.
+     * 
+     * @return The average latency in milliseconds, or 0 if no message has
+     * been completed.
+     */
+    public long getAverageLatency() {
+        synchronized (sendLock) {
+            long completed = queuedSent + queuedFailed;
+            return (completed == 0) ? 0 : totalLatency / completed;
+        }
+    }
+
+    /**
+     * Get the maximum time from queuing a message to its completion.
+     * 
+     * @return The maximum latency in milliseconds.
+     */
+    public long getMaximumLatency() {
+        synchronized (sendLock) {
+            return maximumLatency;
+        }
     }
 
     /**
@@ -136,6 +635,178 @@ public class CommunicationManager {
         return radiogramAddress;
     }
 
+    /**
+     * Sends a message to a destination in reliable mode, and returns at once.
+     * The message is sent again until the destination acknowledges it, or
+     * given up after the maximum number of retries.
+     * 
+     * @param destination The resolved destination.
+     * @param message The buffer holding the message, which can be reused as
+     * soon as this method returns.
+     * @param offset The offset of the message in the buffer.
+     * @param length The length of the message.
+     * @param listener The listener notified when the message is acknowledged
+     * or given up, or null.
+     * @return True if the message has been accepted, false if too many
+     * messages are waiting for the destination.
+     * @throws IllegalArgumentException If the destination is broadcast.
+     */
+    public boolean sendReliable(Destination destination, byte[] message, int offset, int length, SendListener listener) {
+        return reliableDelivery.send(destination, message, offset, length, listener);
+    }
+
+    /**
+     * Get the reliable delivery of this communication manager, which handles
+     * the acknowledgements and keeps the metrics of the reliable mode.
+     * 
+     * @return The reliable delivery.
+     */
+    public ReliableDelivery getReliableDelivery() {
+        return reliableDelivery;
+    }
+
+    /**
+     * Get the number of messages sent in fragments.
+     * 
+     * @return The number of fragmented messages.
+     */
+    public long getFragmentedMessages() {
+        synchronized (sentMessages) {
+            return fragmentedMessages;
+        }
+    }
+
+    /**
+     * Get the number of fragments sent, including the retransmitted ones.
+     * 
+     * @return The number of fragments sent.
+     */
+    public long getFragmentsSent() {
+        synchronized (sentMessages) {
+            return fragmentsSent;
+        }
+    }
+
+    /**
+     * Get the number of fragments sent again on request of the receiver.
+     * 
+     * @return The number of fragments retransmitted.
+     */
+    public long getFragmentsResent() {
+        synchronized (sentMessages) {
+            return fragmentsResent;
+        }
+    }
+
+    /**
+     * A destination resolved with {@link CommunicationManager#resolve(String, int)}.
+     */
+    public static class Destination {
+
+        private final String destination;
+        private final long address;
+        private final int port;
+        private final boolean broadcast;
+        private final String key;
+
+        private Destination(String destination, long address, int port, boolean broadcast, String key) {
+            this.destination = destination;
+            this.address = address;
+            this.port = port;
+            this.broadcast = broadcast;
+            this.key = key;
+        }
+
+        /**
+         * Get the port of the destination.
+         * 
+         * @return The port.
+         */
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * Checks if the messages to the destination are broadcast.
+         * 
+         * @return True if they are broadcast, false if they are unicast.
+         */
+        public boolean isBroadcast() {
+            return broadcast;
+        }
+
+        /**
+         * Get the MAC address of the destination.
+         * 
+         * @return The MAC address.
+         */
+        public long getAddress() {
+            return address;
+        }
+
+        /**
+         * Returns the destination as it was given to be resolved.
+         * 
+         * @return The destination address and port.
+         */
+        public String toString() {
+            return destination;
+        }
+    }
+
+    /**
+     * A fragmented message kept for retransmission.
+     */
+    private static class SentMessage {
+
+        private final Destination destination;
+        private final int messageID;
+        private final int count;
+        private final byte[] payload;
+
+        private SentMessage(Destination destination, int messageID, int count, byte[] payload) {
+            this.destination = destination;
+            this.messageID = messageID;
+            this.count = count;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Thread sending the queued messages, high priority first.
+     */
+    private class Sender implements Runnable {
+
+        public void run() {
+            Clock clock = Clock.getClock();
+            clock.register();
+            try {
+                OutgoingMessage outgoing;
+                while ((outgoing = awaitNextMessage()) != null) {
+                    complete(outgoing, transmit(outgoing.destination, outgoing.payload, 0, outgoing.length));
+                }
+            } catch (InterruptedException ex) {
+                if (SystemContext.isDebugActive() & SystemContext.isUSBConnected()) {
+                    ex.printStackTrace();
+                }
+            } finally {
+                clock.unregister();
+            }
+        }
+    }
+
+    /**
+     * A message waiting in a send queue, recycled once completed.
+     */
+    private static class OutgoingMessage {
+
+        private byte[] payload;
+        private int length;
+        private Destination destination;
+        private SendListener listener;
+        private long queuedTime;
+    }
+
     /**
      * Inner class implementing a RadiogramAddress.
      */
@@ -0,0 +1,232 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.communications;
+
+import com.sun.spot.core.peripheral.TimeoutException;
+import com.sun.spot.core.util.Properties;
+import com.sun.spot.ieee_802_15_4_radio.util.IEEEAddress;
+import com.sun.spot.multihop.io.j2me.radiogram.Radiogram;
+import com.sun.spot.multihop.io.j2me.radiogram.RadiogramConnection;
+import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.common.SystemProperties;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
+import eu.artemis.demanes.impl.SunSPOT.utils.radiogram.RadiogramConnectionPool;
+import eu.artemis.demanes.impl.SunSPOT.utils.radiogram.RadiogramConnectionPool.PooledConnection;
+import eu.artemis.demanes.impl.SunSPOT.utils.trickle.TrickleDissemination;
+import eu.artemis.demanes.impl.SunSPOT.utils.trickle.TrickleTimer;
+import java.io.IOException;
+import javax.microedition.io.Connector;
+
+/**
+ * Spreads configurations over the whole network by Trickle gossip, so that
+ * a configuration injected once at any node reaches every node hop by hop.
+ * <p>
+ * Configurations are {@link ManagementPDU} messages that fit in one
+ * radiogram, received on the dissemination port whether broadcast by a
+ * neighbor or sent by the base station to a single node. A configuration
+ * newer than the one held is applied through
+ * {@link RemoteManagement#configure(byte[], int, int)}, the same path as a
+ * configuration sent to the node, and then broadcast to the neighbors as
+ * decided by a {@link TrickleDissemination}: quickly while some neighbor
+ * holds a different version, and rarely once they all hold the same one.
+ * Configurations rejected by remote management are not spread.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class ConfigurationDissemination implements Runnable {
+
+    /** Default minimum interval between broadcasts. */
+    public static final long DEFAULT_MINIMUM_INTERVAL = 1000;
+    /** Default number of doublings of the minimum interval, up to 64 s. */
+    public static final int DEFAULT_DOUBLINGS = 6;
+    /** Default redundancy constant. */
+    public static final int DEFAULT_REDUNDANCY = 2;
+
+    private final Logger logger;
+    private final Properties reconfigurationProperties;
+    private final RemoteManagement remoteManagement;
+    private final TrickleDissemination dissemination;
+    private final ManagementPDU managementPDU;
+    private byte[] configuration;
+    private int port;
+
+    private long received;
+    private long rejected;
+
+    /**
+     * Creates the dissemination with the default Trickle parameters.
+     *
+     * @param remoteManagement The remote management applying the
+     * configurations.
+     * @param properties The reconfiguration properties.
+     */
+    public ConfigurationDissemination(RemoteManagement remoteManagement, Properties properties) {
+        this.logger = SystemContext.getLogger();
+        this.reconfigurationProperties = properties;
+        this.remoteManagement = remoteManagement;
+        this.dissemination = new TrickleDissemination(new TrickleTimer(DEFAULT_MINIMUM_INTERVAL, DEFAULT_DOUBLINGS, DEFAULT_REDUNDANCY));
+        this.managementPDU = new ManagementPDU();
+    }
+
+    /**
+     * Run method for being run as a thread.
+     */
+    public void run() {
+        port = Integer.parseInt(reconfigurationProperties.getProperty(SystemProperties.DISSEMINATION_PORT, Integer.toString(SystemProperties.DEFAULT_DISSEMINATION_PORT)));
+
+        RadiogramConnection connection = null;
+        Radiogram radiogram;
+
+        while (true) {
+            try {
+                if (connection == null) {
+                    connection = (RadiogramConnection) Connector.open("radiogram://:" + port);
+                }
+
+                // Nothing to broadcast until a configuration is held, and
+                // then not until the next event of the Trickle timer
+                if (dissemination.isHolding()) {
+                    connection.setTimeout(Math.max(dissemination.getTimer().getNextEventTime() - Clock.getClock().currentTimeMillis(), 1));
+                } else {
+                    connection.setTimeout(-1);
+                }
+
+                radiogram = (Radiogram) connection.newDatagram(connection.getMaximumLength());
+                radiogram.reset();
+
+                try {
+                    connection.receive(radiogram);
+
+                    byte[] message = new byte[radiogram.getLength()];
+                    radiogram.readFully(message);
+                    receive(radiogram.getAddressAsLong(), message);
+                } catch (TimeoutException ex) {
+                    // Nothing received, just check the timer
+                }
+
+                if (dissemination.poll(Clock.getClock().currentTimeMillis())) {
+                    broadcast();
+                }
+            } catch (IOException ex) {
+                logger.warning("ERROR: Configuration dissemination communication error.");
+            }
+        }
+    }
+
+    private void receive(long source, byte[] message) {
+        if (!managementPDU.wrap(message, 0, message.length) || managementPDU.getType() != ManagementPDU.TYPE_CONFIGURE) {
+            return;
+        }
+
+        int version = managementPDU.getConfigVersion();
+        synchronized (this) {
+            received++;
+        }
+
+        if (dissemination.heard(version, Clock.getClock().currentTimeMillis()) == TrickleDissemination.NEWER) {
+            logger.debug("ConfigurationDissemination.receive: Configuration " + version + " heard from " + IEEEAddress.toDottedHex(source));
+            inject(message);
+        }
+    }
+
+    /**
+     * Applies a configuration and, if it is accepted, spreads it instead of
+     * the one held. The dissemination thread only checks the timer when it
+     * receives a radiogram or its timeout expires, so a configuration
+     * injected from another thread while none is held is not broadcast until
+     * the next radiogram is received.
+     *
+     * @param message The configuration, as a {@link ManagementPDU} that fits
+     * in one radiogram.
+     * @return The status of the configuration, as in {@link ManagementPDU},
+     * or -1 if it is not a configuration.
+     */
+    public byte inject(byte[] message) {
+        byte status = remoteManagement.configure(message, 0, message.length);
+
+        // Also spread a version already in force, received directly by the node
+        if (status == ManagementPDU.STATUS_APPLIED || status == ManagementPDU.STATUS_CURRENT) {
+            synchronized (this) {
+                configuration = message;
+            }
+            int version = ManagementPDU.configVersionOf(message, 0);
+            dissemination.update(version, Clock.getClock().currentTimeMillis());
+            logger.info("ConfigurationDissemination.inject: Spreading configuration " + version);
+        } else {
+            synchronized (this) {
+                rejected++;
+            }
+        }
+        return status;
+    }
+
+    private void broadcast() {
+        RadiogramConnectionPool pool = RadiogramConnectionPool.getPool();
+        PooledConnection connection = null;
+        byte[] message;
+
+        synchronized (this) {
+            message = configuration;
+        }
+
+        try {
+            connection = pool.acquire(RadiogramConnectionPool.BROADCAST, port);
+            connection.getDatagram().write(message, 0, message.length);
+            connection.send();
+            pool.release(connection);
+        } catch (IOException ex) {
+            logger.debug("ConfigurationDissemination.broadcast: Unexpected error trying to broadcast the configuration.");
+            pool.discard(connection);
+        }
+    }
+
+    /**
+     * Get the dissemination state, which holds the version spread and the
+     * Trickle timer with the count of broadcasts performed and suppressed.
+     *
+     * @return The Trickle dissemination.
+     */
+    public TrickleDissemination getDissemination() {
+        return dissemination;
+    }
+
+    /**
+     * Get the number of configurations received.
+     *
+     * @return The number of configurations received.
+     */
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    /**
+     * Get the number of configurations not spread because remote management
+     * did not accept them.
+     *
+     * @return The number of configurations rejected.
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,428 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.communications;
+
+/**
+ * Management PDU carries a configuration for the remote management of a
+ * node, or the acknowledgement of a configuration. The layout is:
+ * <pre>
+ * magic (2) | protocol (1) | type (1) | flags (1) | config version (2) | count (1) | entries
+ * </pre>
+ * where each of the {@code count} entries is
+ * <pre>
+ * parameter ID (1) | value type (1) | value
+ * </pre>
+ * with a value of 4 bytes for {@link #VALUE_INT}, 1 byte for
+ * {@link #VALUE_BOOLEAN} and a length byte followed by the characters for
+ * {@link #VALUE_STRING}. The parameter IDs are those of
+ * {@link ManagementParameters}. The flags of a configuration select the
+ * parts of the controller to be reset once it is applied. An
+ * acknowledgement has no entries, its flags hold the status, and its config
+ * version is the one in force at the node.
+ * <p>
+ * PDUs are encoded straight into a buffer provided by the caller and
+ * decoded with {@link #wrap(byte[], int, int)}, whose entries are read in
+ * order with {@link #nextEntry()}, reusing the same instance.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class ManagementPDU {
+
+    private static final byte MAGIC_0 = (byte) 0xFA;
+    private static final byte MAGIC_1 = (byte) 0xD7;
+
+    /** Version of the protocol. */
+    public static final byte PROTOCOL_VERSION = 0x01;
+
+    /** Configuration. */
+    public static final byte TYPE_CONFIGURE = 0x01;
+    /** Acknowledgement of a configuration. */
+    public static final byte TYPE_ACK = 0x02;
+
+    /** Flag for setting the transmission power again and resetting the actuator. */
+    public static final byte FLAG_RESET_POWER = 0x01;
+    /** Flag for resetting the trigger and loading its rules again. */
+    public static final byte FLAG_RESET_TRIGGER = 0x02;
+
+    /** Status of a configuration applied. */
+    public static final byte STATUS_APPLIED = 0x00;
+    /** Status of a configuration whose version was already in force. */
+    public static final byte STATUS_CURRENT = 0x01;
+    /** Status of a configuration older than the one in force. */
+    public static final byte STATUS_STALE = 0x02;
+    /** Status of a configuration rejected for a malformed or invalid entry. */
+    public static final byte STATUS_REJECTED = 0x03;
+    /** Status of a configuration of an unknown protocol version. */
+    public static final byte STATUS_UNSUPPORTED = 0x04;
+
+    /** Integer value, 4 bytes. */
+    public static final byte VALUE_INT = 0x01;
+    /** Boolean value, 1 byte. */
+    public static final byte VALUE_BOOLEAN = 0x02;
+    /** String value, a length byte and up to 255 characters. */
+    public static final byte VALUE_STRING = 0x03;
+
+    /** Length in bytes of the header of a PDU, and of an acknowledgement. */
+    public static final int HEADER_LENGTH = 8;
+    /** Maximum number of entries of a configuration. */
+    public static final int MAX_ENTRIES = 0xFF;
+
+    private byte protocol;
+    private byte type;
+    private byte flags;
+    private int configVersion;
+    private int count;
+    private byte[] buffer;
+    private int end;
+    private int position;
+    private int entry;
+    private boolean malformed;
+
+    private int parameterID;
+    private byte valueType;
+    private int valueOffset;
+    private int valueLength;
+
+    /**
+     * Creates an empty PDU, to be filled with {@link #wrap(byte[], int, int)}.
+     */
+    public ManagementPDU() {
+    }
+
+    /**
+     * Checks if a buffer starts like a management PDU.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the PDU in the buffer.
+     * @param length The length of the PDU.
+     * @return True if it is long enough and starts with the magic bytes.
+     */
+    public static boolean isManagementPDU(byte[] buffer, int offset, int length) {
+        return length >= HEADER_LENGTH && buffer[offset] == MAGIC_0 && buffer[offset + 1] == MAGIC_1;
+    }
+
+    /**
+     * Reads the config version of a PDU in place.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the PDU in the buffer.
+     * @return The config version.
+     */
+    public static int configVersionOf(byte[] buffer, int offset) {
+        return ((buffer[offset + 5] & 0xFF) << 8) | (buffer[offset + 6] & 0xFF);
+    }
+
+    /**
+     * Encodes the header of a configuration, to be followed by its entries.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the PDU in the buffer.
+     * @param flags The reset flags.
+     * @param configVersion The version of the configuration.
+     * @param count The number of entries.
+     * @return The number of bytes written, {@link #HEADER_LENGTH}.
+     */
+    public static int encodeConfigure(byte[] buffer, int offset, byte flags, int configVersion, int count) {
+        if (count < 0 || count > MAX_ENTRIES) {
+            throw new IllegalArgumentException("ManagementPDU: Invalid number of entries " + count + ".");
+        }
+        return encodeHeader(buffer, offset, TYPE_CONFIGURE, flags, configVersion, count);
+    }
+
+    /**
+     * Encodes an acknowledgement.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the PDU in the buffer.
+     * @param status The status of the configuration acknowledged.
+     * @param configVersion The version of the configuration in force.
+     * @return The number of bytes written, {@link #HEADER_LENGTH}.
+     */
+    public static int encodeAck(byte[] buffer, int offset, byte status, int configVersion) {
+        return encodeHeader(buffer, offset, TYPE_ACK, status, configVersion, 0);
+    }
+
+    private static int encodeHeader(byte[] buffer, int offset, byte type, byte flags, int configVersion, int count) {
+        buffer[offset] = MAGIC_0;
+        buffer[offset + 1] = MAGIC_1;
+        buffer[offset + 2] = PROTOCOL_VERSION;
+        buffer[offset + 3] = type;
+        buffer[offset + 4] = flags;
+        buffer[offset + 5] = (byte) (configVersion >>> 8);
+        buffer[offset + 6] = (byte) configVersion;
+        buffer[offset + 7] = (byte) count;
+        return HEADER_LENGTH;
+    }
+
+    /**
+     * Encodes an entry with an integer value.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the entry in the buffer.
+     * @param parameterID The ID of the parameter.
+     * @param value The value.
+     * @return The number of bytes written.
+     */
+    public static int encodeInt(byte[] buffer, int offset, int parameterID, int value) {
+        buffer[offset] = (byte) parameterID;
+        buffer[offset + 1] = VALUE_INT;
+        buffer[offset + 2] = (byte) (value >>> 24);
+        buffer[offset + 3] = (byte) (value >>> 16);
+        buffer[offset + 4] = (byte) (value >>> 8);
+        buffer[offset + 5] = (byte) value;
+        return 6;
+    }
+
+    /**
+     * Encodes an entry with a boolean value.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the entry in the buffer.
+     * @param parameterID The ID of the parameter.
+     * @param value The value.
+     * @return The number of bytes written.
+     */
+    public static int encodeBoolean(byte[] buffer, int offset, int parameterID, boolean value) {
+        buffer[offset] = (byte) parameterID;
+        buffer[offset + 1] = VALUE_BOOLEAN;
+        buffer[offset + 2] = (byte) (value ? 1 : 0);
+        return 3;
+    }
+
+    /**
+     * Encodes an entry with a string value, one byte per character.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the entry in the buffer.
+     * @param parameterID The ID of the parameter.
+     * @param value The value, up to 255 characters.
+     * @return The number of bytes written.
+     */
+    public static int encodeString(byte[] buffer, int offset, int parameterID, String value) {
+        int length = value.length();
+        if (length > 0xFF) {
+            throw new IllegalArgumentException("ManagementPDU: String value of " + length + " characters too long.");
+        }
+
+        buffer[offset] = (byte) parameterID;
+        buffer[offset + 1] = VALUE_STRING;
+        buffer[offset + 2] = (byte) length;
+        for (int index = 0; index < length; index++) {
+            buffer[offset + 3 + index] = (byte) value.charAt(index);
+        }
+        return 3 + length;
+    }
+
+    /**
+     * Decodes the header of a PDU from a buffer, without copying it. The
+     * buffer must not be modified while the PDU is in use.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the PDU in the buffer.
+     * @param length The length of the PDU.
+     * @return True if the buffer holds a management PDU, false otherwise.
+     */
+    public boolean wrap(byte[] buffer, int offset, int length) {
+        if (!isManagementPDU(buffer, offset, length)) {
+            return false;
+        }
+
+        this.protocol = buffer[offset + 2];
+        this.type = buffer[offset + 3];
+        this.flags = buffer[offset + 4];
+        this.configVersion = configVersionOf(buffer, offset);
+        this.count = buffer[offset + 7] & 0xFF;
+        this.buffer = buffer;
+        this.end = offset + length;
+        this.position = offset + HEADER_LENGTH;
+        this.entry = 0;
+        this.malformed = false;
+        return true;
+    }
+
+    /**
+     * Moves to the next entry of a configuration.
+     *
+     * @return True if there is a next entry, false at the end or when the
+     * entry is malformed, as told by {@link #isMalformed()}.
+     */
+    public boolean nextEntry() {
+        if (malformed || entry >= count) {
+            return false;
+        }
+
+        if (position + 2 > end) {
+            malformed = true;
+            return false;
+        }
+        parameterID = buffer[position] & 0xFF;
+        valueType = buffer[position + 1];
+        valueOffset = position + 2;
+
+        switch (valueType) {
+            case VALUE_INT:
+                valueLength = 4;
+                break;
+            case VALUE_BOOLEAN:
+                valueLength = 1;
+                break;
+            case VALUE_STRING:
+                if (valueOffset >= end) {
+                    malformed = true;
+                    return false;
+                }
+                valueLength = buffer[valueOffset] & 0xFF;
+                valueOffset++;
+                break;
+            default:
+                malformed = true;
+                return false;
+        }
+
+        if (valueOffset + valueLength > end) {
+            malformed = true;
+            return false;
+        }
+        position = valueOffset + valueLength;
+        entry++;
+        return true;
+    }
+
+    /**
+     * Checks if the entries read are malformed, or there are bytes left
+     * after the last one.
+     *
+     * @return True if the configuration is malformed.
+     */
+    public boolean isMalformed() {
+        return malformed || (entry == count && position != end);
+    }
+
+    /**
+     * Get the version of the protocol of the PDU.
+     *
+     * @return The protocol version.
+     */
+    public byte getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Get the type of the PDU.
+     *
+     * @return {@link #TYPE_CONFIGURE} or {@link #TYPE_ACK}.
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * Get the reset flags of a configuration, or the status of an
+     * acknowledgement.
+     *
+     * @return The flags.
+     */
+    public byte getFlags() {
+        return flags;
+    }
+
+    /**
+     * Get the config version.
+     *
+     * @return The config version, from 0 to 0xFFFF.
+     */
+    public int getConfigVersion() {
+        return configVersion;
+    }
+
+    /**
+     * Get the number of entries of a configuration.
+     *
+     * @return The number of entries.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the parameter ID of the current entry.
+     *
+     * @return The parameter ID.
+     */
+    public int getParameterID() {
+        return parameterID;
+    }
+
+    /**
+     * Get the value type of the current entry.
+     *
+     * @return {@link #VALUE_INT}, {@link #VALUE_BOOLEAN} or
+     * {@link #VALUE_STRING}.
+     */
+    public byte getValueType() {
+        return valueType;
+    }
+
+    /**
+     * Get the value of the current entry as an integer.
+     *
+     * @return The value of an entry of type {@link #VALUE_INT}.
+     */
+    public int getIntValue() {
+        return ((buffer[valueOffset] & 0xFF) << 24) | ((buffer[valueOffset + 1] & 0xFF) << 16) | ((buffer[valueOffset + 2] & 0xFF) << 8) | (buffer[valueOffset + 3] & 0xFF);
+    }
+
+    /**
+     * Get the value of the current entry as a boolean.
+     *
+     * @return The value of an entry of type {@link #VALUE_BOOLEAN}.
+     */
+    public boolean getBooleanValue() {
+        return buffer[valueOffset] != 0;
+    }
+
+    /**
+     * Get the value of the current entry as a string.
+     *
+     * @return The value of an entry of type {@link #VALUE_STRING}.
+     */
+    public String getStringValue() {
+        char[] characters = new char[valueLength];
+        for (int index = 0; index < valueLength; index++) {
+            characters[index] = (char) (buffer[valueOffset + index] & 0xFF);
+        }
+        return new String(characters);
+    }
+
+    /**
+     * Compares two config versions, which wrap around after 0xFFFF.
+     *
+     * @param version The config version.
+     * @param reference The config version compared with.
+     * @return A positive number if {@code version} is newer than
+     * {@code reference}, 0 if they are the same, and negative if it is older.
+     */
+    public static int compareVersions(int version, int reference) {
+        return (short) (version - reference);
+    }
+}
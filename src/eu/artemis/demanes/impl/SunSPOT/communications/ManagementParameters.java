@@ -0,0 +1,237 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.communications;
+
+import eu.artemis.demanes.impl.SunSPOT.common.NeighborDiscoveryProperties;
+import eu.artemis.demanes.impl.SunSPOT.common.PTActionProperties;
+import eu.artemis.demanes.impl.SunSPOT.common.RadioProperties;
+import eu.artemis.demanes.impl.SunSPOT.common.ReasonerProperties;
+import eu.artemis.demanes.impl.SunSPOT.common.SystemProperties;
+import eu.artemis.demanes.impl.SunSPOT.common.TriggerPolicyProperties;
+
+/**
+ * Parameters that can be set with a {@link ManagementPDU}, each with a
+ * numeric ID, the property it sets, the type of its value and, for integer
+ * values, the range accepted. Values that are not integers, such as the
+ * gains of the reasoner, are sent as strings. The IDs are part of the
+ * protocol: new parameters are added at the end and IDs are never reused.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class ManagementParameters {
+
+    /** Transmission power, "ptx". */
+    public static final int PTX = 1;
+    /** Reasoning status, "reasoning.status". */
+    public static final int REASONING_STATUS = 2;
+    /** Monitoring interval in milliseconds, "trigger.interval". */
+    public static final int TRIGGER_INTERVAL = 3;
+    /** Base station address, "basestation.address". */
+    public static final int BASESTATION_ADDRESS = 4;
+    /** Base station port, "basestation.port". */
+    public static final int BASESTATION_PORT = 5;
+    /** Log level, "log.level". */
+    public static final int LOG_LEVEL = 6;
+    /** Node degree threshold of the trigger, "KSI_ND". */
+    public static final int KSI_ND = 7;
+    /** Minimum node degree of the trigger, "ND_MIN". */
+    public static final int ND_MIN = 8;
+    /** Maximum communication range of the trigger, "CR_MAX". */
+    public static final int CR_MAX = 9;
+    /** Minimum communication range of the trigger, "CR_MIN". */
+    public static final int CR_MIN = 10;
+    /** Minimum node degree variation of the trigger, "DELTA_ND_MIN". */
+    public static final int DELTA_ND_MIN = 11;
+    /** Minimum communication range variation of the trigger, "DELTA_CR_MIN". */
+    public static final int DELTA_CR_MIN = 12;
+    /** Rules of the trigger, "trigger.rules". */
+    public static final int TRIGGER_RULES = 13;
+    /** Initial communication range of the actuator, "CR0". */
+    public static final int CR0 = 14;
+    /** Energy gain of the reasoner, "kE". */
+    public static final int K_E = 15;
+    /** Node degree variation gain of the reasoner, "kdeltaND". */
+    public static final int K_DELTA_ND = 16;
+    /** Reference node degree of the reasoner, "NDRef". */
+    public static final int ND_REF = 17;
+    /** Communication range gain of the reasoner, "k_CR". */
+    public static final int K_CR = 18;
+    /** Energy factor of the communication range, "E_cr_factor". */
+    public static final int E_CR_FACTOR = 19;
+    /** Neighbor discovery period, "neighbordiscovery.period". */
+    public static final int DISCOVERY_PERIOD = 20;
+    /** Neighbor expiry time, "neighbordiscovery.expiry". */
+    public static final int NEIGHBOR_EXPIRY = 21;
+    /** Neighbor discovery broadcast period, "neighbordiscovery.broadcast.period". */
+    public static final int BROADCAST_PERIOD = 22;
+    /** Node degree measure, "neighbordiscovery.degree". */
+    public static final int DEGREE = 23;
+    /** Two hop neighborhood, "neighbordiscovery.twohop". */
+    public static final int TWO_HOP = 24;
+    /** Trickle neighbor discovery, "neighbordiscovery.trickle". */
+    public static final int TRICKLE = 25;
+
+    private static final String[] PROPERTIES = {
+        null,
+        "ptx",
+        "reasoning.status",
+        TriggerPolicyProperties.TRIGGER_INTERVAL_PROPERTY,
+        SystemProperties.BASESTATION_ADDR_PROPERTY,
+        SystemProperties.BASESTATION_PORT,
+        SystemProperties.LOG_LEVEL,
+        TriggerPolicyProperties.KSI_ND_PROPERTY,
+        TriggerPolicyProperties.ND_MIN_PROPERTY,
+        TriggerPolicyProperties.CR_MAX_PROPERTY,
+        TriggerPolicyProperties.CR_MIN_PROPERTY,
+        TriggerPolicyProperties.DELTA_ND_MIN_PROPERTY,
+        TriggerPolicyProperties.DELTA_CR_MIN_PROPERTY,
+        TriggerPolicyProperties.TRIGGER_RULES_PROPERTY,
+        PTActionProperties.CR0_PROPERTY,
+        ReasonerProperties.KE_PROPERTY,
+        ReasonerProperties.KdeltaND_PROPERTY,
+        ReasonerProperties.NDRefPROPERTY,
+        ReasonerProperties.KCR_PROPERTY,
+        ReasonerProperties.E_CR_FACTOR_PROPERTY,
+        NeighborDiscoveryProperties.PERIOD_PROPERTY,
+        NeighborDiscoveryProperties.NEIGHBOR_EXPIRY_PROPERTY,
+        NeighborDiscoveryProperties.BROADCAST_PERIOD_PROPERTY,
+        NeighborDiscoveryProperties.DEGREE_PROPERTY,
+        NeighborDiscoveryProperties.TWO_HOP_PROPERTY,
+        NeighborDiscoveryProperties.TRICKLE_PROPERTY
+    };
+
+    private static final byte[] TYPES = {
+        0,
+        ManagementPDU.VALUE_INT,
+        ManagementPDU.VALUE_STRING,
+        ManagementPDU.VALUE_INT,
+        ManagementPDU.VALUE_STRING,
+        ManagementPDU.VALUE_INT,
+        ManagementPDU.VALUE_STRING,
+        ManagementPDU.VALUE_INT,
+        ManagementPDU.VALUE_INT,
+        ManagementPDU.VALUE_INT,
+        ManagementPDU.VALUE_INT,
+        ManagementPDU.VALUE_INT,
+        ManagementPDU.VALUE_INT,
+        ManagementPDU.VALUE_STRING,
+        ManagementPDU.VALUE_STRING,
+        ManagementPDU.VALUE_STRING,
+        ManagementPDU.VALUE_INT,
+        ManagementPDU.VALUE_INT,
+        ManagementPDU.VALUE_STRING,
+        ManagementPDU.VALUE_STRING,
+        ManagementPDU.VALUE_INT,
+        ManagementPDU.VALUE_INT,
+        ManagementPDU.VALUE_INT,
+        ManagementPDU.VALUE_STRING,
+        ManagementPDU.VALUE_BOOLEAN,
+        ManagementPDU.VALUE_BOOLEAN
+    };
+
+    private static final int[] MINIMUM = {
+        0, RadioProperties.MINIMUM_POWER_TRANSMISSION, 0, 1000, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 0, 0, 0
+    };
+
+    private static final int[] MAXIMUM = {
+        0, RadioProperties.MAXIMUM_POWER_TRANSMISSION, 0, Integer.MAX_VALUE, 0, 0xFF, 0, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF,
+        0, 0, 0, 0xFF, 0xFF, 0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0, 0
+    };
+
+    private ManagementParameters() {
+    }
+
+    /**
+     * Get the property set by a parameter.
+     *
+     * @param parameterID The ID of the parameter.
+     * @return The name of the property, or null if the ID is unknown.
+     */
+    public static String getProperty(int parameterID) {
+        if (parameterID <= 0 || parameterID >= PROPERTIES.length) {
+            return null;
+        }
+        return PROPERTIES[parameterID];
+    }
+
+    /**
+     * Get the ID of the parameter that sets a property.
+     *
+     * @param property The name of the property.
+     * @return The ID of the parameter, or -1 if the property cannot be set.
+     */
+    public static int getParameterID(String property) {
+        for (int parameterID = 1; parameterID < PROPERTIES.length; parameterID++) {
+            if (PROPERTIES[parameterID].equals(property)) {
+                return parameterID;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the type of the value of a parameter.
+     *
+     * @param parameterID The ID of the parameter.
+     * @return The value type, as in {@link ManagementPDU}, or 0 if the ID is
+     * unknown.
+     */
+    public static byte getValueType(int parameterID) {
+        if (getProperty(parameterID) == null) {
+            return 0;
+        }
+        return TYPES[parameterID];
+    }
+
+    /**
+     * Converts the value of the current entry of a PDU into the value of its
+     * property, checking the parameter and the value.
+     *
+     * @param pdu The PDU, positioned on an entry with
+     * {@link ManagementPDU#nextEntry()}.
+     * @return The value of the property, or null if the parameter is unknown,
+     * the value is not of its type or it is out of range.
+     */
+    public static String toPropertyValue(ManagementPDU pdu) {
+        int parameterID = pdu.getParameterID();
+        byte type = getValueType(parameterID);
+
+        if (type == 0 || type != pdu.getValueType()) {
+            return null;
+        }
+
+        switch (type) {
+            case ManagementPDU.VALUE_INT:
+                int value = pdu.getIntValue();
+                if (value < MINIMUM[parameterID] || value > MAXIMUM[parameterID]) {
+                    return null;
+                }
+                return Integer.toString(value);
+            case ManagementPDU.VALUE_BOOLEAN:
+                return pdu.getBooleanValue() ? "true" : "false";
+            default:
+                return pdu.getStringValue();
+        }
+    }
+}
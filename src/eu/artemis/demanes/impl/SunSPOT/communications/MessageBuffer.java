@@ -0,0 +1,62 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.communications;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Stream in which a message is written to be sent by the
+ * {@link CommunicationManager}. Its content can be read in place, so that
+ * sending it does not need a copy from {@link #toByteArray()}.
+ * 
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class MessageBuffer extends ByteArrayOutputStream {
+
+    /**
+     * Public constructor.
+     */
+    public MessageBuffer() {
+        super();
+    }
+
+    /**
+     * Public constructor with an initial capacity.
+     * 
+     * @param size The initial capacity in bytes.
+     */
+    public MessageBuffer(int size) {
+        super(size);
+    }
+
+    /**
+     * Get the buffer holding the content of the stream, from offset 0 to
+     * {@link #size()}. The buffer is only valid until the stream is written
+     * again or reset.
+     * 
+     * @return The buffer.
+     */
+    public synchronized byte[] getBuffer() {
+        return buf;
+    }
+}
@@ -0,0 +1,577 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.communications;
+
+import com.sun.spot.ieee_802_15_4_radio.util.IEEEAddress;
+import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.communications.CommunicationManager.Destination;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Reliable delivery of messages on top of the {@link CommunicationManager}.
+ * <p>
+ * Every message sent in reliable mode carries a {@link ReliablePDU} header
+ * with its sequence number. The receiver delivers the messages of each
+ * sender in order, once, and acknowledges the last one delivered, which also
+ * acknowledges every previous one. Duplicates are not delivered again, but
+ * acknowledged, so that a lost acknowledgement is recovered. Acknowledgements
+ * are sent to the remote management port of the sender, and carry the port
+ * acknowledged.
+ * <p>
+ * Each port of a node is a destination of its own, with its own sequence.
+ * Only unicast destinations are supported. The sender keeps up to a window
+ * of messages per destination waiting for
+ * their acknowledgement, and queues the rest. When the retransmission timeout
+ * of a destination expires, every message waiting is sent again and the
+ * timeout is doubled; after the maximum number of retries the messages are
+ * given up, and the next one starts a new session. The timeout is estimated
+ * from the round trip times by a {@link RetransmissionTimer}.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class ReliableDelivery implements Runnable {
+
+    /** Default number of messages per destination waiting for acknowledgement. */
+    public static final int DEFAULT_WINDOW = 4;
+    /** Default number of messages per destination queued behind the window. */
+    public static final int DEFAULT_BACKLOG = 8;
+    /** Default number of retransmissions before giving a message up. */
+    public static final int DEFAULT_MAX_RETRIES = 4;
+
+    private final CommunicationManager communicationManager;
+    // Vectors of the destinations and senders of each address, one per port
+    private final Hashtable senders;
+    private final Hashtable receivers;
+    private final Random random;
+    private Thread retransmitterThread;
+
+    private long delivered;
+    private long failed;
+    private long retries;
+    private long duplicates;
+    private long lastRTT;
+
+    /**
+     * Creates the reliable delivery of a communication manager. The thread
+     * retransmitting the messages is started on the first message sent.
+     *
+     * @param communicationManager The communication manager.
+     */
+    public ReliableDelivery(CommunicationManager communicationManager) {
+        this.communicationManager = communicationManager;
+        this.senders = new Hashtable();
+        this.receivers = new Hashtable();
+        this.random = new Random();
+        this.lastRTT = -1;
+    }
+
+    /**
+     * Sends a message in reliable mode and returns at once.
+     *
+     * @param destination The resolved destination.
+     * @param message The buffer holding the message. It can be reused as soon
+     * as this method returns.
+     * @param offset The offset of the message in the buffer.
+     * @param length The length of the message.
+     * @param listener The listener notified, with a copy of the message, when
+     * the message has been acknowledged or given up, or null for not being
+     * notified.
+     * @return True if the message has been accepted, false if there are too
+     * many messages waiting for the destination.
+     * @throws IllegalArgumentException If the destination is broadcast.
+     */
+    public boolean send(Destination destination, byte[] message, int offset, int length, SendListener listener) {
+        if (destination.isBroadcast()) {
+            throw new IllegalArgumentException("ReliableDelivery.send: Broadcast destination " + destination + " not supported.");
+        }
+
+        byte[] framed = new byte[ReliablePDU.HEADER_LENGTH + length];
+        System.arraycopy(message, offset, framed, ReliablePDU.HEADER_LENGTH, length);
+        Pending pending = new Pending(framed, listener);
+
+        synchronized (this) {
+            Peer peer = findPeer(destination.getAddress(), destination.getPort());
+            if (peer == null) {
+                peer = new Peer(destination, random.nextInt() & 0xFFFF);
+                add(senders, destination.getAddress(), peer);
+            }
+
+            if (peer.outstanding.size() >= DEFAULT_WINDOW) {
+                if (peer.backlog.size() >= DEFAULT_BACKLOG) {
+                    return false;
+                }
+                peer.backlog.addElement(pending);
+                return true;
+            }
+
+            assign(peer, pending, Clock.getClock().currentTimeMillis());
+            startRetransmitter();
+            Clock.getClock().signalAll(this);
+        }
+
+        transmit(destination, pending);
+        return true;
+    }
+
+    /**
+     * Handles an acknowledgement received from a destination.
+     *
+     * @param source The address of the destination that acknowledges.
+     * @param buffer The buffer holding the acknowledgement.
+     * @param offset The offset of the acknowledgement in the buffer.
+     * @param length The length of the acknowledgement.
+     */
+    public void acknowledged(long source, byte[] buffer, int offset, int length) {
+        if (length < ReliablePDU.ACK_LENGTH || !ReliablePDU.isReliablePDU(buffer, offset, length) || ReliablePDU.getType(buffer, offset) != ReliablePDU.TYPE_ACK) {
+            return;
+        }
+
+        int acknowledged = ReliablePDU.getSequence(buffer, offset);
+        int port = ReliablePDU.getPort(buffer, offset);
+        Vector completed = new Vector();
+        Vector released = new Vector();
+        Peer peer;
+
+        synchronized (this) {
+            peer = findPeer(source, port);
+            if (peer == null) {
+                return;
+            }
+
+            long now = Clock.getClock().currentTimeMillis();
+            while (!peer.outstanding.isEmpty()) {
+                Pending pending = (Pending) peer.outstanding.firstElement();
+                if (ReliablePDU.after(pending.sequence, acknowledged) > 0) {
+                    break;
+                }
+                peer.outstanding.removeElementAt(0);
+                if (pending.transmissions == 1) {
+                    lastRTT = now - pending.sentTime;
+                    peer.timer.sample(lastRTT);
+                }
+                delivered++;
+                completed.addElement(pending);
+            }
+
+            if (completed.isEmpty()) {
+                return;
+            }
+
+            peer.retries = 0;
+            peer.deadline = now + peer.timer.getTimeout();
+            while (peer.outstanding.size() < DEFAULT_WINDOW && !peer.backlog.isEmpty()) {
+                Pending pending = (Pending) peer.backlog.firstElement();
+                peer.backlog.removeElementAt(0);
+                assign(peer, pending, now);
+                released.addElement(pending);
+            }
+            Clock.getClock().signalAll(this);
+        }
+
+        notify(completed, peer.destination, true);
+        for (int index = 0; index < released.size(); index++) {
+            transmit(peer.destination, (Pending) released.elementAt(index));
+        }
+    }
+
+    /**
+     * Handles a data message received in reliable mode. When it returns
+     * true, the message must be processed and then confirmed with
+     * {@link #acknowledge(long, int)}; otherwise it must be ignored.
+     *
+     * @param source The address of the sender.
+     * @param buffer The buffer holding the message, with its header.
+     * @param offset The offset of the message in the buffer.
+     * @param length The length of the message.
+     * @param port The port the message has been received on.
+     * @param replyPort The port where the sender receives acknowledgements.
+     * @return True if it is the next message of the sender, false if it is a
+     * duplicate, out of order, or not a data message.
+     */
+    public boolean receive(long source, byte[] buffer, int offset, int length, int port, int replyPort) {
+        if (!ReliablePDU.isReliablePDU(buffer, offset, length) || ReliablePDU.getType(buffer, offset) != ReliablePDU.TYPE_DATA) {
+            return false;
+        }
+
+        int sequence = ReliablePDU.getSequence(buffer, offset);
+        boolean first = (ReliablePDU.getFlags(buffer, offset) & ReliablePDU.FLAG_FIRST) != 0;
+        Receiver receiver;
+
+        synchronized (this) {
+            receiver = findReceiver(source, port);
+            if (receiver == null) {
+                receiver = new Receiver(port, communicationManager.resolve(IEEEAddress.toDottedHex(source) + ":" + replyPort, CommunicationManager.MODE_UNICAST));
+                add(receivers, source, receiver);
+            }
+
+            if (first && !(receiver.synchronised && receiver.sessionStart == sequence && ReliablePDU.after(receiver.expected, sequence) > 0)) {
+                // A new session of the sender
+                receiver.synchronised = true;
+                receiver.sessionStart = sequence;
+                receiver.expected = sequence;
+            }
+
+            if (!receiver.synchronised) {
+                // The start of the session has been lost, it will be sent again
+                return false;
+            }
+
+            if (sequence == receiver.expected) {
+                receiver.expected = (receiver.expected + 1) & 0xFFFF;
+                return true;
+            }
+
+            if (ReliablePDU.after(sequence, receiver.expected) < 0) {
+                duplicates++;
+            }
+        }
+
+        acknowledge(source, port);
+        return false;
+    }
+
+    /**
+     * Acknowledges every message delivered from a sender on a port.
+     *
+     * @param source The address of the sender.
+     * @param port The port the messages have been received on.
+     */
+    public void acknowledge(long source, int port) {
+        byte[] ack = new byte[ReliablePDU.ACK_LENGTH];
+        Destination replyDestination;
+
+        synchronized (this) {
+            Receiver receiver = findReceiver(source, port);
+            if (receiver == null || !receiver.synchronised) {
+                return;
+            }
+
+            ReliablePDU.encodeAck(ack, 0, (receiver.expected - 1) & 0xFFFF, port);
+            replyDestination = receiver.replyDestination;
+        }
+
+        // Sent out of the lock, as it may be sent at once when the queue is full
+        communicationManager.sendAsync(replyDestination, ack, 0, ack.length, CommunicationManager.PRIORITY_HIGH, CommunicationManager.IMPORTANCE_HIGH, null);
+    }
+
+    /**
+     * Run method for being run as a thread, retransmitting the messages not
+     * acknowledged in time.
+     */
+    public void run() {
+        Clock clock = Clock.getClock();
+        clock.register();
+        try {
+            Vector given = new Vector();
+            Vector resent = new Vector();
+
+            while (true) {
+                given.removeAllElements();
+                resent.removeAllElements();
+                awaitTimeouts(given, resent);
+
+                for (int index = 0; index < given.size(); index++) {
+                    Peer peer = (Peer) given.elementAt(index);
+                    notify(peer.given, peer.destination, false);
+                    peer.given.removeAllElements();
+                }
+                for (int index = 0; index < resent.size(); index++) {
+                    Pending pending = (Pending) resent.elementAt(index);
+                    transmit(pending.destination, pending);
+                }
+            }
+        } catch (InterruptedException ex) {
+            if (SystemContext.isDebugActive() & SystemContext.isUSBConnected()) {
+                ex.printStackTrace();
+            }
+        } finally {
+            clock.unregister();
+        }
+    }
+
+    private synchronized void awaitTimeouts(Vector given, Vector resent) throws InterruptedException {
+        Clock clock = Clock.getClock();
+
+        while (true) {
+            long now = clock.currentTimeMillis();
+            long earliest = Long.MAX_VALUE;
+
+            Enumeration addresses = senders.elements();
+            while (addresses.hasMoreElements()) {
+                Vector peers = (Vector) addresses.nextElement();
+                for (int index = 0; index < peers.size(); index++) {
+                    Peer peer = (Peer) peers.elementAt(index);
+                    if (peer.outstanding.isEmpty()) {
+                        continue;
+                    }
+
+                    if (peer.deadline > now) {
+                        earliest = Math.min(earliest, peer.deadline);
+                    } else if (peer.retries >= DEFAULT_MAX_RETRIES) {
+                        giveUp(peer);
+                        given.addElement(peer);
+                    } else {
+                        peer.retries++;
+                        peer.timer.backoff();
+                        peer.deadline = now + peer.timer.getTimeout();
+                        for (int pendingIndex = 0; pendingIndex < peer.outstanding.size(); pendingIndex++) {
+                            Pending pending = (Pending) peer.outstanding.elementAt(pendingIndex);
+                            pending.transmissions++;
+                            resent.addElement(pending);
+                            retries++;
+                        }
+                    }
+                }
+            }
+
+            if (!given.isEmpty() || !resent.isEmpty()) {
+                return;
+            }
+            clock.await(this, (earliest == Long.MAX_VALUE) ? 0 : earliest - now);
+        }
+    }
+
+    private Peer findPeer(long address, int port) {
+        Vector peers = (Vector) senders.get(new Long(address));
+        for (int index = 0; peers != null && index < peers.size(); index++) {
+            Peer peer = (Peer) peers.elementAt(index);
+            if (peer.destination.getPort() == port) {
+                return peer;
+            }
+        }
+        return null;
+    }
+
+    private Receiver findReceiver(long address, int port) {
+        Vector ports = (Vector) receivers.get(new Long(address));
+        for (int index = 0; ports != null && index < ports.size(); index++) {
+            Receiver receiver = (Receiver) ports.elementAt(index);
+            if (receiver.port == port) {
+                return receiver;
+            }
+        }
+        return null;
+    }
+
+    private static void add(Hashtable table, long address, Object entry) {
+        Vector entries = (Vector) table.get(new Long(address));
+        if (entries == null) {
+            entries = new Vector(1);
+            table.put(new Long(address), entries);
+        }
+        entries.addElement(entry);
+    }
+
+    private void giveUp(Peer peer) {
+        SystemContext.getLogger().debug("ReliableDelivery.giveUp: " + (peer.outstanding.size() + peer.backlog.size()) + " messages to " + peer.destination + " given up.");
+
+        for (int index = 0; index < peer.outstanding.size(); index++) {
+            peer.given.addElement(peer.outstanding.elementAt(index));
+        }
+        for (int index = 0; index < peer.backlog.size(); index++) {
+            peer.given.addElement(peer.backlog.elementAt(index));
+        }
+        failed += peer.given.size();
+        peer.outstanding.removeAllElements();
+        peer.backlog.removeAllElements();
+        peer.retries = 0;
+        peer.first = true;
+    }
+
+    private void assign(Peer peer, Pending pending, long now) {
+        pending.sequence = peer.nextSequence;
+        pending.destination = peer.destination;
+        pending.sentTime = now;
+        pending.transmissions = 1;
+        ReliablePDU.encode(pending.framed, 0, ReliablePDU.TYPE_DATA, peer.first ? ReliablePDU.FLAG_FIRST : 0, pending.sequence);
+
+        peer.nextSequence = (peer.nextSequence + 1) & 0xFFFF;
+        peer.first = false;
+        if (peer.outstanding.isEmpty()) {
+            peer.deadline = now + peer.timer.getTimeout();
+        }
+        peer.outstanding.addElement(pending);
+    }
+
+    private void transmit(Destination destination, Pending pending) {
+        communicationManager.sendAsync(destination, pending.framed, 0, pending.framed.length, CommunicationManager.PRIORITY_HIGH, CommunicationManager.IMPORTANCE_HIGH, null);
+    }
+
+    private void notify(Vector pendings, Destination destination, boolean sent) {
+        for (int index = 0; index < pendings.size(); index++) {
+            Pending pending = (Pending) pendings.elementAt(index);
+            if (pending.listener != null) {
+                try {
+                    // The buffer of the caller may have been reused
+                    byte[] message = new byte[pending.framed.length - ReliablePDU.HEADER_LENGTH];
+                    System.arraycopy(pending.framed, ReliablePDU.HEADER_LENGTH, message, 0, message.length);
+                    pending.listener.sendCompleted(message, destination.toString(), sent);
+                } catch (RuntimeException ex) {
+                    SystemContext.getLogger().warning("ReliableDelivery.notify: Send listener failed for message to " + destination);
+                }
+            }
+        }
+    }
+
+    private synchronized void startRetransmitter() {
+        if (retransmitterThread == null) {
+            retransmitterThread = new Thread(this);
+            retransmitterThread.start();
+        }
+    }
+
+    /**
+     * Get the number of messages acknowledged.
+     *
+     * @return The number of messages delivered.
+     */
+    public synchronized long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Get the number of messages given up after the maximum number of
+     * retries.
+     *
+     * @return The number of messages failed.
+     */
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Get the ratio of messages delivered among those completed.
+     *
+     * @return The delivery ratio, from 0 to 1, or 1 if no message has been
+     * completed.
+     */
+    public synchronized double getDeliveryRatio() {
+        long completed = delivered + failed;
+        return (completed == 0) ? 1 : (double) delivered / completed;
+    }
+
+    /**
+     * Get the number of retransmissions.
+     *
+     * @return The number of messages sent again.
+     */
+    public synchronized long getRetries() {
+        return retries;
+    }
+
+    /**
+     * Get the number of duplicated messages received.
+     *
+     * @return The number of duplicates.
+     */
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Get the last round trip time measured.
+     *
+     * @return The round trip time in milliseconds, or -1 if none has been
+     * measured.
+     */
+    public synchronized long getLastRoundTripTime() {
+        return lastRTT;
+    }
+
+    /**
+     * Get the smoothed round trip time to a destination.
+     *
+     * @param destination The destination.
+     * @return The smoothed round trip time in milliseconds, or -1 if none has
+     * been measured.
+     */
+    public synchronized long getRoundTripTime(Destination destination) {
+        Peer peer = findPeer(destination.getAddress(), destination.getPort());
+        return (peer == null) ? -1 : peer.timer.getSmoothedRTT();
+    }
+
+    /**
+     * A message waiting for its acknowledgement.
+     */
+    private static class Pending {
+
+        private final byte[] framed;
+        private final SendListener listener;
+        private Destination destination;
+        private int sequence;
+        private long sentTime;
+        private int transmissions;
+
+        private Pending(byte[] framed, SendListener listener) {
+            this.framed = framed;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * The state of the messages sent to a destination.
+     */
+    private static class Peer {
+
+        private final Destination destination;
+        private final RetransmissionTimer timer;
+        private final Vector outstanding;
+        private final Vector backlog;
+        private final Vector given;
+        private int nextSequence;
+        private boolean first;
+        private int retries;
+        private long deadline;
+
+        private Peer(Destination destination, int initialSequence) {
+            this.destination = destination;
+            this.timer = new RetransmissionTimer();
+            this.outstanding = new Vector(DEFAULT_WINDOW);
+            this.backlog = new Vector();
+            this.given = new Vector();
+            this.nextSequence = initialSequence;
+            this.first = true;
+        }
+    }
+
+    /**
+     * The state of the messages received from a sender.
+     */
+    private static class Receiver {
+
+        private final int port;
+        private final Destination replyDestination;
+        private boolean synchronised;
+        private int sessionStart;
+        private int expected;
+
+        private Receiver(int port, Destination replyDestination) {
+            this.port = port;
+            this.replyDestination = replyDestination;
+        }
+    }
+}
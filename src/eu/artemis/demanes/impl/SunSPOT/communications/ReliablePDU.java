@@ -0,0 +1,165 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.communications;
+
+/**
+ * Reliable PDU is the header of the messages sent in reliable mode by
+ * {@link ReliableDelivery}, and of their acknowledgements. The layout is:
+ * <pre>
+ * magic (2) | type (1) | flags (1) | sequence number (2) | payload
+ * </pre>
+ * Data messages carry their sequence number, and acknowledgements the
+ * sequence number of the last message received in order, which acknowledges
+ * every message up to it, followed by the port the messages were received
+ * on, as the sender keeps a sequence for each port of a destination. Sequence numbers wrap around after 0xFFFF, and are
+ * compared with {@link #after(int, int)}. The header is read and written in
+ * place, without allocating.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class ReliablePDU {
+
+    private static final byte MAGIC_0 = (byte) 0xFA;
+    private static final byte MAGIC_1 = (byte) 0xE7;
+
+    /** Data message. */
+    public static final byte TYPE_DATA = 0x01;
+    /** Cumulative acknowledgement. */
+    public static final byte TYPE_ACK = 0x02;
+
+    /** Flag of the first data message of a session, which sets the sequence. */
+    public static final byte FLAG_FIRST = 0x01;
+
+    /** Length in bytes of the header. */
+    public static final int HEADER_LENGTH = 6;
+    /** Length in bytes of an acknowledgement, the header and the port. */
+    public static final int ACK_LENGTH = HEADER_LENGTH + 1;
+
+    private ReliablePDU() {
+    }
+
+    /**
+     * Checks if a buffer starts like a reliable PDU.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the PDU in the buffer.
+     * @param length The length of the PDU.
+     * @return True if it is long enough and starts with the magic bytes.
+     */
+    public static boolean isReliablePDU(byte[] buffer, int offset, int length) {
+        return length >= HEADER_LENGTH && buffer[offset] == MAGIC_0 && buffer[offset + 1] == MAGIC_1;
+    }
+
+    /**
+     * Encodes a header.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the header in the buffer.
+     * @param type {@link #TYPE_DATA} or {@link #TYPE_ACK}.
+     * @param flags The flags.
+     * @param sequence The sequence number.
+     * @return The number of bytes written, {@link #HEADER_LENGTH}.
+     */
+    public static int encode(byte[] buffer, int offset, byte type, byte flags, int sequence) {
+        buffer[offset] = MAGIC_0;
+        buffer[offset + 1] = MAGIC_1;
+        buffer[offset + 2] = type;
+        buffer[offset + 3] = flags;
+        buffer[offset + 4] = (byte) (sequence >>> 8);
+        buffer[offset + 5] = (byte) sequence;
+        return HEADER_LENGTH;
+    }
+
+    /**
+     * Encodes an acknowledgement.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the acknowledgement in the buffer.
+     * @param sequence The sequence number of the last message received in
+     * order.
+     * @param port The port the messages were received on.
+     * @return The number of bytes written, {@link #ACK_LENGTH}.
+     */
+    public static int encodeAck(byte[] buffer, int offset, int sequence, int port) {
+        encode(buffer, offset, TYPE_ACK, (byte) 0, sequence);
+        buffer[offset + HEADER_LENGTH] = (byte) port;
+        return ACK_LENGTH;
+    }
+
+    /**
+     * Get the type of a PDU.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the PDU in the buffer.
+     * @return The type.
+     */
+    public static byte getType(byte[] buffer, int offset) {
+        return buffer[offset + 2];
+    }
+
+    /**
+     * Get the flags of a PDU.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the PDU in the buffer.
+     * @return The flags.
+     */
+    public static byte getFlags(byte[] buffer, int offset) {
+        return buffer[offset + 3];
+    }
+
+    /**
+     * Get the sequence number of a PDU.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the PDU in the buffer.
+     * @return The sequence number.
+     */
+    public static int getSequence(byte[] buffer, int offset) {
+        return ((buffer[offset + 4] & 0xFF) << 8) | (buffer[offset + 5] & 0xFF);
+    }
+
+    /**
+     * Get the port acknowledged by an acknowledgement of
+     * {@link #ACK_LENGTH} bytes.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the acknowledgement in the buffer.
+     * @return The port.
+     */
+    public static int getPort(byte[] buffer, int offset) {
+        return buffer[offset + HEADER_LENGTH] & 0xFF;
+    }
+
+    /**
+     * Compares two sequence numbers, taking the wrap around into account.
+     *
+     * @param sequence A sequence number.
+     * @param other Another sequence number.
+     * @return A positive number if {@code sequence} comes after
+     * {@code other}, 0 if they are the same, and a negative number otherwise.
+     */
+    public static int after(int sequence, int other) {
+        return (short) (sequence - other);
+    }
+}
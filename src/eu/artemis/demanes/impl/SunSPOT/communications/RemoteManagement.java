@@ -21,28 +21,70 @@
  */
 package eu.artemis.demanes.impl.SunSPOT.communications;
 
+import com.sun.spot.core.peripheral.TimeoutException;
 import com.sun.spot.core.util.Properties;
+import com.sun.spot.ieee_802_15_4_radio.util.IEEEAddress;
 import com.sun.spot.multihop.io.j2me.radiogram.Radiogram;
 import com.sun.spot.multihop.io.j2me.radiogram.RadiogramConnection;
 import com.sun.squawk.util.StringTokenizer;
 import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
 import eu.artemis.demanes.impl.SunSPOT.common.SystemProperties;
+import eu.artemis.demanes.impl.SunSPOT.utils.fragmentation.FragmentPDU;
+import eu.artemis.demanes.impl.SunSPOT.utils.fragmentation.Reassembler;
 import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
 import java.io.IOException;
+import java.util.Vector;
 import javax.microedition.io.Connector;
 
 /**
+ * Remote management of the node. Parameterization messages are received on
+ * the remote management port, either as a binary {@link ManagementPDU} or,
+ * as before, as a list of {@code property:value} pairs separated by commas.
+ * <p>
+ * A binary configuration carries a version, and is only applied when newer
+ * than the one in force. All its parameters are checked before any is set,
+ * and then they are set together, holding the lock of the properties, so
+ * that the monitor never sees half a configuration; the monitor only resets
+ * the parts of the controller selected by its flags. The sender is answered
+ * with a {@link ManagementPDU#TYPE_ACK} carrying the status and the version
+ * in force. A text message is applied the same way, all or nothing, but it
+ * has no version and resets the whole controller.
+ * <p>
+ * Messages too large for a radiogram arrive in
+ * fragments, which are reassembled before being parsed; the fragments
+ * missing are requested again to the sender on the same port. Retransmit
+ * requests for the fragmented messages sent by this node are also received
+ * here.
+ * <p>
+ * Messages sent in reliable mode are parsed once and in order, and
+ * acknowledged to the sender only after being applied, so that an
+ * acknowledged configuration is known to be in force. The acknowledgements
+ * for the reliable messages sent by this node are also received here.
  *
  * @author Néstor Lucas Martínez &lt;nestor.lucas@upm.es&gt;
  */
 public class RemoteManagement implements Runnable {
     private final Logger logger;
     private final Properties reconfigurationProperties;
+    private final CommunicationManager communicationManager;
+    private final Reassembler reassembler;
+    private final FragmentPDU fragmentPDU;
+    private final ReliableDelivery reliableDelivery;
+    private final ManagementPDU managementPDU;
+    private final byte[] ackBuffer;
+    private final byte[] requestBuffer;
     private int rmport;
     
-    public RemoteManagement(Properties properties) {
+    public RemoteManagement(SystemContext context, Properties properties) {
         this.logger = SystemContext.getLogger();
         this.reconfigurationProperties = properties;        
+        this.communicationManager = context.getCommunicationManager();
+        this.reassembler = new Reassembler();
+        this.fragmentPDU = new FragmentPDU();
+        this.reliableDelivery = communicationManager.getReliableDelivery();
+        this.managementPDU = new ManagementPDU();
+        this.ackBuffer = new byte[ManagementPDU.HEADER_LENGTH];
+        this.requestBuffer = new byte[FragmentPDU.retransmitLength(FragmentPDU.MAX_FRAGMENTS)];
     }
 
     public void run() {
@@ -60,30 +102,205 @@ public class RemoteManagement implements Runnable {
                 radiogram = (Radiogram) connection.newDatagram(connection.getMaximumLength());
                 radiogram.reset();
 
+                // While a message is incomplete, wake up to request what is missing
+                connection.setTimeout(reassembler.isReassembling() ? reassembler.getRetransmitDelay() : -1);
                 connection.receive(radiogram);
 
+                long source = radiogram.getAddressAsLong();
                 byte[] message = new byte[radiogram.getLength()];
                 radiogram.readFully(message);
-                String parameterizationString = new String(message);
-
-                logger.info("Received parameterization radiogram:" + parameterizationString);
-
-                // Parse parameters
-                StringTokenizer parametersTokens = new StringTokenizer(parameterizationString, ",");
-                while (parametersTokens.hasMoreElements()) {
-                    String token = (String) parametersTokens.nextElement();
-                    String property = token.substring(0, token.indexOf(':'));
-                    String value = token.substring(token.indexOf(':') + 1, token.length());
-                    logger.info("Parsing parameter " + property + " with value " + value);
-                    reconfigurationProperties.setProperty(property, value);
-                }
 
-                reconfigurationProperties.setProperty("reset", "true");
+                if (FragmentPDU.isFragmentPDU(message, 0, message.length)) {
+                    message = receiveFragment(source, message);
+                    if (message == null) {
+                        continue;
+                    }
+                }
 
+                if (ReliablePDU.isReliablePDU(message, 0, message.length)) {
+                    receiveReliable(source, message);
+                } else {
+                    parameterize(source, message);
+                }
+            } catch (TimeoutException ex) {
+                requestMissingFragments();
             } catch (IOException ex) {
                 logger.warning("ERROR: Parameterization communication error.");
             }
         }
     }
 
+    private byte[] receiveFragment(long source, byte[] fragment) {
+        if (fragmentPDU.wrap(fragment, 0, fragment.length) && fragmentPDU.getType() == FragmentPDU.TYPE_RETRANSMIT) {
+            int resent = communicationManager.retransmit(source, fragment, 0, fragment.length);
+            logger.debug("RemoteManagement.receiveFragment: " + resent + " fragments sent again to " + IEEEAddress.toDottedHex(source));
+            return null;
+        }
+        return reassembler.accept(source, fragment, 0, fragment.length);
+    }
+
+    private void requestMissingFragments() {
+        int length;
+
+        while ((length = reassembler.pollRetransmitRequest(requestBuffer, 0)) > 0) {
+            String requester = IEEEAddress.toDottedHex(reassembler.getRequestAddress());
+            logger.debug("RemoteManagement.requestMissingFragments: Requesting missing fragments to " + requester);
+            communicationManager.send(communicationManager.resolve(requester + ":" + rmport, CommunicationManager.MODE_UNICAST), requestBuffer, 0, length);
+        }
+    }
+
+    private void receiveReliable(long source, byte[] message) {
+        if (ReliablePDU.getType(message, 0) == ReliablePDU.TYPE_ACK) {
+            reliableDelivery.acknowledged(source, message, 0, message.length);
+            return;
+        }
+
+        if (!reliableDelivery.receive(source, message, 0, message.length, rmport, rmport)) {
+            logger.debug("RemoteManagement.receiveReliable: Message from " + IEEEAddress.toDottedHex(source) + " already received or out of order.");
+            return;
+        }
+
+        byte[] payload = new byte[message.length - ReliablePDU.HEADER_LENGTH];
+        System.arraycopy(message, ReliablePDU.HEADER_LENGTH, payload, 0, payload.length);
+        parameterize(source, payload);
+        reliableDelivery.acknowledge(source, rmport);
+    }
+
+    private void parameterize(long source, byte[] message) {
+        if (ManagementPDU.isManagementPDU(message, 0, message.length)) {
+            byte status = configure(message, 0, message.length);
+            if (status >= 0) {
+                acknowledgeConfiguration(source, status);
+            }
+            return;
+        }
+
+        String parameterizationString = new String(message);
+
+        logger.info("Received parameterization radiogram:" + parameterizationString);
+
+        // Parse every parameter before setting any
+        Vector properties = new Vector();
+        Vector values = new Vector();
+        StringTokenizer parametersTokens = new StringTokenizer(parameterizationString, ",");
+        while (parametersTokens.hasMoreElements()) {
+            String token = (String) parametersTokens.nextElement();
+            int separator = token.indexOf(':');
+            if (separator <= 0) {
+                logger.warning("RemoteManagement.parameterize: Malformed parameter " + token + ", parameterization discarded.");
+                return;
+            }
+            String property = token.substring(0, separator);
+            String value = token.substring(separator + 1, token.length());
+            logger.info("Parsing parameter " + property + " with value " + value);
+            properties.addElement(property);
+            values.addElement(value);
+        }
+
+        synchronized (reconfigurationProperties) {
+            for (int index = 0; index < properties.size(); index++) {
+                reconfigurationProperties.setProperty((String) properties.elementAt(index), (String) values.elementAt(index));
+            }
+            reconfigurationProperties.setProperty(SystemProperties.RESET, SystemProperties.RESET_ALL);
+        }
+    }
+
+    /**
+     * Applies a configuration encoded as a {@link ManagementPDU}, all of it
+     * or nothing. It is applied only when its version is newer than the one
+     * in force, so a configuration received again is harmless.
+     *
+     * @param message The buffer holding the configuration.
+     * @param offset The offset of the configuration in the buffer.
+     * @param length The length of the configuration.
+     * @return The status of the configuration, as in {@link ManagementPDU},
+     * or -1 if it is not a configuration.
+     */
+    public synchronized byte configure(byte[] message, int offset, int length) {
+        if (!managementPDU.wrap(message, offset, length) || managementPDU.getType() != ManagementPDU.TYPE_CONFIGURE) {
+            return -1;
+        }
+        if (managementPDU.getProtocol() != ManagementPDU.PROTOCOL_VERSION) {
+            logger.warning("RemoteManagement.configure: Unsupported protocol version " + managementPDU.getProtocol());
+            return ManagementPDU.STATUS_UNSUPPORTED;
+        }
+
+        int version = managementPDU.getConfigVersion();
+        int count = managementPDU.getCount();
+        String[] properties = new String[count];
+        String[] values = new String[count];
+        int entries = 0;
+
+        while (managementPDU.nextEntry()) {
+            String value = ManagementParameters.toPropertyValue(managementPDU);
+            if (value == null) {
+                logger.warning("RemoteManagement.configure: Invalid parameter " + managementPDU.getParameterID() + ", configuration " + version + " rejected.");
+                return ManagementPDU.STATUS_REJECTED;
+            }
+            properties[entries] = ManagementParameters.getProperty(managementPDU.getParameterID());
+            values[entries] = value;
+            entries++;
+        }
+        if (managementPDU.isMalformed() || entries != count) {
+            logger.warning("RemoteManagement.configure: Malformed configuration " + version + " rejected.");
+            return ManagementPDU.STATUS_REJECTED;
+        }
+
+        synchronized (reconfigurationProperties) {
+            int comparison = ManagementPDU.compareVersions(version, getConfigVersion());
+            if (comparison == 0) {
+                return ManagementPDU.STATUS_CURRENT;
+            }
+            if (comparison < 0) {
+                return ManagementPDU.STATUS_STALE;
+            }
+
+            for (int index = 0; index < count; index++) {
+                reconfigurationProperties.setProperty(properties[index], values[index]);
+            }
+            reconfigurationProperties.setProperty(SystemProperties.CONFIG_VERSION, Integer.toString(version));
+            reconfigurationProperties.setProperty(SystemProperties.RESET, mergeReset(reconfigurationProperties.getProperty(SystemProperties.RESET, SystemProperties.RESET_NONE), managementPDU.getFlags()));
+        }
+
+        logger.info("RemoteManagement.configure: Configuration " + version + " applied with " + count + " parameters.");
+        return ManagementPDU.STATUS_APPLIED;
+    }
+
+    /**
+     * Get the version of the configuration in force.
+     *
+     * @return The config version, or
+     * {@link SystemProperties#DEFAULT_CONFIG_VERSION} if none has been
+     * applied.
+     */
+    public int getConfigVersion() {
+        return Integer.parseInt(reconfigurationProperties.getProperty(SystemProperties.CONFIG_VERSION, Integer.toString(SystemProperties.DEFAULT_CONFIG_VERSION)));
+    }
+
+    private void acknowledgeConfiguration(long source, byte status) {
+        synchronized (ackBuffer) {
+            ManagementPDU.encodeAck(ackBuffer, 0, status, getConfigVersion());
+            communicationManager.sendAsync(communicationManager.resolve(IEEEAddress.toDottedHex(source) + ":" + rmport, CommunicationManager.MODE_UNICAST), ackBuffer, 0, ackBuffer.length, CommunicationManager.PRIORITY_HIGH, CommunicationManager.IMPORTANCE_HIGH, null);
+        }
+    }
+
+    private static String mergeReset(String pending, byte flags) {
+        if (pending.equalsIgnoreCase(SystemProperties.RESET_ALL)) {
+            return pending;
+        }
+
+        boolean power = (flags & ManagementPDU.FLAG_RESET_POWER) != 0 || pending.indexOf(SystemProperties.RESET_POWER) >= 0;
+        boolean trigger = (flags & ManagementPDU.FLAG_RESET_TRIGGER) != 0 || pending.indexOf(SystemProperties.RESET_TRIGGER) >= 0;
+        if (power && trigger) {
+            return SystemProperties.RESET_ALL;
+        }
+        if (power) {
+            return SystemProperties.RESET_POWER;
+        }
+        if (trigger) {
+            return SystemProperties.RESET_TRIGGER;
+        }
+        return SystemProperties.RESET_NONE;
+    }
+
 }
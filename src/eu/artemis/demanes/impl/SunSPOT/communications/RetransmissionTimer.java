@@ -0,0 +1,96 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.communications;
+
+/**
+ * Retransmission timer of a destination, as in RFC 6298. The timeout is
+ * estimated from the smoothed round trip time and its variation, and it is
+ * doubled on every retransmission until a new round trip time is measured.
+ * Round trip times of retransmitted messages must not be given, as it is not
+ * known which transmission has been acknowledged.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class RetransmissionTimer {
+
+    /** Timeout in milliseconds before the first round trip time is measured. */
+    public static final long INITIAL_TIMEOUT = 1000;
+    /** Minimum timeout in milliseconds. */
+    public static final long MINIMUM_TIMEOUT = 250;
+    /** Maximum timeout in milliseconds. */
+    public static final long MAXIMUM_TIMEOUT = 16000;
+
+    private long smoothedRTT;
+    private long variationRTT;
+    private long timeout;
+
+    /**
+     * Creates a timer with no round trip time measured.
+     */
+    public RetransmissionTimer() {
+        this.smoothedRTT = -1;
+        this.timeout = INITIAL_TIMEOUT;
+    }
+
+    /**
+     * Updates the timeout with a round trip time measured.
+     *
+     * @param rtt The round trip time in milliseconds.
+     */
+    public void sample(long rtt) {
+        if (smoothedRTT < 0) {
+            smoothedRTT = rtt;
+            variationRTT = rtt / 2;
+        } else {
+            variationRTT = (3 * variationRTT + Math.abs(smoothedRTT - rtt)) / 4;
+            smoothedRTT = (7 * smoothedRTT + rtt) / 8;
+        }
+        timeout = Math.min(MAXIMUM_TIMEOUT, Math.max(MINIMUM_TIMEOUT, smoothedRTT + 4 * variationRTT));
+    }
+
+    /**
+     * Doubles the timeout after a retransmission.
+     */
+    public void backoff() {
+        timeout = Math.min(MAXIMUM_TIMEOUT, timeout * 2);
+    }
+
+    /**
+     * Get the retransmission timeout.
+     *
+     * @return The timeout in milliseconds.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Get the smoothed round trip time.
+     *
+     * @return The smoothed round trip time in milliseconds, or -1 if none has
+     * been measured.
+     */
+    public long getSmoothedRTT() {
+        return smoothedRTT;
+    }
+}
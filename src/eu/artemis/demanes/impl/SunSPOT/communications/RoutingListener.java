@@ -30,7 +30,8 @@ import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
 
 /**
  * {@code RoutingListener} implements a listener for routing events, so they
- * can be notified to the user through a LED marquee.
+ * can be notified to the user through a LED marquee. Every event is also
+ * counted in the {@link RoutingMetrics} of the system.
  *
  * @author N&eacute;stor Lucas Mart&iacute;nez
  */
@@ -41,10 +42,14 @@ public class RoutingListener implements ILQRPEventListener, IDataEventListener {
     private static final LEDColor RERR_COLOR = LEDColor.RED;
     private static final LEDColor DATA_COLOR = LEDColor.BLUE;
 
+    private final RoutingMetrics metrics;
+
     /**
      * 
      */
-    public RoutingListener() { }
+    public RoutingListener() {
+        this.metrics = SystemContext.getRoutingMetrics();
+    }
 
     /**
      * Method called when a RREQ is sent.
@@ -55,6 +60,7 @@ public class RoutingListener implements ILQRPEventListener, IDataEventListener {
      * @param routeCost Cost to the destination.
      */
     public void RREQSent(long originator, long destination, int hopCount, double routeCost) {
+        metrics.routingEvent(RoutingMetrics.RREQ_SENT);
         SystemContext.getMarquee().blinkActivity1(RREQ_COLOR);
     }
 
@@ -67,6 +73,7 @@ public class RoutingListener implements ILQRPEventListener, IDataEventListener {
      * @param routeCost Cost to the destination.
      */
     public void RREPSent(long originator, long destination, int hopCount, double routeCost) {
+        metrics.routingEvent(RoutingMetrics.RREP_SENT);
         SystemContext.getMarquee().blinkActivity1(RREP_COLOR);
     }
 
@@ -77,6 +84,7 @@ public class RoutingListener implements ILQRPEventListener, IDataEventListener {
      * @param destination Route request destination.
      */
     public void RERRSent(long originator, long destination) {
+        metrics.routingEvent(RoutingMetrics.RERR_SENT);
         SystemContext.getMarquee().blinkActivity1(RERR_COLOR);
     }
 
@@ -90,6 +98,7 @@ public class RoutingListener implements ILQRPEventListener, IDataEventListener {
      * @param routeCost Cost to the destination.
      */
     public void RREQReceived(long originator, long destination, long lastHop, int hopCount, double routeCost) {
+        metrics.routeReceived(RoutingMetrics.RREQ_RECEIVED, routeCost);
         SystemContext.getMarquee().blinkActivity2(RREQ_COLOR);
     }
 
@@ -103,6 +112,7 @@ public class RoutingListener implements ILQRPEventListener, IDataEventListener {
      * @param routeCost Cost to the destination.
      */
     public void RREPReceived(long originator, long destination, long lastHop, int hopCount, double routeCost) {
+        metrics.routeReceived(RoutingMetrics.RREP_RECEIVED, routeCost);
         SystemContext.getMarquee().blinkActivity2(RREP_COLOR);
     }
 
@@ -113,6 +123,7 @@ public class RoutingListener implements ILQRPEventListener, IDataEventListener {
      * @param destination Route request destination.
      */
     public void RERRReceived(long originator, long destination) {
+        metrics.routingEvent(RoutingMetrics.RERR_RECEIVED);
         SystemContext.getMarquee().blinkActivity2(RERR_COLOR);
     }
 
@@ -125,6 +136,7 @@ public class RoutingListener implements ILQRPEventListener, IDataEventListener {
      * @param destination final destination of the packet.
      */
     public void notifyForward(long lastHop, long nextHop, long originator, long destination) {
+        metrics.forwarded(nextHop);
         SystemContext.getMarquee().blinkActivity1(DATA_COLOR);
         SystemContext.getMarquee().blinkActivity2(DATA_COLOR);
 
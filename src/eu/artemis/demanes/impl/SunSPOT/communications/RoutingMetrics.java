@@ -0,0 +1,275 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.communications;
+
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
+
+/**
+ * {@code RoutingMetrics} keeps the counters of the routing and forwarding
+ * events notified to the {@link RoutingListener}: the number of events of
+ * each type, the packets forwarded to each next hop, a histogram of the route
+ * costs received, and the forwarded packets and route errors over a sliding
+ * window.
+ * <p>
+ * The counters are updated from the routing and forwarding callbacks, so
+ * recording an event never allocates and only holds the monitor of the
+ * metrics for a few increments.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class RoutingMetrics {
+
+    /** RREQ sent. */
+    public static final int RREQ_SENT = 0;
+    /** RREP sent. */
+    public static final int RREP_SENT = 1;
+    /** RERR sent. */
+    public static final int RERR_SENT = 2;
+    /** RREQ received. */
+    public static final int RREQ_RECEIVED = 3;
+    /** RREP received. */
+    public static final int RREP_RECEIVED = 4;
+    /** RERR received. */
+    public static final int RERR_RECEIVED = 5;
+    /** Packet forwarded. */
+    public static final int FORWARDED = 6;
+    /** Number of event types. */
+    public static final int EVENT_TYPES = 7;
+
+    /**
+     * Number of buckets of the route cost histogram. Bucket {@code i} counts
+     * the costs lower than {@code 2^i}, and the last one every higher cost.
+     */
+    public static final int COST_BUCKETS = 8;
+    /** Maximum number of next hops with their own forwarding counter. */
+    public static final int MAX_NEXT_HOPS = 16;
+    /** Length in milliseconds of the sliding window. */
+    public static final long WINDOW = 60000;
+    /** Number of slots the sliding window is divided into. */
+    public static final int WINDOW_SLOTS = 6;
+
+    private static final long SLOT_LENGTH = WINDOW / WINDOW_SLOTS;
+
+    private final long[] events;
+    private final long[] costHistogram;
+    private final long[] nextHops;
+    private final long[] nextHopForwards;
+    private int nextHopCount;
+    private long otherNextHopForwards;
+
+    private final int[] forwardedSlots;
+    private final int[] routeErrorSlots;
+    private long currentSlot;
+
+    /**
+     * Creates a new set of metrics with every counter at 0.
+     */
+    public RoutingMetrics() {
+        this.events = new long[EVENT_TYPES];
+        this.costHistogram = new long[COST_BUCKETS];
+        this.nextHops = new long[MAX_NEXT_HOPS];
+        this.nextHopForwards = new long[MAX_NEXT_HOPS];
+        this.forwardedSlots = new int[WINDOW_SLOTS];
+        this.routeErrorSlots = new int[WINDOW_SLOTS];
+        this.currentSlot = Clock.getClock().currentTimeMillis() / SLOT_LENGTH;
+    }
+
+    /**
+     * Records a routing event.
+     *
+     * @param event The type of event, from {@link #RREQ_SENT} to
+     * {@link #RERR_RECEIVED}.
+     */
+    public synchronized void routingEvent(int event) {
+        events[event]++;
+
+        if (event == RERR_SENT || event == RERR_RECEIVED) {
+            routeErrorSlots[advance()]++;
+        }
+    }
+
+    /**
+     * Records a route request or reply received with its cost.
+     *
+     * @param event {@link #RREQ_RECEIVED} or {@link #RREP_RECEIVED}.
+     * @param routeCost The cost to the destination.
+     */
+    public synchronized void routeReceived(int event, double routeCost) {
+        events[event]++;
+        costHistogram[bucketOf(routeCost)]++;
+    }
+
+    /**
+     * Records a packet forwarded through this node. When the next hops with
+     * their own counter reach {@link #MAX_NEXT_HOPS}, the packets to new next
+     * hops are only counted together.
+     *
+     * @param nextHop The next hop of the packet.
+     */
+    public synchronized void forwarded(long nextHop) {
+        events[FORWARDED]++;
+        forwardedSlots[advance()]++;
+
+        for (int index = 0; index < nextHopCount; index++) {
+            if (nextHops[index] == nextHop) {
+                nextHopForwards[index]++;
+                return;
+            }
+        }
+
+        if (nextHopCount < MAX_NEXT_HOPS) {
+            nextHops[nextHopCount] = nextHop;
+            nextHopForwards[nextHopCount] = 1;
+            nextHopCount++;
+        } else {
+            otherNextHopForwards++;
+        }
+    }
+
+    /**
+     * Get the number of events of a type since the metrics were created.
+     *
+     * @param event The type of event, from {@link #RREQ_SENT} to
+     * {@link #FORWARDED}.
+     * @return The number of events.
+     */
+    public synchronized long getEventCount(int event) {
+        return events[event];
+    }
+
+    /**
+     * Get the histogram of the costs of the route requests and replies
+     * received.
+     *
+     * @return A copy of the {@link #COST_BUCKETS} buckets.
+     */
+    public synchronized long[] getCostHistogram() {
+        long[] histogram = new long[COST_BUCKETS];
+        System.arraycopy(costHistogram, 0, histogram, 0, COST_BUCKETS);
+        return histogram;
+    }
+
+    /**
+     * Get the next hops packets have been forwarded to.
+     *
+     * @return The addresses of the next hops with their own counter.
+     */
+    public synchronized long[] getNextHops() {
+        long[] hops = new long[nextHopCount];
+        System.arraycopy(nextHops, 0, hops, 0, nextHopCount);
+        return hops;
+    }
+
+    /**
+     * Get the number of packets forwarded to a next hop.
+     *
+     * @param nextHop The address of the next hop.
+     * @return The number of packets, or 0 if the next hop has no counter.
+     */
+    public synchronized long getForwardedTo(long nextHop) {
+        for (int index = 0; index < nextHopCount; index++) {
+            if (nextHops[index] == nextHop) {
+                return nextHopForwards[index];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the number of packets forwarded to next hops without their own
+     * counter.
+     *
+     * @return The number of packets.
+     */
+    public synchronized long getForwardedToOthers() {
+        return otherNextHopForwards;
+    }
+
+    /**
+     * Get the forwarding load of the node.
+     *
+     * @return The number of packets forwarded within the last
+     * {@link #WINDOW} milliseconds.
+     */
+    public synchronized int getForwardedInWindow() {
+        advance();
+        return sum(forwardedSlots);
+    }
+
+    /**
+     * Get the route errors sent or received by the node.
+     *
+     * @return The number of RERR sent or received within the last
+     * {@link #WINDOW} milliseconds.
+     */
+    public synchronized int getRouteErrorsInWindow() {
+        advance();
+        return sum(routeErrorSlots);
+    }
+
+    /**
+     * Moves the sliding window up to the current time, clearing the slots
+     * left behind. The caller must own the metrics.
+     *
+     * @return The index of the current slot.
+     */
+    private int advance() {
+        long slot = Clock.getClock().currentTimeMillis() / SLOT_LENGTH;
+
+        if (slot != currentSlot) {
+            long elapsed = Math.min(slot - currentSlot, WINDOW_SLOTS);
+            for (long cleared = 1; cleared <= elapsed; cleared++) {
+                int index = (int) ((currentSlot + cleared) % WINDOW_SLOTS);
+                forwardedSlots[index] = 0;
+                routeErrorSlots[index] = 0;
+            }
+            currentSlot = slot;
+        }
+        return (int) (currentSlot % WINDOW_SLOTS);
+    }
+
+    private static int sum(int[] slots) {
+        int total = 0;
+        for (int index = 0; index < slots.length; index++) {
+            total += slots[index];
+        }
+        return total;
+    }
+
+    /**
+     * Get the bucket of the route cost histogram for a cost.
+     *
+     * @param routeCost The route cost.
+     * @return The bucket, from 0 to {@link #COST_BUCKETS} - 1.
+     */
+    public static int bucketOf(double routeCost) {
+        int bucket = 0;
+        double bound = 1;
+
+        while (bucket < COST_BUCKETS - 1 && routeCost >= bound) {
+            bucket++;
+            bound *= 2;
+        }
+        return bucket;
+    }
+}
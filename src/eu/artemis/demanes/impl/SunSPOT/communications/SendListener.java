@@ -0,0 +1,42 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.communications;
+
+/**
+ * Listener of the completion of the messages queued in the
+ * {@link CommunicationManager}.
+ * 
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public interface SendListener {
+
+    /**
+     * Notifies that a queued message has been sent or has failed. It is
+     * called from the sender thread, so it should return quickly.
+     * 
+     * @param message The content of the message.
+     * @param destination The message destination.
+     * @param sent True if the message has been sent, false otherwise.
+     */
+    public void sendCompleted(byte[] message, String destination, boolean sent);
+}
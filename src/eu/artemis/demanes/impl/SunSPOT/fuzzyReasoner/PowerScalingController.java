@@ -21,9 +21,7 @@
  */
 package eu.artemis.demanes.impl.SunSPOT.fuzzyReasoner;
 
-import com.sun.spot.core.resources.Resources;
 import com.sun.spot.core.util.Properties;
-import com.sun.spot.ieee_802_15_4_radio.IRadioPolicyManager;
 import com.sun.squawk.util.NotImplementedYetException;
 import eu.artemis.demanes.datatypes.ANES_BUNDLE;
 import eu.artemis.demanes.datatypes.ANES_URN;
@@ -38,6 +36,7 @@ import eu.artemis.demanes.impl.SunSPOT.common.ReasonerProperties;
 import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
 import eu.artemis.demanes.impl.SunSPOT.common.SystemProperties;
 import eu.artemis.demanes.impl.SunSPOT.datatypes.SunSPOTBundle;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
 import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
 import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
 import eu.artemis.demanes.reconfiguration.ActionProvider;
@@ -207,15 +206,16 @@ public class PowerScalingController implements Reasoner {
      */
     public void trigger(ANES_URN urn, Object value) {
         // BEGIN values for recording at the end of the trigger.        
-        long timestamp = System.currentTimeMillis();
+        long timestamp = Clock.getClock().currentTimeMillis();
         int nodeDegree = -1;
         double batteryLevel = -1;
         int delta_nd = Integer.MIN_VALUE;
-        int transmissionPower = ((IRadioPolicyManager) Resources.lookup(IRadioPolicyManager.class)).getOutputPower();
+        int transmissionPower = -1;
 
         try {
             nodeDegree = ((Integer) obsProv.getValue(ANES_URN.create(DEMANESResources.NDObservationURN))).intValue();
             batteryLevel = ((Double) obsProv.getValue(ANES_URN.create(DEMANESResources.BLObservationURN))).doubleValue();
+            transmissionPower = ((Integer) obsProv.getValue(ANES_URN.create(DEMANESResources.PTXObservationURN))).intValue();
         } catch (ANES_URN_Exception ex) {
 
         } catch (InexistentObservationID ex) {
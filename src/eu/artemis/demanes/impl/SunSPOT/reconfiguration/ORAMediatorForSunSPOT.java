@@ -106,10 +106,10 @@ public class ORAMediatorForSunSPOT implements ORAMediator, ActionProvider, Obser
      * @param reasoner The reasoner.
      */
     public void setReasoner(Reasoner reasoner) {
-        logger.info("Setting reasoner " + reasoner.getClass().getName());
+        logger.info("Setting reasoner " + (reasoner != null ? reasoner.getClass().getName() : "null"));
 
         // First unregister the current reasoner from the triggerPolicy
-        if (this.triggerPolicy != null) {
+        if (this.triggerPolicy != null && this.reasoner != null) {
             this.triggerPolicy.unregisterTriggerable(this.reasoner);
         }
 
@@ -123,7 +123,7 @@ public class ORAMediatorForSunSPOT implements ORAMediator, ActionProvider, Obser
         this.reasoner = reasoner;
 
         // Register the reasoner with the TriggerPolicy
-        if (this.triggerPolicy != null) {
+        if (this.triggerPolicy != null && reasoner != null) {
             this.triggerPolicy.registerTriggerable(reasoner);
         }
     }
@@ -134,20 +134,28 @@ public class ORAMediatorForSunSPOT implements ORAMediator, ActionProvider, Obser
      * @param triggerPolicy The TriggerPolicy
      */
     public void setTriggeringPolicy(TriggerPolicy triggerPolicy) {
-        logger.info("Setting trigger policy " + triggerPolicy.getClass().getName());
+        if (triggerPolicy == this.triggerPolicy) {
+            logger.info("Setting trigger policy: Trigger policy already set.");
+            return;
+        }
 
-        // First unregister the current reasoner from the old triggerPolicy
+        logger.info("Setting trigger policy " + (triggerPolicy != null ? triggerPolicy.getClass().getName() : "null"));
+
+        // First stop the old triggerPolicy, which waits for its thread to end,
+        // and unregister the current reasoner from it
         if (this.triggerPolicy != null) {
             this.triggerPolicy.stop();
             this.triggerPolicy.unregisterTriggerable(this.reasoner);
         }
 
-        // Set current reasoner
+        // Set current trigger policy
         this.triggerPolicy = triggerPolicy;
 
         // Register the reasoner with the new TriggerPolicy
         if (this.triggerPolicy != null) {
-            this.triggerPolicy.registerTriggerable(this.reasoner);
+            if (this.reasoner != null) {
+                this.triggerPolicy.registerTriggerable(this.reasoner);
+            }
             this.triggerPolicy.start();
         }
     }
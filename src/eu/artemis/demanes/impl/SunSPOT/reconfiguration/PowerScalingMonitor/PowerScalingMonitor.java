@@ -24,7 +24,6 @@ package eu.artemis.demanes.impl.SunSPOT.reconfiguration.PowerScalingMonitor;
 import com.sun.spot.core.resources.Resources;
 import com.sun.spot.core.resources.transducers.LEDColor;
 import com.sun.spot.core.util.Properties;
-import com.sun.spot.core.util.Utils;
 import com.sun.spot.espot.peripheral.ESpot;
 import com.sun.spot.ieee_802_15_4_radio.IRadioPolicyManager;
 import com.sun.spot.ieee_802_15_4_radio.util.IEEEAddress;
@@ -41,12 +40,22 @@ import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
 import eu.artemis.demanes.impl.SunSPOT.common.SystemProperties;
 import eu.artemis.demanes.impl.SunSPOT.common.TriggerPolicyProperties;
 import eu.artemis.demanes.impl.SunSPOT.communications.CommunicationManager;
+import eu.artemis.demanes.impl.SunSPOT.communications.MessageBuffer;
+import eu.artemis.demanes.impl.SunSPOT.communications.ReliableDelivery;
+import eu.artemis.demanes.impl.SunSPOT.communications.RoutingMetrics;
 import eu.artemis.demanes.impl.SunSPOT.reconfiguration.actions.ResetActuator;
 import eu.artemis.demanes.impl.SunSPOT.reconfiguration.observations.BatteryLevelObservation;
+import eu.artemis.demanes.impl.SunSPOT.reconfiguration.observations.DeliveryRatioObservation;
+import eu.artemis.demanes.impl.SunSPOT.reconfiguration.observations.ForwardingLoadObservation;
 import eu.artemis.demanes.impl.SunSPOT.reconfiguration.observations.NodeDegreeObservation;
 import eu.artemis.demanes.impl.SunSPOT.reconfiguration.observations.NodeDegreeObservationExtension;
+import eu.artemis.demanes.impl.SunSPOT.reconfiguration.observations.RoundTripTimeObservation;
+import eu.artemis.demanes.impl.SunSPOT.reconfiguration.observations.RouteErrorRateObservation;
+import eu.artemis.demanes.impl.SunSPOT.reconfiguration.observations.TransmissionPowerObservation;
+import eu.artemis.demanes.impl.SunSPOT.reconfiguration.PowerScalingMonitor.rules.PowerScalingTrigger;
 import eu.artemis.demanes.impl.SunSPOT.utils.LEDMarquee.MarqueeAddMessageException;
 import eu.artemis.demanes.impl.SunSPOT.utils.LEDMarquee.MarqueeMessage;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
 import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
 import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
 import eu.artemis.demanes.reconfiguration.Observation;
@@ -84,12 +93,20 @@ public class PowerScalingMonitor implements TriggerPolicy, Observer {
 
     private int state;
 
+    private final Object lifecycleLock = new Object();
+    private Thread monitorThread;
+
     private Vector triggerables;
     private Properties reconfigurationProperties;
 
     private long interval;
     private Observation ND;
     private Observation BL;
+    private Observation PTX;
+    private Observation FWD;
+    private Observation RERR;
+    private Observation DLV;
+    private Observation RTT;
     private Observation reasonObservation;
     private Observation reasonObservationValue;
 
@@ -99,28 +116,9 @@ public class PowerScalingMonitor implements TriggerPolicy, Observer {
 
     private Logger logger;
 
-    private int CR_at_previous_k;  // CR(k-1)
-
-    private double ND_Error_at_previous_k; // e(k-1)
-    private int dcr_at_previous_k;   // dcr(k-1)
-    private int CR_at_previous_k2;   // CR(k-2)
-    private int ND_R_previous_k;  // ND_R(k-1)
-    private int NDRef_at_previous_k; // NDRef(k-1) -- Used only for updating the value after an external updating of the parameter
-
-    // fixed parameters for the controller
-    private double KSI_ND;
-    private int ND_MIN;
-    private int CR_MAX;
-    private int delta_ND_min;
-    private double k_e;
-    private double alpha_KSI_ND;
-    private int DELTA_CR_MIN;
-    private double E_cr;
-
     private int ND_at_k;
-    private int count;
-    private boolean CR_at_previous_k2_is_ready;  // CR(k-2) is ready only after 2 rounds triggery policy. 
-    private int triggeryRuleCount;
+
+    private PowerScalingTrigger trigger;
 
     private SystemContext context;
 
@@ -144,39 +142,7 @@ public class PowerScalingMonitor implements TriggerPolicy, Observer {
 
         this.logger = SystemContext.getLogger();
 
-        this.CR_at_previous_k = Integer.MAX_VALUE;
-        this.CR_at_previous_k2 = Integer.MAX_VALUE;
-        dcr_at_previous_k = Integer.MAX_VALUE;
-        this.count = 3;
-        this.CR_at_previous_k2_is_ready = false; // CR(k-2)
-        this.triggeryRuleCount = 1;  //record the triggery rule execution times
-
-        String property;
-        property = reconfigurationProperties.getProperty(TriggerPolicyProperties.ND_MIN_PROPERTY);
-        ND_MIN = Integer.parseInt(property);
-
-        property = reconfigurationProperties.getProperty(TriggerPolicyProperties.CR_MAX_PROPERTY);
-        CR_MAX = Integer.parseInt(property);
-
-        property = reconfigurationProperties.getProperty(TriggerPolicyProperties.DELTA_ND_MIN_PROPERTY);
-        delta_ND_min = Integer.parseInt(property);
-
-        property = reconfigurationProperties.getProperty(ReasonerProperties.KE_PROPERTY);
-        k_e = Double.parseDouble(property);
-
-        property = reconfigurationProperties.getProperty(TriggerPolicyProperties.KSI_ND_PROPERTY);
-        KSI_ND = Double.parseDouble(property);
-
-        property = reconfigurationProperties.getProperty(TriggerPolicyProperties.DELTA_CR_MIN_PROPERTY);
-        DELTA_CR_MIN = Integer.parseInt(property);
-
-        // obtain the critical battery level    
-        property = reconfigurationProperties.getProperty(ReasonerProperties.E_CR_PROPERTY);
-        E_cr = Double.parseDouble(property);
-
-        // Read the ND_Ref property
-        property = reconfigurationProperties.getProperty(ReasonerProperties.NDRefPROPERTY);
-        NDRef_at_previous_k = Integer.parseInt(property);
+        this.trigger = new PowerScalingTrigger(reconfigurationProperties);
 
         try {
             this.cause = ANES_URN.create(Events.BL_EVENT);
@@ -192,10 +158,20 @@ public class PowerScalingMonitor implements TriggerPolicy, Observer {
         ND = new NodeDegreeObservation(reconfigurationProperties, DEMANESResources.NDObservationURN);
         ((NodeDegreeObservation) ND).start();
         BL = new BatteryLevelObservation(reconfigurationProperties, DEMANESResources.BLObservationURN);
+        PTX = new TransmissionPowerObservation(reconfigurationProperties, DEMANESResources.PTXObservationURN);
+        FWD = new ForwardingLoadObservation(reconfigurationProperties, DEMANESResources.FWDObservationURN);
+        RERR = new RouteErrorRateObservation(reconfigurationProperties, DEMANESResources.RERRObservationURN);
+        DLV = new DeliveryRatioObservation(reconfigurationProperties, DEMANESResources.DLVObservationURN);
+        RTT = new RoundTripTimeObservation(reconfigurationProperties, DEMANESResources.RTTObservationURN);
         reasonObservation = new ReasonObservation();
         reasonObservationValue = new ReasonObservationValue();
         addObservation(ND);
         addObservation(BL);
+        addObservation(PTX);
+        addObservation(FWD);
+        addObservation(RERR);
+        addObservation(DLV);
+        addObservation(RTT);
         addObservation(reasonObservation);
         addObservation(reasonObservationValue);
 
@@ -213,29 +189,68 @@ public class PowerScalingMonitor implements TriggerPolicy, Observer {
     }
 
     public void registerTriggerable(Triggerable t) {
-        this.triggerables.addElement(t);
+        if (t != null && !this.triggerables.contains(t)) {
+            this.triggerables.addElement(t);
+        }
     }
 
+    /**
+     * Resumes a suspended monitor. The monitoring thread is woken up at once
+     * and starts a new monitoring cycle.
+     */
     public void resume() {
 
-        if (this.state == PowerScalingMonitor.SUSPENDED) {
-            this.state = PowerScalingMonitor.STARTED;
+        synchronized (lifecycleLock) {
+            if (this.state == PowerScalingMonitor.SUSPENDED) {
+                this.state = PowerScalingMonitor.STARTED;
+                Clock.getClock().signalAll(lifecycleLock);
+            }
         }
 
     }
 
+    /**
+     * Starts the monitoring thread. A stopped monitor can be started again, in
+     * which case a new thread is spawned once the previous one has finished.
+     */
     public void start() {
 
-        if (this.state != PowerScalingMonitor.CREATED) {
-            return;
+        Thread previousThread;
+
+        synchronized (lifecycleLock) {
+            if (this.state != PowerScalingMonitor.CREATED && this.state != PowerScalingMonitor.DIED) {
+                return;
+            }
+            previousThread = this.monitorThread;
         }
 
-        this.state = PowerScalingMonitor.STARTED;
+        joinMonitorThread(previousThread);
+
+        synchronized (lifecycleLock) {
+            if (this.state != PowerScalingMonitor.CREATED && this.state != PowerScalingMonitor.DIED) {
+                return;
+            }
+
+            this.state = PowerScalingMonitor.STARTED;
 
-        new Thread(
+            this.monitorThread = new Thread(
                 new Runnable() {
                     public void run() {
+                        Clock clock = Clock.getClock();
+                        clock.register();
+                        try {
+                            monitor();
+                        } finally {
+                            clock.unregister();
+                        }
+                    }
+
+                    private void monitor() {
                         short sequenceNumber = 0;
+                        MessageBuffer baos = new MessageBuffer();
+                        CommunicationManager.Destination statusDestination = null;
+                        String statusAddress = null;
+                        String statusPort = null;
 
                         showOnMarqueeBinary(ND_at_k, ND_COLOR, nodeDegreeMessage, nodeDegreeMessageID);
                         showOnMarqueeBinary(((IRadioPolicyManager) Resources.lookup(IRadioPolicyManager.class)).getOutputPower() - RadioProperties.MINIMUM_POWER_TRANSMISSION, PTX_COLOR, transmissionPowerMessage, transmissionPowerMessageID);
@@ -249,58 +264,32 @@ public class PowerScalingMonitor implements TriggerPolicy, Observer {
                         logger.info("Number of neighbors at k: " + ND_at_k);
                         logger.info("PTX at k: " + (((IRadioPolicyManager) Resources.lookup(IRadioPolicyManager.class)).getOutputPower() - RadioProperties.MINIMUM_POWER_TRANSMISSION));
 
-                        while (true) {
+                        while (awaitStarted()) {
                             sequenceNumber++;
-                            if (reconfigurationProperties.getProperty("reset").equalsIgnoreCase("true")) {
-                                logger.info("#> RESETING transmission values");
-                                reconfigurationProperties.setProperty("reset", "false");
-
-                                int ptx = Integer.parseInt(reconfigurationProperties.getProperty("ptx"));
-
-                                ((IRadioPolicyManager) Resources.lookup(IRadioPolicyManager.class)).setOutputPower(ptx);
-                                CR_at_previous_k = Integer.MAX_VALUE;
-                                CR_at_previous_k2 = Integer.MAX_VALUE;
-                                dcr_at_previous_k = Integer.MAX_VALUE;
-                                count = 3;
-                                CR_at_previous_k2_is_ready = false; // CR(k-2)
-
-                                ((ResetActuator) context.getPTACT()).reset();
-                            }
+                            resetController();
 
                             ((NodeDegreeObservation) ND).updateNodeDegree();
 
                             interval = Long.parseLong(reconfigurationProperties.getProperty(TriggerPolicyProperties.TRIGGER_INTERVAL_PROPERTY, String.valueOf(DEFAULT_INTERVAL)));
                             logger.debug("Monitor interval set to " + interval + " milliseconds");
 
-                            Utils.sleep(interval - 500);
+                            // Suspending or stopping the monitor cuts the wait short
+                            // and skips the rest of the cycle.
+                            if (!awaitInterval(interval - 500)) {
+                                continue;
+                            }
 
                             if (reconfigurationProperties.getProperty("reasoning.status").equalsIgnoreCase("started")) {
-
-                                switch (getState()) {
-                                    case PowerScalingMonitor.STARTED:
-                                        if (triggerRules()) {
-                                            ((Triggerable) triggerables.firstElement()).trigger();
-                                        }
-                                        break;
-                                    case PowerScalingMonitor.DIED:
-                                        state = PowerScalingMonitor.CREATED;
-                                        break;
-                                    case PowerScalingMonitor.SUSPENDED:
-                                        break;
-                                    case PowerScalingMonitor.CREATED:
-                                        break;
-                                    default:
-                                        break;
+                                if (triggerRules()) {
+                                    fireTriggerables();
                                 }
-
                             }
-                            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                            DataOutputStream daos = new DataOutputStream(baos);
+                            baos.reset();
 
                             String destination = reconfigurationProperties.getProperty(SystemProperties.BASESTATION_ADDR_PROPERTY, SystemProperties.DEFAULT_BS_ADDRESS);
                             String port = reconfigurationProperties.getProperty(SystemProperties.BASESTATION_PORT, Integer.toString(SystemProperties.DEFAULT_BS_PORT));
 
-                            daos = getStatusMessage(sequenceNumber, destination);
+                            getStatusMessage(baos, sequenceNumber, destination);
                             recordStatus(sequenceNumber, destination);
 
                             showOnMarqueeBinary(ND_at_k, ND_COLOR, nodeDegreeMessage, nodeDegreeMessageID);
@@ -311,10 +300,58 @@ public class PowerScalingMonitor implements TriggerPolicy, Observer {
                                     batteryLevelMessage,
                                     batteryLevelMessageID);
 
-                            (context.getCommunicationManager()).send(baos, 0, CommunicationManager.MODE_UNICAST, destination + ":" + port, 0, 0);
+                            // The base station is only resolved again when it changes
+                            if (statusDestination == null || !destination.equals(statusAddress) || !port.equals(statusPort)) {
+                                statusDestination = (context.getCommunicationManager()).resolve(destination + ":" + port, CommunicationManager.MODE_UNICAST);
+                                statusAddress = destination;
+                                statusPort = port;
+                            }
+                            // In reliable mode the base station must acknowledge
+                            // every report to the remote management port of the node
+                            if (reconfigurationProperties.getProperty(SystemProperties.BASESTATION_RELIABLE, String.valueOf(SystemProperties.DEFAULT_BS_RELIABLE)).equalsIgnoreCase("true")) {
+                                if (!(context.getCommunicationManager()).sendReliable(statusDestination, baos.getBuffer(), 0, baos.size(), null)) {
+                                    logger.warning("PowerScalingMonitor.run: Status monitoring message " + sequenceNumber + " dropped, too many reports waiting for acknowledgement.");
+                                }
+                            } else {
+                                (context.getCommunicationManager()).sendAsync(statusDestination, baos, CommunicationManager.PRIORITY_NORMAL, CommunicationManager.IMPORTANCE_NORMAL, null);
+                            }
                             logger.info("Status monitoring message sent!");
                             logger.info("Number of neighbors at k: " + ND_at_k);
                             logger.info("PTX at k: " + (((IRadioPolicyManager) Resources.lookup(IRadioPolicyManager.class)).getOutputPower() - RadioProperties.MINIMUM_POWER_TRANSMISSION));
+                            logger.debug("Send queue depth " + (context.getCommunicationManager()).getQueueDepth(CommunicationManager.PRIORITY_NORMAL) + ", dropped " + (context.getCommunicationManager()).getDropped() + ", average latency " + (context.getCommunicationManager()).getAverageLatency() + " ms");
+                            logger.info("Forwarded packets and route errors at k: " + SystemContext.getRoutingMetrics().getForwardedInWindow() + ", " + SystemContext.getRoutingMetrics().getRouteErrorsInWindow());
+                            logger.info("Reliable delivery ratio, retries and round trip time at k: " + SystemContext.getReliableDelivery().getDeliveryRatio() + ", " + SystemContext.getReliableDelivery().getRetries() + ", " + SystemContext.getReliableDelivery().getLastRoundTripTime() + " ms");
+                        }
+
+                        logger.info("Power scaling monitor stopped");
+                    }
+
+                    /**
+                     * Resets the parts of the controller selected by the
+                     * reset property. Remote management sets the parameters
+                     * and the reset property holding the same lock, so they
+                     * are read here as a whole.
+                     */
+                    private void resetController() {
+                        synchronized (reconfigurationProperties) {
+                            String reset = reconfigurationProperties.getProperty(SystemProperties.RESET, SystemProperties.RESET_NONE);
+                            boolean resetAll = reset.equalsIgnoreCase(SystemProperties.RESET_ALL);
+
+                            if (resetAll || reset.indexOf(SystemProperties.RESET_POWER) >= 0) {
+                                logger.info("#> RESETING transmission values");
+                                int ptx = Integer.parseInt(reconfigurationProperties.getProperty("ptx"));
+
+                                ((IRadioPolicyManager) Resources.lookup(IRadioPolicyManager.class)).setOutputPower(ptx);
+                                ((ResetActuator) context.getPTACT()).reset();
+                            }
+
+                            if (resetAll || reset.indexOf(SystemProperties.RESET_TRIGGER) >= 0) {
+                                logger.info("#> RESETING trigger rules");
+                                trigger.reset();
+                                trigger.loadRules();
+                            }
+
+                            reconfigurationProperties.setProperty(SystemProperties.RESET, SystemProperties.RESET_NONE);
                         }
                     }
 
@@ -359,182 +396,110 @@ public class PowerScalingMonitor implements TriggerPolicy, Observer {
                         SystemContext.getMarquee().updateMessage(messageID, message);
                     }
                 }
-        ).start();
+            );
+            this.monitorThread.start();
+        }
+    }
+
+    /**
+     * Blocks the calling thread while the monitor is suspended.
+     *
+     * @return True if the monitor is started, false if it has been stopped.
+     */
+    private boolean awaitStarted() {
+        synchronized (lifecycleLock) {
+            while (this.state == PowerScalingMonitor.SUSPENDED) {
+                try {
+                    Clock.getClock().await(lifecycleLock, 0);
+                } catch (InterruptedException ex) {
+                    // Check the state again
+                }
+            }
+            return this.state == PowerScalingMonitor.STARTED;
+        }
+    }
+
+    /**
+     * Waits for {@code millis} milliseconds unless the monitor is suspended or
+     * stopped in the meantime.
+     *
+     * @param millis The time to wait in milliseconds.
+     * @return True if the monitor is still started after the wait, false
+     * otherwise.
+     */
+    private boolean awaitInterval(long millis) {
+        Clock clock = Clock.getClock();
+        long deadline = clock.currentTimeMillis() + millis;
+
+        synchronized (lifecycleLock) {
+            long remaining = millis;
+            while (this.state == PowerScalingMonitor.STARTED && remaining > 0) {
+                try {
+                    clock.await(lifecycleLock, remaining);
+                } catch (InterruptedException ex) {
+                    // Check the state again
+                }
+                remaining = deadline - clock.currentTimeMillis();
+            }
+            return this.state == PowerScalingMonitor.STARTED;
+        }
+    }
+
+    /**
+     * Waits for the monitoring thread {@code thread} to finish. Nothing is
+     * done if it is the calling thread, as when the monitor is stopped from a
+     * triggered reasoner.
+     *
+     * @param thread The monitoring thread.
+     */
+    private void joinMonitorThread(Thread thread) {
+        if (thread == null || thread == Thread.currentThread()) {
+            return;
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            if (SystemContext.isDebugActive() & SystemContext.isUSBConnected()) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private void fireTriggerables() {
+        for (int cursor = 0; cursor < triggerables.size(); cursor++) {
+            ((Triggerable) triggerables.elementAt(cursor)).trigger();
+        }
     }
 
     private boolean triggerRules() {
 
-        int ND_R_at_k = Integer.MAX_VALUE;
-        int NDRef;
-        String property = null;
         boolean result = false;
 
         try {
 
             // The nd_real indicates the current ND                              
             ND_at_k = Integer.parseInt(ND.getValue().toString());
-            logger.debug("triggerRules: ND read as " + ND_at_k);
 
             // The bl_real indicates the current power transmission in dBm   
             double bl_real = Double.parseDouble(BL.getValue().toString());
-            logger.debug("triggerRules: BL read as " + bl_real);
-
-            // PLEASE, THE LOAD OF THE PARAMETERS MUST BE DONE IN A SEPARATE METHOD.
-            // ALSO IT MUST BE SPLITTED INTO FIXED AND DYNAMIC PARAMETERS.
-            // obtain the node degree reference    
-            property = reconfigurationProperties.getProperty(ReasonerProperties.ND_R_PROPERTY);
-            ND_R_at_k = Integer.parseInt(property);
-            logger.debug("PSMonitor: Parsed property " + ReasonerProperties.ND_R_PROPERTY + " as " + ND_R_at_k);
-
-            // The following lines load the parameters that the trigger rules need
-            property = reconfigurationProperties.getProperty(TriggerPolicyProperties.KSI_ND_PROPERTY);
-            double KSI_ND = Double.parseDouble(property);
-
-            // --------------------------------------------------------------
-            // CALCULATION of variables requiered for the triggering policy
-            // ----------------------------------------------------------------
-            // Node Degree error at k
-            double e_ND = ND_R_at_k - ND_at_k;
-            // Baterry Level error at k
-            double e_BL = E_cr - bl_real;
-
-            // Communication Range at k
-            int CR_at_k = ((IRadioPolicyManager) Resources.lookup(IRadioPolicyManager.class)).getOutputPower();
 
-            logger.info("triggerRules: read CR_at_k = " + CR_at_k);
-            // now use the index
+            // Communication Range at k, as an index
+            int CR_at_k = ((IRadioPolicyManager) Resources.lookup(IRadioPolicyManager.class)).getOutputPower();
             CR_at_k = RadioProperties.getPTXIndex(RadioProperties.getRadioChannel(), CR_at_k);
 
-            logger.info("triggerRules: convert CR_at_k into index, now CR_at_k = " + CR_at_k);
-
-            logger.info("Run the triggery rule: " + this.triggeryRuleCount);
-            this.triggeryRuleCount++;
-
-            // If previous Communication Range is Integer.MAX_VALUE, this means
-            // that this is the first reading of the Communication Range, so the
-            // previous value of the Communication Range should be set to the
-            // actual one.
-            // And other variables are initialized here. 
-            if (CR_at_previous_k == Integer.MAX_VALUE) {
-
-                CR_at_previous_k = CR_at_k;
-                CR_at_previous_k2 = Integer.MAX_VALUE;
-                ND_Error_at_previous_k = e_ND;
-                ND_R_previous_k = ND_R_at_k;  // ND reference                
-            }
-
-            this.count--;
-            if (this.count == 0) {
-                this.CR_at_previous_k2_is_ready = true;
-                logger.info("dcr_at_previous_k2 now available !"); //dcr_at_previous_k2 now is valid
-            }
-            if (this.CR_at_previous_k2_is_ready) {
-
-                // To calcuate dcr = cr(k-1) - cr(k-2), use the index, other than real values
-                dcr_at_previous_k = CR_at_previous_k - CR_at_previous_k2;
-
-                logger.info("calcuate dcr_at_previous_k, CR_at_previous_k = " + CR_at_previous_k);
-                logger.info("calcuate dcr_at_previous_k, CR_at_previous_k2 = " + CR_at_previous_k2);
-                //  CR_at_previous_k2 = CR_at_previous_k; 
-            }
-
-            // Filtered Communication Range
-            int CR_f = MathUtils.round((CR_at_k + CR_at_previous_k) / 2);
-
-            CR_at_previous_k2 = CR_at_previous_k;
-            CR_at_previous_k = CR_at_k;
-
-            // Checking the rules in the order specified by the
-            // reconfiguration algorithm v10.
-            // ----------------------------------------------------------------
-            // The first rule:
-            // ----------------------------------------------------------------
-            // Updating power transmission when the reference value has been adapted. 
-            //(Rule No. 1 or secondary loop execution) 
-            if ((Math.abs(e_ND) <= KSI_ND)
-                    && (CR_f >= CR_MAX)
-                    && ((ND_R_previous_k != ND_R_at_k) || (e_ND < ND_Error_at_previous_k))) {
-                double previous_e_ND = e_ND;
-                // e_ND = -1 * alpha_KSI_ND * KSI_ND_at_k;
-                e_ND = -1 * (alpha_KSI_ND * DELTA_CR_MIN + DELTA_CR_MIN);
-
-                logger.info("triggerRules 1st triggered");
-
-                logger.info("triggerPolicy.SaturationRule1: e_ND adjusted to " + e_ND + " when CR_f is " + CR_f + " and previous e_ND was " + previous_e_ND + " with KSI_ND_at_k being " + KSI_ND);
-            }
-
-            // ----------------------------------------------------------------
-            // The second rule: 
-            // ----------------------------------------------------------------
-            logger.info("ND_Error_at_previous_k = " + ND_Error_at_previous_k);
-            logger.info("e_ND = " + e_ND);
-            logger.info("dcr_at_previous_k = " + dcr_at_previous_k);
-            logger.info("ND_Error_at_previous_k = " + ND_Error_at_previous_k);
-            logger.info("dcr_at_previous_k = " + dcr_at_previous_k);
-            logger.info("CR_at_previous_k = " + CR_at_previous_k);
-            logger.info("CR_at_previous_k2 = " + CR_at_previous_k2);
-            logger.info("DELTA_CR_MIN = " + DELTA_CR_MIN);
-            logger.info("KSI_ND = " + KSI_ND);
-
-            if (((ND_Error_at_previous_k * e_ND > 0) && (dcr_at_previous_k == 0))
-                    || ((e_ND < -KSI_ND) && (ND_Error_at_previous_k > KSI_ND) && (dcr_at_previous_k == DELTA_CR_MIN))
-                    || ((e_ND > KSI_ND) && (ND_Error_at_previous_k < -KSI_ND) && (dcr_at_previous_k == -DELTA_CR_MIN))) {
-
-                result = false;
-
-                logger.info("triggerRules 2nd triggered: DO NOTHING ");
-
-            } else {
-                // When the error in ND is greater than the tolerance at k or the
-                // ND is below the minimum, then the primary loop must be triggered.
-                if ((Math.abs(e_ND) > KSI_ND) || (ND_at_k < ND_MIN)) {
-                    try {
-                        this.cause = ANES_URN.create(Events.ND_EVENT);
-                        this.error = e_ND;
-                        result = true;
-                        logger.info("triggerRules 2nd rule triggered: ND event");
-                    } catch (ANES_URN_Exception ex) {
-                        ex.printStackTrace();
-                    }
-                }
-            }
-
-            // updating 
-            ND_Error_at_previous_k = e_ND; // e(k-1) update at this point
-            ND_R_previous_k = ND_R_at_k; // ND_R(k-1) update at this point
-
-            // ----------------------------------------------------------------
-            // The third rule: 
-            // ----------------------------------------------------------------
-            // When the battery reaches some critical value, then the secondary
-            // loop must be executed.
-            if (Math.abs(e_BL) <= 1.0 / k_e) {
+            result = trigger.evaluate(ND_at_k, bl_real, CR_at_k);
 
+            if (result) {
                 try {
-                    this.cause = ANES_URN.create(Events.BL_EVENT);
-                    this.error = e_BL;
-                    result = true;
-                    logger.info("triggerRules 3rd rule trigger");
+                    this.cause = ANES_URN.create(trigger.getEvent());
+                    this.error = trigger.getError();
                 } catch (ANES_URN_Exception ex) {
-                    ex.printStackTrace();
+                    result = false;
+                    logger.severe("PowerScalingMonitor.triggerRules: " + trigger.getEvent() + " is not a valid event URN");
                 }
             }
 
-            // EXTRA RULE to update the ND_R value upon a modification of the ND_Ref property
-            property = reconfigurationProperties.getProperty(ReasonerProperties.NDRefPROPERTY);
-            NDRef = Integer.parseInt(property);
-            if (NDRef != NDRef_at_previous_k) {
-                try {
-                    this.cause = ANES_URN.create(Events.BL_EVENT);
-                    this.error = e_BL;
-                    result = true;
-                    logger.info("NDRef updated -> trigger 2nd loop for updating ND_r");
-                } catch (ANES_URN_Exception ex) {
-                    ex.printStackTrace();
-                }
-            }
-            NDRef_at_previous_k = NDRef;
-
         } catch (ObservationInvocationException ex) {
             ex.printStackTrace();
         } catch (Exception ex) {
@@ -544,18 +509,46 @@ public class PowerScalingMonitor implements TriggerPolicy, Observer {
         return result;
     }
 
+    /**
+     * Stops the monitor, waits for the monitoring thread to finish and clears
+     * the state of the trigger rules.
+     */
     public void stop() {
 
-        if (this.state == PowerScalingMonitor.STARTED) {
+        Thread stoppedThread;
+
+        synchronized (lifecycleLock) {
+            if (this.state != PowerScalingMonitor.STARTED && this.state != PowerScalingMonitor.SUSPENDED) {
+                return;
+            }
             this.state = PowerScalingMonitor.DIED;
+            stoppedThread = this.monitorThread;
+            Clock.getClock().signalAll(lifecycleLock);
+        }
+
+        joinMonitorThread(stoppedThread);
+
+        synchronized (lifecycleLock) {
+            // Unless a concurrent start() has already launched a new thread
+            if (this.state == PowerScalingMonitor.DIED) {
+                trigger.reset();
+            }
         }
 
     }
 
+    /**
+     * Suspends the monitor. The monitoring thread finishes its current cycle
+     * and then waits, without any processing nor radio activity, until the
+     * monitor is resumed or stopped.
+     */
     public void suspend() {
 
-        if (this.state == PowerScalingMonitor.STARTED) {
-            this.state = PowerScalingMonitor.SUSPENDED;
+        synchronized (lifecycleLock) {
+            if (this.state == PowerScalingMonitor.STARTED) {
+                this.state = PowerScalingMonitor.SUSPENDED;
+                Clock.getClock().signalAll(lifecycleLock);
+            }
         }
     }
 
@@ -579,20 +572,26 @@ public class PowerScalingMonitor implements TriggerPolicy, Observer {
     }
 
     public void setState(int state) {
-        this.state = state;
+        synchronized (lifecycleLock) {
+            this.state = state;
+            Clock.getClock().signalAll(lifecycleLock);
+        }
     }
 
     public int getState() {
-        return this.state;
+        synchronized (lifecycleLock) {
+            return this.state;
+        }
     }
 
     public void setInterval(long interval) {
         this.interval = interval;
     }
 
-    private DataOutputStream getStatusMessage(int sequenceNumber, String destination) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    private DataOutputStream getStatusMessage(ByteArrayOutputStream baos, int sequenceNumber, String destination) {
         DataOutputStream daos = new DataOutputStream(baos);
+        RoutingMetrics routingMetrics = SystemContext.getRoutingMetrics();
+        ReliableDelivery reliableDelivery = SystemContext.getReliableDelivery();
 
         try {
             switch (Byte.parseByte(reconfigurationProperties.getProperty(SystemProperties.EXECUTION_CONTEXT, Integer.toString(SystemProperties.DEFAULT_EXECUTION_CONTEXT)))) {
@@ -602,6 +601,12 @@ public class PowerScalingMonitor implements TriggerPolicy, Observer {
                     String NDEGurn = "urn:dmns:ndeg";
                     String NPTXurn = "urn:dmns:nptx";
                     String SYSIDurn = "urn:dmns:sysid";
+                    String NFWDurn = "urn:dmns:nfwd";
+                    String RERRurn = "urn:dmns:rerr";
+                    String RCHGurn = "urn:dmns:rchg";
+                    String RDLVurn = "urn:dmns:rdlv";
+                    String RRTXurn = "urn:dmns:rrtx";
+                    String RRTTurn = "urn:dmns:rrtt";
                     String IEEELocalAddress = IEEEAddress.toDottedHex(((IRadioPolicyManager) Resources.lookup(IRadioPolicyManager.class)).getIEEEAddress());
 
                     daos.writeByte(0xA0);
@@ -629,10 +634,34 @@ public class PowerScalingMonitor implements TriggerPolicy, Observer {
                     daos.write(NPTXurn.getBytes(), 0, NPTXurn.length());
                     daos.writeByte(1);
                     daos.writeByte(((IRadioPolicyManager) Resources.lookup(IRadioPolicyManager.class)).getOutputPower());
+                    daos.writeByte(NFWDurn.length());
+                    daos.write(NFWDurn.getBytes(), 0, NFWDurn.length());
+                    daos.writeByte(0x04);
+                    daos.writeInt(routingMetrics.getForwardedInWindow());
+                    daos.writeByte(RERRurn.length());
+                    daos.write(RERRurn.getBytes(), 0, RERRurn.length());
+                    daos.writeByte(0x04);
+                    daos.writeInt(routingMetrics.getRouteErrorsInWindow());
+                    daos.writeByte(RCHGurn.length());
+                    daos.write(RCHGurn.getBytes(), 0, RCHGurn.length());
+                    daos.writeByte(0x08);
+                    daos.writeLong(routingMetrics.getEventCount(RoutingMetrics.RREQ_SENT) + routingMetrics.getEventCount(RoutingMetrics.RREP_SENT));
+                    daos.writeByte(RDLVurn.length());
+                    daos.write(RDLVurn.getBytes(), 0, RDLVurn.length());
+                    daos.writeByte(0x08);
+                    daos.writeDouble(reliableDelivery.getDeliveryRatio());
+                    daos.writeByte(RRTXurn.length());
+                    daos.write(RRTXurn.getBytes(), 0, RRTXurn.length());
+                    daos.writeByte(0x08);
+                    daos.writeLong(reliableDelivery.getRetries());
+                    daos.writeByte(RRTTurn.length());
+                    daos.write(RRTTurn.getBytes(), 0, RRTTurn.length());
+                    daos.writeByte(0x08);
+                    daos.writeLong(reliableDelivery.getLastRoundTripTime());
                     break;
                 case SystemProperties.EXECUTION_CONTEXT_EXPERIMENTAL:
                     daos.writeLong(sequenceNumber);
-                    daos.writeLong(System.currentTimeMillis());
+                    daos.writeLong(Clock.getClock().currentTimeMillis());
                     daos.writeByte(ND_at_k);
                     daos.writeDouble((((ESpot) Resources.lookup(ESpot.class)).getPowerController().getBattery().getMaximumCapacity()));
                     daos.writeDouble((((ESpot) Resources.lookup(ESpot.class)).getPowerController().getBattery().getAvailableCapacity()));
@@ -642,7 +671,7 @@ public class PowerScalingMonitor implements TriggerPolicy, Observer {
                     daos.writeDouble(Double.parseDouble(reconfigurationProperties.getProperty(ReasonerProperties.KCR_PROPERTY)));
                     daos.writeDouble(Double.parseDouble(reconfigurationProperties.getProperty(ReasonerProperties.E_CR_PROPERTY)));
                     routingManager.findRoute(IEEEAddress.toLong(destination), null, Long.valueOf(sequenceNumber));
-                    Utils.sleep(500);
+                    Clock.getClock().sleep(500);
                     daos.writeLong(routingManager.getRouteInfo(IEEEAddress.toLong(destination)).nextHop);
                     break;
                 default:
@@ -661,7 +690,7 @@ public class PowerScalingMonitor implements TriggerPolicy, Observer {
             StringBuffer csvdata = new StringBuffer();
             csvdata.append(sequenceNumber);
             csvdata.append(',');
-            csvdata.append(System.currentTimeMillis());
+            csvdata.append(Clock.getClock().currentTimeMillis());
             csvdata.append(',');
             csvdata.append(ND_at_k);
             csvdata.append(',');
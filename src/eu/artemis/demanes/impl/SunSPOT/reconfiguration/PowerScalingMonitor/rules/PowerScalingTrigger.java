@@ -0,0 +1,257 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licenses/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.reconfiguration.PowerScalingMonitor.rules;
+
+import com.sun.spot.core.util.Properties;
+import eu.artemis.demanes.impl.SunSPOT.common.ReasonerProperties;
+import eu.artemis.demanes.impl.SunSPOT.common.ReconfigurationContext;
+import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.common.TriggerPolicyProperties;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
+
+/**
+ * State of the triggering policy of the {@code PowerScalingMonitor}. It keeps
+ * the values of the previous iterations, builds the {@link TriggerSignals} and
+ * evaluates the {@link TriggerRuleSet} on them.
+ *
+ * It does not access the hardware, so it can be fed either with the actual
+ * readings or with recorded ones.
+ *
+ * @author Vicente Hern&aacute;ndez D&iacute;z
+ * @author Yuanjiang Huang
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class PowerScalingTrigger {
+
+    private Properties reconfigurationProperties;
+    private TriggerRuleSet rules;
+    private double[] signals;
+    private Logger logger;
+
+    private int CR_at_previous_k;  // CR(k-1)
+
+    private double ND_Error_at_previous_k; // e(k-1)
+    private int dcr_at_previous_k;   // dcr(k-1)
+    private int CR_at_previous_k2;   // CR(k-2)
+    private int ND_R_previous_k;  // ND_R(k-1)
+    private int NDRef_at_previous_k; // NDRef(k-1) -- Used only for updating the value after an external updating of the parameter
+
+    // fixed parameters for the controller
+    private int ND_MIN;
+    private int CR_MAX;
+    private double k_e;
+    private double alpha_KSI_ND;
+    private int DELTA_CR_MIN;
+    private double E_cr;
+
+    private int count;
+    private boolean CR_at_previous_k2_is_ready;  // CR(k-2) is ready only after 2 rounds triggery policy. 
+
+    /**
+     * Public constructor using the reconfiguration properties
+     * {@code reconfigurationProperties}.
+     *
+     * @param reconfigurationProperties The reconfiguration properties.
+     */
+    public PowerScalingTrigger(Properties reconfigurationProperties) {
+        this.reconfigurationProperties = reconfigurationProperties;
+        this.logger = SystemContext.getLogger();
+
+        String property;
+        property = reconfigurationProperties.getProperty(TriggerPolicyProperties.ND_MIN_PROPERTY);
+        ND_MIN = Integer.parseInt(property);
+
+        property = reconfigurationProperties.getProperty(TriggerPolicyProperties.CR_MAX_PROPERTY);
+        CR_MAX = Integer.parseInt(property);
+
+        property = reconfigurationProperties.getProperty(ReasonerProperties.KE_PROPERTY);
+        k_e = Double.parseDouble(property);
+
+        property = reconfigurationProperties.getProperty(TriggerPolicyProperties.DELTA_CR_MIN_PROPERTY);
+        DELTA_CR_MIN = Integer.parseInt(property);
+
+        // obtain the critical battery level    
+        property = reconfigurationProperties.getProperty(ReasonerProperties.E_CR_PROPERTY);
+        E_cr = Double.parseDouble(property);
+
+        // Read the ND_Ref property
+        property = reconfigurationProperties.getProperty(ReasonerProperties.NDRefPROPERTY);
+        NDRef_at_previous_k = Integer.parseInt(property);
+
+        signals = TriggerSignals.newSignals();
+        reset();
+        loadRules();
+    }
+
+    /**
+     * Forget the previous communication ranges, as done after resetting the
+     * transmission power.
+     */
+    public void reset() {
+        CR_at_previous_k = Integer.MAX_VALUE;
+        CR_at_previous_k2 = Integer.MAX_VALUE;
+        dcr_at_previous_k = Integer.MAX_VALUE;
+        count = 3;
+        CR_at_previous_k2_is_ready = false; // CR(k-2)
+    }
+
+    /**
+     * Compile the trigger rules declared in the reconfiguration properties. If
+     * they are malformed the previous rules are kept, or the default ones are
+     * used if there are no previous rules.
+     */
+    public void loadRules() {
+        try {
+            rules = TriggerRuleSet.compile(reconfigurationProperties);
+            logger.debug("PowerScalingTrigger: " + rules.size() + " trigger rules loaded");
+        } catch (TriggerRuleException ex) {
+            if (rules != null) {
+                logger.severe("PowerScalingTrigger: " + ex.getMessage() + ". Keeping the previous trigger rules.");
+                return;
+            }
+            logger.severe("PowerScalingTrigger: " + ex.getMessage() + ". Using the default trigger rules.");
+            try {
+                rules = TriggerRuleSet.compile(ReconfigurationContext.getDefaultTriggerRules());
+            } catch (TriggerRuleException fatal) {
+                throw new RuntimeException(fatal.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Evaluate the trigger rules for the iteration k.
+     *
+     * @param ND_at_k The node degree at k.
+     * @param bl_real The battery level at k.
+     * @param CR_at_k The communication range at k, as an index of the
+     * available transmission powers.
+     * @return True if the reasoner must be triggered, false otherwise.
+     */
+    public boolean evaluate(int ND_at_k, double bl_real, int CR_at_k) {
+        boolean result;
+
+        // The dynamic parameters are read in every iteration
+        int ND_R_at_k = Integer.parseInt(reconfigurationProperties.getProperty(ReasonerProperties.ND_R_PROPERTY));
+        double KSI_ND = Double.parseDouble(reconfigurationProperties.getProperty(TriggerPolicyProperties.KSI_ND_PROPERTY));
+        int NDRef = Integer.parseInt(reconfigurationProperties.getProperty(ReasonerProperties.NDRefPROPERTY));
+
+        // --------------------------------------------------------------
+        // CALCULATION of variables requiered for the triggering policy
+        // ----------------------------------------------------------------
+        // Node Degree error at k
+        double e_ND = ND_R_at_k - ND_at_k;
+        // Baterry Level error at k
+        double e_BL = E_cr - bl_real;
+
+        // If previous Communication Range is Integer.MAX_VALUE, this means
+        // that this is the first reading of the Communication Range, so the
+        // previous value of the Communication Range should be set to the
+        // actual one.
+        // And other variables are initialized here. 
+        if (CR_at_previous_k == Integer.MAX_VALUE) {
+
+            CR_at_previous_k = CR_at_k;
+            CR_at_previous_k2 = Integer.MAX_VALUE;
+            ND_Error_at_previous_k = e_ND;
+            ND_R_previous_k = ND_R_at_k;  // ND reference                
+        }
+
+        this.count--;
+        if (this.count == 0) {
+            this.CR_at_previous_k2_is_ready = true;
+        }
+        if (this.CR_at_previous_k2_is_ready) {
+            // To calcuate dcr = cr(k-1) - cr(k-2), use the index, other than real values
+            dcr_at_previous_k = CR_at_previous_k - CR_at_previous_k2;
+        }
+
+        // Filtered Communication Range
+        int CR_f = (CR_at_k + CR_at_previous_k) / 2;
+
+        CR_at_previous_k2 = CR_at_previous_k;
+        CR_at_previous_k = CR_at_k;
+
+        // Checking the rules in the order specified by the trigger rule
+        // table (by default, the reconfiguration algorithm v10).
+        signals[TriggerSignals.E_ND] = e_ND;
+        signals[TriggerSignals.E_ND_PREV] = ND_Error_at_previous_k;
+        signals[TriggerSignals.E_BL] = e_BL;
+        signals[TriggerSignals.ND] = ND_at_k;
+        signals[TriggerSignals.ND_R] = ND_R_at_k;
+        signals[TriggerSignals.ND_R_PREV] = ND_R_previous_k;
+        signals[TriggerSignals.ND_REF] = NDRef;
+        signals[TriggerSignals.ND_REF_PREV] = NDRef_at_previous_k;
+        signals[TriggerSignals.CR] = CR_at_k;
+        signals[TriggerSignals.CR_F] = CR_f;
+        signals[TriggerSignals.DCR_PREV] = dcr_at_previous_k;
+        signals[TriggerSignals.KSI_ND] = KSI_ND;
+        signals[TriggerSignals.ND_MIN] = ND_MIN;
+        signals[TriggerSignals.CR_MAX] = CR_MAX;
+        signals[TriggerSignals.DELTA_CR_MIN] = DELTA_CR_MIN;
+        signals[TriggerSignals.E_ND_SAT] = -1 * (alpha_KSI_ND * DELTA_CR_MIN + DELTA_CR_MIN);
+        signals[TriggerSignals.E_BL_TOL] = 1.0 / k_e;
+
+        result = rules.evaluate(signals);
+
+        if (logger.isLoggable(Level.DEBUG)) {
+            for (int index = 0; index < rules.getFiredCount(); index++) {
+                logger.debug("TRIGGER," + rules.trace(rules.getFired(index), signals));
+            }
+        }
+
+        // updating 
+        ND_Error_at_previous_k = signals[TriggerSignals.E_ND]; // e(k-1) update at this point
+        ND_R_previous_k = ND_R_at_k; // ND_R(k-1) update at this point
+        NDRef_at_previous_k = NDRef;
+
+        return result;
+    }
+
+    /**
+     * Get the event fired in the last evaluation.
+     *
+     * @return The URN of the event, or null if no event has been fired.
+     */
+    public String getEvent() {
+        return rules.getFiredEvent();
+    }
+
+    /**
+     * Get the error reported with the event fired in the last evaluation.
+     *
+     * @return The error.
+     */
+    public double getError() {
+        return rules.getFiredError();
+    }
+
+    /**
+     * Get the compiled trigger rules, with their hit counters.
+     *
+     * @return The trigger rules.
+     */
+    public TriggerRuleSet getRules() {
+        return rules;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licenses/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.reconfiguration.PowerScalingMonitor.rules;
+
+/**
+ * Thrown when a trigger rule definition cannot be compiled.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class TriggerRuleException extends Exception {
+
+    /**
+     * Constructs a {@code TriggerRuleException} for the rule {@code rule} with
+     * the specified reason.
+     *
+     * @param rule The name of the rule.
+     * @param reason The reason.
+     */
+    public TriggerRuleException(String rule, String reason) {
+        super("TriggerRule " + rule + ": " + reason);
+    }
+}
@@ -0,0 +1,670 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licenses/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.reconfiguration.PowerScalingMonitor.rules;
+
+import com.sun.spot.core.util.Properties;
+import eu.artemis.demanes.impl.SunSPOT.common.Events;
+import eu.artemis.demanes.impl.SunSPOT.common.TriggerPolicyProperties;
+import java.util.Vector;
+
+/**
+ * Compiled table of trigger rules.
+ *
+ * The rules are declared in the reconfiguration properties. The property
+ * {@code trigger.rules} lists the names of the rules, in evaluation order,
+ * separated by commas, and every rule {@code name} is defined by:
+ * <ul>
+ * <li>{@code trigger.rule.name.when}: the condition, as a disjunction
+ * ({@code |}) of conjunctions ({@code &}) of comparisons ({@code <},
+ * {@code <=}, {@code >}, {@code >=}, {@code ==}, {@code !=}) between terms.
+ * A term is a factor or the product ({@code *}) of two factors, and a factor
+ * is a number, a {@link TriggerSignals signal}, a negated signal
+ * ({@code -e_ND}) or the absolute value of a signal ({@code abs(e_ND)}).</li>
+ * <li>{@code trigger.rule.name.then}: the action, one of {@code none},
+ * {@code set signal = term} or {@code fire event [term]}, where
+ * {@code event} is {@code ND}, {@code BL} or an event URN and the optional
+ * term is the error reported with the event.</li>
+ * <li>{@code trigger.rule.name.unless} (optional): the name of a previous
+ * rule. When that rule has fired in the same evaluation this one is
+ * skipped.</li>
+ * </ul>
+ *
+ * The definitions are compiled once into flat arrays, so the evaluation does
+ * not allocate and stops checking a rule as soon as its outcome is known.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class TriggerRuleSet {
+
+    /** The rule does nothing but recording that it has fired. */
+    public static final byte ACTION_NONE = 0;
+    /** The rule sets the value of a signal. */
+    public static final byte ACTION_SET = 1;
+    /** The rule fires an event that triggers the reasoner. */
+    public static final byte ACTION_FIRE = 2;
+
+    private static final byte OP_LT = 0;
+    private static final byte OP_LE = 1;
+    private static final byte OP_GT = 2;
+    private static final byte OP_GE = 3;
+    private static final byte OP_EQ = 4;
+    private static final byte OP_NE = 5;
+
+    private static final String[] OPERATORS = {"<", "<=", ">", ">=", "==", "!="};
+
+    private static final byte MOD_NONE = 0;
+    private static final byte MOD_NEG = 1;
+    private static final byte MOD_ABS = 2;
+
+    // Factors
+    private int[] factorSlot;
+    private byte[] factorModifier;
+    private double[] factorConstant;
+
+    // Terms: product of up to two factors
+    private int[] termFirst;
+    private int[] termSecond;
+
+    // Comparisons between two terms
+    private int[] conditionLeft;
+    private byte[] conditionOperator;
+    private int[] conditionRight;
+
+    // Conjunctions of conditions
+    private int[] clauseStart;
+    private int[] clauseEnd;
+
+    // Rules: disjunctions of clauses plus an action
+    private String[] ruleName;
+    private int[] ruleClauseStart;
+    private int[] ruleClauseEnd;
+    private byte[] ruleAction;
+    private int[] ruleTarget;
+    private int[] ruleTerm;
+    private String[] ruleEvent;
+    private int[] ruleUnless;
+    private int[][] ruleSignals;
+    private long[] ruleHits;
+
+    private boolean[] firedNow;
+    private int[] fired;
+    private int firedCount;
+    private String firedEvent;
+    private double firedError;
+
+    private long evaluations;
+    private long conditionChecks;
+
+    // Compilation buffers
+    private Vector factors;
+    private Vector terms;
+    private Vector conditions;
+    private Vector clauses;
+
+    private TriggerRuleSet() {
+    }
+
+    /**
+     * Compiles the trigger rules declared in {@code properties}.
+     *
+     * @param properties The reconfiguration properties.
+     * @return The compiled rule set.
+     * @throws TriggerRuleException If any of the rules is malformed.
+     */
+    public static TriggerRuleSet compile(Properties properties) throws TriggerRuleException {
+        String list = properties.getProperty(TriggerPolicyProperties.TRIGGER_RULES_PROPERTY);
+        if (list == null) {
+            throw new TriggerRuleException("*", "property " + TriggerPolicyProperties.TRIGGER_RULES_PROPERTY + " not found");
+        }
+
+        Vector names = split(list, ',');
+        TriggerRuleSet ruleSet = new TriggerRuleSet();
+        ruleSet.factors = new Vector();
+        ruleSet.terms = new Vector();
+        ruleSet.conditions = new Vector();
+        ruleSet.clauses = new Vector();
+
+        int count = names.size();
+        ruleSet.ruleName = new String[count];
+        ruleSet.ruleClauseStart = new int[count];
+        ruleSet.ruleClauseEnd = new int[count];
+        ruleSet.ruleAction = new byte[count];
+        ruleSet.ruleTarget = new int[count];
+        ruleSet.ruleTerm = new int[count];
+        ruleSet.ruleEvent = new String[count];
+        ruleSet.ruleUnless = new int[count];
+        ruleSet.ruleSignals = new int[count][];
+        ruleSet.ruleHits = new long[count];
+        ruleSet.firedNow = new boolean[count];
+        ruleSet.fired = new int[count];
+
+        for (int rule = 0; rule < count; rule++) {
+            String name = (String) names.elementAt(rule);
+            for (int previous = 0; previous < rule; previous++) {
+                if (ruleSet.ruleName[previous].equals(name)) {
+                    throw new TriggerRuleException(name, "duplicated rule");
+                }
+            }
+            ruleSet.ruleName[rule] = name;
+            ruleSet.compileRule(rule, properties);
+        }
+
+        ruleSet.flatten();
+        return ruleSet;
+    }
+
+    /**
+     * Evaluates every rule, in order, against the given signal values. Rules
+     * with a {@code set} action update {@code signals} so the following rules
+     * see the new value.
+     *
+     * @param signals The signal values, indexed by {@link TriggerSignals} slot.
+     * @return True if any of the fired rules fires an event, false otherwise.
+     */
+    public boolean evaluate(double[] signals) {
+        boolean result = false;
+
+        evaluations++;
+        firedCount = 0;
+        firedEvent = null;
+        firedError = 0;
+
+        for (int rule = 0; rule < ruleName.length; rule++) {
+            firedNow[rule] = false;
+
+            if (ruleUnless[rule] >= 0 && firedNow[ruleUnless[rule]]) {
+                continue;
+            }
+
+            if (!matches(rule, signals)) {
+                continue;
+            }
+
+            firedNow[rule] = true;
+            ruleHits[rule]++;
+            fired[firedCount++] = rule;
+
+            switch (ruleAction[rule]) {
+                case ACTION_SET:
+                    signals[ruleTarget[rule]] = term(ruleTerm[rule], signals);
+                    break;
+                case ACTION_FIRE:
+                    firedEvent = ruleEvent[rule];
+                    firedError = ruleTerm[rule] < 0 ? 0 : term(ruleTerm[rule], signals);
+                    result = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the number of rules fired in the last evaluation.
+     *
+     * @return The number of fired rules.
+     */
+    public int getFiredCount() {
+        return firedCount;
+    }
+
+    /**
+     * Gets the index of the {@code n}-th rule fired in the last evaluation.
+     *
+     * @param n The position of the rule among the fired ones.
+     * @return The index of the rule.
+     */
+    public int getFired(int n) {
+        return fired[n];
+    }
+
+    /**
+     * Gets the event URN fired in the last evaluation. When several rules fire
+     * an event, the last one prevails.
+     *
+     * @return The event URN, or null if no event has been fired.
+     */
+    public String getFiredEvent() {
+        return firedEvent;
+    }
+
+    /**
+     * Gets the error reported with the event fired in the last evaluation.
+     *
+     * @return The error.
+     */
+    public double getFiredError() {
+        return firedError;
+    }
+
+    /**
+     * Gets the number of rules in the set.
+     *
+     * @return The number of rules.
+     */
+    public int size() {
+        return ruleName.length;
+    }
+
+    /**
+     * Gets the name of a rule.
+     *
+     * @param rule The index of the rule.
+     * @return The name of the rule.
+     */
+    public String getName(int rule) {
+        return ruleName[rule];
+    }
+
+    /**
+     * Gets the number of times that a rule has fired.
+     *
+     * @param rule The index of the rule.
+     * @return The number of hits of the rule.
+     */
+    public long getHits(int rule) {
+        return ruleHits[rule];
+    }
+
+    /**
+     * Gets the number of evaluations done.
+     *
+     * @return The number of evaluations.
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * Gets the number of comparisons checked in all the evaluations, which is
+     * the measure of the evaluation cost.
+     *
+     * @return The number of comparisons checked.
+     */
+    public long getConditionChecks() {
+        return conditionChecks;
+    }
+
+    /**
+     * Clears the hit counters and the evaluation statistics.
+     */
+    public void resetCounters() {
+        for (int rule = 0; rule < ruleHits.length; rule++) {
+            ruleHits[rule] = 0;
+        }
+        evaluations = 0;
+        conditionChecks = 0;
+    }
+
+    /**
+     * Builds the trace record of a fired rule as a CSV line with the
+     * evaluation number, the rule name, its hits, and the values of the
+     * signals the rule refers to.
+     *
+     * @param rule The index of the rule.
+     * @param signals The signal values after the evaluation.
+     * @return The trace record.
+     */
+    public String trace(int rule, double[] signals) {
+        StringBuffer record = new StringBuffer();
+        record.append(evaluations);
+        record.append(',');
+        record.append(ruleName[rule]);
+        record.append(',');
+        record.append(ruleHits[rule]);
+        for (int index = 0; index < ruleSignals[rule].length; index++) {
+            int slot = ruleSignals[rule][index];
+            record.append(',');
+            record.append(TriggerSignals.getName(slot));
+            record.append('=');
+            record.append(signals[slot]);
+        }
+        if (ruleAction[rule] == ACTION_FIRE) {
+            record.append(",event=");
+            record.append(ruleEvent[rule]);
+        }
+        return record.toString();
+    }
+
+    /**
+     * Returns the hit counters of every rule.
+     *
+     * @return A string with the hit counter of every rule.
+     */
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("evaluations=");
+        buffer.append(evaluations);
+        buffer.append(",checks=");
+        buffer.append(conditionChecks);
+        for (int rule = 0; rule < ruleName.length; rule++) {
+            buffer.append(',');
+            buffer.append(ruleName[rule]);
+            buffer.append('=');
+            buffer.append(ruleHits[rule]);
+        }
+        return buffer.toString();
+    }
+
+    // EVALUATION
+    private boolean matches(int rule, double[] signals) {
+        for (int clause = ruleClauseStart[rule]; clause < ruleClauseEnd[rule]; clause++) {
+            boolean holds = true;
+            for (int condition = clauseStart[clause]; holds && condition < clauseEnd[clause]; condition++) {
+                holds = condition(condition, signals);
+            }
+            if (holds) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean condition(int condition, double[] signals) {
+        double left = term(conditionLeft[condition], signals);
+        double right = term(conditionRight[condition], signals);
+
+        conditionChecks++;
+
+        switch (conditionOperator[condition]) {
+            case OP_LT:
+                return left < right;
+            case OP_LE:
+                return left <= right;
+            case OP_GT:
+                return left > right;
+            case OP_GE:
+                return left >= right;
+            case OP_EQ:
+                return left == right;
+            case OP_NE:
+                return left != right;
+            default:
+                return false;
+        }
+    }
+
+    private double term(int term, double[] signals) {
+        double value = factor(termFirst[term], signals);
+        if (termSecond[term] >= 0) {
+            value *= factor(termSecond[term], signals);
+        }
+        return value;
+    }
+
+    private double factor(int factor, double[] signals) {
+        double value = factorSlot[factor] < 0 ? factorConstant[factor] : signals[factorSlot[factor]];
+
+        switch (factorModifier[factor]) {
+            case MOD_NEG:
+                return -value;
+            case MOD_ABS:
+                return Math.abs(value);
+            default:
+                return value;
+        }
+    }
+
+    // COMPILATION
+    private void compileRule(int rule, Properties properties) throws TriggerRuleException {
+        String name = ruleName[rule];
+        String prefix = TriggerPolicyProperties.TRIGGER_RULE_PREFIX + name;
+
+        String when = properties.getProperty(prefix + TriggerPolicyProperties.TRIGGER_RULE_WHEN_SUFFIX);
+        String then = properties.getProperty(prefix + TriggerPolicyProperties.TRIGGER_RULE_THEN_SUFFIX);
+        String unless = properties.getProperty(prefix + TriggerPolicyProperties.TRIGGER_RULE_UNLESS_SUFFIX);
+
+        if (when == null || then == null) {
+            throw new TriggerRuleException(name, "condition or action not defined");
+        }
+
+        Vector slots = new Vector();
+
+        // Condition
+        ruleClauseStart[rule] = clauses.size();
+        Vector alternatives = split(when, '|');
+        for (int alternative = 0; alternative < alternatives.size(); alternative++) {
+            Vector comparisons = split((String) alternatives.elementAt(alternative), '&');
+            int start = conditions.size();
+            for (int comparison = 0; comparison < comparisons.size(); comparison++) {
+                compileCondition(name, (String) comparisons.elementAt(comparison), slots);
+            }
+            clauses.addElement(new int[]{start, conditions.size()});
+        }
+        ruleClauseEnd[rule] = clauses.size();
+
+        // Action
+        ruleTarget[rule] = -1;
+        ruleTerm[rule] = -1;
+        ruleEvent[rule] = null;
+        String action = then.trim();
+        if (action.equals("none")) {
+            ruleAction[rule] = ACTION_NONE;
+        } else if (action.startsWith("set ")) {
+            int equals = action.indexOf('=');
+            if (equals < 0) {
+                throw new TriggerRuleException(name, "malformed action \"" + action + "\"");
+            }
+            ruleAction[rule] = ACTION_SET;
+            ruleTarget[rule] = compileSlot(name, action.substring(4, equals).trim(), slots);
+            ruleTerm[rule] = compileTerm(name, action.substring(equals + 1), slots);
+        } else if (action.startsWith("fire ")) {
+            String arguments = action.substring(5).trim();
+            int space = arguments.indexOf(' ');
+            String event = space < 0 ? arguments : arguments.substring(0, space);
+            ruleAction[rule] = ACTION_FIRE;
+            if (event.equals("ND")) {
+                ruleEvent[rule] = Events.ND_EVENT;
+            } else if (event.equals("BL")) {
+                ruleEvent[rule] = Events.BL_EVENT;
+            } else if (event.startsWith("urn:")) {
+                ruleEvent[rule] = event;
+            } else {
+                throw new TriggerRuleException(name, "unknown event \"" + event + "\"");
+            }
+            if (space >= 0) {
+                ruleTerm[rule] = compileTerm(name, arguments.substring(space + 1), slots);
+            }
+        } else {
+            throw new TriggerRuleException(name, "unknown action \"" + action + "\"");
+        }
+
+        // Exclusion
+        ruleUnless[rule] = -1;
+        if (unless != null && unless.trim().length() > 0) {
+            for (int previous = 0; previous < rule; previous++) {
+                if (ruleName[previous].equals(unless.trim())) {
+                    ruleUnless[rule] = previous;
+                }
+            }
+            if (ruleUnless[rule] < 0) {
+                throw new TriggerRuleException(name, "\"" + unless.trim() + "\" is not a previous rule");
+            }
+        }
+
+        ruleSignals[rule] = new int[slots.size()];
+        for (int index = 0; index < slots.size(); index++) {
+            ruleSignals[rule][index] = ((Integer) slots.elementAt(index)).intValue();
+        }
+    }
+
+    private void compileCondition(String name, String comparison, Vector slots) throws TriggerRuleException {
+        int position = -1;
+        int operator = -1;
+
+        // Two character operators are looked up first so "<=" is not taken as "<"
+        for (int index = OPERATORS.length - 1; index >= 0 && position < 0; index--) {
+            if (OPERATORS[index].length() == 2) {
+                position = comparison.indexOf(OPERATORS[index]);
+                operator = index;
+            }
+        }
+        for (int index = 0; index < OPERATORS.length && position < 0; index++) {
+            if (OPERATORS[index].length() == 1) {
+                position = comparison.indexOf(OPERATORS[index]);
+                operator = index;
+            }
+        }
+
+        if (position < 0) {
+            throw new TriggerRuleException(name, "no comparison in \"" + comparison.trim() + "\"");
+        }
+
+        int left = compileTerm(name, comparison.substring(0, position), slots);
+        int right = compileTerm(name, comparison.substring(position + OPERATORS[operator].length()), slots);
+        conditions.addElement(new int[]{left, operator, right});
+    }
+
+    private int compileTerm(String name, String term, Vector slots) throws TriggerRuleException {
+        int product = term.indexOf('*');
+        int first;
+        int second = -1;
+
+        if (product < 0) {
+            first = compileFactor(name, term, slots);
+        } else {
+            first = compileFactor(name, term.substring(0, product), slots);
+            second = compileFactor(name, term.substring(product + 1), slots);
+        }
+
+        terms.addElement(new int[]{first, second});
+        return terms.size() - 1;
+    }
+
+    private int compileFactor(String name, String factor, Vector slots) throws TriggerRuleException {
+        String text = factor.trim();
+        byte modifier = MOD_NONE;
+        int slot;
+        double constant = 0;
+
+        if (text.startsWith("abs(") && text.endsWith(")")) {
+            modifier = MOD_ABS;
+            text = text.substring(4, text.length() - 1).trim();
+        }
+
+        slot = TriggerSignals.getSlot(text);
+        if (slot < 0 && modifier == MOD_NONE && text.startsWith("-")) {
+            slot = TriggerSignals.getSlot(text.substring(1).trim());
+            if (slot >= 0) {
+                modifier = MOD_NEG;
+            }
+        }
+
+        if (slot >= 0) {
+            addSlot(slots, slot);
+        } else {
+            try {
+                constant = Double.parseDouble(text);
+            } catch (NumberFormatException ex) {
+                throw new TriggerRuleException(name, "unknown signal \"" + text + "\"");
+            }
+        }
+
+        factors.addElement(new Object[]{new Integer(slot), new Integer(modifier), new Double(constant)});
+        return factors.size() - 1;
+    }
+
+    private int compileSlot(String name, String signal, Vector slots) throws TriggerRuleException {
+        int slot = TriggerSignals.getSlot(signal);
+        if (slot < 0) {
+            throw new TriggerRuleException(name, "unknown signal \"" + signal + "\"");
+        }
+        addSlot(slots, slot);
+        return slot;
+    }
+
+    private void addSlot(Vector slots, int slot) {
+        for (int index = 0; index < slots.size(); index++) {
+            if (((Integer) slots.elementAt(index)).intValue() == slot) {
+                return;
+            }
+        }
+        slots.addElement(new Integer(slot));
+    }
+
+    private void flatten() {
+        factorSlot = new int[factors.size()];
+        factorModifier = new byte[factors.size()];
+        factorConstant = new double[factors.size()];
+        for (int index = 0; index < factors.size(); index++) {
+            Object[] factor = (Object[]) factors.elementAt(index);
+            factorSlot[index] = ((Integer) factor[0]).intValue();
+            factorModifier[index] = (byte) ((Integer) factor[1]).intValue();
+            factorConstant[index] = ((Double) factor[2]).doubleValue();
+        }
+
+        termFirst = new int[terms.size()];
+        termSecond = new int[terms.size()];
+        for (int index = 0; index < terms.size(); index++) {
+            int[] term = (int[]) terms.elementAt(index);
+            termFirst[index] = term[0];
+            termSecond[index] = term[1];
+        }
+
+        conditionLeft = new int[conditions.size()];
+        conditionOperator = new byte[conditions.size()];
+        conditionRight = new int[conditions.size()];
+        for (int index = 0; index < conditions.size(); index++) {
+            int[] condition = (int[]) conditions.elementAt(index);
+            conditionLeft[index] = condition[0];
+            conditionOperator[index] = (byte) condition[1];
+            conditionRight[index] = condition[2];
+        }
+
+        clauseStart = new int[clauses.size()];
+        clauseEnd = new int[clauses.size()];
+        for (int index = 0; index < clauses.size(); index++) {
+            int[] clause = (int[]) clauses.elementAt(index);
+            clauseStart[index] = clause[0];
+            clauseEnd[index] = clause[1];
+        }
+
+        factors = null;
+        terms = null;
+        conditions = null;
+        clauses = null;
+    }
+
+    private static Vector split(String text, char separator) {
+        Vector parts = new Vector();
+        int start = 0;
+        int end;
+
+        while ((end = text.indexOf(separator, start)) >= 0) {
+            addPart(parts, text.substring(start, end));
+            start = end + 1;
+        }
+        addPart(parts, text.substring(start));
+
+        return parts;
+    }
+
+    private static void addPart(Vector parts, String part) {
+        String trimmed = part.trim();
+        if (trimmed.length() > 0) {
+            parts.addElement(trimmed);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licenses/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.reconfiguration.PowerScalingMonitor.rules;
+
+/**
+ * Named signals that the trigger rules of the {@code PowerScalingMonitor} can
+ * refer to. Each signal is identified by a slot in the array of values handed
+ * to {@link TriggerRuleSet#evaluate(double[])}.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class TriggerSignals {
+
+    /** Node degree error at k. */
+    public static final int E_ND = 0;
+    /** Node degree error at k-1. */
+    public static final int E_ND_PREV = 1;
+    /** Battery level error at k. */
+    public static final int E_BL = 2;
+    /** Node degree at k. */
+    public static final int ND = 3;
+    /** Node degree reference at k. */
+    public static final int ND_R = 4;
+    /** Node degree reference at k-1. */
+    public static final int ND_R_PREV = 5;
+    /** Configured node degree reference at k. */
+    public static final int ND_REF = 6;
+    /** Configured node degree reference at k-1. */
+    public static final int ND_REF_PREV = 7;
+    /** Communication range (PTX index) at k. */
+    public static final int CR = 8;
+    /** Filtered communication range. */
+    public static final int CR_F = 9;
+    /** Communication range variation at k-1, that is, CR(k-1) - CR(k-2). */
+    public static final int DCR_PREV = 10;
+    /** Tolerance of the node degree error. */
+    public static final int KSI_ND = 11;
+    /** Minimum node degree. */
+    public static final int ND_MIN = 12;
+    /** Maximum communication range (PTX index). */
+    public static final int CR_MAX = 13;
+    /** Minimum communication range variation. */
+    public static final int DELTA_CR_MIN = 14;
+    /** Node degree error used when the communication range is saturated. */
+    public static final int E_ND_SAT = 15;
+    /** Tolerance of the battery level error, that is, 1 / k_e. */
+    public static final int E_BL_TOL = 16;
+
+    /** Number of signals. */
+    public static final int COUNT = 17;
+
+    private static final String[] NAMES = {
+        "e_ND",
+        "e_ND_prev",
+        "e_BL",
+        "ND",
+        "ND_R",
+        "ND_R_prev",
+        "NDRef",
+        "NDRef_prev",
+        "CR",
+        "CR_f",
+        "dcr_prev",
+        "KSI_ND",
+        "ND_MIN",
+        "CR_MAX",
+        "DELTA_CR_MIN",
+        "e_ND_sat",
+        "e_BL_tol"
+    };
+
+    private TriggerSignals() {
+    }
+
+    /**
+     * Gets the slot of the signal named {@code name}.
+     *
+     * @param name The name of the signal.
+     * @return The slot of the signal, or -1 if there is no signal with that
+     * name.
+     */
+    public static int getSlot(String name) {
+        for (int slot = 0; slot < COUNT; slot++) {
+            if (NAMES[slot].equals(name)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the name of the signal at {@code slot}.
+     *
+     * @param slot The slot of the signal.
+     * @return The name of the signal.
+     */
+    public static String getName(int slot) {
+        return NAMES[slot];
+    }
+
+    /**
+     * Creates an array able to hold the value of every signal.
+     *
+     * @return A new array of signal values.
+     */
+    public static double[] newSignals() {
+        return new double[COUNT];
+    }
+}
@@ -26,6 +26,7 @@ import eu.artemis.demanes.datatypes.ANES_URN;
 import eu.artemis.demanes.datatypes.ANES_URN_Exception;
 import eu.artemis.demanes.exceptions.ObservationInvocationException;
 import eu.artemis.demanes.impl.SunSPOT.common.DEMANESResources;
+import eu.artemis.demanes.impl.SunSPOT.common.NeighborDiscoveryProperties;
 import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
 import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
 import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
@@ -33,12 +34,23 @@ import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.NDPFactory;
 import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.NeighborDiscoveryFactoryException;
 import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.NeighborDiscoveryProtocol;
 import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.NeighborDiscoveryType;
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.TrickleNeighborDiscovery;
 import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.ondemand.OnDemandNeighborDiscovery;
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.ondemand.OnDemandNeighborTableManager;
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.passive.PassiveNeighborDiscovery;
+import eu.artemis.demanes.impl.SunSPOT.utils.trickle.TrickleTimer;
 import eu.artemis.demanes.reconfiguration.Observation;
 import java.util.Vector;
 
 /**
- * Node Degree Observation provides the number of active neighbors.
+ * Node Degree Observation provides the number of active neighbors. Depending
+ * on the {@code neighbordiscovery.degree} property, the value is the raw
+ * number of neighbors, the number of neighbors with a usable link, or the
+ * number of neighbors weighted by the quality of their links.
+ * <p>
+ * With the {@code neighbordiscovery.trickle} property the discoveries are
+ * scheduled by a {@link TrickleNeighborDiscovery} instead of being done on
+ * every update, and the neighbors are kept until they expire.
  * 
  * @author N&eacute;stor Lucas Mart&iacute;nez
  * @version 1.0.0
@@ -47,6 +59,8 @@ public class NodeDegreeObservation implements Observation, NodeDegreeObservation
 
     private final Logger logger;
     private NeighborDiscoveryProtocol nodeDegreeManager;
+    private NeighborDiscoveryProtocol discoveryScheduler;
+    private String degree;
 
     /**
      * Public constructor for the Node Degree Observation.
@@ -56,13 +70,96 @@ public class NodeDegreeObservation implements Observation, NodeDegreeObservation
      */
     public NodeDegreeObservation(Properties properties, String urn) {
         this.logger = SystemContext.getLogger();
+        this.degree = properties.getProperty(NeighborDiscoveryProperties.DEGREE_PROPERTY, NeighborDiscoveryProperties.RAW_DEGREE);
+        String type = properties.getProperty(NeighborDiscoveryProperties.NEIGHBOR_DISCOVERY_TYPE_PROPERTY, NeighborDiscoveryProperties.ON_DEMAND_TYPE);
         try {
-            nodeDegreeManager = NDPFactory.getInstance(NeighborDiscoveryType.ON_DEMAND_NODE_DEGREE);
+            if (type.equalsIgnoreCase(NeighborDiscoveryProperties.PASSIVE_TYPE)) {
+                nodeDegreeManager = NDPFactory.getInstance(NeighborDiscoveryType.PASSIVE_NEIGHBOR_DISCOVERY);
+            } else if (type.equalsIgnoreCase(NeighborDiscoveryProperties.PERIODIC_TYPE)) {
+                nodeDegreeManager = NDPFactory.getInstance(NeighborDiscoveryType.PERIODIC_NEIGHBOR_DISCOVERY);
+            } else if (type.equalsIgnoreCase(NeighborDiscoveryProperties.THREE_WAY_TYPE)) {
+                nodeDegreeManager = NDPFactory.getInstance(NeighborDiscoveryType.THREE_WAY_NEIGHBOR_DISCOVERY);
+            } else {
+                nodeDegreeManager = NDPFactory.getInstance(NeighborDiscoveryType.ON_DEMAND_NODE_DEGREE);
+            }
         } catch (NeighborDiscoveryFactoryException ex) {
             logger.severe("Unable to create the requested nodeDegreeManager");
+            return;
+        }
+
+        // Every setting falls back to its own default, so a bad value does not
+        // prevent the others from being applied
+        OnDemandNeighborDiscovery neighborDiscovery = (OnDemandNeighborDiscovery) nodeDegreeManager;
+        try {
+            if (nodeDegreeManager instanceof PassiveNeighborDiscovery) {
+                ((PassiveNeighborDiscovery) nodeDegreeManager).setExpiryTime(getLong(properties, NeighborDiscoveryProperties.NEIGHBOR_EXPIRY_PROPERTY, PassiveNeighborDiscovery.DEFAULT_EXPIRY_TIME));
+                ((PassiveNeighborDiscovery) nodeDegreeManager).setBroadcastPeriod(getLong(properties, NeighborDiscoveryProperties.BROADCAST_PERIOD_PROPERTY, PassiveNeighborDiscovery.DEFAULT_BROADCAST_PERIOD));
+            } else if (type.equalsIgnoreCase(NeighborDiscoveryProperties.PERIODIC_TYPE)) {
+                neighborDiscovery.setPeriod(getLong(properties, NeighborDiscoveryProperties.PERIOD_PROPERTY, OnDemandNeighborDiscovery.DEFAULT_PERIOD));
+            }
+        } catch (IllegalArgumentException ex) {
+            logger.warning("Invalid neighbor discovery timing, keeping the default: " + ex.getMessage());
+        }
+        neighborDiscovery.setLinkQualityThresholds(
+                getInt(properties, NeighborDiscoveryProperties.LOW_LINK_QUALITY_PROPERTY, OnDemandNeighborTableManager.DEFAULT_LOW_LINK_QUALITY),
+                getInt(properties, NeighborDiscoveryProperties.HIGH_LINK_QUALITY_PROPERTY, OnDemandNeighborTableManager.DEFAULT_HIGH_LINK_QUALITY));
+        try {
+            neighborDiscovery.setAdmissionRule(
+                    getInt(properties, NeighborDiscoveryProperties.ADMISSION_ROUNDS_PROPERTY, OnDemandNeighborTableManager.DEFAULT_ADMISSION_ROUNDS),
+                    getInt(properties, NeighborDiscoveryProperties.HISTORY_ROUNDS_PROPERTY, OnDemandNeighborTableManager.DEFAULT_HISTORY_ROUNDS));
+        } catch (IllegalArgumentException ex) {
+            logger.warning("Invalid neighbor admission rule, keeping the default: " + ex.getMessage());
+        }
+        neighborDiscovery.setTwoHopExchange(
+                "true".equalsIgnoreCase(properties.getProperty(NeighborDiscoveryProperties.TWO_HOP_PROPERTY, "false")));
+        if ("true".equalsIgnoreCase(properties.getProperty(NeighborDiscoveryProperties.TRICKLE_PROPERTY, "false"))) {
+            TrickleTimer timer;
+            try {
+                timer = new TrickleTimer(
+                        getLong(properties, NeighborDiscoveryProperties.TRICKLE_MINIMUM_INTERVAL_PROPERTY, TrickleNeighborDiscovery.DEFAULT_MINIMUM_INTERVAL),
+                        getInt(properties, NeighborDiscoveryProperties.TRICKLE_DOUBLINGS_PROPERTY, TrickleNeighborDiscovery.DEFAULT_DOUBLINGS),
+                        getInt(properties, NeighborDiscoveryProperties.TRICKLE_REDUNDANCY_PROPERTY, TrickleNeighborDiscovery.DEFAULT_REDUNDANCY));
+            } catch (IllegalArgumentException ex) {
+                logger.warning("Invalid Trickle parameters, using the defaults: " + ex.getMessage());
+                timer = new TrickleTimer(TrickleNeighborDiscovery.DEFAULT_MINIMUM_INTERVAL, TrickleNeighborDiscovery.DEFAULT_DOUBLINGS, TrickleNeighborDiscovery.DEFAULT_REDUNDANCY);
+            }
+            // A suppressed request only ages the table
+            TrickleNeighborDiscovery.keepNeighbors(neighborDiscovery, timer);
+            TrickleNeighborDiscovery trickleNeighborDiscovery = new TrickleNeighborDiscovery(nodeDegreeManager, timer);
+            neighborDiscovery.setRequestListener(trickleNeighborDiscovery);
+            discoveryScheduler = trickleNeighborDiscovery;
+        }
+        logger.debug("Node degree provided by the " + type + " neighbor discovery");
+
+        if (discoveryScheduler == null) {
+            discoveryScheduler = nodeDegreeManager;
         }
     }
     
+    private long getLong(Properties properties, String property, long defaultValue) {
+        String value = properties.getProperty(property);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException ex) {
+                logger.warning("Invalid value " + value + " of " + property + ", using the default " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    private int getInt(Properties properties, String property, int defaultValue) {
+        String value = properties.getProperty(property);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException ex) {
+                logger.warning("Invalid value " + value + " of " + property + ", using the default " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
     /**
      * Starts the on demand neighbor discovery required to keep updated the
      * table of active neighbors.
@@ -92,14 +189,60 @@ public class NodeDegreeObservation implements Observation, NodeDegreeObservation
      * @throws ObservationInvocationException 
      */    
     public Object getValue() throws ObservationInvocationException {
-        return new Integer((int) nodeDegreeManager.getNodeDegree());
+        if (degree.equalsIgnoreCase(NeighborDiscoveryProperties.USABLE_DEGREE)) {
+            return new Integer((int) getUsableNodeDegree());
+        } else if (degree.equalsIgnoreCase(NeighborDiscoveryProperties.WEIGHTED_DEGREE)) {
+            return new Integer((int) (getWeightedNodeDegree() + 0.5));
+        }
+        return new Integer((int) getRawNodeDegree());
+    }
+
+    /**
+     * Get the number of active neighbors, whatever the quality of their links.
+     * 
+     * @return The raw node degree.
+     */
+    public long getRawNodeDegree() {
+        return nodeDegreeManager.getNodeDegree();
+    }
+
+    /**
+     * Get the number of active neighbors with a usable link.
+     * 
+     * @return The usable node degree.
+     */
+    public long getUsableNodeDegree() {
+        return ((OnDemandNeighborDiscovery) nodeDegreeManager).getUsableNodeDegree();
+    }
+
+    /**
+     * Get the number of active neighbors weighted by the quality of their
+     * links.
+     * 
+     * @return The weighted node degree.
+     */
+    public double getWeightedNodeDegree() {
+        return ((OnDemandNeighborDiscovery) nodeDegreeManager).getWeightedNodeDegree();
+    }
+
+    /**
+     * Get the number of active neighbors only reachable through their direct
+     * link, as far as the neighborhoods reported by the others tell.
+     * 
+     * @return The number of critical neighbors.
+     */
+    public long getCriticalNodeDegree() {
+        return ((OnDemandNeighborDiscovery) nodeDegreeManager).getCriticalNodeDegree();
     }
 
     /**
      * Updates the active neighbors table.
      */
     public void updateNodeDegree() {
-        nodeDegreeManager.doNeighborDiscovery();
+        // The periodic discovery updates the table by itself
+        if (((OnDemandNeighborDiscovery) nodeDegreeManager).getPeriod() == 0) {
+            discoveryScheduler.doNeighborDiscovery();
+        }
     }
 
     /**
@@ -37,4 +37,27 @@ public interface NodeDegreeObservationExtension {
      * @return The list of active neighbors.
      */
     public Vector getNeighborList();
+
+    /**
+     * Retrieves the number of active neighbors, whatever the quality of their
+     * links.
+     * 
+     * @return The raw node degree.
+     */
+    public long getRawNodeDegree();
+
+    /**
+     * Retrieves the number of active neighbors with a usable link.
+     * 
+     * @return The usable node degree.
+     */
+    public long getUsableNodeDegree();
+
+    /**
+     * Retrieves the number of active neighbors weighted by the quality of
+     * their links.
+     * 
+     * @return The weighted node degree.
+     */
+    public double getWeightedNodeDegree();
 }
@@ -49,6 +49,16 @@ public class ObservationFactory {
                 return new NodeDegreeObservation(properties, urn);
             case ObservationType.BATTERY_LEVEL_OBSERVATION_CODE:
                 return new BatteryLevelObservation(properties, urn);
+            case ObservationType.TRANSMISSION_POWER_OBSERVATION_CODE:
+                return new TransmissionPowerObservation(properties, urn);
+            case ObservationType.FORWARDING_LOAD_OBSERVATION_CODE:
+                return new ForwardingLoadObservation(properties, urn);
+            case ObservationType.ROUTE_ERROR_RATE_OBSERVATION_CODE:
+                return new RouteErrorRateObservation(properties, urn);
+            case ObservationType.DELIVERY_RATIO_OBSERVATION_CODE:
+                return new DeliveryRatioObservation(properties, urn);
+            case ObservationType.ROUND_TRIP_TIME_OBSERVATION_CODE:
+                return new RoundTripTimeObservation(properties, urn);
             default:
                 throw new ObservationFactoryException(observationType.toString());
         }
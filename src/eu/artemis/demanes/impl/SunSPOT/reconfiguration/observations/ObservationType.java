@@ -33,16 +33,46 @@ public class ObservationType {
     public static final String NODE_DEGREE_OBSERVATION_STRING = "Node Degree Observation";
     /** Battery level observation descriptive string. */
     public static final String BATTERY_LEVEL_OBSERVATION_STRING = "Battery Level Observation";
+    /** Transmission power observation descriptive string. */
+    public static final String TRANSMISSION_POWER_OBSERVATION_STRING = "Transmission Power Observation";
+    /** Forwarding load observation descriptive string. */
+    public static final String FORWARDING_LOAD_OBSERVATION_STRING = "Forwarding Load Observation";
+    /** Route error rate observation descriptive string. */
+    public static final String ROUTE_ERROR_RATE_OBSERVATION_STRING = "Route Error Rate Observation";
+    /** Delivery ratio observation descriptive string. */
+    public static final String DELIVERY_RATIO_OBSERVATION_STRING = "Delivery Ratio Observation";
+    /** Round trip time observation descriptive string. */
+    public static final String ROUND_TRIP_TIME_OBSERVATION_STRING = "Round Trip Time Observation";
     
     /** Node degree observation code. */
     public static final int NODE_DEGREE_OBSERVATION_CODE = 0xA1;
     /** Battery level observation code. */
     public static final int BATTERY_LEVEL_OBSERVATION_CODE = 0xA2;
+    /** Transmission power observation code. */
+    public static final int TRANSMISSION_POWER_OBSERVATION_CODE = 0xA3;
+    /** Forwarding load observation code. */
+    public static final int FORWARDING_LOAD_OBSERVATION_CODE = 0xA4;
+    /** Route error rate observation code. */
+    public static final int ROUTE_ERROR_RATE_OBSERVATION_CODE = 0xA5;
+    /** Delivery ratio observation code. */
+    public static final int DELIVERY_RATIO_OBSERVATION_CODE = 0xA6;
+    /** Round trip time observation code. */
+    public static final int ROUND_TRIP_TIME_OBSERVATION_CODE = 0xA7;
 
     /** Node degree observation type. */
     public static final ObservationType NODE_DEGREE_OBSERVATION = new ObservationType(NODE_DEGREE_OBSERVATION_STRING, NODE_DEGREE_OBSERVATION_CODE);
     /** Battery level observation type. */
     public static final ObservationType BATTERY_LEVEL_OBSERVATION = new ObservationType(BATTERY_LEVEL_OBSERVATION_STRING, BATTERY_LEVEL_OBSERVATION_CODE);
+    /** Transmission power observation type. */
+    public static final ObservationType TRANSMISSION_POWER_OBSERVATION = new ObservationType(TRANSMISSION_POWER_OBSERVATION_STRING, TRANSMISSION_POWER_OBSERVATION_CODE);
+    /** Forwarding load observation type. */
+    public static final ObservationType FORWARDING_LOAD_OBSERVATION = new ObservationType(FORWARDING_LOAD_OBSERVATION_STRING, FORWARDING_LOAD_OBSERVATION_CODE);
+    /** Route error rate observation type. */
+    public static final ObservationType ROUTE_ERROR_RATE_OBSERVATION = new ObservationType(ROUTE_ERROR_RATE_OBSERVATION_STRING, ROUTE_ERROR_RATE_OBSERVATION_CODE);
+    /** Delivery ratio observation type. */
+    public static final ObservationType DELIVERY_RATIO_OBSERVATION = new ObservationType(DELIVERY_RATIO_OBSERVATION_STRING, DELIVERY_RATIO_OBSERVATION_CODE);
+    /** Round trip time observation type. */
+    public static final ObservationType ROUND_TRIP_TIME_OBSERVATION = new ObservationType(ROUND_TRIP_TIME_OBSERVATION_STRING, ROUND_TRIP_TIME_OBSERVATION_CODE);
 
     private String name;
     private int code;
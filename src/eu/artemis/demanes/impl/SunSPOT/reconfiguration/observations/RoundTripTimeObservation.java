@@ -0,0 +1,82 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licenses/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.reconfiguration.observations;
+
+import com.sun.spot.core.util.Properties;
+import eu.artemis.demanes.datatypes.ANES_URN;
+import eu.artemis.demanes.datatypes.ANES_URN_Exception;
+import eu.artemis.demanes.exceptions.ObservationInvocationException;
+import eu.artemis.demanes.impl.SunSPOT.common.DEMANESResources;
+import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.communications.ReliableDelivery;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
+import eu.artemis.demanes.reconfiguration.Observation;
+
+/**
+ * {@code RoundTripTimeObservation} provides the round trip time of the messages sent in reliable
+ * mode, as kept by the {@link ReliableDelivery}.
+ * 
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class RoundTripTimeObservation implements Observation {
+    private ReliableDelivery reliableDelivery;
+    private Logger logger;
+
+    /**
+     * Public constructor for {@code RoundTripTimeObservation}.
+     * 
+     * @param properties The set of reconfiguration properties.
+     * @param urn The urn for the observation.
+     */    
+    public RoundTripTimeObservation(Properties properties, String urn) {
+        this.reliableDelivery = SystemContext.getReliableDelivery();
+        this.logger = SystemContext.getLogger();
+    }
+
+    /**
+     * Gets the ID of an observation.
+     * 
+     * @return the ANES_URN of observation.
+     */
+    public ANES_URN getObservationID() {
+        try {
+            return ANES_URN.create(DEMANESResources.RTTObservationURN);
+        } catch (ANES_URN_Exception ex) {
+            logger.log(Level.SEVERE, "RoundTripTimeObservation.getObservationID: ANES_URN.create reported and error with DEMANESResources.RTTObservationURN.");
+            return null;
+        }
+    }
+
+    /**
+     * Get the last round trip time measured, from a message sent to its
+     * acknowledgement.
+     * 
+     * @return the round trip time in milliseconds, -1 if none has been
+     * measured.
+     * @throws ObservationInvocationException 
+     */
+    public Object getValue() throws ObservationInvocationException {
+        return new Integer((int) this.reliableDelivery.getLastRoundTripTime());
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licenses/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.reconfiguration.observations;
+
+import com.sun.spot.core.util.Properties;
+import eu.artemis.demanes.datatypes.ANES_URN;
+import eu.artemis.demanes.datatypes.ANES_URN_Exception;
+import eu.artemis.demanes.exceptions.ObservationInvocationException;
+import eu.artemis.demanes.impl.SunSPOT.common.DEMANESResources;
+import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.communications.RoutingMetrics;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
+import eu.artemis.demanes.reconfiguration.Observation;
+
+/**
+ * {@code RouteErrorRateObservation} provides the route error rate of the node: the number of
+ * RERR sent or received within the sliding window of the
+ * {@link RoutingMetrics}.
+ * 
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class RouteErrorRateObservation implements Observation {
+    private RoutingMetrics routingMetrics;
+    private Logger logger;
+
+    /**
+     * Public constructor for {@code RouteErrorRateObservation}.
+     * 
+     * @param properties The set of reconfiguration properties.
+     * @param urn The urn for the observation.
+     */    
+    public RouteErrorRateObservation(Properties properties, String urn) {
+        this.routingMetrics = SystemContext.getRoutingMetrics();
+        this.logger = SystemContext.getLogger();
+    }
+
+    /**
+     * Gets the ID of an observation.
+     * 
+     * @return the ANES_URN of observation.
+     */
+    public ANES_URN getObservationID() {
+        try {
+            return ANES_URN.create(DEMANESResources.RERRObservationURN);
+        } catch (ANES_URN_Exception ex) {
+            logger.log(Level.SEVERE, "RouteErrorRateObservation.getObservationID: ANES_URN.create reported and error with DEMANESResources.RERRObservationURN.");
+            return null;
+        }
+    }
+
+    /**
+     * Get the number of RERR sent or received within the sliding window.
+     * 
+     * @return the number of route errors.
+     * @throws ObservationInvocationException 
+     */
+    public Object getValue() throws ObservationInvocationException {
+        return new Integer(this.routingMetrics.getRouteErrorsInWindow());
+    }
+}
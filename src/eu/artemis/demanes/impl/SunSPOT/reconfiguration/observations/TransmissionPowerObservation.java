@@ -0,0 +1,81 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licenses/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.reconfiguration.observations;
+
+import com.sun.spot.core.resources.Resources;
+import com.sun.spot.core.util.Properties;
+import com.sun.spot.ieee_802_15_4_radio.IRadioPolicyManager;
+import eu.artemis.demanes.datatypes.ANES_URN;
+import eu.artemis.demanes.datatypes.ANES_URN_Exception;
+import eu.artemis.demanes.exceptions.ObservationInvocationException;
+import eu.artemis.demanes.impl.SunSPOT.common.DEMANESResources;
+import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
+import eu.artemis.demanes.reconfiguration.Observation;
+
+/**
+ * {@code TransmissionPowerObservation} provides the transmission power of the
+ * radio.
+ * 
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class TransmissionPowerObservation implements Observation {
+    private IRadioPolicyManager radioPolicyManager;
+    private Logger logger;
+
+    /**
+     * Public constructor for {@code TransmissionPowerObservation}.
+     * 
+     * @param properties The set of reconfiguration properties.
+     * @param urn The urn for the observation.
+     */    
+    public TransmissionPowerObservation(Properties properties, String urn) {
+        this.radioPolicyManager = (IRadioPolicyManager) Resources.lookup(IRadioPolicyManager.class);
+        this.logger = SystemContext.getLogger();
+    }
+
+    /**
+     * Gets the ID of an observation.
+     * 
+     * @return the ANES_URN of observation.
+     */
+    public ANES_URN getObservationID() {
+        try {
+            return ANES_URN.create(DEMANESResources.PTXObservationURN);
+        } catch (ANES_URN_Exception ex) {
+            logger.log(Level.SEVERE, "TransmissionPowerObservation.getObservationID: ANES_URN.create reported and error with DEMANESResources.PTXObservationURN.");
+            return null;
+        }
+    }
+
+    /**
+     * Get the transmission power of the radio in dBm.
+     * 
+     * @return the transmission power in dBm.
+     * @throws ObservationInvocationException 
+     */
+    public Object getValue() throws ObservationInvocationException {
+        return new Integer(this.radioPolicyManager.getOutputPower());
+    }
+}
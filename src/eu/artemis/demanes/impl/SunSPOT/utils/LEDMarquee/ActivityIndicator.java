@@ -0,0 +1,198 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.LEDMarquee;
+
+import com.sun.spot.core.resources.transducers.ITriColorLEDArray;
+import com.sun.spot.core.resources.transducers.LEDColor;
+import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
+
+/**
+ * Activity indicator that blinks some LEDs of the marquee without blocking
+ * the caller.
+ * <p>
+ * Activity is notified from the callbacks of the radio stack, which must
+ * return at once. {@link #post(int, LEDColor)} only stores the event in a
+ * small ring and returns; the thread of the indicator lights the LEDs and
+ * turns them off after {@link Marquee#BLINK_INTERVAL}. Events arriving while
+ * a LED is lit are coalesced: the blink takes the color of the last event and
+ * lasts until the interval elapses after it.
+ * <p>
+ * Posting takes no lock, except for waking the indicator up when it is idle.
+ * Concurrent posts may overwrite each other, and if more than
+ * {@link #CAPACITY} events arrive before the indicator reads them only the
+ * last ones are shown. Losing an event only loses a blink.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class ActivityIndicator implements Runnable {
+
+    /** Number of events the ring can hold. It must be a power of two. */
+    public static final int CAPACITY = 16;
+
+    private final ITriColorLEDArray LEDs;
+    private final int[] positions;
+
+    private final int[] ringIndicators;
+    private final LEDColor[] ringColors;
+    private volatile int head;
+    private int tail;
+
+    private final LEDColor[] shownColors;
+    private final long[] offTimes;
+
+    private volatile boolean idle;
+    private boolean running;
+
+    /**
+     * Creates a new activity indicator.
+     *
+     * @param LEDs The LEDs of the marquee.
+     * @param positions The position in the array of the LED of every
+     * indicator.
+     */
+    public ActivityIndicator(ITriColorLEDArray LEDs, int[] positions) {
+        this.LEDs = LEDs;
+        this.positions = positions;
+        this.ringIndicators = new int[CAPACITY];
+        this.ringColors = new LEDColor[CAPACITY];
+        this.shownColors = new LEDColor[positions.length];
+        this.offTimes = new long[positions.length];
+        this.running = true;
+    }
+
+    /**
+     * Notifies activity to be shown in an indicator. It returns at once.
+     *
+     * @param indicator The index of the indicator.
+     * @param color The color for the blink.
+     */
+    public void post(int indicator, LEDColor color) {
+        int slot = head;
+        ringIndicators[slot & (CAPACITY - 1)] = indicator;
+        ringColors[slot & (CAPACITY - 1)] = color;
+        head = slot + 1;
+
+        if (idle) {
+            synchronized (this) {
+                Clock.getClock().signalAll(this);
+            }
+        }
+    }
+
+    /**
+     * Stops the indicator, turning its LEDs off.
+     */
+    public synchronized void stop() {
+        running = false;
+        Clock.getClock().signalAll(this);
+    }
+
+    /**
+     * Run method for being run as a thread.
+     */
+    public void run() {
+        Clock clock = Clock.getClock();
+        clock.register();
+        try {
+            long wait;
+            while ((wait = render()) >= 0) {
+                awaitActivity(wait);
+            }
+        } catch (InterruptedException ex) {
+            if (SystemContext.isDebugActive() & SystemContext.isUSBConnected()) {
+                ex.printStackTrace();
+            }
+        } finally {
+            for (int indicator = 0; indicator < positions.length; indicator++) {
+                LEDs.getLED(positions[indicator]).setRGB(0, 0, 0);
+            }
+            clock.unregister();
+        }
+    }
+
+    /**
+     * Shows the events posted since the last call and turns off the blinks
+     * that have elapsed.
+     *
+     * @return The time until the next blink ends, 0 if no LED is lit, or -1
+     * if the indicator has been stopped.
+     */
+    private long render() {
+        synchronized (this) {
+            if (!running) {
+                return -1;
+            }
+        }
+
+        long now = Clock.getClock().currentTimeMillis();
+        int last = head;
+        if (last - tail > CAPACITY) {
+            tail = last - CAPACITY;
+        }
+        for (; tail != last; tail++) {
+            int indicator = ringIndicators[tail & (CAPACITY - 1)];
+            LEDColor color = ringColors[tail & (CAPACITY - 1)];
+            if (indicator < 0 || indicator >= positions.length || color == null) {
+                continue;
+            }
+            if (shownColors[indicator] != color) {
+                LEDs.getLED(positions[indicator]).setColor(color);
+                shownColors[indicator] = color;
+            }
+            offTimes[indicator] = now + Marquee.BLINK_INTERVAL;
+        }
+
+        long wait = 0;
+        for (int indicator = 0; indicator < positions.length; indicator++) {
+            if (shownColors[indicator] == null) {
+                continue;
+            }
+            long remaining = offTimes[indicator] - now;
+            if (remaining <= 0) {
+                LEDs.getLED(positions[indicator]).setRGB(0, 0, 0);
+                shownColors[indicator] = null;
+            } else if (wait == 0 || remaining < wait) {
+                wait = remaining;
+            }
+        }
+        return wait;
+    }
+
+    private synchronized void awaitActivity(long wait) throws InterruptedException {
+        if (wait > 0) {
+            // Events posted while a LED is lit are picked up when it ends
+            Clock.getClock().await(this, wait);
+            return;
+        }
+
+        idle = true;
+        try {
+            while (running && head == tail) {
+                Clock.getClock().await(this, 0);
+            }
+        } finally {
+            idle = false;
+        }
+    }
+}
@@ -24,16 +24,20 @@ package eu.artemis.demanes.impl.SunSPOT.utils.LEDMarquee;
 import com.sun.spot.core.resources.Resources;
 import com.sun.spot.core.resources.transducers.ITriColorLEDArray;
 import com.sun.spot.core.resources.transducers.LEDColor;
-import com.sun.spot.core.util.Utils;
 import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
-import java.util.Enumeration;
-import java.util.Hashtable;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
 
 /**
- *
- * Note: Although some parts should be considered to be accessed in a
- * synchronized way allowing different callers for the marquee, the actual usage
- * does not require it.
+ * LED marquee that shows a status indicator, two activity indicators and a
+ * rotating set of messages in the LEDs of the SunSPOT.
+ * <p>
+ * The messages are kept in a copy-on-write list: adding, updating or removing
+ * a message replaces the list, so the engine never iterates a list being
+ * modified. Updating a message marks it as dirty, and the engine only pushes
+ * the LEDs whose color has changed. The engine waits on a condition while the
+ * marquee is paused or there is nothing new to show, and it is woken up by
+ * any change, so it does not use the CPU while the LEDs are steady. With
+ * several messages, it shows each of them for the updating interval.
  *
  * @author N&eacute;stor Lucas Mart&iacute;nez
  * @version 1.0.0
@@ -55,19 +59,27 @@ public class Marquee {
     private static final int STATUS_INDICATOR_LED_POSITION = 0;
     private static final int ACTIVITY_1_LED_POSITION = 1;
     private static final int ACTIVITY_2_LED_POSITION = 2;
+    private static final int FIRST_MESSAGE_LED_POSITION = 3;
+
+    private static final Entry[] NO_MESSAGES = new Entry[0];
+    private static final LEDColor LED_OFF = new LEDColor(0, 0, 0);
 
-    private Hashtable messages;
+    private Entry[] messages;
     private long updatingInterval;
     private boolean useStatusIndicator;
     private LEDColor statusIndicator;
     private int messageIdCounter;
     private boolean running;
     private boolean paused;
+    private boolean cleared;
 
     private ITriColorLEDArray LEDs;
 
     private Thread engineThread;
 
+    private ActivityIndicator activityIndicator;
+    private Thread activityThread;
+
     private SystemContext context;
 
     /**
@@ -76,7 +88,7 @@ public class Marquee {
      * is called.
      */
     public Marquee() {
-        this.messages = new Hashtable();
+        this.messages = NO_MESSAGES;
         this.updatingInterval = MINIMUM_INTERVAL;
         this.useStatusIndicator = true;
         this.statusIndicator = STATUS_IS_NOT_READY;
@@ -85,6 +97,7 @@ public class Marquee {
         this.paused = false;
 
         this.LEDs = (ITriColorLEDArray) Resources.lookup(ITriColorLEDArray.class);
+        this.activityIndicator = new ActivityIndicator(this.LEDs, new int[]{ACTIVITY_1_LED_POSITION, ACTIVITY_2_LED_POSITION});
     }
 
     /**
@@ -92,7 +105,7 @@ public class Marquee {
      * 
      * @return The updating interval time.
      */
-    public long getUpdatingInterval() {
+    public synchronized long getUpdatingInterval() {
         return updatingInterval;
     }
 
@@ -101,21 +114,23 @@ public class Marquee {
      * 
      * @param updatingInterval The updating interval time.
      */
-    public void setUpdatingInterval(long updatingInterval) {
+    public synchronized void setUpdatingInterval(long updatingInterval) {
         this.updatingInterval = updatingInterval;
+        Clock.getClock().signalAll(this);
     }
 
     /**
      * Activates the status indicator.
      */
-    public void activateStatusIndicator() {
+    public synchronized void activateStatusIndicator() {
         this.useStatusIndicator = true;
+        Clock.getClock().signalAll(this);
     }
     
     /**
      * Deactivates the status indicator.
      */
-    public void deactivateStatusIndicator() {
+    public synchronized void deactivateStatusIndicator() {
         this.useStatusIndicator = false;
     }
 
@@ -127,27 +142,46 @@ public class Marquee {
      * @throws MarqueeAddMessageException When the message can not be added to 
      *         the marquee.
      */
-    public Object addMessage(MarqueeMessage message) throws MarqueeAddMessageException {
+    public synchronized Object addMessage(MarqueeMessage message) throws MarqueeAddMessageException {
         if (messageIdCounter == Integer.MAX_VALUE) {
             throw new MarqueeAddMessageException("Reached maximum number of messages available.");
         }
 
         messageIdCounter++;
         Integer key = Integer.valueOf(messageIdCounter);
-        messages.put(key, message);
+
+        Entry[] list = new Entry[messages.length + 1];
+        System.arraycopy(messages, 0, list, 0, messages.length);
+        list[messages.length] = new Entry(key, message);
+        messages = list;
+        Clock.getClock().signalAll(this);
 
         return (Object) key;
     }
     
     /**
      * Update a message referenced by {@code key} reference ID with the new
-     * {@code message}.
+     * {@code message}. It must be called as well after changing the message
+     * in place, so that the change is shown.
      * 
      * @param key The reference key ID.
      * @param message The new message.
      */
-    public void updateMessage(Object key, MarqueeMessage message) {
-        messages.put(key, message);
+    public synchronized void updateMessage(Object key, MarqueeMessage message) {
+        int index = indexOf(key);
+        Entry[] list;
+
+        if (index < 0) {
+            list = new Entry[messages.length + 1];
+            System.arraycopy(messages, 0, list, 0, messages.length);
+            index = messages.length;
+        } else {
+            list = new Entry[messages.length];
+            System.arraycopy(messages, 0, list, 0, messages.length);
+        }
+        list[index] = new Entry(key, message);
+        messages = list;
+        Clock.getClock().signalAll(this);
     }
 
     /**
@@ -155,55 +189,84 @@ public class Marquee {
      * 
      * @param key The reference key ID.
      */
-    public void removeMessage(Object key) {
-        messages.remove(key);
+    public synchronized void removeMessage(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return;
+        }
+
+        Entry[] list = new Entry[messages.length - 1];
+        System.arraycopy(messages, 0, list, 0, index);
+        System.arraycopy(messages, index + 1, list, index, list.length - index);
+        messages = list;
+        Clock.getClock().signalAll(this);
+    }
+
+    private int indexOf(Object key) {
+        for (int index = 0; index < messages.length; index++) {
+            if (messages[index].key.equals(key)) {
+                return index;
+            }
+        }
+        return -1;
     }
 
     /**
      * Clears de marquee.
      */
-    public void clearMarquee() {
-        messages.clear();
+    public synchronized void clearMarquee() {
+        messages = NO_MESSAGES;
+        cleared = true;
         LEDs.setRGB(0, 0, 0);
+        Clock.getClock().signalAll(this);
     }
 
     /**
      * Starts the marquee.
      */
-    public void start() {
+    public synchronized void start() {
         if (!this.running) {
             this.running = true;
             this.paused = false;
             this.LEDs.setOn();
             this.engineThread = new Thread(new Engine());
             this.engineThread.start();
+            this.activityIndicator = new ActivityIndicator(this.LEDs, new int[]{ACTIVITY_1_LED_POSITION, ACTIVITY_2_LED_POSITION});
+            this.activityThread = new Thread(this.activityIndicator);
+            this.activityThread.start();
         }
     }
 
     /**
      * Pauses the marquee.
      */
-    public void pause() {
+    public synchronized void pause() {
         paused = true;
     }
 
     /**
      * Unpauses the marquee.
      */
-    public void unpause() {
+    public synchronized void unpause() {
         paused = false;
+        Clock.getClock().signalAll(this);
     }
 
     /**
      * Stops the marquee.
      */
     public void stop() {
-        if (this.running) {
-            this.paused = true;
-            this.running = false;
+        synchronized (this) {
+            if (this.running) {
+                this.paused = true;
+                this.running = false;
+                this.activityIndicator.stop();
+                Clock.getClock().signalAll(this);
+            }
         }
         try {
             this.engineThread.join();
+            this.activityThread.join();
             this.LEDs.setOff();
         } catch (InterruptedException ex) {
             ex.printStackTrace();
@@ -215,62 +278,196 @@ public class Marquee {
      * 
      * @param status The new status color for the status indicator.
      */
-    public void setStatusIndicator(LEDColor status) {
+    public synchronized void setStatusIndicator(LEDColor status) {
         this.statusIndicator = status;
+        Clock.getClock().signalAll(this);
     }
 
     /**
      * Blinks the first activity LED indicator using the {@code activityColor}
-     * color.
+     * color. It returns at once; the blink is shown by the activity indicator
+     * while the marquee is running.
      * 
      * @param activityColor The color for the blink.
      */
     public void blinkActivity1(LEDColor activityColor) {
-        LEDs.getLED(ACTIVITY_1_LED_POSITION).setColor(activityColor);
-        try{Thread.sleep(BLINK_INTERVAL);} catch(InterruptedException ie){}
-        LEDs.getLED(ACTIVITY_1_LED_POSITION).setRGB(0, 0, 0);
+        activityIndicator.post(0, activityColor);
     }
 
     /**
      * Blinks the second activity LED indicator using the {@code activityColor}
-     * color.
+     * color. It returns at once; the blink is shown by the activity indicator
+     * while the marquee is running.
      * 
      * @param activityColor The color for the blink.
      */
     public void blinkActivity2(LEDColor activityColor) {
-        LEDs.getLED(ACTIVITY_2_LED_POSITION).setColor(activityColor);
-        try{Thread.sleep(BLINK_INTERVAL);} catch(InterruptedException ie){}
-        LEDs.getLED(ACTIVITY_2_LED_POSITION).setRGB(0, 0, 0);
+        activityIndicator.post(1, activityColor);
+    }
+
+    /**
+     * A message of the marquee. Entries are replaced, never modified, except
+     * for the dirty flag cleared by the engine once the message is shown.
+     */
+    private static class Entry {
+
+        private final Object key;
+        private final MarqueeMessage message;
+        private boolean dirty;
+
+        private Entry(Object key, MarqueeMessage message) {
+            this.key = key;
+            this.message = message;
+            this.dirty = true;
+        }
     }
 
     private class Engine implements Runnable {
-        
+
+        private final LEDColor[] shown = new LEDColor[FIRST_MESSAGE_LED_POSITION + MarqueeMessage.MESSAGE_LENGTH];
+        private Object shownKey;
+        private int position;
+        private long nextRotation;
+
         public void run() {
-            MarqueeMessage message;
+            Clock clock = Clock.getClock();
+            clock.register();
+            try {
+                display();
+            } catch (InterruptedException ex) {
+                if (SystemContext.isDebugActive() & SystemContext.isUSBConnected()) {
+                    ex.printStackTrace();
+                }
+            } finally {
+                clock.unregister();
+            }
+        }
+
+        private void display() throws InterruptedException {
+            Clock clock = Clock.getClock();
 
             LEDs.setOn();
 
-            while (running) {
-                while (!paused) {
-                    try {
-                        LEDs.getLED(STATUS_INDICATOR_LED_POSITION).setColor(statusIndicator);
-
-                        if (!messages.isEmpty()) {
-                            Enumeration messageList = messages.keys();
-                            while (messageList.hasMoreElements()) {
-                                message = (MarqueeMessage) messages.get(messageList.nextElement());
-                                for (int index = 0; index < MarqueeMessage.MESSAGE_LENGTH; index++) {
-                                    LEDs.getLED(index + 3).setColor(message.getMessage()[index]);
-                                }
-                                Utils.sleep(updatingInterval);
-                            }
+            while (true) {
+                LEDColor status;
+                Entry entry;
+                boolean blank;
+                long wait;
+
+                synchronized (Marquee.this) {
+                    if (!running) {
+                        return;
+                    }
+                    if (paused) {
+                        // Nothing changes on the LEDs until unpaused
+                        clock.await(Marquee.this, 0);
+                        continue;
+                    }
+                    if (cleared) {
+                        cleared = false;
+                        for (int index = 0; index < shown.length; index++) {
+                            shown[index] = null;
+                        }
+                    }
+
+                    status = useStatusIndicator ? statusIndicator : null;
+                    blank = messages.length == 0 && shownKey != null;
+                    entry = nextEntry(clock.currentTimeMillis());
+                    if (entry != null && !entry.dirty && entry.key.equals(shownKey)) {
+                        entry = null;
+                    } else if (entry != null) {
+                        entry.dirty = false;
+                        shownKey = entry.key;
+                    }
+                    wait = (messages.length > 1) ? Math.max(1, nextRotation - clock.currentTimeMillis()) : 0;
+                }
+
+                try {
+                    if (status != null) {
+                        push(STATUS_INDICATOR_LED_POSITION, status);
+                    }
+                    if (blank) {
+                        for (int index = 0; index < MarqueeMessage.MESSAGE_LENGTH; index++) {
+                            push(FIRST_MESSAGE_LED_POSITION + index, LED_OFF);
+                        }
+                    } else if (entry != null) {
+                        LEDColor[] message = entry.message.getMessage();
+                        for (int index = 0; index < MarqueeMessage.MESSAGE_LENGTH; index++) {
+                            push(FIRST_MESSAGE_LED_POSITION + index, message[index]);
                         }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        Utils.sleep(Long.MAX_VALUE);
                     }
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
                 }
+
+                synchronized (Marquee.this) {
+                    if (running && !paused && !cleared && !hasChanges()) {
+                        clock.await(Marquee.this, wait);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Selects the message to be shown, rotating to the next one when
+         * the updating interval has elapsed. The caller must own the marquee.
+         */
+        private Entry nextEntry(long now) {
+            Entry[] list = messages;
+
+            if (list.length == 0) {
+                shownKey = null;
+                return null;
+            }
+
+            // A shorter updating interval applies to the message being shown
+            nextRotation = Math.min(nextRotation, now + updatingInterval);
+
+            if (position >= list.length || shownKey == null || !list[position].key.equals(shownKey)) {
+                // The shown message has been removed or moved
+                position = Math.min(position, list.length - 1);
+                nextRotation = now + updatingInterval;
+            } else if (list.length > 1 && now >= nextRotation) {
+                position = (position + 1) % list.length;
+                nextRotation = now + updatingInterval;
+            }
+            return list[position];
+        }
+
+        /**
+         * Checks if something to be shown has changed since the last
+         * rendering. The caller must own the marquee.
+         */
+        private boolean hasChanges() {
+            Entry[] list = messages;
+
+            if (list.length > 1 && Clock.getClock().currentTimeMillis() >= nextRotation) {
+                return true;
+            }
+            if (list.length == 0) {
+                return shownKey != null;
+            }
+            if (position >= list.length || !list[position].key.equals(shownKey) || list[position].dirty) {
+                return true;
             }
+            return useStatusIndicator && !sameColor(shown[STATUS_INDICATOR_LED_POSITION], statusIndicator);
+        }
+
+        private void push(int position, LEDColor color) {
+            if (!sameColor(shown[position], color)) {
+                LEDs.getLED(position).setColor(color);
+                shown[position] = color;
+            }
+        }
+    }
+
+    private static boolean sameColor(LEDColor color, LEDColor other) {
+        if (color == other) {
+            return true;
+        }
+        if (color == null || other == null) {
+            return false;
         }
+        return color.red() == other.red() && color.green() == other.green() && color.blue() == other.blue();
     }
 }
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.clock;
+
+/**
+ * Source of time for the components of the system. By default the real time
+ * clock is used, but it can be replaced, for instance by a
+ * {@link VirtualClock} when replaying recorded traces or by a
+ * {@link DiscreteEventClock} when running the components on a host.
+ *
+ * Components take the time, sleep and wait for conditions through the clock
+ * instead of the system, and every thread of a component registers itself as
+ * a task of the clock while it runs. The clock must be set before the
+ * components are started.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public abstract class Clock {
+
+    private static Clock clock = new RealTimeClock();
+
+    /**
+     * Get the clock of the system.
+     *
+     * @return The clock of the system.
+     */
+    public static Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Set the clock of the system.
+     *
+     * @param clock The clock to be used from now on.
+     */
+    public static void setClock(Clock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock.setClock: No clock specified.");
+        }
+        Clock.clock = clock;
+    }
+
+    /**
+     * Get the current time.
+     *
+     * @return The current time in milliseconds.
+     */
+    public abstract long currentTimeMillis();
+
+    /**
+     * Wait for the specified time.
+     *
+     * @param millis The time to wait in milliseconds.
+     */
+    public abstract void sleep(long millis);
+
+    /**
+     * Register the calling thread as a task of the clock. A task must only
+     * block through {@link #sleep(long)} or {@link #await(Object, long)}.
+     */
+    public abstract void register();
+
+    /**
+     * Unregister the calling thread as a task of the clock.
+     */
+    public abstract void unregister();
+
+    /**
+     * Wait on {@code monitor} until it is signaled through
+     * {@link #signalAll(Object)} or the specified time elapses. The calling
+     * thread must own the monitor and, as with {@code Object.wait}, it should
+     * check its condition again when this method returns.
+     *
+     * @param monitor The monitor to wait on.
+     * @param millis The maximum time to wait in milliseconds, or 0 to wait
+     * until signaled.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public abstract void await(Object monitor, long millis) throws InterruptedException;
+
+    /**
+     * Wake up all the threads waiting on {@code monitor}. The calling thread
+     * must own the monitor.
+     *
+     * @param monitor The monitor.
+     */
+    public abstract void signalAll(Object monitor);
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.clock;
+
+import java.util.Vector;
+
+/**
+ * Discrete event {@link Clock} for running the components of the system on a
+ * host faster than real time. Sleeps and timed waits are scheduled on the
+ * virtual time, and whenever all the registered tasks are waiting the time
+ * jumps to the earliest scheduled wake up, so idle periods take no time at
+ * all.
+ *
+ * A task is a thread registered through {@link #register()}. The time is
+ * frozen while any task is running, so tasks must block only through the
+ * clock; a task blocked reading the radio, for instance, would stop the time.
+ * Threads that are not registered can also sleep and wait on the clock, but
+ * the time does not advance on their behalf.
+ *
+ * The time is advanced by a driver thread that runs while there are
+ * registered tasks.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class DiscreteEventClock extends Clock {
+
+    private static final long NO_TIMEOUT = Long.MAX_VALUE;
+
+    private long time;
+    private Vector tasks;
+    private int waitingTasks;
+    private Vector waiters;
+    private Thread driver;
+
+    /**
+     * Public constructor of a discrete event clock starting at time 0.
+     */
+    public DiscreteEventClock() {
+        this(0);
+    }
+
+    /**
+     * Public constructor of a discrete event clock starting at time
+     * {@code time}.
+     *
+     * @param time The initial time in milliseconds.
+     */
+    public DiscreteEventClock(long time) {
+        this.time = time;
+        this.tasks = new Vector();
+        this.waiters = new Vector();
+    }
+
+    /**
+     * Get the current virtual time.
+     *
+     * @return The virtual time in milliseconds.
+     */
+    public synchronized long currentTimeMillis() {
+        return time;
+    }
+
+    /**
+     * Sleep the calling thread for the specified virtual time.
+     *
+     * @param millis The time to sleep in milliseconds.
+     */
+    public void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+
+        Object monitor = new Object();
+        synchronized (monitor) {
+            try {
+                await(monitor, millis);
+            } catch (InterruptedException ex) {
+                // Sleep interrupted
+            }
+        }
+    }
+
+    /**
+     * Register the calling thread as a task, starting the driver if it is the
+     * first one.
+     */
+    public synchronized void register() {
+        Thread current = Thread.currentThread();
+
+        if (!tasks.contains(current)) {
+            tasks.addElement(current);
+        }
+
+        if (driver == null) {
+            driver = new Thread(new Driver());
+            driver.start();
+        }
+    }
+
+    /**
+     * Unregister the calling thread. The driver ends when there are no tasks
+     * left.
+     */
+    public synchronized void unregister() {
+        tasks.removeElement(Thread.currentThread());
+        notifyAll();
+    }
+
+    /**
+     * Wait on {@code monitor} until it is signaled or the specified virtual
+     * time elapses.
+     *
+     * @param monitor The monitor to wait on.
+     * @param millis The maximum time to wait in milliseconds, or 0 to wait
+     * until signaled.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public void await(Object monitor, long millis) throws InterruptedException {
+        Waiter waiter;
+
+        synchronized (this) {
+            // Saturate, as time + millis overflows for waits such as Long.MAX_VALUE
+            long deadline = (millis <= 0 || millis > NO_TIMEOUT - time) ? NO_TIMEOUT : time + millis;
+            waiter = new Waiter(monitor, deadline, tasks.contains(Thread.currentThread()));
+            waiters.addElement(waiter);
+            if (waiter.task) {
+                waitingTasks++;
+            }
+            notifyAll();
+        }
+
+        try {
+            // The driver needs the monitor to wake the waiter up, so it can
+            // not do it before the waiter is waiting on it.
+            while (!isWoken(waiter)) {
+                monitor.wait();
+            }
+        } finally {
+            synchronized (this) {
+                if (!waiter.woken) {
+                    wake(waiter);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wake up all the threads waiting on {@code monitor}. They are considered
+     * running from this moment, so the time does not advance before they get
+     * the chance to run.
+     *
+     * @param monitor The monitor.
+     */
+    public void signalAll(Object monitor) {
+        synchronized (this) {
+            for (int index = waiters.size() - 1; index >= 0; index--) {
+                Waiter waiter = (Waiter) waiters.elementAt(index);
+                if (waiter.monitor == monitor) {
+                    wake(waiter);
+                }
+            }
+        }
+        monitor.notifyAll();
+    }
+
+    private synchronized boolean isWoken(Waiter waiter) {
+        return waiter.woken;
+    }
+
+    private void wake(Waiter waiter) {
+        waiter.woken = true;
+        waiters.removeElement(waiter);
+        if (waiter.task) {
+            waitingTasks--;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Waits until all the tasks are waiting and then advances the time to the
+     * earliest wake up, waking up every waiter due at that time.
+     *
+     * @return The waiters woken up, or null if there are no tasks left.
+     */
+    private synchronized Vector advance() {
+        while (true) {
+            if (tasks.isEmpty()) {
+                driver = null;
+                return null;
+            }
+
+            if (waitingTasks >= tasks.size()) {
+                long next = NO_TIMEOUT;
+                for (int index = 0; index < waiters.size(); index++) {
+                    next = Math.min(next, ((Waiter) waiters.elementAt(index)).wakeUpTime);
+                }
+
+                if (next != NO_TIMEOUT) {
+                    Vector due = new Vector();
+
+                    if (next > time) {
+                        time = next;
+                    }
+
+                    for (int index = waiters.size() - 1; index >= 0; index--) {
+                        Waiter waiter = (Waiter) waiters.elementAt(index);
+                        if (waiter.wakeUpTime <= time) {
+                            wake(waiter);
+                            due.addElement(waiter);
+                        }
+                    }
+                    return due;
+                }
+            }
+
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                // Check the tasks again
+            }
+        }
+    }
+
+    // PRIVATE CLASSES
+    private static class Waiter {
+
+        private Object monitor;
+        private long wakeUpTime;
+        private boolean task;
+        private boolean woken;
+
+        private Waiter(Object monitor, long wakeUpTime, boolean task) {
+            this.monitor = monitor;
+            this.wakeUpTime = wakeUpTime;
+            this.task = task;
+        }
+    }
+
+    private class Driver implements Runnable {
+
+        public void run() {
+            Vector due;
+
+            while ((due = advance()) != null) {
+                for (int index = 0; index < due.size(); index++) {
+                    Object monitor = ((Waiter) due.elementAt(index)).monitor;
+                    synchronized (monitor) {
+                        monitor.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.clock;
+
+import com.sun.spot.core.util.Utils;
+
+/**
+ * {@link Clock} backed by the system time.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class RealTimeClock extends Clock {
+
+    /**
+     * Get the current time.
+     *
+     * @return The system time in milliseconds.
+     */
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Sleep the calling thread for the specified time.
+     *
+     * @param millis The time to sleep in milliseconds.
+     */
+    public void sleep(long millis) {
+        Utils.sleep(millis);
+    }
+
+    /**
+     * Threads are not tracked by the real time clock.
+     */
+    public void register() {
+    }
+
+    /**
+     * Threads are not tracked by the real time clock.
+     */
+    public void unregister() {
+    }
+
+    /**
+     * Wait on {@code monitor} using {@code Object.wait}.
+     *
+     * @param monitor The monitor to wait on.
+     * @param millis The maximum time to wait in milliseconds, or 0 to wait
+     * until signaled.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public void await(Object monitor, long millis) throws InterruptedException {
+        monitor.wait(millis);
+    }
+
+    /**
+     * Wake up all the threads waiting on {@code monitor} using
+     * {@code Object.notifyAll}.
+     *
+     * @param monitor The monitor.
+     */
+    public void signalAll(Object monitor) {
+        monitor.notifyAll();
+    }
+}
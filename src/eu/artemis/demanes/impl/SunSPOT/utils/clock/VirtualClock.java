@@ -0,0 +1,130 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.clock;
+
+/**
+ * {@link Clock} whose time only moves when it is told to. Sleeping on a
+ * virtual clock advances its time instead of blocking, and so does a timed
+ * wait, which never blocks. It is meant for single threaded drivers such as
+ * the trace replayer; threads are not tracked.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class VirtualClock extends Clock {
+
+    private long time;
+
+    /**
+     * Public constructor of a virtual clock starting at time 0.
+     */
+    public VirtualClock() {
+        this(0);
+    }
+
+    /**
+     * Public constructor of a virtual clock starting at time {@code time}.
+     *
+     * @param time The initial time in milliseconds.
+     */
+    public VirtualClock(long time) {
+        this.time = time;
+    }
+
+    /**
+     * Get the current virtual time.
+     *
+     * @return The virtual time in milliseconds.
+     */
+    public synchronized long currentTimeMillis() {
+        return time;
+    }
+
+    /**
+     * Advance the virtual time by the specified time.
+     *
+     * @param millis The time to advance in milliseconds.
+     */
+    public void sleep(long millis) {
+        advance(millis);
+    }
+
+    /**
+     * Set the virtual time. The time never goes back.
+     *
+     * @param time The new time in milliseconds.
+     */
+    public synchronized void setTime(long time) {
+        if (time > this.time) {
+            this.time = time;
+        }
+    }
+
+    /**
+     * Advance the virtual time.
+     *
+     * @param millis The time to advance in milliseconds.
+     */
+    public synchronized void advance(long millis) {
+        if (millis > 0) {
+            this.time += millis;
+        }
+    }
+
+    /**
+     * Threads are not tracked by the virtual clock.
+     */
+    public void register() {
+    }
+
+    /**
+     * Threads are not tracked by the virtual clock.
+     */
+    public void unregister() {
+    }
+
+    /**
+     * Advance the virtual time by {@code millis} or, if it is 0, wait on
+     * {@code monitor} until it is signaled.
+     *
+     * @param monitor The monitor to wait on.
+     * @param millis The maximum time to wait in milliseconds, or 0 to wait
+     * until signaled.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public void await(Object monitor, long millis) throws InterruptedException {
+        if (millis > 0) {
+            advance(millis);
+        } else {
+            monitor.wait();
+        }
+    }
+
+    /**
+     * Wake up all the threads waiting on {@code monitor}.
+     *
+     * @param monitor The monitor.
+     */
+    public void signalAll(Object monitor) {
+        monitor.notifyAll();
+    }
+}
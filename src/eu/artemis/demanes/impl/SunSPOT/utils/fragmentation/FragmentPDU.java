@@ -0,0 +1,299 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.fragmentation;
+
+/**
+ * Fragment PDU carries a piece of a message too large for one radiogram, or
+ * the request of the pieces missing at the receiver.
+ * <p>
+ * A message of {@code total} bytes is split into {@code count} fragments of
+ * the same size, but for the last one, so that the receiver can place every
+ * fragment in the message whatever the order it arrives in. The layout is:
+ * <pre>
+ * magic (2) | type (1) | message ID (2) | index (1) | count (1) | total (2) | payload
+ * </pre>
+ * A retransmit request has the same header, with index 0, followed by a
+ * bitmap of {@code (count + 7) / 8} bytes where the fragments missing are
+ * set. PDUs are encoded straight into a buffer provided by the caller and
+ * decoded with {@link #wrap(byte[], int, int)}, which reuses the same
+ * instance, so neither of them allocates.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class FragmentPDU {
+
+    private static final byte MAGIC_0 = (byte) 0xFA;
+    private static final byte MAGIC_1 = (byte) 0xF7;
+
+    /** Fragment of a message. */
+    public static final byte TYPE_DATA = 0x01;
+    /** Request of the fragments missing at the receiver. */
+    public static final byte TYPE_RETRANSMIT = 0x02;
+
+    /** Length in bytes of the header of a PDU. */
+    public static final int HEADER_LENGTH = 9;
+    /** Maximum number of fragments of a message. */
+    public static final int MAX_FRAGMENTS = 0xFF;
+    /** Maximum length in bytes of a fragmented message. */
+    public static final int MAX_MESSAGE_LENGTH = 0xFFFF;
+
+    private byte type;
+    private int messageID;
+    private int index;
+    private int count;
+    private int total;
+    private byte[] buffer;
+    private int offset;
+    private int length;
+
+    /**
+     * Creates an empty PDU, to be filled with {@link #wrap(byte[], int, int)}.
+     */
+    public FragmentPDU() {
+    }
+
+    /**
+     * Checks if a buffer starts like a fragment PDU.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the PDU in the buffer.
+     * @param length The length of the PDU.
+     * @return True if it is long enough and starts with the magic bytes.
+     */
+    public static boolean isFragmentPDU(byte[] buffer, int offset, int length) {
+        return length >= HEADER_LENGTH && buffer[offset] == MAGIC_0 && buffer[offset + 1] == MAGIC_1;
+    }
+
+    /**
+     * Get the number of fragments a message is split into.
+     *
+     * @param total The length of the message.
+     * @param maximumPayload The maximum payload of a fragment.
+     * @return The number of fragments, at least 1.
+     */
+    public static int fragmentCount(int total, int maximumPayload) {
+        return Math.max(1, (total + maximumPayload - 1) / maximumPayload);
+    }
+
+    /**
+     * Get the offset of a fragment in the message.
+     *
+     * @param index The index of the fragment.
+     * @param count The number of fragments.
+     * @param total The length of the message.
+     * @return The offset in bytes.
+     */
+    public static int fragmentOffset(int index, int count, int total) {
+        return index * ((total + count - 1) / count);
+    }
+
+    /**
+     * Get the length of the payload of a fragment.
+     *
+     * @param index The index of the fragment.
+     * @param count The number of fragments.
+     * @param total The length of the message.
+     * @return The length in bytes.
+     */
+    public static int fragmentLength(int index, int count, int total) {
+        int size = (total + count - 1) / count;
+        return Math.max(0, Math.min(size, total - index * size));
+    }
+
+    /**
+     * Get the length of a retransmit request.
+     *
+     * @param count The number of fragments of the message.
+     * @return The length in bytes.
+     */
+    public static int retransmitLength(int count) {
+        return HEADER_LENGTH + (count + 7) / 8;
+    }
+
+    /**
+     * Encodes the header of a fragment, to be followed by its payload.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the PDU in the buffer.
+     * @param messageID The ID of the message.
+     * @param index The index of the fragment.
+     * @param count The number of fragments.
+     * @param total The length of the message.
+     * @return The number of bytes written, {@link #HEADER_LENGTH}.
+     */
+    public static int encodeData(byte[] buffer, int offset, int messageID, int index, int count, int total) {
+        return encodeHeader(buffer, offset, TYPE_DATA, messageID, index, count, total);
+    }
+
+    /**
+     * Encodes a retransmit request of the fragments not received.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the PDU in the buffer.
+     * @param messageID The ID of the message.
+     * @param count The number of fragments.
+     * @param total The length of the message.
+     * @param received The fragments received, indexed by fragment.
+     * @return The number of bytes written.
+     */
+    public static int encodeRetransmit(byte[] buffer, int offset, int messageID, int count, int total, boolean[] received) {
+        int position = offset + encodeHeader(buffer, offset, TYPE_RETRANSMIT, messageID, 0, count, total);
+        int bitmapLength = (count + 7) / 8;
+
+        for (int index = 0; index < bitmapLength; index++) {
+            buffer[position + index] = 0;
+        }
+        for (int index = 0; index < count; index++) {
+            if (!received[index]) {
+                buffer[position + index / 8] |= (byte) (0x80 >>> (index % 8));
+            }
+        }
+        return position + bitmapLength - offset;
+    }
+
+    private static int encodeHeader(byte[] buffer, int offset, byte type, int messageID, int index, int count, int total) {
+        if (count < 1 || count > MAX_FRAGMENTS || index < 0 || index >= count || total < 0 || total > MAX_MESSAGE_LENGTH) {
+            throw new IllegalArgumentException("FragmentPDU: Invalid fragment " + index + "/" + count + " of " + total + " bytes.");
+        }
+
+        buffer[offset] = MAGIC_0;
+        buffer[offset + 1] = MAGIC_1;
+        buffer[offset + 2] = type;
+        buffer[offset + 3] = (byte) (messageID >>> 8);
+        buffer[offset + 4] = (byte) messageID;
+        buffer[offset + 5] = (byte) index;
+        buffer[offset + 6] = (byte) count;
+        buffer[offset + 7] = (byte) (total >>> 8);
+        buffer[offset + 8] = (byte) total;
+        return HEADER_LENGTH;
+    }
+
+    /**
+     * Decodes a PDU from a buffer, without copying it. The buffer must not be
+     * modified while the PDU is in use.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the PDU in the buffer.
+     * @param length The length of the PDU.
+     * @return True if the buffer holds a valid PDU, false otherwise.
+     */
+    public boolean wrap(byte[] buffer, int offset, int length) {
+        if (!isFragmentPDU(buffer, offset, length)) {
+            return false;
+        }
+
+        this.type = buffer[offset + 2];
+        this.messageID = ((buffer[offset + 3] & 0xFF) << 8) | (buffer[offset + 4] & 0xFF);
+        this.index = buffer[offset + 5] & 0xFF;
+        this.count = buffer[offset + 6] & 0xFF;
+        this.total = ((buffer[offset + 7] & 0xFF) << 8) | (buffer[offset + 8] & 0xFF);
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+
+        if (count < 1 || index >= count) {
+            return false;
+        }
+        switch (type) {
+            case TYPE_DATA:
+                return length - HEADER_LENGTH == fragmentLength(index, count, total);
+            case TYPE_RETRANSMIT:
+                return length >= retransmitLength(count);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Get the type of the PDU.
+     *
+     * @return {@link #TYPE_DATA} or {@link #TYPE_RETRANSMIT}.
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * Get the ID of the message.
+     *
+     * @return The message ID.
+     */
+    public int getMessageID() {
+        return messageID;
+    }
+
+    /**
+     * Get the index of the fragment.
+     *
+     * @return The index, from 0 to {@link #getCount()} - 1.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the number of fragments of the message.
+     *
+     * @return The number of fragments.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the length of the whole message.
+     *
+     * @return The length in bytes.
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Get the offset of the payload of a fragment in the buffer.
+     *
+     * @return The offset of the payload.
+     */
+    public int getPayloadOffset() {
+        return offset + HEADER_LENGTH;
+    }
+
+    /**
+     * Get the length of the payload of a fragment.
+     *
+     * @return The length of the payload.
+     */
+    public int getPayloadLength() {
+        return length - HEADER_LENGTH;
+    }
+
+    /**
+     * Checks if a retransmit request asks for a fragment.
+     *
+     * @param fragment The index of the fragment.
+     * @return True if the fragment is missing at the receiver.
+     */
+    public boolean isRequested(int fragment) {
+        return (buffer[offset + HEADER_LENGTH + fragment / 8] & (0x80 >>> (fragment % 8))) != 0;
+    }
+}
@@ -0,0 +1,398 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.fragmentation;
+
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
+
+/**
+ * Reassembler of the messages received in fragments. The memory is bounded:
+ * there is a fixed number of messages being reassembled at once, each of
+ * them up to a maximum length, and a message not completed within the
+ * timeout is discarded. When every slot is busy, the message that has been
+ * waiting longest for a fragment is discarded to make room.
+ * <p>
+ * The last messages completed are remembered for the timeout, so that a
+ * duplicated or late fragment of one of them is dropped instead of starting
+ * the message again, which could discard another message being reassembled
+ * and deliver the same message twice.
+ * <p>
+ * The fragments missing of a message can be requested again: once no
+ * fragment has arrived for the retransmit delay,
+ * {@link #pollRetransmitRequest(byte[], int)} encodes a request to be sent
+ * back to the sender.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class Reassembler {
+
+    /** Default number of messages reassembled at once. */
+    public static final int DEFAULT_CAPACITY = 2;
+    /** Default maximum length in bytes of a message. */
+    public static final int DEFAULT_MAX_LENGTH = 4096;
+    /** Default time in milliseconds to complete a message. */
+    public static final long DEFAULT_TIMEOUT = 10000;
+    /** Default time in milliseconds without fragments before a retransmit request. */
+    public static final long DEFAULT_RETRANSMIT_DELAY = 1000;
+    /** Maximum number of retransmit requests for a message. */
+    public static final int MAX_RETRANSMIT_REQUESTS = 3;
+    /** Number of messages completed remembered for dropping their late fragments. */
+    public static final int RECENT_MESSAGES = 4;
+
+    private final Message[] messages;
+    private final int maximumLength;
+    private final long timeout;
+    private final long retransmitDelay;
+    private final FragmentPDU pdu;
+
+    private final long[] recentSources;
+    private final int[] recentMessageIDs;
+    private final long[] recentTimes;
+    private int recentNext;
+    private int recentCount;
+
+    private long requestAddress;
+
+    private long completed;
+    private long expired;
+    private long rejected;
+    private long duplicates;
+    private long requests;
+
+    /**
+     * Creates a reassembler with the default capacity, maximum length,
+     * timeout and retransmit delay.
+     */
+    public Reassembler() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_LENGTH, DEFAULT_TIMEOUT, DEFAULT_RETRANSMIT_DELAY);
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param capacity The number of messages reassembled at once.
+     * @param maximumLength The maximum length in bytes of a message.
+     * @param timeout The time in milliseconds to complete a message.
+     * @param retransmitDelay The time in milliseconds without fragments of a
+     * message before requesting the fragments missing, or 0 for never
+     * requesting them.
+     */
+    public Reassembler(int capacity, int maximumLength, long timeout, long retransmitDelay) {
+        if (capacity <= 0 || maximumLength <= 0 || timeout <= 0 || retransmitDelay < 0) {
+            throw new IllegalArgumentException("Reassembler: The capacity, the maximum length and the timeout must be positive.");
+        }
+        this.messages = new Message[capacity];
+        for (int slot = 0; slot < capacity; slot++) {
+            this.messages[slot] = new Message();
+        }
+        this.maximumLength = maximumLength;
+        this.timeout = timeout;
+        this.retransmitDelay = retransmitDelay;
+        this.pdu = new FragmentPDU();
+        this.recentSources = new long[RECENT_MESSAGES];
+        this.recentMessageIDs = new int[RECENT_MESSAGES];
+        this.recentTimes = new long[RECENT_MESSAGES];
+    }
+
+    /**
+     * Adds a fragment to its message.
+     *
+     * @param source The address of the sender.
+     * @param buffer The buffer holding the fragment.
+     * @param offset The offset of the fragment in the buffer.
+     * @param length The length of the fragment.
+     * @return The whole message if this fragment has completed it, or null
+     * otherwise.
+     */
+    public synchronized byte[] accept(long source, byte[] buffer, int offset, int length) {
+        long now = Clock.getClock().currentTimeMillis();
+
+        expire(now);
+
+        if (!pdu.wrap(buffer, offset, length) || pdu.getType() != FragmentPDU.TYPE_DATA || pdu.getTotal() > maximumLength) {
+            rejected++;
+            return null;
+        }
+
+        if (pdu.getCount() == 1) {
+            completed++;
+            return copyPayload(buffer);
+        }
+
+        if (isRecent(source, pdu.getMessageID(), now)) {
+            duplicates++;
+            return null;
+        }
+
+        Message message = find(source, pdu.getMessageID());
+        if (message != null && (message.count != pdu.getCount() || message.total != pdu.getTotal())) {
+            // The sender has reused the ID for another message
+            message.free();
+            message = null;
+        }
+        if (message == null) {
+            message = allocate(now);
+            message.start(source, pdu.getMessageID(), pdu.getCount(), pdu.getTotal(), now);
+        }
+
+        if (message.received[pdu.getIndex()]) {
+            duplicates++;
+            return null;
+        }
+
+        System.arraycopy(buffer, pdu.getPayloadOffset(), message.data, FragmentPDU.fragmentOffset(pdu.getIndex(), message.count, message.total), pdu.getPayloadLength());
+        message.received[pdu.getIndex()] = true;
+        message.receivedCount++;
+        message.lastTime = now;
+
+        if (message.receivedCount < message.count) {
+            return null;
+        }
+
+        byte[] data = message.data;
+        remember(source, message.messageID, now);
+        message.free();
+        completed++;
+        return data;
+    }
+
+    /**
+     * Encodes a request of the fragments missing of a message that has not
+     * received any fragment for the retransmit delay. Each message is
+     * requested at most {@link #MAX_RETRANSMIT_REQUESTS} times, and not more
+     * often than the retransmit delay.
+     *
+     * @param buffer The buffer where the request is encoded. It must hold
+     * {@link FragmentPDU#retransmitLength(int)} bytes for
+     * {@link FragmentPDU#MAX_FRAGMENTS}.
+     * @param offset The offset of the request in the buffer.
+     * @return The length of the request, or 0 if there is nothing to
+     * request. The address of the sender to which it must be sent is given
+     * by {@link #getRequestAddress()}.
+     */
+    public synchronized int pollRetransmitRequest(byte[] buffer, int offset) {
+        long now = Clock.getClock().currentTimeMillis();
+
+        expire(now);
+
+        if (retransmitDelay == 0) {
+            return 0;
+        }
+
+        for (int slot = 0; slot < messages.length; slot++) {
+            Message message = messages[slot];
+            if (message.inUse && message.requests < MAX_RETRANSMIT_REQUESTS && now - message.lastTime >= retransmitDelay) {
+                message.requests++;
+                message.lastTime = now;
+                requestAddress = message.source;
+                requests++;
+                return FragmentPDU.encodeRetransmit(buffer, offset, message.messageID, message.count, message.total, message.received);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the address of the sender of the message whose fragments have been
+     * requested in the last call to {@link #pollRetransmitRequest(byte[], int)}.
+     *
+     * @return The address of the sender.
+     */
+    public synchronized long getRequestAddress() {
+        return requestAddress;
+    }
+
+    /**
+     * Checks if there is any message being reassembled.
+     *
+     * @return True if some message is incomplete, false otherwise.
+     */
+    public synchronized boolean isReassembling() {
+        expire(Clock.getClock().currentTimeMillis());
+
+        for (int slot = 0; slot < messages.length; slot++) {
+            if (messages[slot].inUse) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the time without fragments of a message before requesting the
+     * fragments missing.
+     *
+     * @return The retransmit delay in milliseconds.
+     */
+    public long getRetransmitDelay() {
+        return retransmitDelay;
+    }
+
+    private byte[] copyPayload(byte[] buffer) {
+        byte[] data = new byte[pdu.getPayloadLength()];
+        System.arraycopy(buffer, pdu.getPayloadOffset(), data, 0, data.length);
+        return data;
+    }
+
+    private Message find(long source, int messageID) {
+        for (int slot = 0; slot < messages.length; slot++) {
+            Message message = messages[slot];
+            if (message.inUse && message.source == source && message.messageID == messageID) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    private boolean isRecent(long source, int messageID, long now) {
+        for (int entry = 0; entry < recentCount; entry++) {
+            if (recentSources[entry] == source && recentMessageIDs[entry] == messageID && now - recentTimes[entry] < timeout) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void remember(long source, int messageID, long now) {
+        recentSources[recentNext] = source;
+        recentMessageIDs[recentNext] = messageID;
+        recentTimes[recentNext] = now;
+        recentNext = (recentNext + 1) % RECENT_MESSAGES;
+        if (recentCount < RECENT_MESSAGES) {
+            recentCount++;
+        }
+    }
+
+    private Message allocate(long now) {
+        Message oldest = null;
+
+        for (int slot = 0; slot < messages.length; slot++) {
+            Message message = messages[slot];
+            if (!message.inUse) {
+                return message;
+            }
+            if (oldest == null || message.lastTime < oldest.lastTime) {
+                oldest = message;
+            }
+        }
+
+        oldest.free();
+        expired++;
+        return oldest;
+    }
+
+    private void expire(long now) {
+        for (int slot = 0; slot < messages.length; slot++) {
+            Message message = messages[slot];
+            if (message.inUse && now - message.firstTime >= timeout) {
+                message.free();
+                expired++;
+            }
+        }
+    }
+
+    /**
+     * Get the number of messages completed.
+     *
+     * @return The number of messages completed.
+     */
+    public synchronized long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * Get the number of messages discarded before being completed, because
+     * of the timeout or to make room for another one.
+     *
+     * @return The number of messages discarded.
+     */
+    public synchronized long getExpired() {
+        return expired;
+    }
+
+    /**
+     * Get the number of fragments rejected because they were not valid or
+     * their message was too long.
+     *
+     * @return The number of fragments rejected.
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Get the number of fragments received more than once, including the
+     * late fragments of a message already completed.
+     *
+     * @return The number of duplicated fragments.
+     */
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Get the number of retransmit requests encoded.
+     *
+     * @return The number of retransmit requests.
+     */
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * A message being reassembled.
+     */
+    private static class Message {
+
+        private boolean inUse;
+        private long source;
+        private int messageID;
+        private int count;
+        private int total;
+        private byte[] data;
+        private boolean[] received;
+        private int receivedCount;
+        private int requests;
+        private long firstTime;
+        private long lastTime;
+
+        private void start(long source, int messageID, int count, int total, long now) {
+            this.inUse = true;
+            this.source = source;
+            this.messageID = messageID;
+            this.count = count;
+            this.total = total;
+            this.data = new byte[total];
+            this.received = new boolean[count];
+            this.receivedCount = 0;
+            this.requests = 0;
+            this.firstTime = now;
+            this.lastTime = now;
+        }
+
+        private void free() {
+            this.inUse = false;
+            this.data = null;
+            this.received = null;
+        }
+    }
+}
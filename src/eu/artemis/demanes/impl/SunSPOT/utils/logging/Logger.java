@@ -218,6 +218,16 @@ public class Logger {
         this.level = Level.OFF;
     }
     
+    /**
+     * Check if a message of level {@code level} would be logged.
+     * 
+     * @param level The level.
+     * @return True if the messages of that level are logged, false otherwise.
+     */
+    public boolean isLoggable(Level level) {
+        return level.intValue() >= this.level.intValue() && this.destination != DISABLED;
+    }
+    
     /**
      * Log a message of level {@code FINEST}.
      * 
@@ -22,6 +22,7 @@
 package eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery;
 
 import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.ondemand.OnDemandNeighborDiscovery;
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.passive.PassiveNeighborDiscovery;
 
 /**
  * <p>A NDPFactory is a factory method to provide a Neighbor Discovery Protocol
@@ -29,6 +30,11 @@ import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.ondemand.OnDemand
  * {@link NeighborDiscoveryType} for further information regarding the current
  * available managers.
  * </p>
+ * <p>Every available type is provided by the same {@link OnDemandNeighborDiscovery}
+ * engine, configured for the mode requested. The Node Degree Managers V1 and
+ * V2 are provided as the periodic three-way handshake discovery, counting the
+ * neighbors of the last round or keeping them until they expire respectively.
+ * </p>
  * 
  * @author N&eacute;stor Lucas Mart&iacute;nez
  * @version 1.0.0
@@ -36,6 +42,11 @@ import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.ondemand.OnDemand
  * 
  */
 public class NDPFactory {
+
+    private static final long NODE_DEGREE_MANAGER_V1_PERIOD = 5000;
+    private static final long NODE_DEGREE_MANAGER_V2_PERIOD = 10000;
+    private static final long NODE_DEGREE_MANAGER_V2_EXPIRY_TIME = 10000;
+
     /**
      * A factory to create instances of requested neighbor discovery protocols. 
      * 
@@ -44,11 +55,33 @@ public class NDPFactory {
      * @throws NeighborDiscoveryFactoryException when the requested typr is not implemented.
      */
     public static NeighborDiscoveryProtocol getInstance(NeighborDiscoveryType neighborDiscoveryType) throws NeighborDiscoveryFactoryException {
+        OnDemandNeighborDiscovery neighborDiscovery;
+
         switch (neighborDiscoveryType.hashCode()) {
             case NeighborDiscoveryType.NODE_DEGREE_MANAGER_V1_CODE:
-                return new NodeDegreeManagerV1();
+                neighborDiscovery = new OnDemandNeighborDiscovery();
+                neighborDiscovery.setPeriod(NODE_DEGREE_MANAGER_V1_PERIOD);
+                neighborDiscovery.setThreeWayHandshake(true);
+                return neighborDiscovery;
+            case NeighborDiscoveryType.NODE_DEGREE_MANAGER_V2_CODE:
+                neighborDiscovery = new OnDemandNeighborDiscovery();
+                neighborDiscovery.setPeriod(NODE_DEGREE_MANAGER_V2_PERIOD);
+                neighborDiscovery.setThreeWayHandshake(true);
+                neighborDiscovery.setKeepNeighbors(true);
+                neighborDiscovery.setExpiryTime(NODE_DEGREE_MANAGER_V2_EXPIRY_TIME);
+                return neighborDiscovery;
             case NeighborDiscoveryType.ON_DEMAND_NODE_DEGREE_CODE:
                 return new OnDemandNeighborDiscovery();
+            case NeighborDiscoveryType.PASSIVE_NEIGHBOR_DISCOVERY_CODE:
+                return new PassiveNeighborDiscovery();
+            case NeighborDiscoveryType.PERIODIC_NEIGHBOR_DISCOVERY_CODE:
+                neighborDiscovery = new OnDemandNeighborDiscovery();
+                neighborDiscovery.setPeriod(OnDemandNeighborDiscovery.DEFAULT_PERIOD);
+                return neighborDiscovery;
+            case NeighborDiscoveryType.THREE_WAY_NEIGHBOR_DISCOVERY_CODE:
+                neighborDiscovery = new OnDemandNeighborDiscovery();
+                neighborDiscovery.setThreeWayHandshake(true);
+                return neighborDiscovery;
             default:
                 throw new NeighborDiscoveryFactoryException(neighborDiscoveryType.toString());
         }
@@ -37,6 +37,12 @@ public class NeighborDiscoveryType {
     public static final String BASIC_NEIGHBOR_DISCOVERY_STRING = "Basic Neighbor Discovery Manager V1";
     /** String description for the On Demand Node Degree. */
     public static final String ON_DEMAND_NODE_DEGREE_STRING = "On Demand Node Degree Manager V1";
+    /** String description for the Passive Neighbor Discovery. */
+    public static final String PASSIVE_NEIGHBOR_DISCOVERY_STRING = "Passive Neighbor Discovery (Overheard Traffic)";
+    /** String description for the Periodic Neighbor Discovery. */
+    public static final String PERIODIC_NEIGHBOR_DISCOVERY_STRING = "Periodic Neighbor Discovery";
+    /** String description for the Three-Way Handshake Neighbor Discovery. */
+    public static final String THREE_WAY_NEIGHBOR_DISCOVERY_STRING = "Three-Way Handshake Neighbor Discovery";
 
     /** Code for the Node Degree Manager V1. */
     public static final int NODE_DEGREE_MANAGER_V1_CODE = 0x01;
@@ -46,6 +52,12 @@ public class NeighborDiscoveryType {
     public static final int BASIC_NEIGHBOR_DISCOVERY_CODE = 0x03;
     /** Code for the On Demand Node Degree. */
     public static final int ON_DEMAND_NODE_DEGREE_CODE = 0x04;
+    /** Code for the Passive Neighbor Discovery. */
+    public static final int PASSIVE_NEIGHBOR_DISCOVERY_CODE = 0x05;
+    /** Code for the Periodic Neighbor Discovery. */
+    public static final int PERIODIC_NEIGHBOR_DISCOVERY_CODE = 0x06;
+    /** Code for the Three-Way Handshake Neighbor Discovery. */
+    public static final int THREE_WAY_NEIGHBOR_DISCOVERY_CODE = 0x07;
 
     /** Neighbor Discovery Type for the Node Degree Manager V1. */
     public static final NeighborDiscoveryType NODE_DEGREE_MANAGER_V1 = new NeighborDiscoveryType(NODE_DEGREE_MANAGER_V1_STRING, NODE_DEGREE_MANAGER_V1_CODE);
@@ -55,6 +67,12 @@ public class NeighborDiscoveryType {
     public static final NeighborDiscoveryType BASIC_NEIGHBOR_DISCOVERY = new NeighborDiscoveryType(BASIC_NEIGHBOR_DISCOVERY_STRING, BASIC_NEIGHBOR_DISCOVERY_CODE);
     /** Neighbor Discovery Type for the On Demand Node Degree. */
     public static final NeighborDiscoveryType ON_DEMAND_NODE_DEGREE = new NeighborDiscoveryType(ON_DEMAND_NODE_DEGREE_STRING, ON_DEMAND_NODE_DEGREE_CODE);
+    /** Neighbor Discovery Type for the Passive Neighbor Discovery. */
+    public static final NeighborDiscoveryType PASSIVE_NEIGHBOR_DISCOVERY = new NeighborDiscoveryType(PASSIVE_NEIGHBOR_DISCOVERY_STRING, PASSIVE_NEIGHBOR_DISCOVERY_CODE);
+    /** Neighbor Discovery Type for the Periodic Neighbor Discovery. */
+    public static final NeighborDiscoveryType PERIODIC_NEIGHBOR_DISCOVERY = new NeighborDiscoveryType(PERIODIC_NEIGHBOR_DISCOVERY_STRING, PERIODIC_NEIGHBOR_DISCOVERY_CODE);
+    /** Neighbor Discovery Type for the Three-Way Handshake Neighbor Discovery. */
+    public static final NeighborDiscoveryType THREE_WAY_NEIGHBOR_DISCOVERY = new NeighborDiscoveryType(THREE_WAY_NEIGHBOR_DISCOVERY_STRING, THREE_WAY_NEIGHBOR_DISCOVERY_CODE);
 
     private final String name;
     private int code;
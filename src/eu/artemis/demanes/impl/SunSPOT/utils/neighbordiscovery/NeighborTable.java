@@ -0,0 +1,534 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery;
+
+/**
+ * Table of neighbors keyed by their 64-bit IEEE address, with the time each
+ * of them was last heard. Addresses and timestamps are kept in primitive
+ * arrays with open addressing, so adding or refreshing a neighbor does not
+ * allocate anything unless the table has to grow.
+ * <p>
+ * Expiry is driven by a hashed timer wheel: every entry is linked in the slot
+ * of the tick at which it expires, and {@link #expire(long)} only visits the
+ * slots of the ticks elapsed since the previous call. Refreshing a neighbor
+ * moves it to another slot in constant time.
+ * <p>
+ * For every neighbor the table also keeps an exponentially weighted moving
+ * average of the quality of the link (RSSI, LQI and correlation) of the
+ * radiograms received from it, in fixed point with {@link #QUALITY_SCALE}.
+ * <p>
+ * Every neighbor has a presence bitmap of the last discovery rounds, one bit
+ * per round with the current round in the lowest bit. Hearing a neighbor sets
+ * the bit of the current round, and {@link #shiftPresence()} starts a new
+ * round.
+ * <p>
+ * The neighbors are iterated without allocation through their positions:
+ * <pre>
+ * for (int i = table.first(); i >= 0; i = table.next(i)) {
+ *     long address = table.getAddress(i);
+ * }
+ * </pre>
+ * The table is not synchronized; the owner is responsible for that.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class NeighborTable {
+
+    /** Default initial capacity. */
+    public static final int DEFAULT_CAPACITY = 32;
+    /** Number of slots of the timer wheel. */
+    public static final int WHEEL_SLOTS = 64;
+
+    private static final byte FREE = 0;
+    private static final byte USED = 1;
+    private static final byte DELETED = 2;
+
+    private static final int NONE = -1;
+
+    /** Fixed point scale of the link quality averages. */
+    public static final int QUALITY_SCALE = 16;
+    /** Weight of a new link quality sample, as a right shift (1/4). */
+    public static final int QUALITY_SHIFT = 2;
+    /** Number of rounds kept in the presence bitmap. */
+    public static final int PRESENCE_ROUNDS = 32;
+
+    private long[] addresses;
+    private long[] lastHeard;
+    private byte[] states;
+    private int[] nextInSlot;
+    private int[] previousInSlot;
+    private int[] rssiAverage;
+    private int[] lqiAverage;
+    private int[] correlationAverage;
+    private int[] samples;
+    private int[] presence;
+    private int size;
+    private int deleted;
+    private int mask;
+
+    private final int[] wheel;
+    private long expiryTime;
+    private long tickLength;
+    private long lastTick;
+
+    /**
+     * Creates a new table with the default capacity.
+     *
+     * @param expiryTime The time in milliseconds after which a neighbor not
+     * heard expires.
+     */
+    public NeighborTable(long expiryTime) {
+        this(DEFAULT_CAPACITY, expiryTime);
+    }
+
+    /**
+     * Creates a new table.
+     *
+     * @param capacity The number of neighbors expected. The table grows when
+     * more are added.
+     * @param expiryTime The time in milliseconds after which a neighbor not
+     * heard expires.
+     */
+    public NeighborTable(int capacity, long expiryTime) {
+        int length = 4;
+        while (length < 2 * capacity) {
+            length <<= 1;
+        }
+
+        this.wheel = new int[WHEEL_SLOTS];
+        allocate(length);
+        setTimer(expiryTime);
+        this.lastTick = NONE;
+    }
+
+    private void allocate(int length) {
+        addresses = new long[length];
+        lastHeard = new long[length];
+        states = new byte[length];
+        nextInSlot = new int[length];
+        previousInSlot = new int[length];
+        rssiAverage = new int[length];
+        lqiAverage = new int[length];
+        correlationAverage = new int[length];
+        samples = new int[length];
+        presence = new int[length];
+        mask = length - 1;
+        size = 0;
+        deleted = 0;
+        for (int slot = 0; slot < WHEEL_SLOTS; slot++) {
+            wheel[slot] = NONE;
+        }
+    }
+
+    private void setTimer(long expiryTime) {
+        this.expiryTime = expiryTime;
+        // Half the wheel covers the expiry time, so that a refreshed entry
+        // never lands in a slot visited before it expires
+        this.tickLength = Math.max(1, expiryTime / (WHEEL_SLOTS / 2));
+    }
+
+    private static int hash(long address) {
+        long h = address * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int find(long address) {
+        int index = hash(address) & mask;
+        while (states[index] != FREE) {
+            if (states[index] == USED && addresses[index] == address) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return NONE;
+    }
+
+    /**
+     * Adds a neighbor, or refreshes it if it is already in the table.
+     *
+     * @param address The IEEE address of the neighbor.
+     * @param timestamp The time at which it has been heard.
+     * @return True if the neighbor is new, false if it has been refreshed.
+     */
+    public boolean put(long address, long timestamp) {
+        int index = find(address);
+        if (index != NONE) {
+            unlink(index);
+            lastHeard[index] = timestamp;
+            presence[index] |= 1;
+            link(index);
+            return false;
+        }
+
+        if (2 * (size + deleted + 1) > addresses.length) {
+            resize(2 * (size + 1) > addresses.length / 2 ? addresses.length << 1 : addresses.length);
+        }
+
+        index = hash(address) & mask;
+        while (states[index] == USED) {
+            index = (index + 1) & mask;
+        }
+        if (states[index] == DELETED) {
+            deleted--;
+        }
+        states[index] = USED;
+        addresses[index] = address;
+        lastHeard[index] = timestamp;
+        samples[index] = 0;
+        presence[index] = 1;
+        size++;
+        link(index);
+        return true;
+    }
+
+    /**
+     * Adds a link quality sample of a neighbor to its averages.
+     *
+     * @param address The IEEE address of the neighbor.
+     * @param rssi The RSSI of the received radiogram.
+     * @param lqi The LQI of the received radiogram.
+     * @param correlation The correlation of the received radiogram.
+     * @return True if the neighbor is in the table, false otherwise.
+     */
+    public boolean sample(long address, int rssi, int lqi, int correlation) {
+        int index = find(address);
+        if (index == NONE) {
+            return false;
+        }
+
+        if (samples[index] == 0) {
+            rssiAverage[index] = rssi * QUALITY_SCALE;
+            lqiAverage[index] = lqi * QUALITY_SCALE;
+            correlationAverage[index] = correlation * QUALITY_SCALE;
+        } else {
+            rssiAverage[index] += (rssi * QUALITY_SCALE - rssiAverage[index]) >> QUALITY_SHIFT;
+            lqiAverage[index] += (lqi * QUALITY_SCALE - lqiAverage[index]) >> QUALITY_SHIFT;
+            correlationAverage[index] += (correlation * QUALITY_SCALE - correlationAverage[index]) >> QUALITY_SHIFT;
+        }
+        if (samples[index] < Integer.MAX_VALUE) {
+            samples[index]++;
+        }
+        return true;
+    }
+
+    /**
+     * Removes a neighbor.
+     *
+     * @param address The IEEE address of the neighbor.
+     * @return True if the neighbor was in the table, false otherwise.
+     */
+    public boolean remove(long address) {
+        int index = find(address);
+        if (index == NONE) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    private void removeAt(int index) {
+        unlink(index);
+        states[index] = DELETED;
+        size--;
+        deleted++;
+    }
+
+    /**
+     * Indicates whether a neighbor is in the table.
+     *
+     * @param address The IEEE address of the neighbor.
+     * @return True if the neighbor is in the table, false otherwise.
+     */
+    public boolean contains(long address) {
+        return find(address) != NONE;
+    }
+
+    /**
+     * Get the time a neighbor was last heard.
+     *
+     * @param address The IEEE address of the neighbor.
+     * @return The timestamp, or -1 if the neighbor is not in the table.
+     */
+    public long getLastHeard(long address) {
+        int index = find(address);
+        return index == NONE ? -1 : lastHeard[index];
+    }
+
+    /**
+     * Removes the neighbors not heard for longer than the expiry time.
+     *
+     * @param now The current time.
+     * @return The number of neighbors removed.
+     */
+    public int expire(long now) {
+        long currentTick = now / tickLength;
+        long tick = (lastTick == NONE || currentTick - lastTick > WHEEL_SLOTS) ? currentTick - WHEEL_SLOTS + 1 : lastTick + 1;
+        int expired = 0;
+
+        // The slot of the current tick is scanned but not finished, since
+        // entries in it may expire later within the tick
+        for (; tick <= currentTick; tick++) {
+            int index = wheel[(int) (tick & (WHEEL_SLOTS - 1))];
+            while (index != NONE) {
+                int next = nextInSlot[index];
+                if (now - lastHeard[index] > expiryTime) {
+                    removeAt(index);
+                    expired++;
+                }
+                index = next;
+            }
+        }
+        lastTick = currentTick - 1;
+
+        return expired;
+    }
+
+    /**
+     * Removes every neighbor.
+     */
+    public void clear() {
+        for (int index = 0; index < states.length; index++) {
+            states[index] = FREE;
+        }
+        for (int slot = 0; slot < WHEEL_SLOTS; slot++) {
+            wheel[slot] = NONE;
+        }
+        size = 0;
+        deleted = 0;
+    }
+
+    /**
+     * Get the time after which a neighbor not heard expires.
+     *
+     * @return The expiry time in milliseconds.
+     */
+    public long getExpiryTime() {
+        return expiryTime;
+    }
+
+    /**
+     * Set the time after which a neighbor not heard expires. The timer wheel
+     * is rebuilt.
+     *
+     * @param expiryTime The expiry time in milliseconds.
+     */
+    public void setExpiryTime(long expiryTime) {
+        setTimer(expiryTime);
+        lastTick = NONE;
+        for (int slot = 0; slot < WHEEL_SLOTS; slot++) {
+            wheel[slot] = NONE;
+        }
+        for (int index = 0; index < states.length; index++) {
+            if (states[index] == USED) {
+                link(index);
+            }
+        }
+    }
+
+    /**
+     * Get the number of neighbors.
+     *
+     * @return The number of neighbors.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the position of the first neighbor.
+     *
+     * @return The position, or -1 if the table is empty.
+     */
+    public int first() {
+        return next(NONE);
+    }
+
+    /**
+     * Get the position of the neighbor after the one at {@code index}.
+     *
+     * @param index The position of the current neighbor.
+     * @return The position, or -1 if there are no more neighbors.
+     */
+    public int next(int index) {
+        for (index++; index < states.length; index++) {
+            if (states[index] == USED) {
+                return index;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Get the address of the neighbor at a position.
+     *
+     * @param index The position of the neighbor.
+     * @return The IEEE address.
+     */
+    public long getAddress(int index) {
+        return addresses[index];
+    }
+
+    /**
+     * Get the time the neighbor at a position was last heard.
+     *
+     * @param index The position of the neighbor.
+     * @return The timestamp.
+     */
+    public long getLastHeardAt(int index) {
+        return lastHeard[index];
+    }
+
+    /**
+     * Starts a new discovery round, shifting the presence bitmap of every
+     * neighbor.
+     */
+    public void shiftPresence() {
+        for (int index = first(); index >= 0; index = next(index)) {
+            presence[index] <<= 1;
+        }
+    }
+
+    /**
+     * Marks every neighbor as present in the current round.
+     */
+    public void markAllPresent() {
+        for (int index = first(); index >= 0; index = next(index)) {
+            presence[index] |= 1;
+        }
+    }
+
+    /**
+     * Get the presence bitmap of the neighbor at a position.
+     *
+     * @param index The position of the neighbor.
+     * @return The bitmap, with the current round in the lowest bit.
+     */
+    public int getPresenceAt(int index) {
+        return presence[index];
+    }
+
+    /**
+     * Counts the rounds present in a presence bitmap.
+     *
+     * @param bitmap The presence bitmap, or part of it.
+     * @return The number of bits set.
+     */
+    public static int countRounds(int bitmap) {
+        bitmap = bitmap - ((bitmap >>> 1) & 0x55555555);
+        bitmap = (bitmap & 0x33333333) + ((bitmap >>> 2) & 0x33333333);
+        bitmap = (bitmap + (bitmap >>> 4)) & 0x0F0F0F0F;
+        return (bitmap * 0x01010101) >>> 24;
+    }
+
+    /**
+     * Get the number of link quality samples of the neighbor at a position.
+     *
+     * @param index The position of the neighbor.
+     * @return The number of samples, 0 if its link quality is unknown.
+     */
+    public int getSamplesAt(int index) {
+        return samples[index];
+    }
+
+    /**
+     * Get the average RSSI of the neighbor at a position.
+     *
+     * @param index The position of the neighbor.
+     * @return The average RSSI scaled by {@link #QUALITY_SCALE}.
+     */
+    public int getRssiAt(int index) {
+        return rssiAverage[index];
+    }
+
+    /**
+     * Get the average LQI of the neighbor at a position.
+     *
+     * @param index The position of the neighbor.
+     * @return The average LQI scaled by {@link #QUALITY_SCALE}.
+     */
+    public int getLinkQualityAt(int index) {
+        return lqiAverage[index];
+    }
+
+    /**
+     * Get the average correlation of the neighbor at a position.
+     *
+     * @param index The position of the neighbor.
+     * @return The average correlation scaled by {@link #QUALITY_SCALE}.
+     */
+    public int getCorrelationAt(int index) {
+        return correlationAverage[index];
+    }
+
+    private void link(int index) {
+        int slot = (int) (((lastHeard[index] + expiryTime) / tickLength) & (WHEEL_SLOTS - 1));
+        int head = wheel[slot];
+
+        previousInSlot[index] = NONE;
+        nextInSlot[index] = head;
+        if (head != NONE) {
+            previousInSlot[head] = index;
+        }
+        wheel[slot] = index;
+    }
+
+    private void unlink(int index) {
+        int previous = previousInSlot[index];
+        int next = nextInSlot[index];
+
+        if (previous != NONE) {
+            nextInSlot[previous] = next;
+        } else {
+            int slot = (int) (((lastHeard[index] + expiryTime) / tickLength) & (WHEEL_SLOTS - 1));
+            wheel[slot] = next;
+        }
+        if (next != NONE) {
+            previousInSlot[next] = previous;
+        }
+    }
+
+    private void resize(int length) {
+        long[] oldAddresses = addresses;
+        long[] oldLastHeard = lastHeard;
+        byte[] oldStates = states;
+        int[] oldRssi = rssiAverage;
+        int[] oldLqi = lqiAverage;
+        int[] oldCorrelation = correlationAverage;
+        int[] oldSamples = samples;
+        int[] oldPresence = presence;
+
+        allocate(length);
+        for (int index = 0; index < oldStates.length; index++) {
+            if (oldStates[index] == USED) {
+                put(oldAddresses[index], oldLastHeard[index]);
+
+                int newIndex = find(oldAddresses[index]);
+                rssiAverage[newIndex] = oldRssi[index];
+                lqiAverage[newIndex] = oldLqi[index];
+                correlationAverage[newIndex] = oldCorrelation[index];
+                samples[newIndex] = oldSamples[index];
+                presence[newIndex] = oldPresence[index];
+            }
+        }
+    }
+}
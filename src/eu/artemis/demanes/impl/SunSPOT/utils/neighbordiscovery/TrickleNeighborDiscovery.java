@@ -0,0 +1,258 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery;
+
+import com.sun.spot.ieee_802_15_4_radio.util.IEEEAddress;
+import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.ondemand.OnDemandNeighborDiscovery;
+import eu.artemis.demanes.impl.SunSPOT.utils.trickle.TrickleTimer;
+import java.util.Vector;
+
+/**
+ * Schedules the requests of a neighbor discovery protocol with a
+ * {@link TrickleTimer}.
+ * <p>
+ * {@link #doNeighborDiscovery()} is still called periodically, but it only
+ * performs a discovery when the timer tells so. The set of neighbors found is
+ * checked on every call: while it does not change, the interval between
+ * discoveries doubles, and a new or lost neighbor takes it back to the
+ * minimum. Requests heard from known neighbors count as consistent
+ * transmissions, so a request is suppressed when enough neighbors are already
+ * discovering in the same interval, and a request heard from an unknown
+ * neighbor resets the interval.
+ * <p>
+ * The neighbor table is still aged when a request is suppressed, so that the
+ * neighbors not heard expire. This needs a discovery that keeps its
+ * neighbors until they expire, for longer than the maximum interval, as
+ * configured by {@link #keepNeighbors(OnDemandNeighborDiscovery, TrickleTimer)}.
+ * A neighbor that is not discovering hears this node only through its
+ * requests, so a request is never suppressed once the maximum interval has
+ * passed since the last one.
+ * Discoveries that count only the neighbors answering the last request
+ * cannot age it without asking them, so their requests are never suppressed.
+ * 
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class TrickleNeighborDiscovery implements NeighborDiscoveryProtocol, NeighborRequestListener {
+
+    /** Default minimum interval, the period of the monitor. */
+    public static final long DEFAULT_MINIMUM_INTERVAL = 2000;
+    /** Default number of doublings of the minimum interval, up to 16 s. */
+    public static final int DEFAULT_DOUBLINGS = 3;
+    /** Default redundancy constant. */
+    public static final int DEFAULT_REDUNDANCY = 2;
+    /** Minimum expiry time of the neighbors, in maximum intervals. */
+    public static final int EXPIRY_INTERVALS = 2;
+
+    private final NeighborDiscoveryProtocol protocol;
+    private final TrickleTimer timer;
+    private final Logger logger;
+    private final Object lock;
+
+    private long[] knownNeighbors;
+    private int knownCount;
+    private long[] observedNeighbors;
+    private long lastDiscovery;
+
+    /**
+     * Creates a new Trickle scheduler with the default parameters.
+     * 
+     * @param protocol The neighbor discovery protocol to be scheduled.
+     */
+    public TrickleNeighborDiscovery(NeighborDiscoveryProtocol protocol) {
+        this(protocol, new TrickleTimer(DEFAULT_MINIMUM_INTERVAL, DEFAULT_DOUBLINGS, DEFAULT_REDUNDANCY));
+    }
+
+    /**
+     * Creates a new Trickle scheduler.
+     * 
+     * @param protocol The neighbor discovery protocol to be scheduled.
+     * @param timer The Trickle timer deciding when to discover.
+     */
+    public TrickleNeighborDiscovery(NeighborDiscoveryProtocol protocol, TrickleTimer timer) {
+        this.protocol = protocol;
+        this.timer = timer;
+        this.logger = SystemContext.getLogger();
+        this.lock = new Object();
+        this.knownNeighbors = new long[NeighborTable.DEFAULT_CAPACITY];
+        this.observedNeighbors = new long[NeighborTable.DEFAULT_CAPACITY];
+        this.lastDiscovery = Clock.getClock().currentTimeMillis();
+    }
+
+    /**
+     * Configures an on demand discovery to be scheduled by a Trickle timer:
+     * the neighbors are kept until they expire, and they do not expire
+     * before being asked again after the maximum interval.
+     *
+     * @param protocol The neighbor discovery to be scheduled.
+     * @param timer The Trickle timer deciding when to discover.
+     */
+    public static void keepNeighbors(OnDemandNeighborDiscovery protocol, TrickleTimer timer) {
+        long expiryTime = EXPIRY_INTERVALS * timer.getMaximumInterval();
+
+        protocol.setKeepNeighbors(true);
+        if (protocol.getExpiryTime() < expiryTime) {
+            protocol.setExpiryTime(expiryTime);
+        }
+    }
+
+    /**
+     * Get the timer deciding when to discover, which keeps the count of
+     * discoveries performed and suppressed.
+     * 
+     * @return The Trickle timer.
+     */
+    public TrickleTimer getTimer() {
+        return timer;
+    }
+
+    /**
+     * Get the scheduled neighbor discovery protocol.
+     * 
+     * @return The neighbor discovery protocol.
+     */
+    public NeighborDiscoveryProtocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Gets the number of active neighbors found by the scheduled protocol.
+     * 
+     * @return The number of active neighbors.
+     */
+    public long getNodeDegree() {
+        return protocol.getNodeDegree();
+    }
+
+    /**
+     * Gets the list of active neighbors found by the scheduled protocol.
+     * 
+     * @return The list of active neighbors.
+     */
+    public Vector getNeighborList() {
+        return protocol.getNeighborList();
+    }
+
+    /**
+     * Checks the set of neighbors for changes and performs a neighbor
+     * discovery if the timer fires, or if no request has been sent for the
+     * maximum interval.
+     */
+    public void doNeighborDiscovery() {
+        long now = Clock.getClock().currentTimeMillis();
+
+        if (observeNeighbors()) {
+            logger.debug("TrickleNeighborDiscovery.doNeighborDiscovery: Neighbor set changed, interval reset to the minimum");
+            timer.hearInconsistent(now);
+        }
+
+        // A neighbor that is not discovering only hears this node through its
+        // requests, so it must not stay silent until it expires there
+        if (timer.poll(now) || now - lastDiscovery >= timer.getMaximumInterval()) {
+            logger.debug("TrickleNeighborDiscovery.doNeighborDiscovery: Discovering neighbors, interval of " + timer.getInterval() + " ms");
+            lastDiscovery = now;
+            protocol.doNeighborDiscovery();
+        } else if (!(protocol instanceof OnDemandNeighborDiscovery) || !((OnDemandNeighborDiscovery) protocol).maintainNeighbors()) {
+            // The neighbors are only counted when they answer a request
+            lastDiscovery = now;
+            protocol.doNeighborDiscovery();
+        }
+    }
+
+    /**
+     * Counts a request heard from a known neighbor as a consistent
+     * transmission, and a request from an unknown one as an inconsistent
+     * transmission, as it is a new neighbor.
+     * 
+     * @param address The IEEE address of the neighbor that sent it.
+     */
+    public void requestHeard(long address) {
+        boolean known;
+        synchronized (lock) {
+            known = indexOf(knownNeighbors, knownCount, address) >= 0;
+        }
+
+        if (known) {
+            timer.hearConsistent();
+        } else {
+            timer.hearInconsistent(Clock.getClock().currentTimeMillis());
+        }
+    }
+
+    private boolean observeNeighbors() {
+        Vector neighborList = protocol.getNeighborList();
+        int count = neighborList.size();
+
+        if (observedNeighbors.length < count) {
+            observedNeighbors = new long[count * 2];
+        }
+        for (int index = 0; index < count; index++) {
+            observedNeighbors[index] = IEEEAddress.toLong((String) neighborList.elementAt(index));
+        }
+        sort(observedNeighbors, count);
+
+        synchronized (lock) {
+            boolean changed = count != knownCount;
+            for (int index = 0; !changed && index < count; index++) {
+                changed = observedNeighbors[index] != knownNeighbors[index];
+            }
+
+            long[] swap = knownNeighbors;
+            knownNeighbors = observedNeighbors;
+            knownCount = count;
+            observedNeighbors = swap;
+
+            return changed;
+        }
+    }
+
+    private static void sort(long[] addresses, int count) {
+        for (int index = 1; index < count; index++) {
+            long address = addresses[index];
+            int position = index - 1;
+            while (position >= 0 && addresses[position] > address) {
+                addresses[position + 1] = addresses[position];
+                position--;
+            }
+            addresses[position + 1] = address;
+        }
+    }
+
+    private static int indexOf(long[] addresses, int count, long address) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (addresses[middle] < address) {
+                low = middle + 1;
+            } else if (addresses[middle] > address) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+}
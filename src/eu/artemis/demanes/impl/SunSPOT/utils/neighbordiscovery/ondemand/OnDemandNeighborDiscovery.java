@@ -21,23 +21,41 @@
  */
 package eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.ondemand;
 
-import com.sun.spot.core.util.Queue;
-import com.sun.spot.core.util.Utils;
+import com.sun.spot.ieee_802_15_4_radio.util.IEEEAddress;
 import com.sun.spot.multihop.io.j2me.radiogram.Radiogram;
-import com.sun.spot.multihop.io.j2me.radiogram.RadiogramConnection;
 import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
 import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
 import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.NeighborDiscoveryException;
 import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.NeighborDiscoveryProtocol;
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.NeighborRequestListener;
 import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.pdu.NeighborDiscoveryPDU;
 import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.pdu.NeighborDiscoveryPDUException;
-import java.io.IOException;
+import eu.artemis.demanes.impl.SunSPOT.utils.queue.BoundedQueue;
 import java.util.Vector;
-import javax.microedition.io.Connector;
 
 /**
  * OnDemandNeighborDiscovery implements a basic three-tiered protocol for doing
  * an on demand neighbor discovery.
+ * <p>
+ * The same engine, with a single receive thread and neighbor table, provides
+ * every mode of the protocol:
+ * <ul>
+ * <li>On demand: a discovery is done on every call to
+ * {@link #doNeighborDiscovery()}.</li>
+ * <li>Periodic: with a period set, the engine does a discovery every period
+ * by itself.</li>
+ * <li>Three-way handshake: the requester acknowledges every response, and
+ * the responder counts the requester as a neighbor when the acknowledgement
+ * arrives, so that both ends learn the link from the same exchange.</li>
+ * </ul>
+ * Discoveries either count only the neighbors answering in each round, or
+ * keep every neighbor until it expires.
+ * <p>
+ * With the two-hop exchange enabled, the responses carry the neighborhood of
+ * the responder, and the requester learns which of its neighbors can also be
+ * reached through another one.
  *
  * @author N&eacute;stor Lucas Mart&iacute;nez
  * @version 1.0.0
@@ -49,34 +67,56 @@ public class OnDemandNeighborDiscovery implements NeighborDiscoveryProtocol, OnD
      */
     public static final int DEFAULT_PORT = 200;
     /**
-     * Default interval for the internal incoming message handler.
+     * Default maximum number of incoming messages waiting to be processed.
      */
-    public static final long DEFAULT_HANDLER_INTERVAL = 100;
+    public static final int DEFAULT_QUEUE_CAPACITY = 32;
+    /**
+     * Default maximum number of incoming messages processed at once.
+     */
+    public static final int DEFAULT_HANDLER_BATCH = 8;
+    /**
+     * Default time the link quality of a neighbor is remembered after it was
+     * last heard.
+     */
+    public static final long DEFAULT_LINK_QUALITY_MEMORY = 30000;
+    /**
+     * Default time between discoveries in the periodic mode.
+     */
+    public static final long DEFAULT_PERIOD = 5000;
 
     private OnDemandNeighborTableManager neighborTableManager;
     private OnDemandNeighborDiscoveryRequester ndRequester;
+    private OnDemandNeighborDiscoveryResponder ndResponder;
+    private Thread ndResponderThread;
     private OnDemandNeighborDiscoveryCommunicationsListener ndCommunicationsListener;
     private Thread ndCommunicationsListenerThread;
     private Vector incomingDataQueue;
     private boolean running;
     private Logger logger;
 
-    private Queue NDRadiogramsQueue;
+    private BoundedQueue NDRadiogramsQueue;
     private NDEngine ndMessageProcessor;
     private Thread ndMessageProcessorThread;
+    private NDTimer ndTimer;
+    private Thread ndTimerThread;
+    private long period;
+    private boolean threeWayHandshake;
+    private boolean keepNeighbors;
     private SystemContext context;
+    private boolean twoHopExchange;
+    private NeighborRequestListener requestListener;
 
     /**
      * The main constructor for this class provides the basic functionality of
      * the three-tiered DEMANES/UPM Neighbor Discovery Protocol.
      */
     public OnDemandNeighborDiscovery() {
-        this.neighborTableManager = new OnDemandNeighborTableManager();
+        this.neighborTableManager = new OnDemandNeighborTableManager(DEFAULT_LINK_QUALITY_MEMORY);
         this.ndRequester = new OnDemandNeighborDiscoveryRequester(DEFAULT_PORT);
 
         this.logger = SystemContext.getLogger();
 
-        this.NDRadiogramsQueue = new Queue();
+        this.NDRadiogramsQueue = new BoundedQueue(DEFAULT_QUEUE_CAPACITY);
     }
 
     /**
@@ -84,16 +124,27 @@ public class OnDemandNeighborDiscovery implements NeighborDiscoveryProtocol, OnD
      */
     public void start() {
         this.running = true;
+        this.NDRadiogramsQueue.open();
 
         this.ndCommunicationsListener = new OnDemandNeighborDiscoveryCommunicationsListener(DEFAULT_PORT);
         this.ndCommunicationsListener.addListener(this);
         this.ndMessageProcessor = new NDEngine();
+        this.ndResponder = new OnDemandNeighborDiscoveryResponder(DEFAULT_PORT);
+        this.ndResponder.setNeighborhoodSource(twoHopExchange ? neighborTableManager : null);
 
         this.ndCommunicationsListenerThread = new Thread(this.ndCommunicationsListener);
         this.ndMessageProcessorThread = new Thread(this.ndMessageProcessor);
+        this.ndResponderThread = new Thread(this.ndResponder);
 
         this.ndCommunicationsListenerThread.start();
         this.ndMessageProcessorThread.start();
+        this.ndResponderThread.start();
+
+        if (this.period > 0) {
+            this.ndTimer = new NDTimer();
+            this.ndTimerThread = new Thread(this.ndTimer);
+            this.ndTimerThread.start();
+        }
     }
 
     /**
@@ -101,10 +152,21 @@ public class OnDemandNeighborDiscovery implements NeighborDiscoveryProtocol, OnD
      */
     public void stop() {
         this.running = false;
+        this.NDRadiogramsQueue.close();
         this.ndCommunicationsListener.setActive(false);
+        this.ndResponder.setActive(false);
+        if (this.ndTimer != null) {
+            this.ndTimer.cancel();
+        }
         try {
             this.ndCommunicationsListenerThread.join();
             this.ndMessageProcessorThread.join();
+            this.ndResponderThread.join();
+            if (this.ndTimerThread != null) {
+                this.ndTimerThread.join();
+                this.ndTimerThread = null;
+                this.ndTimer = null;
+            }
         } catch (InterruptedException ex) {
             if (SystemContext.isDebugActive() & SystemContext.isUSBConnected()) {
                 ex.printStackTrace();
@@ -139,6 +201,154 @@ public class OnDemandNeighborDiscovery implements NeighborDiscoveryProtocol, OnD
         return this.neighborTableManager.getNeighborCount();
     }
 
+    /**
+     * Get the number of active neighbors with a usable link.
+     *
+     * @return The number of current active neighbors whose average LQI
+     * reaches the lower threshold.
+     */
+    public long getUsableNodeDegree() {
+        return this.neighborTableManager.getUsableNeighborCount();
+    }
+
+    /**
+     * Get the number of active neighbors weighted by the quality of their
+     * links.
+     *
+     * @return The weighted number of current active neighbors.
+     */
+    public double getWeightedNodeDegree() {
+        return this.neighborTableManager.getWeightedNeighborCount();
+    }
+
+    /**
+     * Sets the LQI thresholds of the usable and weighted node degrees.
+     *
+     * @param lowLinkQuality The LQI below which a link is not usable.
+     * @param highLinkQuality The LQI from which a link is fully usable.
+     */
+    public void setLinkQualityThresholds(int lowLinkQuality, int highLinkQuality) {
+        this.neighborTableManager.setLinkQualityThresholds(lowLinkQuality, highLinkQuality);
+    }
+
+    /**
+     * Sets the rule for counting a neighbor: it must have answered in at
+     * least <i>admissionRounds</i> of the last <i>historyRounds</i>
+     * discoveries.
+     *
+     * @param admissionRounds The number of rounds present, M.
+     * @param historyRounds The number of last rounds considered, K.
+     */
+    public void setAdmissionRule(int admissionRounds, int historyRounds) {
+        this.neighborTableManager.setAdmissionRule(admissionRounds, historyRounds);
+    }
+
+    /**
+     * Get the time between discoveries in the periodic mode.
+     *
+     * @return The period in milliseconds, or 0 in the on demand mode.
+     */
+    public long getPeriod() {
+        return period;
+    }
+
+    /**
+     * Sets the time between discoveries. With a period, the engine does the
+     * discoveries by itself once started; with 0 they are only done on
+     * demand. It takes effect the next time the daemon is started.
+     *
+     * @param period The period in milliseconds, or 0 for the on demand mode.
+     */
+    public void setPeriod(long period) {
+        if (period < 0) {
+            throw new IllegalArgumentException("OnDemandNeighborDiscovery.setPeriod: Invalid period " + period + ".");
+        }
+        this.period = period;
+    }
+
+    /**
+     * Indicate whether the responses are acknowledged.
+     *
+     * @return True in the three-way handshake mode, false otherwise.
+     */
+    public boolean isThreeWayHandshake() {
+        return threeWayHandshake;
+    }
+
+    /**
+     * Enables or disables the three-way handshake, in which the requester
+     * acknowledges every response and the responder counts the requester as
+     * a neighbor when the acknowledgement arrives.
+     *
+     * @param threeWayHandshake True for acknowledging the responses.
+     */
+    public void setThreeWayHandshake(boolean threeWayHandshake) {
+        this.threeWayHandshake = threeWayHandshake;
+    }
+
+    /**
+     * Sets whether the neighbors count as present until they expire, instead
+     * of only when they answer in the current round.
+     *
+     * @param keepNeighbors True for keeping the neighbors until they expire.
+     */
+    public void setKeepNeighbors(boolean keepNeighbors) {
+        this.keepNeighbors = keepNeighbors;
+    }
+
+    /**
+     * Sets the time after which a neighbor not heard is removed from the
+     * table.
+     *
+     * @param expiryTime The expiry time in milliseconds.
+     */
+    public void setExpiryTime(long expiryTime) {
+        this.neighborTableManager.setExpiryTime(expiryTime);
+    }
+
+    /**
+     * Get the time after which a neighbor not heard is removed from the
+     * table.
+     *
+     * @return The expiry time in milliseconds.
+     */
+    public long getExpiryTime() {
+        return this.neighborTableManager.getExpiryTime();
+    }
+
+    /**
+     * Enables or disables the exchange of the neighborhood in the responses.
+     *
+     * @param twoHopExchange true for reporting the neighbors of this node in
+     * its responses.
+     */
+    public void setTwoHopExchange(boolean twoHopExchange) {
+        this.twoHopExchange = twoHopExchange;
+        if (this.ndResponder != null) {
+            this.ndResponder.setNeighborhoodSource(twoHopExchange ? neighborTableManager : null);
+        }
+    }
+
+    /**
+     * Get the number of active neighbors that no other neighbor reports, so
+     * that the direct link is the only known path to them.
+     *
+     * @return The number of critical neighbors.
+     */
+    public long getCriticalNodeDegree() {
+        return this.neighborTableManager.getCriticalNeighborCount();
+    }
+
+    /**
+     * Checks if a node can be reached through any of the active neighbors.
+     *
+     * @param address The IEEE address of the node.
+     * @return true if some neighbor reports it in its neighborhood.
+     */
+    public boolean isReachableThroughNeighbors(long address) {
+        return this.neighborTableManager.isReachableThroughNeighbors(address);
+    }
+
     /**
      * Get the list if active neighbors.
      *
@@ -155,97 +365,271 @@ public class OnDemandNeighborDiscovery implements NeighborDiscoveryProtocol, OnD
      * @param incomingData The unprocessed neighbor discovery message.
      */
     public void notify(Radiogram incomingData) {
-        NDRadiogramsQueue.put(incomingData);
-        logger.debug("OnDemandNeighborDiscovery.notify: added incoming datagram from " + incomingData.getAddress() + " to the queue");
+        if (NDRadiogramsQueue.offer(incomingData)) {
+            if (logger.isLoggable(Level.DEBUG)) {
+                logger.debug("OnDemandNeighborDiscovery.notify: added incoming datagram from " + incomingData.getAddress() + " to the queue");
+            }
+        } else {
+            if (logger.isLoggable(Level.DEBUG)) {
+                logger.debug("OnDemandNeighborDiscovery.notify: queue full, dropped incoming datagram from " + incomingData.getAddress());
+            }
+            ndCommunicationsListener.recycle(incomingData);
+        }
+    }
+
+    /**
+     * Get the queue of incoming neighbor discovery messages, which keeps the
+     * count of queued and dropped messages.
+     *
+     * @return The queue of incoming messages.
+     */
+    public BoundedQueue getIncomingQueue() {
+        return NDRadiogramsQueue;
+    }
+
+    /**
+     * Get the table of active neighbors.
+     *
+     * @return The neighbor table manager.
+     */
+    protected OnDemandNeighborTableManager getNeighborTableManager() {
+        return neighborTableManager;
+    }
+
+    /**
+     * Get the requester that issues the neighbor discovery requests.
+     *
+     * @return The requester.
+     */
+    protected OnDemandNeighborDiscoveryRequester getRequester() {
+        return ndRequester;
     }
 
     /**
-     * Performs a new neighbor discovery requests.
+     * Sets the listener notified of the requests received from other
+     * neighbors, such as a scheduler of the requests of this node.
+     *
+     * @param requestListener The listener, or null for none.
+     */
+    public void setRequestListener(NeighborRequestListener requestListener) {
+        this.requestListener = requestListener;
+    }
+
+    /**
+     * Called when a neighbor discovery request is received from a neighbor,
+     * before scheduling the response. When the neighbors are kept until they
+     * expire, the neighbor is refreshed, as it has just been heard.
+     *
+     * @param address The IEEE address of the neighbor.
+     */
+    protected void requestReceived(long address) {
+        if (keepNeighbors) {
+            neighborTableManager.addNeighbor(address);
+        }
+    }
+
+    /**
+     * Get the responder that answers the neighbor discovery requests of other
+     * neighbors, which keeps the count of scheduled and suppressed responses.
+     *
+     * @return The responder, or null if the daemon has never been started.
+     */
+    public OnDemandNeighborDiscoveryResponder getResponder() {
+        return ndResponder;
+    }
+
+    /**
+     * Performs a new neighbor discovery requests. The response window of the
+     * request is sized to the node degree found by the previous one. Unless
+     * the neighbors are kept until they expire, only the neighbors that
+     * answer are counted, but the link quality of the previous rounds is
+     * kept.
      */
     public void doNeighborDiscovery() {
-        neighborTableManager.clearTable();
+        ndRequester.setResponseWindow(OnDemandNeighborDiscoveryRequester.responseWindowFor(neighborTableManager.getNeighborCount()));
+        neighborTableManager.maintainNeighborTable();
+        if (keepNeighbors) {
+            neighborTableManager.startRoundKeepingNeighbors();
+        } else {
+            neighborTableManager.startRound();
+        }
         ndRequester.doRequest();
     }
 
     /**
-     * Private class that implements the neighbor discovery protocol.
+     * Ages the neighbor table without sending a request, for the rounds in
+     * which the request is suppressed. Only the discoveries that keep the
+     * neighbors until they expire can do it, because the others count just
+     * the neighbors answering a request.
+     *
+     * @return True if the table has been aged, false if a request is needed.
      */
-    private class NDEngine implements Runnable {
+    public boolean maintainNeighbors() {
+        if (!keepNeighbors) {
+            return false;
+        }
+        neighborTableManager.maintainNeighborTable();
+        neighborTableManager.startRoundKeepingNeighbors();
+        return true;
+    }
+
+    /**
+     * Private class that performs the discoveries in the periodic mode.
+     */
+    private class NDTimer implements Runnable {
+
+        private boolean cancelled;
+
+        public synchronized void cancel() {
+            cancelled = true;
+            Clock.getClock().signalAll(this);
+        }
 
         public void run() {
-            Radiogram message;
-            while (running) {
-                try {
-                    if (!NDRadiogramsQueue.isEmpty()) {
-                        logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Processing queue...");
-                        Radiogram incomingRadiogram = (Radiogram) NDRadiogramsQueue.get();
-
-                        String address = incomingRadiogram.getAddress();
-
-                        logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Queue datagram from " + address);
-
-                        try {
-                            NeighborDiscoveryPDU ndPDU = NeighborDiscoveryPDU.parsePDU(incomingRadiogram.getData());
-                            logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Processing PDU of type " + ndPDU.getTypeOfPDU() + " from " + address);
-
-                            switch (ndPDU.getTypeOfPDU()) {
-                                case NeighborDiscoveryPDU.NDPDU_REQUEST:
-                                    long incomingRequestID;
-                                    incomingRequestID = ndPDU.getRequestID();
-                                    logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Recevied a REQUEST message from " + incomingRadiogram.getAddress() + " with requestID " + incomingRequestID);
-                                    sendMessage(address, NeighborDiscoveryPDU.toByteArray(NeighborDiscoveryPDU.NDPDU_RESPONSE, incomingRequestID));
-                                    break;
-                                case NeighborDiscoveryPDU.NDPDU_RESPONSE:
-                                    if (ndRequester.checkRequestID(ndPDU.getRequestID())) {
-                                        logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Received a RESPONSE message with VALID requestID " + ndPDU.getRequestID());
-                                    } else {
-                                        logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Received a RESPONSE message with INVALID requestID " + ndPDU.getRequestID());
-                                    }
-                                    neighborTableManager.addNeighbor(address);
-                                    break;
-                                case NeighborDiscoveryPDU.NDPDU_RESPONSE_ACK:
-                                    break;
-                                default:
-                                    throw new NeighborDiscoveryException("OnDemandNeighborDiscoveryIncomingMessages.run: Unrecognized PDU type.");
-                            }
-                        } catch (NeighborDiscoveryPDUException ex) {
-                            logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Processing PDU exception...");
-                        } catch (NeighborDiscoveryException ex) {
-                            logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Unexpected exception...");
+            Clock clock = Clock.getClock();
+            clock.register();
+            try {
+                do {
+                    try {
+                        doNeighborDiscovery();
+                    } catch (RuntimeException ex) {
+                        if (SystemContext.isDebugActive() & SystemContext.isUSBConnected()) {
+                            ex.printStackTrace();
                         }
                     }
-                    Utils.sleep(DEFAULT_HANDLER_INTERVAL);
-                } catch (Exception ex) {
-                    if (SystemContext.isDebugActive() & SystemContext.isUSBConnected()) {
-                        ex.printStackTrace();
-                    }
-                    Utils.sleep(DEFAULT_HANDLER_INTERVAL);
+                } while (awaitPeriod());
+            } catch (InterruptedException ex) {
+                if (SystemContext.isDebugActive() & SystemContext.isUSBConnected()) {
+                    ex.printStackTrace();
                 }
+            } finally {
+                clock.unregister();
             }
         }
 
-        private void sendMessage(String address, byte[] generatePDU) {
-            RadiogramConnection connection = null;
+        private synchronized boolean awaitPeriod() throws InterruptedException {
+            Clock clock = Clock.getClock();
+            long deadline = clock.currentTimeMillis() + period;
+            long remaining = period;
 
-            try {
-                connection = (RadiogramConnection) Connector.open("radiogram://" + address + ":" + DEFAULT_PORT);
-                Radiogram responseDatagram = (Radiogram) connection.newDatagram(connection.getMaximumLength());
+            while (!cancelled && remaining > 0) {
+                clock.await(this, remaining);
+                remaining = deadline - clock.currentTimeMillis();
+            }
+            return !cancelled;
+        }
+    }
+
+    /**
+     * Private class that implements the neighbor discovery protocol.
+     */
+    private class NDEngine implements Runnable {
 
-                responseDatagram.write(generatePDU);
+        private final NeighborDiscoveryPDU ndPDU = new NeighborDiscoveryPDU();
 
-                connection.send(responseDatagram);
-            } catch (IOException ex) {
-                logger.debug("OnDemandNeighborDiscovery.sendMessage: Unexpected error trying to send datagram to " + address);
+        public void run() {
+            Clock clock = Clock.getClock();
+            clock.register();
+            try {
+                process();
             } finally {
-                if (connection != null) {
+                clock.unregister();
+            }
+        }
+
+        private void process() {
+            Vector batch = new Vector(DEFAULT_HANDLER_BATCH);
+
+            while (running) {
+                try {
+                    NDRadiogramsQueue.drainTo(batch, DEFAULT_HANDLER_BATCH, 0);
+                } catch (InterruptedException ex) {
+                    continue;
+                }
+
+                if (logger.isLoggable(Level.DEBUG)) {
+                    logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Processing " + batch.size() + " queued datagrams...");
+                }
+                for (int index = 0; index < batch.size(); index++) {
+                    Radiogram radiogram = (Radiogram) batch.elementAt(index);
                     try {
-                        connection.close();
-                    } catch (IOException ex) {
-                        logger.debug("OnDemandNeighborDiscovery.sendMessage: Error closing connection after send.");
+                        processRadiogram(radiogram);
+                    } catch (Exception ex) {
+                        if (SystemContext.isDebugActive() & SystemContext.isUSBConnected()) {
+                            ex.printStackTrace();
+                        }
                     }
+                    ndCommunicationsListener.recycle(radiogram);
                 }
+                batch.removeAllElements();
             }
         }
 
+        private void processRadiogram(Radiogram incomingRadiogram) {
+            // The dotted hex address is only built where it is needed, and the
+            // debug messages only when they are going to be logged
+            long source = incomingRadiogram.getAddressAsLong();
+            boolean debug = logger.isLoggable(Level.DEBUG);
+
+            try {
+                ndPDU.wrap(incomingRadiogram.getData(), incomingRadiogram.getOffset(), incomingRadiogram.getLength());
+                if (debug) {
+                    logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Processing PDU of type " + ndPDU.getTypeOfPDU() + " from " + IEEEAddress.toDottedHex(source));
+                }
+
+                switch (ndPDU.getTypeOfPDU()) {
+                    case NeighborDiscoveryPDU.NDPDU_REQUEST:
+                        long incomingRequestID;
+                        incomingRequestID = ndPDU.getRequestID();
+                        if (debug) {
+                            logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Recevied a REQUEST message from " + IEEEAddress.toDottedHex(source) + " with requestID " + incomingRequestID);
+                        }
+                        requestReceived(source);
+                        NeighborRequestListener listener = requestListener;
+                        if (listener != null) {
+                            listener.requestHeard(source);
+                        }
+                        neighborTableManager.recordLinkQuality(source, incomingRadiogram.getRssi(), incomingRadiogram.getLinkQuality(), incomingRadiogram.getCorr());
+                        ndResponder.schedule(source, incomingRequestID, ndPDU.getResponseWindow());
+                        break;
+                    case NeighborDiscoveryPDU.NDPDU_RESPONSE:
+                        if (ndRequester.checkResponse(ndPDU.getRequestID())) {
+                            if (debug) {
+                                logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Received a RESPONSE message with VALID requestID " + ndPDU.getRequestID());
+                            }
+                            neighborTableManager.addNeighbor(source, incomingRadiogram.getRssi(), incomingRadiogram.getLinkQuality(), incomingRadiogram.getCorr());
+                            if (ndPDU.hasNeighborhood()) {
+                                neighborTableManager.setNeighborhood(source, ndPDU.getTransmitPower(), ndPDU.getNodeDegree(), ndPDU.getNeighborhoodFilter());
+                            }
+                            if (threeWayHandshake) {
+                                ndRequester.acknowledge(source, ndPDU.getRequestID());
+                            }
+                        } else if (debug) {
+                            if (ndRequester.checkRequestID(ndPDU.getRequestID())) {
+                                logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Discarded a RESPONSE message arrived after the response window of requestID " + ndPDU.getRequestID());
+                            } else {
+                                logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Discarded a RESPONSE message with INVALID requestID " + ndPDU.getRequestID());
+                            }
+                        }
+                        break;
+                    case NeighborDiscoveryPDU.NDPDU_RESPONSE_ACK:
+                        if (threeWayHandshake && ndResponder.acknowledged(source, ndPDU.getRequestID())) {
+                            if (debug) {
+                                logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Received a RESPONSE_ACK message from " + IEEEAddress.toDottedHex(source) + " with VALID requestID " + ndPDU.getRequestID());
+                            }
+                            neighborTableManager.addNeighbor(source, incomingRadiogram.getRssi(), incomingRadiogram.getLinkQuality(), incomingRadiogram.getCorr());
+                        } else if (debug) {
+                            logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Discarded a RESPONSE_ACK message from " + IEEEAddress.toDottedHex(source) + " with requestID " + ndPDU.getRequestID());
+                        }
+                        break;
+                    default:
+                        throw new NeighborDiscoveryException("OnDemandNeighborDiscoveryIncomingMessages.run: Unrecognized PDU type.");
+                }
+            } catch (NeighborDiscoveryPDUException ex) {
+                logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Processing PDU exception...");
+            } catch (NeighborDiscoveryException ex) {
+                logger.debug("OnDemandNeighborDiscoveryIncomingMessages.run: Unexpected exception...");
+            }
+        }
     }
 }
@@ -26,6 +26,7 @@ import com.sun.spot.core.util.PrettyPrint;
 import com.sun.spot.multihop.io.j2me.radiogram.Radiogram;
 import com.sun.spot.multihop.io.j2me.radiogram.RadiogramConnection;
 import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
 import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
 import java.io.IOException;
 import java.util.Enumeration;
@@ -35,12 +36,23 @@ import javax.microedition.io.Connector;
 /**
  * OnDemandNeighborDiscoveryCommunicationsListener executes a thread for
  * listening neighbor discovery requests from other neighbors.
+ * <p>
+ * The radiograms received are handed to the listeners, which may queue them.
+ * Once processed they can be given back with {@link #recycle(Radiogram)}, and
+ * are received into again instead of allocating a new max-length radiogram
+ * for every frame.
  *
  * @author N&eacute;stor Lucas Mart&iacute;nez
  * @version 1.0.0
  */
 public class OnDemandNeighborDiscoveryCommunicationsListener implements Runnable {
 
+    /** Default maximum number of radiograms kept for reuse. */
+    public static final int DEFAULT_RECYCLED_DATAGRAMS = 8;
+
+    private final Radiogram[] recycledDatagrams = new Radiogram[DEFAULT_RECYCLED_DATAGRAMS];
+    private int recycledCount;
+
     private Vector listeners;
     private int port;
 
@@ -115,6 +127,38 @@ public class OnDemandNeighborDiscoveryCommunicationsListener implements Runnable
         listeners.removeElement(listener);
     }
 
+    /**
+     * Gives back a radiogram received by this listener once it has been
+     * processed, so that it is received into again. It is ignored when there
+     * is more than one listener, as another one may still hold it.
+     *
+     * @param radiogram The radiogram notified to the listener.
+     */
+    public void recycle(Radiogram radiogram) {
+        if (listeners.size() != 1) {
+            return;
+        }
+
+        synchronized (recycledDatagrams) {
+            if (recycledCount < recycledDatagrams.length) {
+                recycledDatagrams[recycledCount++] = radiogram;
+            }
+        }
+    }
+
+    private Radiogram obtain(RadiogramConnection connection) throws IOException {
+        synchronized (recycledDatagrams) {
+            if (recycledCount > 0) {
+                recycledCount--;
+                Radiogram radiogram = recycledDatagrams[recycledCount];
+                recycledDatagrams[recycledCount] = null;
+                radiogram.reset();
+                return radiogram;
+            }
+        }
+        return (Radiogram) connection.newDatagram(connection.getMaximumLength());
+    }
+
     /**
      * The run method is used to be executed as a separate thread, providing a
      * loop for listening for new neighbor discovery messages and parsing them.
@@ -128,12 +172,14 @@ public class OnDemandNeighborDiscoveryCommunicationsListener implements Runnable
                 if (connection == null) {
                     connection = (RadiogramConnection) Connector.open("radiogram://:" + this.port);
                 }
-                incomingDatagram = (Radiogram) connection.newDatagram(connection.getMaximumLength());
+                incomingDatagram = obtain(connection);
 
                 connection.receive(incomingDatagram);
                 Radiogram receivedDatagram = incomingDatagram;
-                logger.debug("NeighboursDiscoveryCommunicationsListener.run: Received incoming datagram from " + incomingDatagram.getAddress());
-                logger.debug(PrettyPrint.prettyPrint(receivedDatagram.getData()));
+                if (logger.isLoggable(Level.DEBUG)) {
+                    logger.debug("NeighboursDiscoveryCommunicationsListener.run: Received incoming datagram from " + incomingDatagram.getAddress());
+                    logger.debug(PrettyPrint.prettyPrint(receivedDatagram.getData()));
+                }
 
                 Enumeration listenerList = listeners.elements();
                 while (listenerList.hasMoreElements()) {
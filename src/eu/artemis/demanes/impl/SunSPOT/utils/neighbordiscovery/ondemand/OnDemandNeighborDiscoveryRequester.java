@@ -21,21 +21,28 @@
  */
 package eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.ondemand;
 
-import com.sun.spot.core.util.Utils;
-import com.sun.spot.multihop.io.j2me.radiogram.Radiogram;
-import com.sun.spot.multihop.io.j2me.radiogram.RadiogramConnection;
+import com.sun.spot.ieee_802_15_4_radio.util.IEEEAddress;
 import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
 import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
 import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.pdu.NeighborDiscoveryPDU;
 import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.pdu.NeighborDiscoveryPDUException;
+import eu.artemis.demanes.impl.SunSPOT.utils.radiogram.RadiogramConnectionPool;
+import eu.artemis.demanes.impl.SunSPOT.utils.radiogram.RadiogramConnectionPool.PooledConnection;
 import java.io.IOException;
+import java.util.Hashtable;
 import java.util.Random;
 import java.util.Vector;
-import javax.microedition.io.Connector;
 
 /**
  * OnDemandNeighborDiscoveryRequester is used to manage the issue of a
  * neighbor discovery request.
+ * <p>
+ * Every request advertises a response window, the time the requester waits
+ * for responses. Neighbors spread their responses over that window instead of
+ * answering at once, and responses arriving after it are discarded. The window
+ * is sized to the number of neighbors expected to answer.
  * 
  * @author N&eacute;stor Lucas Mart&iacute;nez
  * @version 1.0.0
@@ -44,17 +51,31 @@ public class OnDemandNeighborDiscoveryRequester implements Runnable {
     private static final long DEFAULT_INTERVAL = 500;
     private static final int MAXIMUM_VALID_REQUEST_ID = 10;
 
+    /** Default response window in milliseconds. */
+    public static final int DEFAULT_RESPONSE_WINDOW = 200;
+    /** Minimum response window in milliseconds. */
+    public static final int MINIMUM_RESPONSE_WINDOW = 100;
+    /** Maximum response window in milliseconds. */
+    public static final int MAXIMUM_RESPONSE_WINDOW = 1000;
+    /** Time in milliseconds reserved in the window for every expected response. */
+    public static final int RESPONSE_SLOT = 20;
+    /** Time in milliseconds a response sent at the end of the window may take to arrive. */
+    public static final int RESPONSE_GRACE = 50;
+
     private long interval;
     private long requestID;
+    private int responseWindow;
     private final int port;
 
     private Vector validRequestIDs;
+    private Hashtable requestDeadlines;
 
     private Object lock;
     private Logger logger;
     private boolean active;
 
     private Random randomGenerator;
+    private final byte[] pduBuffer;
 
     /**
      * Creates a new Neighbor Discovery Requester on port <i>port</i>.
@@ -65,13 +86,17 @@ public class OnDemandNeighborDiscoveryRequester implements Runnable {
         this.interval = DEFAULT_INTERVAL;
         this.port = port;
 
+        this.responseWindow = DEFAULT_RESPONSE_WINDOW;
+
         this.validRequestIDs = new Vector();
+        this.requestDeadlines = new Hashtable();
 
         this.lock = new Object();
         this.logger = SystemContext.getLogger();
         this.active = true;
 
         this.randomGenerator = new Random();
+        this.pduBuffer = new byte[NeighborDiscoveryPDU.LENGTH];
     }
 
     /**
@@ -92,13 +117,50 @@ public class OnDemandNeighborDiscoveryRequester implements Runnable {
         this.active = active;
     }
 
+    /**
+     * Get the response window advertised in the requests.
+     *
+     * @return The response window in milliseconds.
+     */
+    public int getResponseWindow() {
+        return responseWindow;
+    }
+
+    /**
+     * Set the response window advertised in the requests.
+     *
+     * @param responseWindow The response window in milliseconds.
+     */
+    public void setResponseWindow(int responseWindow) {
+        this.responseWindow = Math.max(0, Math.min(responseWindow, NeighborDiscoveryPDU.MAXIMUM_RESPONSE_WINDOW));
+    }
+
+    /**
+     * Get the response window for the specified number of expected responses,
+     * leaving two slots per response so that few of them collide.
+     *
+     * @param expectedResponses The number of neighbors expected to answer.
+     * @return The response window in milliseconds.
+     */
+    public static int responseWindowFor(long expectedResponses) {
+        long window = 2 * RESPONSE_SLOT * (expectedResponses + 1);
+
+        return (int) Math.max(MINIMUM_RESPONSE_WINDOW, Math.min(window, MAXIMUM_RESPONSE_WINDOW));
+    }
+
     /**
      * Run method for being run as a thread.
      */
     public void run() {
-        while (active) {
-            doRequest();
-            Utils.sleep(interval);
+        Clock clock = Clock.getClock();
+        clock.register();
+        try {
+            while (active) {
+                doRequest();
+                clock.sleep(interval);
+            }
+        } finally {
+            clock.unregister();
         }
     }
 
@@ -116,12 +178,13 @@ public class OnDemandNeighborDiscoveryRequester implements Runnable {
 
         synchronized (lock) {
             if (this.validRequestIDs.size() >= MAXIMUM_VALID_REQUEST_ID) {
+                this.requestDeadlines.remove(this.validRequestIDs.firstElement());
                 this.validRequestIDs.removeElement(this.validRequestIDs.firstElement());
                 this.validRequestIDs.trimToSize();
             }
-        }
 
-        this.validRequestIDs.addElement(Long.valueOf(generatedRequestID));
+            this.validRequestIDs.addElement(Long.valueOf(generatedRequestID));
+        }
         
         return generatedRequestID;
     }
@@ -138,32 +201,97 @@ public class OnDemandNeighborDiscoveryRequester implements Runnable {
         }
     }
 
+    /**
+     * Checks whether a response to the passed by request ID arrives within
+     * the response window of the request.
+     * 
+     * @param requestID The request ID of the response.
+     * @return True if the request ID is valid and its response window, plus
+     * the grace time, has not elapsed. False otherwise.
+     */
+    public boolean checkResponse(long requestID) {
+        synchronized (lock) {
+            Long deadline = (Long) this.requestDeadlines.get(Long.valueOf(requestID));
+
+            return deadline != null && Clock.getClock().currentTimeMillis() <= deadline.longValue() + RESPONSE_GRACE;
+        }
+    }
+
     /**
      * Performs a neighbor request. 
      */
     public void doRequest() {
-        RadiogramConnection connection = null;
-        Radiogram requestDatagram;
-        byte[] pduRequest;
+        requestID = generateRequestID();
+        sendRequest(RadiogramConnectionPool.BROADCAST, requestID, responseWindow);
+    }
 
+    /**
+     * Performs a neighbor request addressed only to the specified neighbors.
+     * All of them share the same request ID and response window.
+     * 
+     * @param destinations The addresses of the neighbors.
+     */
+    public void doRequest(Vector destinations) {
         requestID = generateRequestID();
-        try {
-            pduRequest = NeighborDiscoveryPDU.toByteArray(NeighborDiscoveryPDU.NDPDU_REQUEST, requestID);
+        for (int index = 0; index < destinations.size(); index++) {
+            sendRequest((String) destinations.elementAt(index), requestID, responseWindow);
+        }
+    }
 
-            if (connection == null) {
-                connection = (RadiogramConnection) Connector.open("radiogram://broadcast:" + this.port);
+    /**
+     * Acknowledges a response received in the three-way handshake.
+     * 
+     * @param destination The address of the neighbor that sent the response.
+     * @param requestID The request ID of the response.
+     */
+    public void acknowledge(long destination, long requestID) {
+        RadiogramConnectionPool pool = RadiogramConnectionPool.getPool();
+        PooledConnection connection = null;
+
+        try {
+            connection = pool.acquire(IEEEAddress.toDottedHex(destination), this.port);
+            write(connection, NeighborDiscoveryPDU.NDPDU_RESPONSE_ACK, requestID, 0);
+            connection.send();
+            pool.release(connection);
+            if (logger.isLoggable(Level.DEBUG)) {
+                logger.debug("NeighborDiscoveryRequester.acknowledge: Sent datagram of type RESPONSE_ACK to " + IEEEAddress.toDottedHex(destination) + " and requestID " + requestID);
             }
+        } catch (NeighborDiscoveryPDUException ex) {
+            logger.warning("NeighborDiscoveryRequester.acknowledge: A problem occurred while trying to parse a NDP PDU.");
+        } catch (IOException ex) {
+            logger.warning("NeighborDiscoveryRequester.acknowledge: A problem occurred while trying to send a RESPONSE_ACK.");
+            pool.discard(connection);
+        }
+    }
 
-            requestDatagram = (Radiogram) connection.newDatagram(connection.getMaximumLength());
-            requestDatagram.reset();
-            requestDatagram.write(pduRequest);
+    private void write(PooledConnection connection, byte type, long requestID, int window) throws NeighborDiscoveryPDUException, IOException {
+        synchronized (pduBuffer) {
+            int length = NeighborDiscoveryPDU.encode(pduBuffer, 0, type, requestID, window);
+            connection.getDatagram().write(pduBuffer, 0, length);
+        }
+    }
+
+    private void sendRequest(String destination, long requestID, int window) {
+        RadiogramConnectionPool pool = RadiogramConnectionPool.getPool();
+        PooledConnection connection = null;
+
+        try {
+            connection = pool.acquire(destination, this.port);
+            write(connection, NeighborDiscoveryPDU.NDPDU_REQUEST, requestID, window);
 
-            connection.send(requestDatagram);
-            logger.debug("NeighborDiscoveryRequester.doRequest: Sent datagram of type REQUEST and requestID " + requestID);
+            synchronized (lock) {
+                this.requestDeadlines.put(Long.valueOf(requestID), Long.valueOf(Clock.getClock().currentTimeMillis() + window));
+            }
+            connection.send();
+            pool.release(connection);
+            if (logger.isLoggable(Level.DEBUG)) {
+                logger.debug("NeighborDiscoveryRequester.doRequest: Sent datagram of type REQUEST to " + destination + " and requestID " + requestID + " with a response window of " + window + " ms");
+            }
         } catch (NeighborDiscoveryPDUException ex) {
             logger.warning("NeighborDiscoveryRequester.doRequest: A problem occurred while trying to parse a NDP PDU.");
         } catch (IOException ex) {
             logger.warning("NeighborDiscoveryRequester.doRequest: A problem occurred while trying to send a REQUEST.");
+            pool.discard(connection);
         }
     }
 }
@@ -0,0 +1,337 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.ondemand;
+
+import com.sun.spot.ieee_802_15_4_radio.util.IEEEAddress;
+import eu.artemis.demanes.impl.SunSPOT.common.RadioProperties;
+import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.pdu.NeighborDiscoveryPDU;
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.pdu.NeighborDiscoveryPDUException;
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.pdu.NeighborhoodFilter;
+import eu.artemis.demanes.impl.SunSPOT.utils.radiogram.RadiogramConnectionPool;
+import eu.artemis.demanes.impl.SunSPOT.utils.radiogram.RadiogramConnectionPool.PooledConnection;
+import java.io.IOException;
+import java.util.Vector;
+import java.util.Random;
+
+/**
+ * OnDemandNeighborDiscoveryResponder is used to manage the responses to the
+ * neighbor discovery requests of other neighbors.
+ * <p>
+ * Answering a broadcast request at once makes every neighbor transmit at the
+ * same time, and the responses collide. Each response is therefore delayed by
+ * a random time within the response window advertised by the requester. A
+ * pending response is suppressed when the same requester asks again before it
+ * has been sent: a repeated request is answered only once, and a newer request
+ * replaces the older one.
+ * <p>
+ * When a source of the neighborhood is set, every response also carries the
+ * neighbors of this node and its transmission power.
+ * <p>
+ * The requesters are identified by their address as a {@code long}, and
+ * looked up by a linear search among the few neighbors, so that scheduling a
+ * response does not build the dotted hex address nor a key for a table.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class OnDemandNeighborDiscoveryResponder implements Runnable {
+
+    private final int port;
+    private final Vector pendingResponses;
+    private final Vector answeredRequests;
+    private final Random randomGenerator;
+    private final byte[] pduBuffer;
+    private final NeighborhoodFilter neighborhoodFilter;
+    private OnDemandNeighborTableManager neighborhoodSource;
+    private final Logger logger;
+    private boolean active;
+
+    private long scheduled;
+    private long suppressed;
+    private long sent;
+
+    /**
+     * Creates a new Neighbor Discovery Responder on port <i>port</i>.
+     *
+     * @param port Port for use in the Neighbor Discovery Protocol
+     */
+    public OnDemandNeighborDiscoveryResponder(int port) {
+        this.port = port;
+        this.pendingResponses = new Vector();
+        this.answeredRequests = new Vector();
+        this.randomGenerator = new Random();
+        this.pduBuffer = new byte[NeighborDiscoveryPDU.EXTENDED_LENGTH];
+        this.neighborhoodFilter = new NeighborhoodFilter();
+        this.logger = SystemContext.getLogger();
+        this.active = true;
+    }
+
+    /**
+     * Checks if the Neighbor Discovery Responder is alive.
+     *
+     * @return true if the Responder is alive. false otherwise.
+     */
+    public synchronized boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Sets the active status of the Neighbor Discovery Responder. The pending
+     * responses are discarded when it is deactivated.
+     *
+     * @param active
+     */
+    public synchronized void setActive(boolean active) {
+        this.active = active;
+        if (!active) {
+            pendingResponses.removeAllElements();
+            answeredRequests.removeAllElements();
+        }
+        Clock.getClock().signalAll(this);
+    }
+
+    /**
+     * Sets the table whose neighbors are reported in the responses.
+     *
+     * @param neighborhoodSource The neighbor table of this node, or null for
+     * sending the responses without the neighborhood.
+     */
+    public synchronized void setNeighborhoodSource(OnDemandNeighborTableManager neighborhoodSource) {
+        this.neighborhoodSource = neighborhoodSource;
+    }
+
+    /**
+     * Schedules a response to a request received from <i>address</i>.
+     *
+     * @param address The address of the requester.
+     * @param requestID The request ID of the request.
+     * @param responseWindow The response window advertised in the request, in
+     * milliseconds. With 0 the response is sent at once.
+     */
+    public synchronized void schedule(long address, long requestID, int responseWindow) {
+        PendingResponse pending = find(pendingResponses, address);
+        boolean debug = logger.isLoggable(Level.DEBUG);
+
+        if (pending != null) {
+            suppressed++;
+            if (pending.requestID == requestID) {
+                if (debug) {
+                    logger.debug("NeighborDiscoveryResponder.schedule: Repeated request " + requestID + " from " + IEEEAddress.toDottedHex(address) + " already has a response pending.");
+                }
+                return;
+            }
+            if (debug) {
+                logger.debug("NeighborDiscoveryResponder.schedule: Request " + requestID + " from " + IEEEAddress.toDottedHex(address) + " replaces the pending request " + pending.requestID + ".");
+            }
+        } else {
+            pending = new PendingResponse(address);
+            pendingResponses.addElement(pending);
+        }
+
+        long delay = drawDelay(randomGenerator, responseWindow);
+        pending.requestID = requestID;
+        pending.dueTime = Clock.getClock().currentTimeMillis() + delay;
+        scheduled++;
+        if (debug) {
+            logger.debug("NeighborDiscoveryResponder.schedule: Response to " + IEEEAddress.toDottedHex(address) + " with requestID " + requestID + " delayed " + delay + " ms.");
+        }
+
+        Clock.getClock().signalAll(this);
+    }
+
+    /**
+     * Checks an acknowledgement of a response against the last request
+     * answered to its sender, in the three-way handshake.
+     *
+     * @param address The address of the requester.
+     * @param requestID The request ID of the acknowledgement.
+     * @return true if the last response sent to the requester had the same
+     * request ID. It is only accepted once.
+     */
+    public synchronized boolean acknowledged(long address, long requestID) {
+        PendingResponse answered = find(answeredRequests, address);
+
+        if (answered == null || answered.requestID != requestID) {
+            return false;
+        }
+        answeredRequests.removeElement(answered);
+        return true;
+    }
+
+    private static PendingResponse find(Vector responses, long address) {
+        for (int index = 0; index < responses.size(); index++) {
+            PendingResponse response = (PendingResponse) responses.elementAt(index);
+            if (response.address == address) {
+                return response;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Draws the delay of a response, uniformly distributed over the response
+     * window.
+     *
+     * @param randomGenerator The random generator to be used.
+     * @param responseWindow The response window in milliseconds.
+     * @return The delay in milliseconds, from 0 to the response window
+     * excluded, or 0 if there is no window.
+     */
+    public static long drawDelay(Random randomGenerator, int responseWindow) {
+        if (responseWindow <= 0) {
+            return 0;
+        }
+        return randomGenerator.nextInt(responseWindow);
+    }
+
+    /**
+     * Run method for being run as a thread.
+     */
+    public void run() {
+        Clock clock = Clock.getClock();
+        clock.register();
+        try {
+            PendingResponse response;
+            while ((response = awaitNextResponse()) != null) {
+                sendResponse(response);
+            }
+        } catch (InterruptedException ex) {
+            if (SystemContext.isDebugActive() & SystemContext.isUSBConnected()) {
+                ex.printStackTrace();
+            }
+        } finally {
+            clock.unregister();
+        }
+    }
+
+    private synchronized PendingResponse awaitNextResponse() throws InterruptedException {
+        Clock clock = Clock.getClock();
+
+        while (active) {
+            PendingResponse next = null;
+            for (int index = 0; index < pendingResponses.size(); index++) {
+                PendingResponse pending = (PendingResponse) pendingResponses.elementAt(index);
+                if (next == null || pending.dueTime < next.dueTime) {
+                    next = pending;
+                }
+            }
+
+            if (next == null) {
+                clock.await(this, 0);
+            } else {
+                long remaining = next.dueTime - clock.currentTimeMillis();
+                if (remaining <= 0) {
+                    pendingResponses.removeElement(next);
+                    return next;
+                }
+                clock.await(this, remaining);
+            }
+        }
+
+        return null;
+    }
+
+    private void sendResponse(PendingResponse response) {
+        RadiogramConnectionPool pool = RadiogramConnectionPool.getPool();
+        PooledConnection connection = null;
+
+        try {
+            int length = NeighborDiscoveryPDU.encode(pduBuffer, 0, NeighborDiscoveryPDU.NDPDU_RESPONSE, response.requestID, 0);
+
+            OnDemandNeighborTableManager source;
+            synchronized (this) {
+                source = neighborhoodSource;
+            }
+            if (source != null) {
+                int nodeDegree = source.fillNeighborhood(neighborhoodFilter);
+                length += NeighborDiscoveryPDU.encodeNeighborhood(pduBuffer, length, RadioProperties.getPTX(), nodeDegree, neighborhoodFilter);
+            }
+
+            connection = pool.acquire(IEEEAddress.toDottedHex(response.address), port);
+            connection.getDatagram().write(pduBuffer, 0, length);
+            connection.send();
+            pool.release(connection);
+
+            // The response sent becomes the last one answered to its requester
+            synchronized (this) {
+                sent++;
+                PendingResponse answered = find(answeredRequests, response.address);
+                if (answered != null) {
+                    answeredRequests.removeElement(answered);
+                }
+                answeredRequests.addElement(response);
+            }
+        } catch (NeighborDiscoveryPDUException ex) {
+            logger.debug("NeighborDiscoveryResponder.sendResponse: A problem occurred while trying to generate a RESPONSE.");
+        } catch (IOException ex) {
+            logger.debug("NeighborDiscoveryResponder.sendResponse: Unexpected error trying to send datagram to " + IEEEAddress.toDottedHex(response.address));
+            pool.discard(connection);
+        }
+    }
+
+    /**
+     * Get the number of responses scheduled.
+     *
+     * @return The number of responses scheduled.
+     */
+    public synchronized long getScheduled() {
+        return scheduled;
+    }
+
+    /**
+     * Get the number of pending responses suppressed by a repeated or newer
+     * request.
+     *
+     * @return The number of responses suppressed.
+     */
+    public synchronized long getSuppressed() {
+        return suppressed;
+    }
+
+    /**
+     * Get the number of responses sent.
+     *
+     * @return The number of responses sent.
+     */
+    public synchronized long getSent() {
+        return sent;
+    }
+
+    /**
+     * A response waiting for its time to be sent, and then the last one
+     * answered to its requester.
+     */
+    private static class PendingResponse {
+
+        private final long address;
+        private long requestID;
+        private long dueTime;
+
+        private PendingResponse(long address) {
+            this.address = address;
+        }
+    }
+}
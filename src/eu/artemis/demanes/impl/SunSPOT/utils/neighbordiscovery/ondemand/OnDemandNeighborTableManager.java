@@ -21,9 +21,13 @@
  */
 package eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.ondemand;
 
+import com.sun.spot.ieee_802_15_4_radio.util.IEEEAddress;
 import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
 import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
 import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.NeighborTable;
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.pdu.NeighborhoodFilter;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
@@ -31,6 +35,28 @@ import java.util.Vector;
 /**
  * OnDemandNeighborTableMAnager implements the table used to store the active
  * neighbors detected by the Neighbor Discovery Protocol.
+ * <p>
+ * Neighbors are kept in a {@link NeighborTable} keyed by their IEEE address
+ * as a {@code long}, so adding or refreshing a neighbor and expiring them do
+ * not allocate. Addresses are only turned into strings for the lists and the
+ * log.
+ * <p>
+ * The table also keeps the average link quality of every neighbor. Besides
+ * the raw count of neighbors, it provides the count of usable neighbors,
+ * those with an average LQI of at least the lower threshold, and a weighted
+ * count where each neighbor weights from 0 at the lower threshold to 1 at the
+ * upper one. Neighbors heard only through traffic without link quality count
+ * as usable.
+ * <p>
+ * A neighbor is only counted when it has been present in at least M of the
+ * last K discovery rounds, which filters out the neighbors that come and go.
+ * With the default rule, 1 of 1, a new round ({@link #startRound()}) only
+ * counts the neighbors heard again, but keeps their averages.
+ * <p>
+ * When the neighbors report their own neighborhood in their responses, the
+ * table keeps it until they expire. This two-hop view tells which neighbors
+ * can also be reached through another one, and so which links are the only
+ * path to a neighbor and would partition the network if lost.
  * 
  * @author N&eacute;stor Lucas Mart&iacute;nez
  * @version 1.0.0
@@ -39,10 +65,23 @@ public class OnDemandNeighborTableManager {
 
     private static final long DEFAULT_EXPIRY_TIME = 5000;
 
-    private Hashtable neighborTable;
-    private Vector neighborList;
-    private long expiryTime;
+    /** Default number of rounds a neighbor must be present in to be counted. */
+    public static final int DEFAULT_ADMISSION_ROUNDS = 1;
+    /** Default number of last rounds considered for the admission. */
+    public static final int DEFAULT_HISTORY_ROUNDS = 1;
+
+    /** Default LQI below which a link is not usable. */
+    public static final int DEFAULT_LOW_LINK_QUALITY = 180;
+    /** Default LQI from which a link is fully usable. */
+    public static final int DEFAULT_HIGH_LINK_QUALITY = 230;
+
+    private final NeighborTable neighborTable;
+    private int admissionRounds;
+    private int historyMask;
+    private int lowLinkQuality;
+    private int highLinkQuality;
     private StringBuffer neighborsCSV;
+    private final Hashtable neighborhoods;
 
     private final Logger logger;
     private final Object lock;
@@ -52,12 +91,7 @@ public class OnDemandNeighborTableManager {
      * expiry time for new entries.
      */
     public OnDemandNeighborTableManager() {
-        this.neighborTable = new Hashtable();
-        this.neighborList = new Vector();
-        this.expiryTime = DEFAULT_EXPIRY_TIME;
-        this.neighborsCSV = new StringBuffer();
-        this.lock = new Object();
-        this.logger = SystemContext.getLogger();
+        this(DEFAULT_EXPIRY_TIME);
     }
 
     /**
@@ -67,8 +101,15 @@ public class OnDemandNeighborTableManager {
      * @param expiryTime The expiry time for new entries in the table.
      */
     public OnDemandNeighborTableManager(long expiryTime) {
-        this();
-        this.expiryTime = expiryTime;
+        this.neighborTable = new NeighborTable(expiryTime);
+        this.admissionRounds = DEFAULT_ADMISSION_ROUNDS;
+        this.historyMask = (1 << DEFAULT_HISTORY_ROUNDS) - 1;
+        this.lowLinkQuality = DEFAULT_LOW_LINK_QUALITY;
+        this.highLinkQuality = DEFAULT_HIGH_LINK_QUALITY;
+        this.neighborsCSV = new StringBuffer();
+        this.neighborhoods = new Hashtable();
+        this.lock = new Object();
+        this.logger = SystemContext.getLogger();
     }
 
     /**
@@ -77,7 +118,9 @@ public class OnDemandNeighborTableManager {
      * @param expiryTime The new expiry time.
      */
     public void setExpiryTime(long expiryTime) {
-        this.expiryTime = expiryTime;
+        synchronized (lock) {
+            this.neighborTable.setExpiryTime(expiryTime);
+        }
     }
 
     /**
@@ -86,7 +129,67 @@ public class OnDemandNeighborTableManager {
      * @return The current expiry time.
      */
     public long getExpiryTime() {
-        return this.expiryTime;
+        synchronized (lock) {
+            return this.neighborTable.getExpiryTime();
+        }
+    }
+
+    /**
+     * Sets the LQI thresholds of the usable and weighted neighbor counts.
+     * 
+     * @param lowLinkQuality The LQI below which a link is not usable.
+     * @param highLinkQuality The LQI from which a link is fully usable.
+     */
+    public void setLinkQualityThresholds(int lowLinkQuality, int highLinkQuality) {
+        synchronized (lock) {
+            this.lowLinkQuality = lowLinkQuality;
+            this.highLinkQuality = Math.max(lowLinkQuality, highLinkQuality);
+        }
+    }
+
+    /**
+     * Sets the rule for counting a neighbor: it must have been present in at
+     * least <i>admissionRounds</i> of the last <i>historyRounds</i> rounds.
+     * 
+     * @param admissionRounds The number of rounds present, M.
+     * @param historyRounds The number of last rounds considered, K.
+     */
+    public void setAdmissionRule(int admissionRounds, int historyRounds) {
+        if (historyRounds < 1 || historyRounds > NeighborTable.PRESENCE_ROUNDS || admissionRounds < 1 || admissionRounds > historyRounds) {
+            throw new IllegalArgumentException("OnDemandNeighborTableManager.setAdmissionRule: Invalid rule " + admissionRounds + " of " + historyRounds + ".");
+        }
+
+        synchronized (lock) {
+            this.admissionRounds = admissionRounds;
+            this.historyMask = (historyRounds == NeighborTable.PRESENCE_ROUNDS) ? -1 : (1 << historyRounds) - 1;
+        }
+    }
+
+    /**
+     * Starts a new discovery round. The neighbors not heard in it count as
+     * absent, while the link quality of all of them is kept until they
+     * expire.
+     */
+    public void startRound() {
+        synchronized (lock) {
+            this.neighborTable.shiftPresence();
+        }
+    }
+
+    /**
+     * Starts a new discovery round where every neighbor not expired counts
+     * as present, for discoveries that keep the neighbors until they expire
+     * instead of asking them every round.
+     */
+    public void startRoundKeepingNeighbors() {
+        synchronized (lock) {
+            this.neighborTable.shiftPresence();
+            this.neighborTable.markAllPresent();
+        }
+    }
+
+    private boolean isAdmitted(int index) {
+        return NeighborTable.countRounds(neighborTable.getPresenceAt(index) & historyMask) >= admissionRounds;
     }
 
     /**
@@ -98,43 +201,317 @@ public class OnDemandNeighborTableManager {
         synchronized (lock) {
             logNeighborInformation();
 
-            return this.neighborTable.size();
+            int count = 0;
+            for (int index = neighborTable.first(); index >= 0; index = neighborTable.next(index)) {
+                if (isAdmitted(index)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Gets the number of active neighbors with a usable link, that is, with
+     * an average LQI of at least the lower threshold or without link quality.
+     * 
+     * @return The number of usable neighbors.
+     */
+    public int getUsableNeighborCount() {
+        synchronized (lock) {
+            int count = 0;
+            for (int index = neighborTable.first(); index >= 0; index = neighborTable.next(index)) {
+                if (isAdmitted(index) && getWeight(index) > 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Gets the number of active neighbors weighted by the quality of their
+     * links.
+     * 
+     * @return The weighted number of neighbors.
+     */
+    public double getWeightedNeighborCount() {
+        synchronized (lock) {
+            double count = 0;
+            for (int index = neighborTable.first(); index >= 0; index = neighborTable.next(index)) {
+                if (isAdmitted(index)) {
+                    count += getWeight(index);
+                }
+            }
+            return count;
+        }
+    }
+
+    private double getWeight(int index) {
+        if (neighborTable.getSamplesAt(index) == 0) {
+            return 1.0;
+        }
+
+        int lqi = neighborTable.getLinkQualityAt(index);
+        int low = lowLinkQuality * NeighborTable.QUALITY_SCALE;
+        int high = highLinkQuality * NeighborTable.QUALITY_SCALE;
+
+        if (lqi < low) {
+            return 0.0;
+        }
+        if (lqi >= high) {
+            return 1.0;
         }
+        // Links just at the lower threshold are usable, but barely count
+        return Math.max((double) (lqi - low) / (high - low), 1.0 / NeighborTable.QUALITY_SCALE);
     }
 
     /**
      * Retrives the list of active neighbors.
      * 
-     * @return The list of active neighbors.
+     * @return A newly allocated list with the addresses of the active
+     * neighbors in dotted hex format.
      */
     public Vector getNeighborList() {
         synchronized (lock) {
-            this.neighborList.removeAllElements();
-            Enumeration neighbors = this.neighborTable.keys();
+            Vector neighborList = new Vector(neighborTable.size());
 
-            while (neighbors.hasMoreElements()) {
-                neighborList.addElement(neighbors.nextElement());
+            for (int index = neighborTable.first(); index >= 0; index = neighborTable.next(index)) {
+                if (!isAdmitted(index)) {
+                    continue;
+                }
+                neighborList.addElement(IEEEAddress.toDottedHex(neighborTable.getAddress(index)));
             }
 
             return neighborList;
         }
     }
 
+    /**
+     * Copies the addresses of the active neighbors, without allocating.
+     * 
+     * @param neighborAddresses The array where the addresses are copied.
+     * @return The number of active neighbors, which may be greater than the
+     * number of addresses copied if the array is too short.
+     */
+    public int getNeighborAddresses(long[] neighborAddresses) {
+        synchronized (lock) {
+            int count = 0;
+
+            for (int index = neighborTable.first(); index >= 0; index = neighborTable.next(index)) {
+                if (!isAdmitted(index)) {
+                    continue;
+                }
+                if (count < neighborAddresses.length) {
+                    neighborAddresses[count] = neighborTable.getAddress(index);
+                }
+                count++;
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * Retrieves the neighbors not heard for longer than <i>age</i>.
+     * 
+     * @param age The time in milliseconds since the last update.
+     * @return A newly allocated list with the addresses of those neighbors in
+     * dotted hex format.
+     */
+    public Vector getStaleNeighbors(long age) {
+        synchronized (lock) {
+            Vector staleNeighbors = new Vector();
+            long actualTimestamp = Clock.getClock().currentTimeMillis();
+
+            for (int index = neighborTable.first(); index >= 0; index = neighborTable.next(index)) {
+                if (actualTimestamp - neighborTable.getLastHeardAt(index) > age) {
+                    staleNeighbors.addElement(IEEEAddress.toDottedHex(neighborTable.getAddress(index)));
+                }
+            }
+
+            return staleNeighbors;
+        }
+    }
+
     /**
      * Adds a neighbor to the table.
      * 
-     * @param neighborAddress The address of the neighbor
+     * @param neighborAddress The address of the neighbor in dotted hex format.
      */
     public void addNeighbor(String neighborAddress) {
+        addNeighbor(IEEEAddress.toLong(neighborAddress));
+    }
+
+    /**
+     * Adds a neighbor to the table, or refreshes it if it is already there.
+     * 
+     * @param neighborAddress The IEEE address of the neighbor.
+     */
+    public void addNeighbor(long neighborAddress) {
+        synchronized (lock) {
+            boolean added = neighborTable.put(neighborAddress, Clock.getClock().currentTimeMillis());
+
+            if (logger.isLoggable(Level.DEBUG)) {
+                if (added) {
+                    logger.log(Level.DEBUG, "OnDemandNeighborTableManager.addNeighbour: Request from (" + IEEEAddress.toDottedHex(neighborAddress) + ") accepted. There are " + neighborTable.size() + " neighbours.");
+                } else {
+                    logger.log(Level.DEBUG, "OnDemandNeighborTableManager.addNeighbour: " + IEEEAddress.toDottedHex(neighborAddress) + " has sent more than one response.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a neighbor to the table, or refreshes it if it is already there,
+     * adding the link quality of the radiogram received from it to its
+     * averages.
+     * 
+     * @param neighborAddress The IEEE address of the neighbor.
+     * @param rssi The RSSI of the radiogram.
+     * @param lqi The LQI of the radiogram.
+     * @param correlation The correlation of the radiogram.
+     */
+    public void addNeighbor(long neighborAddress, int rssi, int lqi, int correlation) {
+        synchronized (lock) {
+            addNeighbor(neighborAddress);
+            neighborTable.sample(neighborAddress, rssi, lqi, correlation);
+        }
+    }
+
+    /**
+     * Adds the link quality of a radiogram received from a neighbor to its
+     * averages, if the neighbor is in the table.
+     * 
+     * @param neighborAddress The IEEE address of the neighbor.
+     * @param rssi The RSSI of the radiogram.
+     * @param lqi The LQI of the radiogram.
+     * @param correlation The correlation of the radiogram.
+     */
+    public void recordLinkQuality(long neighborAddress, int rssi, int lqi, int correlation) {
+        synchronized (lock) {
+            neighborTable.sample(neighborAddress, rssi, lqi, correlation);
+        }
+    }
+
+    /**
+     * Stores the neighborhood reported by a neighbor, if the neighbor is in
+     * the table.
+     * 
+     * @param neighborAddress The IEEE address of the neighbor.
+     * @param transmitPower The transmission power of the neighbor in dBm.
+     * @param nodeDegree The number of neighbors of the neighbor.
+     * @param filter The filter with the addresses of its neighbors, which is
+     * copied.
+     */
+    public void setNeighborhood(long neighborAddress, int transmitPower, int nodeDegree, NeighborhoodFilter filter) {
+        synchronized (lock) {
+            if (!neighborTable.contains(neighborAddress)) {
+                return;
+            }
+
+            Long key = Long.valueOf(neighborAddress);
+            Neighborhood neighborhood = (Neighborhood) neighborhoods.get(key);
+            if (neighborhood == null) {
+                neighborhood = new Neighborhood();
+                neighborhoods.put(key, neighborhood);
+            }
+            neighborhood.transmitPower = transmitPower;
+            neighborhood.nodeDegree = nodeDegree;
+            neighborhood.filter.copyFrom(filter);
+        }
+    }
+
+    /**
+     * Fills <i>filter</i> with the addresses of the active neighbors, to be
+     * reported to other nodes.
+     * 
+     * @param filter The filter to be filled, which is emptied first.
+     * @return The number of active neighbors.
+     */
+    public int fillNeighborhood(NeighborhoodFilter filter) {
+        synchronized (lock) {
+            int count = 0;
+
+            filter.clear();
+            for (int index = neighborTable.first(); index >= 0; index = neighborTable.next(index)) {
+                if (isAdmitted(index)) {
+                    filter.add(neighborTable.getAddress(index));
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Checks if a node is reported as a neighbor by any of the neighbors
+     * other than itself, so that it can be reached in two hops.
+     * 
+     * @param address The IEEE address of the node.
+     * @return true if some neighbor reports it, which may be a false
+     * positive of the neighborhood filter.
+     */
+    public boolean isReachableThroughNeighbors(long address) {
         synchronized (lock) {
-            long timestamp = System.currentTimeMillis();
-            if (neighborTable.containsKey(neighborAddress)) {
-                logger.log(Level.DEBUG, "OnDemandNeighborTableManager.addNeighbour: Request from (" + neighborAddress + ") accepted. There are " + neighborTable.size() + " neighbours.");
-            } else {
-                logger.log(Level.DEBUG, "OnDemandNeighborTableManager.addNeighbour: " + neighborAddress + " has sent more than one response.");
+            Enumeration keys = neighborhoods.keys();
+            Enumeration values = neighborhoods.elements();
+
+            while (keys.hasMoreElements()) {
+                long reporter = ((Long) keys.nextElement()).longValue();
+                Neighborhood neighborhood = (Neighborhood) values.nextElement();
+                if (reporter != address && neighborhood.filter.mightContain(address)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Gets the number of active neighbors that no other neighbor reports, so
+     * that the direct link is the only known path to them. Lowering the
+     * transmission power below their reach may partition the network.
+     * 
+     * @return The number of critical neighbors.
+     */
+    public int getCriticalNeighborCount() {
+        synchronized (lock) {
+            int count = 0;
+            for (int index = neighborTable.first(); index >= 0; index = neighborTable.next(index)) {
+                if (isAdmitted(index) && !isReachableThroughNeighbors(neighborTable.getAddress(index))) {
+                    count++;
+                }
             }
+            return count;
+        }
+    }
 
-            neighborTable.put(neighborAddress, Long.valueOf(timestamp));
+    /**
+     * Gets the transmission power reported by a neighbor.
+     * 
+     * @param neighborAddress The IEEE address of the neighbor.
+     * @return The transmission power in dBm, or {@code Integer.MIN_VALUE} if
+     * the neighbor has not reported its neighborhood.
+     */
+    public int getNeighborTransmitPower(long neighborAddress) {
+        synchronized (lock) {
+            Neighborhood neighborhood = (Neighborhood) neighborhoods.get(Long.valueOf(neighborAddress));
+            return (neighborhood != null) ? neighborhood.transmitPower : Integer.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Gets the number of neighbors reported by a neighbor.
+     * 
+     * @param neighborAddress The IEEE address of the neighbor.
+     * @return The node degree of the neighbor, or -1 if the neighbor has not
+     * reported its neighborhood.
+     */
+    public int getNeighborNodeDegree(long neighborAddress) {
+        synchronized (lock) {
+            Neighborhood neighborhood = (Neighborhood) neighborhoods.get(Long.valueOf(neighborAddress));
+            return (neighborhood != null) ? neighborhood.nodeDegree : -1;
         }
     }
 
@@ -144,17 +521,17 @@ public class OnDemandNeighborTableManager {
      */
     public void maintainNeighborTable() {
         synchronized (lock) {
-            long actualTimestamp = System.currentTimeMillis();
-            Enumeration neighbors = neighborTable.keys();
+            int expired = neighborTable.expire(Clock.getClock().currentTimeMillis());
 
-            while (neighbors.hasMoreElements()) {
-                Object key = neighbors.nextElement();
-                long recordedTimestamp = ((Long) neighborTable.get(key)).longValue();
-                long timeAlive = actualTimestamp - recordedTimestamp;
+            if (expired > 0) {
+                logger.debug("OnDemandNeighborTableManager.maintainNeighborTable: " + expired + " neighbors have expired. REMOVED");
 
-                if (timeAlive > this.expiryTime) {
-                    logger.debug("OnDemandNeighborTableManager.maintainNeighborTable: Time for neighbor " + key + " has expired (" + timeAlive + "). REMOVING");
-                    neighborTable.remove(key);
+                Enumeration keys = neighborhoods.keys();
+                while (keys.hasMoreElements()) {
+                    Long key = (Long) keys.nextElement();
+                    if (!neighborTable.contains(key.longValue())) {
+                        neighborhoods.remove(key);
+                    }
                 }
             }
         }
@@ -164,34 +541,41 @@ public class OnDemandNeighborTableManager {
      * Logs neighbor information. For debug purposes only.
      */
     public void logNeighborInformation() {
-        long nd = neighborTable.size();
+        if (!SystemContext.isDebugActive() || neighborTable.size() == 0) {
+            return;
+        }
 
         neighborsCSV.setLength(0);
-        Enumeration neighbors = neighborTable.keys();
-
-        while (neighbors.hasMoreElements()) {
-            neighborsCSV.append((String) neighbors.nextElement());
-            if (neighbors.hasMoreElements()) {
+        for (int index = neighborTable.first(); index >= 0; index = neighborTable.next(index)) {
+            if (neighborsCSV.length() > 0) {
                 neighborsCSV.append(",");
             }
+            neighborsCSV.append(IEEEAddress.toDottedHex(neighborTable.getAddress(index)));
         }
 
-        if (nd > 0) {
-            if (SystemContext.isDebugActive()) {
-                byte originalDestination = logger.getDestination();
-                logger.setDestination(Logger.RECORD);
-                logger.debug(neighborsCSV.toString());
-                logger.setDestination(originalDestination);
-            }
-        }
+        byte originalDestination = logger.getDestination();
+        logger.setDestination(Logger.RECORD);
+        logger.debug(neighborsCSV.toString());
+        logger.setDestination(originalDestination);
     }
 
     /**
-     * Clears the neighbor table.
+     * Clears the neighbor table, including the link quality.
      */
     public void clearTable() {
         synchronized (lock) {
             this.neighborTable.clear();
+            this.neighborhoods.clear();
         }
     }
+
+    /**
+     * Neighborhood reported by a neighbor.
+     */
+    private static class Neighborhood {
+
+        private int transmitPower;
+        private int nodeDegree;
+        private final NeighborhoodFilter filter = new NeighborhoodFilter();
+    }
 }
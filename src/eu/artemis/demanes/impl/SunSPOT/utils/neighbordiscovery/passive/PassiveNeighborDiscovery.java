@@ -0,0 +1,327 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.passive;
+
+import com.sun.spot.multihop.radio.IDataEventListener;
+import com.sun.spot.multihop.radio.LowPan;
+import com.sun.spot.multihop.radio.mhrp.interfaces.ILQRPEventListener;
+import com.sun.spot.multihop.radio.mhrp.lqrp.LQRPManager;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.ondemand.OnDemandNeighborDiscovery;
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.ondemand.OnDemandNeighborDiscoveryRequester;
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.ondemand.OnDemandNeighborTableManager;
+import java.util.Vector;
+
+/**
+ * PassiveNeighborDiscovery keeps the neighbor table up to date with the
+ * traffic the node already receives, instead of asking all the neighbors in
+ * every discovery.
+ * <p>
+ * A neighbor is refreshed whenever it is heard: as the last hop of a route
+ * request or reply, as the last hop of a forwarded packet, or when it sends a
+ * neighbor discovery request or response. Discovery requests are only sent to
+ * the neighbors not heard for half the expiry time, so that they can answer
+ * before they expire, and a broadcast request is only sent when the table is
+ * empty or every broadcast period, to find new silent neighbors. In a busy
+ * network the discovery traffic is close to none. Every discovery starts a
+ * new round in which all the neighbors not expired count as present.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class PassiveNeighborDiscovery extends OnDemandNeighborDiscovery implements ILQRPEventListener, IDataEventListener {
+
+    /**
+     * Default time in milliseconds after which a neighbor not heard is removed.
+     */
+    public static final long DEFAULT_EXPIRY_TIME = 10000;
+    /**
+     * Default time in milliseconds between broadcast requests.
+     */
+    public static final long DEFAULT_BROADCAST_PERIOD = 60000;
+
+    private long expiryTime;
+    private long broadcastPeriod;
+    private long lastBroadcast;
+    private boolean broadcastDone;
+    private boolean listening;
+
+    private long overheard;
+    private long probes;
+    private long broadcasts;
+
+    /**
+     * Creates a new passive neighbor discovery with the default expiry time
+     * and broadcast period.
+     */
+    public PassiveNeighborDiscovery() {
+        this(DEFAULT_EXPIRY_TIME, DEFAULT_BROADCAST_PERIOD);
+    }
+
+    /**
+     * Creates a new passive neighbor discovery.
+     *
+     * @param expiryTime The time in milliseconds after which a neighbor not
+     * heard is removed.
+     * @param broadcastPeriod The time in milliseconds between broadcast
+     * requests.
+     */
+    public PassiveNeighborDiscovery(long expiryTime, long broadcastPeriod) {
+        super();
+        this.expiryTime = expiryTime;
+        this.broadcastPeriod = broadcastPeriod;
+        getNeighborTableManager().setExpiryTime(expiryTime);
+    }
+
+    /**
+     * Starts the neighbor discovery daemon and the listening of the routing
+     * and forwarding events.
+     */
+    public void start() {
+        super.start();
+
+        synchronized (this) {
+            if (!listening) {
+                LQRPManager.getInstance().addLQRPListener(this);
+                LowPan.getInstance().addDataEventListener(this);
+                listening = true;
+            }
+        }
+    }
+
+    /**
+     * Removes the expired neighbors and requests only the neighbors about to
+     * expire, or every neighbor if the table is empty or the broadcast period
+     * has elapsed.
+     */
+    public void doNeighborDiscovery() {
+        OnDemandNeighborTableManager neighborTableManager = getNeighborTableManager();
+        OnDemandNeighborDiscoveryRequester requester = getRequester();
+        long now = Clock.getClock().currentTimeMillis();
+
+        neighborTableManager.maintainNeighborTable();
+        neighborTableManager.startRoundKeepingNeighbors();
+        int neighborCount = neighborTableManager.getNeighborCount();
+        boolean broadcast;
+
+        synchronized (this) {
+            broadcast = neighborCount == 0 || !broadcastDone || now - lastBroadcast >= broadcastPeriod;
+            if (broadcast) {
+                broadcastDone = true;
+                lastBroadcast = now;
+                broadcasts++;
+            }
+        }
+
+        if (broadcast) {
+            requester.setResponseWindow(OnDemandNeighborDiscoveryRequester.responseWindowFor(neighborCount));
+            requester.doRequest();
+            return;
+        }
+
+        Vector staleNeighbors = neighborTableManager.getStaleNeighbors(expiryTime / 2);
+        if (!staleNeighbors.isEmpty()) {
+            synchronized (this) {
+                probes += staleNeighbors.size();
+            }
+            requester.setResponseWindow(OnDemandNeighborDiscoveryRequester.responseWindowFor(staleNeighbors.size()));
+            requester.doRequest(staleNeighbors);
+        }
+    }
+
+    /**
+     * Ages the neighbor table without sending a request. The neighbors are
+     * always kept until they expire.
+     *
+     * @return Always true.
+     */
+    public boolean maintainNeighbors() {
+        OnDemandNeighborTableManager neighborTableManager = getNeighborTableManager();
+        neighborTableManager.maintainNeighborTable();
+        neighborTableManager.startRoundKeepingNeighbors();
+        return true;
+    }
+
+    /**
+     * Refreshes a neighbor that has sent a neighbor discovery request.
+     *
+     * @param address The IEEE address of the neighbor.
+     */
+    protected void requestReceived(long address) {
+        getNeighborTableManager().addNeighbor(address);
+    }
+
+    private void heard(long address) {
+        if (!isRunning() || address == 0) {
+            return;
+        }
+
+        synchronized (this) {
+            overheard++;
+        }
+        getNeighborTableManager().addNeighbor(address);
+    }
+
+    /**
+     * Get the time after which a neighbor not heard is removed.
+     *
+     * @return The expiry time in milliseconds.
+     */
+    public long getExpiryTime() {
+        return expiryTime;
+    }
+
+    /**
+     * Set the time after which a neighbor not heard is removed.
+     *
+     * @param expiryTime The expiry time in milliseconds.
+     */
+    public void setExpiryTime(long expiryTime) {
+        this.expiryTime = expiryTime;
+        getNeighborTableManager().setExpiryTime(expiryTime);
+    }
+
+    /**
+     * Get the time between broadcast requests.
+     *
+     * @return The broadcast period in milliseconds.
+     */
+    public long getBroadcastPeriod() {
+        return broadcastPeriod;
+    }
+
+    /**
+     * Set the time between broadcast requests.
+     *
+     * @param broadcastPeriod The broadcast period in milliseconds.
+     */
+    public void setBroadcastPeriod(long broadcastPeriod) {
+        this.broadcastPeriod = broadcastPeriod;
+    }
+
+    /**
+     * Get the number of times a neighbor has been heard in the routing or
+     * forwarding traffic.
+     *
+     * @return The number of overheard events.
+     */
+    public synchronized long getOverheard() {
+        return overheard;
+    }
+
+    /**
+     * Get the number of requests sent to single neighbors about to expire.
+     *
+     * @return The number of unicast requests.
+     */
+    public synchronized long getProbes() {
+        return probes;
+    }
+
+    /**
+     * Get the number of broadcast requests.
+     *
+     * @return The number of broadcast requests.
+     */
+    public synchronized long getBroadcasts() {
+        return broadcasts;
+    }
+
+    /**
+     * Method called when a RREQ is sent.
+     *
+     * @param originator Route request originator.
+     * @param destination Route request destination.
+     * @param hopCount Number of hops to the destination.
+     * @param routeCost Cost to the destination.
+     */
+    public void RREQSent(long originator, long destination, int hopCount, double routeCost) {
+    }
+
+    /**
+     * Method called when a RREP is sent.
+     *
+     * @param originator Route request originator.
+     * @param destination Route request destination.
+     * @param hopCount Number of hops to the destination.
+     * @param routeCost Cost to the destination.
+     */
+    public void RREPSent(long originator, long destination, int hopCount, double routeCost) {
+    }
+
+    /**
+     * Method called when a RERR is sent.
+     *
+     * @param originator Route request originator.
+     * @param destination Route request destination.
+     */
+    public void RERRSent(long originator, long destination) {
+    }
+
+    /**
+     * Method called when a RREQ is received. The last hop is a neighbor.
+     *
+     * @param originator Route request originator.
+     * @param destination Route request destination.
+     * @param lastHop Route request last hop.
+     * @param hopCount Number of hops to the destination.
+     * @param routeCost Cost to the destination.
+     */
+    public void RREQReceived(long originator, long destination, long lastHop, int hopCount, double routeCost) {
+        heard(lastHop);
+    }
+
+    /**
+     * Method called when a RREP is received. The last hop is a neighbor.
+     *
+     * @param originator Route request originator.
+     * @param destination Route request destination.
+     * @param lastHop Route request last hop.
+     * @param hopCount Number of hops to the destination.
+     * @param routeCost Cost to the destination.
+     */
+    public void RREPReceived(long originator, long destination, long lastHop, int hopCount, double routeCost) {
+        heard(lastHop);
+    }
+
+    /**
+     * Method called when a RERR is received.
+     *
+     * @param originator Route request originator.
+     * @param destination Route request destination.
+     */
+    public void RERRReceived(long originator, long destination) {
+    }
+
+    /**
+     * Method that is called when data is forwarded through this physical
+     * node. The previous node is a neighbor.
+     *
+     * @param lastHop previous node on the multi hop path from which the packet was received.
+     * @param nextHop next node on the multi hop path to which the packet is sent.
+     * @param originator original sender of the packet.
+     * @param destination final destination of the packet.
+     */
+    public void notifyForward(long lastHop, long nextHop, long originator, long destination) {
+        heard(lastHop);
+    }
+}
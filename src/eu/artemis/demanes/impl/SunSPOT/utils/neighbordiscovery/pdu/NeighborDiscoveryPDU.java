@@ -22,15 +22,26 @@
 
 package eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.pdu;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-
 /**
  * Neighbor Discovery PDU is a representation of a PDU for the Neighbor Discovery
  * Protocol.
+ * <p>
+ * PDUs are encoded straight into a buffer provided by the caller with
+ * {@link #encode(byte[], int, byte, long, int)}, and decoded straight from the
+ * buffer of the received radiogram with {@link #wrap(byte[], int, int)}, which
+ * reuses the same instance for every PDU. Neither of them allocates, so a burst
+ * of responses is handled without creating garbage. The layout is:
+ * <pre>
+ * "NDP" | version (1) | type (1) | request ID (8) | response window (2)
+ * </pre>
+ * Responses may be followed by the neighborhood extension, written with
+ * {@link #encodeNeighborhood(byte[], int, int, int, NeighborhoodFilter)},
+ * which lets the requester build a two-hop view of the network:
+ * <pre>
+ * extension (1) | PTX (1) | node degree (1) | neighborhood filter (32)
+ * </pre>
+ * Nodes unaware of the extension ignore it, as they only read the first
+ * {@link #LENGTH} bytes.
  * 
  * @author N&eacute;stor Lucas Mart&iacute;nez
  * @version 1.0.0
@@ -39,14 +50,44 @@ public class NeighborDiscoveryPDU {
 
     private static final String PROTOCOL_ID = "NDP";
 
-    private static final byte VERSION = 0x02;
+    private static final byte[] PROTOCOL_ID_BYTES = {'N', 'D', 'P'};
+
+    private static final byte VERSION = 0x03;
 
     public static final byte NDPDU_REQUEST = 0x01;
     public static final byte NDPDU_RESPONSE = 0x02;
     public static final byte NDPDU_RESPONSE_ACK = 0x03;
+
+    /** Largest response window, in milliseconds, that fits in a PDU. */
+    public static final int MAXIMUM_RESPONSE_WINDOW = 0xFFFF;
+
+    /** Length in bytes of an encoded PDU. */
+    public static final int LENGTH = PROTOCOL_ID_BYTES.length + 12;
+
+    /** Identifier of the neighborhood extension. */
+    public static final byte EXTENSION_NEIGHBORHOOD = 0x01;
+
+    /** Length in bytes of the neighborhood extension. */
+    public static final int NEIGHBORHOOD_LENGTH = 3 + NeighborhoodFilter.LENGTH;
+
+    /** Length in bytes of an encoded PDU with the neighborhood extension. */
+    public static final int EXTENDED_LENGTH = LENGTH + NEIGHBORHOOD_LENGTH;
     
     private byte typeOfPDU;
     private long requestID;
+    private int responseWindow;
+
+    private boolean neighborhood;
+    private int transmitPower;
+    private int nodeDegree;
+    private final NeighborhoodFilter neighborhoodFilter = new NeighborhoodFilter();
+
+    /**
+     * Public constructor. Creates an empty PDU to be filled in by
+     * {@link #wrap(byte[], int, int)}.
+     */
+    public NeighborDiscoveryPDU() {
+    }
 
     /**
      * Public constructor. Creates a new PDU of type <i>typeOfPDU</i> with a
@@ -56,9 +97,23 @@ public class NeighborDiscoveryPDU {
      * @param requestID Request ID
      */
     public NeighborDiscoveryPDU(byte typeOfPDU, long requestID) {
+        this(typeOfPDU, requestID, 0);
+    }   
+
+    /**
+     * Public constructor. Creates a new PDU of type <i>typeOfPDU</i> with a
+     * request ID <i>requestID</i> and a response window <i>responseWindow</i>.
+     * 
+     * @param typeOfPDU Type of the Neighbor Discovery PDU
+     * @param requestID Request ID
+     * @param responseWindow Time in milliseconds the requester waits for
+     * responses, or 0 if it does not apply
+     */
+    public NeighborDiscoveryPDU(byte typeOfPDU, long requestID, int responseWindow) {
         this.typeOfPDU = typeOfPDU;
         this.requestID = requestID;
-    }   
+        this.responseWindow = responseWindow;
+    }
     
     /**
      * Creates a newly allocated byte array for a Neighbor Discovery PDU of type
@@ -70,19 +125,90 @@ public class NeighborDiscoveryPDU {
      * @throws NeighborDiscoveryPDUException 
      */
     public static byte[] toByteArray(byte typeOfPDU, long requestID) throws NeighborDiscoveryPDUException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        try {
-            dos.write(PROTOCOL_ID.getBytes());
-            dos.writeByte(VERSION);
-            dos.writeByte(typeOfPDU);
-            dos.writeLong(requestID);
-        } catch (IOException exception) {            
-            throw new NeighborDiscoveryPDUException("generatePDU", "Error trying to write the PDU to a byte array");
+        return toByteArray(typeOfPDU, requestID, 0);
+    }
+
+    /**
+     * Creates a newly allocated byte array for a Neighbor Discovery PDU of type
+     * <i>typeOfPDU</i>, request ID <i>requestID</i> and response window
+     * <i>responseWindow</i>. Requests carry the time the requester waits for
+     * responses, so that the neighbors spread their responses over it.
+     * 
+     * @param typeOfPDU Type of PDU
+     * @param requestID Request ID
+     * @param responseWindow Time in milliseconds the requester waits for
+     * responses, or 0 if it does not apply
+     * @return The newly allocated byte array representing the PDU
+     * @throws NeighborDiscoveryPDUException 
+     */
+    public static byte[] toByteArray(byte typeOfPDU, long requestID, int responseWindow) throws NeighborDiscoveryPDUException {
+        byte[] pdu = new byte[LENGTH];
+        encode(pdu, 0, typeOfPDU, requestID, responseWindow);
+        return pdu;
+    }
+
+    /**
+     * Encodes a Neighbor Discovery PDU into <i>buffer</i> from <i>offset</i>.
+     * 
+     * @param buffer The buffer where the PDU is written
+     * @param offset The position of the first byte of the PDU in the buffer
+     * @param typeOfPDU Type of PDU
+     * @param requestID Request ID
+     * @param responseWindow Time in milliseconds the requester waits for
+     * responses, or 0 if it does not apply
+     * @return The number of bytes written, {@link #LENGTH}
+     * @throws NeighborDiscoveryPDUException if the buffer is too short or the
+     * response window does not fit in the PDU
+     */
+    public static int encode(byte[] buffer, int offset, byte typeOfPDU, long requestID, int responseWindow) throws NeighborDiscoveryPDUException {
+        final String methodName = "encode";
+
+        if (offset < 0 || buffer.length - offset < LENGTH) {
+            throw new NeighborDiscoveryPDUException(methodName, "Buffer too short for the PDU.");
+        }
+        if (responseWindow < 0 || responseWindow > MAXIMUM_RESPONSE_WINDOW) {
+            throw new NeighborDiscoveryPDUException(methodName, "Invalid response window.");
+        }
+
+        int position = offset;
+        for (int index = 0; index < PROTOCOL_ID_BYTES.length; index++) {
+            buffer[position++] = PROTOCOL_ID_BYTES[index];
+        }
+        buffer[position++] = VERSION;
+        buffer[position++] = typeOfPDU;
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (requestID >>> shift);
         }
+        buffer[position++] = (byte) (responseWindow >>> 8);
+        buffer[position++] = (byte) responseWindow;
 
-        return baos.toByteArray();
+        return position - offset;
+    }
+
+    /**
+     * Encodes the neighborhood extension into <i>buffer</i> from
+     * <i>offset</i>, just after a PDU encoded with
+     * {@link #encode(byte[], int, byte, long, int)}.
+     * 
+     * @param buffer The buffer where the extension is written
+     * @param offset The position of the first byte of the extension
+     * @param transmitPower The transmission power of the node in dBm
+     * @param nodeDegree The number of neighbors of the node, saturated to 255
+     * @param filter The filter with the addresses of the neighbors
+     * @return The number of bytes written, {@link #NEIGHBORHOOD_LENGTH}
+     * @throws NeighborDiscoveryPDUException if the buffer is too short
+     */
+    public static int encodeNeighborhood(byte[] buffer, int offset, int transmitPower, int nodeDegree, NeighborhoodFilter filter) throws NeighborDiscoveryPDUException {
+        if (offset < 0 || buffer.length - offset < NEIGHBORHOOD_LENGTH) {
+            throw new NeighborDiscoveryPDUException("encodeNeighborhood", "Buffer too short for the extension.");
+        }
+
+        buffer[offset] = EXTENSION_NEIGHBORHOOD;
+        buffer[offset + 1] = (byte) transmitPower;
+        buffer[offset + 2] = (byte) Math.min(Math.max(nodeDegree, 0), 0xFF);
+        filter.copyTo(buffer, offset + 3);
+
+        return NEIGHBORHOOD_LENGTH;
     }
 
     /**
@@ -120,7 +246,64 @@ public class NeighborDiscoveryPDU {
     public void setRequestID(long requestID) {
         this.requestID = requestID;
     }
+
+    /**
+     * Get the response window of the instanced PDU
+     * 
+     * @return the response window in milliseconds, or 0 if it does not apply
+     */
+    public int getResponseWindow() {
+        return responseWindow;
+    }
+
+    /**
+     * Set the response window of the instanced PDU
+     * 
+     * @param responseWindow the response window in milliseconds
+     */
+    public void setResponseWindow(int responseWindow) {
+        this.responseWindow = responseWindow;
+    }
     
+    /**
+     * Checks if the instanced PDU carries the neighborhood extension.
+     * 
+     * @return true if the neighborhood of the sender is known
+     */
+    public boolean hasNeighborhood() {
+        return neighborhood;
+    }
+
+    /**
+     * Get the transmission power of the sender, from the neighborhood
+     * extension.
+     * 
+     * @return the transmission power in dBm
+     */
+    public int getTransmitPower() {
+        return transmitPower;
+    }
+
+    /**
+     * Get the number of neighbors of the sender, from the neighborhood
+     * extension.
+     * 
+     * @return the node degree of the sender, saturated to 255
+     */
+    public int getNodeDegree() {
+        return nodeDegree;
+    }
+
+    /**
+     * Get the filter with the neighbors of the sender, from the neighborhood
+     * extension. It is overwritten by the next PDU decoded into this instance.
+     * 
+     * @return the neighborhood filter
+     */
+    public NeighborhoodFilter getNeighborhoodFilter() {
+        return neighborhoodFilter;
+    }
+
     /**
      * Parse a byte array containing a Neighbor Discovery PDU.
      * 
@@ -129,63 +312,66 @@ public class NeighborDiscoveryPDU {
      * @throws NeighborDiscoveryPDUException if the byte array does not comply with the Neighbor Discovery PDU
      */
     public static NeighborDiscoveryPDU parsePDU(byte[] pdu) throws NeighborDiscoveryPDUException {        
+        return new NeighborDiscoveryPDU().wrap(pdu, 0, pdu.length);
+    }
+
+    /**
+     * Decode the Neighbor Discovery PDU found in <i>buffer</i> into this
+     * instance, which can be reused for every received PDU.
+     * 
+     * @param buffer the buffer containing the Neighbor Discovery PDU
+     * @param offset the position of the first byte of the PDU in the buffer
+     * @param length the number of bytes available from the offset
+     * @return this instance
+     * @throws NeighborDiscoveryPDUException if the bytes do not comply with the Neighbor Discovery PDU
+     */
+    public NeighborDiscoveryPDU wrap(byte[] buffer, int offset, int length) throws NeighborDiscoveryPDUException {
         final String methodName = "parsePDU";
-        
-        String protocolID;
-        byte version;
-        byte typeOfPDU;
-        long requestID;
-        
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(pdu));
-        
-        byte[] pidArray = new byte[NeighborDiscoveryPDU.PROTOCOL_ID.length()];
-        
-        try {
-            dis.read(pidArray, 0, NeighborDiscoveryPDU.PROTOCOL_ID.length());
-        } catch (IOException ex) {
-            throw new NeighborDiscoveryPDUException(methodName, "Unable to read the protocol ID.");
-        }
-        
-        protocolID = new String(pidArray);
-        
-        if (!protocolID.equalsIgnoreCase(NeighborDiscoveryPDU.PROTOCOL_ID)) {
-            throw new NeighborDiscoveryPDUException(methodName, "Protocol ID mismatch. Expected \"" + NeighborDiscoveryPDU.PROTOCOL_ID + "\" and found " + protocolID);
+
+        if (offset < 0 || length < LENGTH || buffer.length - offset < LENGTH) {
+            throw new NeighborDiscoveryPDUException(methodName, "Unable to read the PDU, too short.");
         }
-        
-        try {
-            version = dis.readByte();
-        } catch (IOException ex) {
-            throw new NeighborDiscoveryPDUException(methodName, "Unable to read the protocol version.");
+
+        int position = offset;
+        for (int index = 0; index < PROTOCOL_ID_BYTES.length; index++) {
+            int found = buffer[position++];
+            if (found >= 'a' && found <= 'z') {
+                found -= 'a' - 'A';
+            }
+            if (found != PROTOCOL_ID_BYTES[index]) {
+                throw new NeighborDiscoveryPDUException(methodName, "Protocol ID mismatch. Expected \"" + NeighborDiscoveryPDU.PROTOCOL_ID + "\"");
+            }
         }
-        
-        if (version != NeighborDiscoveryPDU.VERSION) {
+
+        if (buffer[position++] != NeighborDiscoveryPDU.VERSION) {
             throw new NeighborDiscoveryPDUException(methodName, "Protocol version mismatch.");
         }
-        
-        try {
-            typeOfPDU = dis.readByte();
-        } catch (IOException ex) {
-            throw new NeighborDiscoveryPDUException(methodName, "Unable to read the type of PDU.");
-        }
-        
-        if (typeOfPDU != NeighborDiscoveryPDU.NDPDU_REQUEST) {
-            if (typeOfPDU != NeighborDiscoveryPDU.NDPDU_RESPONSE) {
-                if (typeOfPDU != NeighborDiscoveryPDU.NDPDU_RESPONSE_ACK) {
-                    throw new NeighborDiscoveryPDUException(methodName, "Unrecognized PDU type.");
-                }
-            }
+
+        byte type = buffer[position++];
+        if (type != NeighborDiscoveryPDU.NDPDU_REQUEST && type != NeighborDiscoveryPDU.NDPDU_RESPONSE && type != NeighborDiscoveryPDU.NDPDU_RESPONSE_ACK) {
+            throw new NeighborDiscoveryPDUException(methodName, "Unrecognized PDU type.");
         }
-        
-        try {
-            requestID = dis.readLong();
-        } catch (IOException ex) {
-            throw new NeighborDiscoveryPDUException(methodName, "Unable to read the request ID.");
+
+        long id = 0;
+        for (int index = 0; index < 8; index++) {
+            id = (id << 8) | (buffer[position++] & 0xFF);
         }
-        
-        if (requestID < 0) {
+        if (id < 0) {
             throw new NeighborDiscoveryPDUException(methodName, "Invalid request ID.");
         }
-        
-        return new NeighborDiscoveryPDU(typeOfPDU, requestID);
+
+        this.typeOfPDU = type;
+        this.requestID = id;
+        this.responseWindow = ((buffer[position] & 0xFF) << 8) | (buffer[position + 1] & 0xFF);
+        position += 2;
+
+        this.neighborhood = length >= EXTENDED_LENGTH && buffer.length - offset >= EXTENDED_LENGTH && buffer[position] == EXTENSION_NEIGHBORHOOD;
+        if (this.neighborhood) {
+            this.transmitPower = buffer[position + 1];
+            this.nodeDegree = buffer[position + 2] & 0xFF;
+            this.neighborhoodFilter.copyFrom(buffer, position + 3);
+        }
+
+        return this;
     }
 }
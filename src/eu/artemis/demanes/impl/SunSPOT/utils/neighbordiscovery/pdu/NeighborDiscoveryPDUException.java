@@ -28,6 +28,8 @@ package eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.pdu;
  * 
  * @see eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.pdu.NeighborDiscoveryPDU#toByteArray
  * @see eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.pdu.NeighborDiscoveryPDU#parsePDU
+ * @see eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.pdu.NeighborDiscoveryPDU#encode
+ * @see eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.pdu.NeighborDiscoveryPDU#wrap
  * 
  * @author N&eacute;stor Lucas Mart&iacute;nez
  * @version 1.0.0
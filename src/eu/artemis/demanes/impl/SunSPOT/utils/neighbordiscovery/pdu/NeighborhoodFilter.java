@@ -0,0 +1,135 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+
+package eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.pdu;
+
+/**
+ * Compact encoding of the set of neighbors of a node, carried in the
+ * responses of the Neighbor Discovery Protocol. It is a Bloom filter of
+ * {@link #BITS} bits where every IEEE address sets {@link #HASHES} bits, so
+ * it has a fixed length whatever the number of neighbors. A filter may report
+ * an address that was never added, but never misses one that was; with 20
+ * neighbors about one address in a hundred is falsely reported.
+ * 
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class NeighborhoodFilter {
+
+    /** Length in bytes of an encoded filter. */
+    public static final int LENGTH = 32;
+    /** Number of bits of the filter. */
+    public static final int BITS = LENGTH * 8;
+    /** Number of bits set by every address. */
+    public static final int HASHES = 3;
+
+    private final byte[] bits;
+
+    /**
+     * Public constructor. Creates an empty filter.
+     */
+    public NeighborhoodFilter() {
+        this.bits = new byte[LENGTH];
+    }
+
+    /**
+     * Empties the filter.
+     */
+    public void clear() {
+        for (int index = 0; index < LENGTH; index++) {
+            bits[index] = 0;
+        }
+    }
+
+    /**
+     * Adds an address to the filter.
+     * 
+     * @param address The IEEE address.
+     */
+    public void add(long address) {
+        long hash = hash(address);
+        for (int index = 0; index < HASHES; index++) {
+            int bit = (int) (hash >>> (index * 8)) & (BITS - 1);
+            bits[bit >> 3] |= (byte) (1 << (bit & 7));
+        }
+    }
+
+    /**
+     * Checks if an address may have been added to the filter.
+     * 
+     * @param address The IEEE address.
+     * @return false if the address has never been added, true if it probably
+     * has.
+     */
+    public boolean mightContain(long address) {
+        long hash = hash(address);
+        for (int index = 0; index < HASHES; index++) {
+            int bit = (int) (hash >>> (index * 8)) & (BITS - 1);
+            if ((bits[bit >> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies this filter into <i>buffer</i> from <i>offset</i>.
+     * 
+     * @param buffer The buffer where the filter is written.
+     * @param offset The position of the first byte of the filter.
+     * @return The number of bytes written, {@link #LENGTH}.
+     */
+    public int copyTo(byte[] buffer, int offset) {
+        System.arraycopy(bits, 0, buffer, offset, LENGTH);
+        return LENGTH;
+    }
+
+    /**
+     * Replaces this filter with the one found in <i>buffer</i> from
+     * <i>offset</i>.
+     * 
+     * @param buffer The buffer containing the filter.
+     * @param offset The position of the first byte of the filter.
+     */
+    public void copyFrom(byte[] buffer, int offset) {
+        System.arraycopy(buffer, offset, bits, 0, LENGTH);
+    }
+
+    /**
+     * Replaces this filter with a copy of <i>filter</i>.
+     * 
+     * @param filter The filter to be copied.
+     */
+    public void copyFrom(NeighborhoodFilter filter) {
+        System.arraycopy(filter.bits, 0, bits, 0, LENGTH);
+    }
+
+    private static long hash(long address) {
+        // Addresses share their upper bytes, so they are mixed before taking bits
+        address ^= address >>> 33;
+        address *= 0xFF51AFD7ED558CCDL;
+        address ^= address >>> 33;
+        address *= 0xC4CEB9FE1A85EC53L;
+        address ^= address >>> 33;
+        return address;
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.queue;
+
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
+import java.util.Vector;
+
+/**
+ * Bounded first-in first-out queue for handing objects from a producer thread
+ * to a consumer thread. Putting never blocks: when the queue is full the
+ * object is dropped and counted. Taking blocks until there is something to
+ * take, and the consumer is woken up as soon as an object is put, so there is
+ * no polling. Waits go through the {@link Clock} of the system.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class BoundedQueue {
+
+    private Object[] elements;
+    private int head;
+    private int count;
+    private boolean closed;
+
+    private long offered;
+    private long dropped;
+    private long taken;
+    private int highWaterMark;
+
+    /**
+     * Public constructor.
+     *
+     * @param capacity The maximum number of objects in the queue.
+     */
+    public BoundedQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("BoundedQueue: The capacity must be positive.");
+        }
+        this.elements = new Object[capacity];
+    }
+
+    /**
+     * Put an object at the end of the queue, waking up the consumer.
+     *
+     * @param element The object.
+     * @return True if the object has been queued, false if it has been
+     * dropped because the queue is full or closed.
+     */
+    public synchronized boolean offer(Object element) {
+        offered++;
+
+        if (closed || count == elements.length) {
+            dropped++;
+            return false;
+        }
+
+        elements[(head + count) % elements.length] = element;
+        count++;
+        if (count > highWaterMark) {
+            highWaterMark = count;
+        }
+
+        Clock.getClock().signalAll(this);
+        return true;
+    }
+
+    /**
+     * Take the object at the head of the queue, waiting for it if the queue is
+     * empty.
+     *
+     * @param millis The maximum time to wait in milliseconds, or 0 to wait
+     * until there is an object or the queue is closed.
+     * @return The object, or null if the time has elapsed or the queue has
+     * been closed.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public synchronized Object take(long millis) throws InterruptedException {
+        if (!awaitElements(millis)) {
+            return null;
+        }
+        return remove();
+    }
+
+    /**
+     * Take up to {@code maximum} objects from the head of the queue, waiting
+     * for the first one if the queue is empty.
+     *
+     * @param batch The vector where the objects are added, in order.
+     * @param maximum The maximum number of objects to take.
+     * @param millis The maximum time to wait in milliseconds, or 0 to wait
+     * until there is an object or the queue is closed.
+     * @return The number of objects taken.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public synchronized int drainTo(Vector batch, int maximum, long millis) throws InterruptedException {
+        if (!awaitElements(millis)) {
+            return 0;
+        }
+
+        int drained = 0;
+        while (count > 0 && drained < maximum) {
+            batch.addElement(remove());
+            drained++;
+        }
+        return drained;
+    }
+
+    private boolean awaitElements(long millis) throws InterruptedException {
+        Clock clock = Clock.getClock();
+        long deadline = clock.currentTimeMillis() + millis;
+        long remaining = millis;
+
+        while (count == 0 && !closed) {
+            if (millis > 0 && remaining <= 0) {
+                return false;
+            }
+            clock.await(this, millis > 0 ? remaining : 0);
+            remaining = deadline - clock.currentTimeMillis();
+        }
+
+        return count > 0;
+    }
+
+    private Object remove() {
+        Object element = elements[head];
+        elements[head] = null;
+        head = (head + 1) % elements.length;
+        count--;
+        taken++;
+        return element;
+    }
+
+    /**
+     * Close the queue. Nothing can be put anymore, and the consumer is woken
+     * up once the objects left have been taken.
+     */
+    public synchronized void close() {
+        closed = true;
+        Clock.getClock().signalAll(this);
+    }
+
+    /**
+     * Reopen a closed queue, discarding the objects left.
+     */
+    public synchronized void open() {
+        while (count > 0) {
+            remove();
+        }
+        closed = false;
+    }
+
+    /**
+     * Indicate whether the queue is closed.
+     *
+     * @return True if the queue is closed, false otherwise.
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Get the number of objects in the queue.
+     *
+     * @return The number of objects.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Get the maximum number of objects in the queue.
+     *
+     * @return The capacity of the queue.
+     */
+    public int getCapacity() {
+        return elements.length;
+    }
+
+    /**
+     * Get the number of objects put in the queue, including the dropped ones.
+     *
+     * @return The number of objects offered.
+     */
+    public synchronized long getOffered() {
+        return offered;
+    }
+
+    /**
+     * Get the number of objects dropped because the queue was full or closed.
+     *
+     * @return The number of objects dropped.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Get the number of objects taken from the queue.
+     *
+     * @return The number of objects taken.
+     */
+    public synchronized long getTaken() {
+        return taken;
+    }
+
+    /**
+     * Get the maximum number of objects that have been in the queue at once.
+     *
+     * @return The high water mark.
+     */
+    public synchronized int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * Reset the counters of the queue.
+     */
+    public synchronized void resetCounters() {
+        offered = 0;
+        dropped = 0;
+        taken = 0;
+        highWaterMark = count;
+    }
+
+    /**
+     * Returns the counters of the queue as text.
+     *
+     * @return A string representation of the queue counters.
+     */
+    public synchronized String toString() {
+        return "BoundedQueue[size=" + count + "/" + elements.length + ", offered=" + offered + ", dropped=" + dropped + ", taken=" + taken + ", highWaterMark=" + highWaterMark + "]";
+    }
+}
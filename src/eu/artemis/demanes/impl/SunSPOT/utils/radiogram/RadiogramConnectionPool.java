@@ -0,0 +1,407 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.radiogram;
+
+import com.sun.spot.multihop.io.j2me.radiogram.RadiogramConnection;
+import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Vector;
+import javax.microedition.io.Connector;
+import javax.microedition.io.Datagram;
+
+/**
+ * Pool of outgoing broadcast radiogram connections keyed by port. Each
+ * pooled connection keeps its own max-length datagram, which is
+ * {@code reset()} and reused on every send instead of being allocated again.
+ * When the pool is full the least recently used idle connection is closed,
+ * and connections not used for longer than the idle timeout are closed on the
+ * next access to the pool.
+ * <p>
+ * Only broadcast connections are pooled. A unicast client connection
+ * receives the radiograms its peer sends to that port before the server
+ * connection of the node does, and nobody receives on a pooled connection,
+ * so keeping it open would silently swallow the requests, acknowledgements
+ * and retransmissions addressed to this node. Unicast connections are
+ * therefore opened on acquire and closed on release, so the pool saves
+ * nothing on unicast sends: each one still opens a connection and allocates
+ * its max-length datagram. Not even the datagram can be kept, since a
+ * radiogram is bound to the connection that created it. Senders that send
+ * often to the same node should rather go through the queue of the
+ * {@code CommunicationManager}, which at least reuses their payload buffers.
+ * <p>
+ * A connection is handed to one thread at a time. If the connection for a
+ * destination is already in use, or every pooled connection is in use, a
+ * connection outside the pool is opened and closed on release, as it was
+ * done before the pool existed.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class RadiogramConnectionPool {
+
+    /** Default maximum number of pooled connections. */
+    public static final int DEFAULT_CAPACITY = 8;
+
+    /** Default time in milliseconds after which an unused connection is closed. */
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+    /** Address used for broadcast connections. */
+    public static final String BROADCAST = "broadcast";
+
+    private static final String BROADCAST_PREFIX = BROADCAST + ":";
+
+    private static final RadiogramConnectionPool pool = new RadiogramConnectionPool(DEFAULT_CAPACITY, DEFAULT_IDLE_TIMEOUT);
+
+    private final int capacity;
+    private final long idleTimeout;
+    private final Hashtable connections;
+    private final Vector leastRecentlyUsed;
+
+    private long opened;
+    private long reused;
+    private long evicted;
+    private long expired;
+
+    /**
+     * Public constructor.
+     *
+     * @param capacity The maximum number of pooled connections.
+     * @param idleTimeout The time in milliseconds after which an unused
+     * connection is closed.
+     */
+    public RadiogramConnectionPool(int capacity, long idleTimeout) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("RadiogramConnectionPool: The capacity must be positive.");
+        }
+        this.capacity = capacity;
+        this.idleTimeout = idleTimeout;
+        this.connections = new Hashtable(capacity);
+        this.leastRecentlyUsed = new Vector(capacity);
+    }
+
+    /**
+     * Get the pool shared by the whole system.
+     *
+     * @return The shared pool.
+     */
+    public static RadiogramConnectionPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Get a connection to the specified destination, with its datagram reset
+     * and ready to be written. It must be given back with
+     * {@link #release(PooledConnection)} after sending, or with
+     * {@link #discard(PooledConnection)} if sending has failed.
+     *
+     * @param address The destination address in dotted hex format, or
+     * {@link #BROADCAST}.
+     * @param port The destination port.
+     * @return The connection.
+     * @throws IOException If a new connection cannot be opened.
+     */
+    public synchronized PooledConnection acquire(String address, int port) throws IOException {
+        return acquire(keyOf(address, port));
+    }
+
+    /**
+     * Get a connection to the destination identified by a key obtained with
+     * {@link #keyOf(String, int)}, with its datagram reset and ready to be
+     * written. Senders that send to the same destination again and again can
+     * build the key once.
+     *
+     * @param key The key of the destination.
+     * @return The connection.
+     * @throws IOException If a new connection cannot be opened.
+     */
+    public synchronized PooledConnection acquire(String key) throws IOException {
+        long now = Clock.getClock().currentTimeMillis();
+
+        closeIdle(now);
+
+        if (!key.startsWith(BROADCAST_PREFIX)) {
+            return open(key, false);
+        }
+
+        PooledConnection connection = (PooledConnection) connections.get(key);
+        if (connection != null) {
+            if (connection.inUse) {
+                return open(key, false);
+            }
+
+            leastRecentlyUsed.removeElement(connection);
+            leastRecentlyUsed.addElement(connection);
+            connection.inUse = true;
+            connection.datagram.reset();
+            reused++;
+            return connection;
+        }
+
+        if (connections.size() >= capacity && !evict()) {
+            return open(key, false);
+        }
+
+        connection = open(key, true);
+        connection.inUse = true;
+        connections.put(key, connection);
+        leastRecentlyUsed.addElement(connection);
+        return connection;
+    }
+
+    /**
+     * Get the key of a destination in the pool.
+     *
+     * @param address The destination address in dotted hex format, or
+     * {@link #BROADCAST}.
+     * @param port The destination port.
+     * @return The key.
+     */
+    public static String keyOf(String address, int port) {
+        return address + ":" + port;
+    }
+
+    /**
+     * Give back a connection after a successful send.
+     *
+     * @param connection The connection obtained with
+     * {@link #acquire(String, int)}.
+     */
+    public synchronized void release(PooledConnection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        if (!connection.pooled) {
+            close(connection);
+            return;
+        }
+
+        connection.inUse = false;
+        connection.lastUsed = Clock.getClock().currentTimeMillis();
+    }
+
+    /**
+     * Give back a connection that has failed, closing it and removing it from
+     * the pool.
+     *
+     * @param connection The connection obtained with
+     * {@link #acquire(String, int)}.
+     */
+    public synchronized void discard(PooledConnection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        if (connection.pooled && connections.get(connection.key) == connection) {
+            connections.remove(connection.key);
+            leastRecentlyUsed.removeElement(connection);
+        }
+        close(connection);
+    }
+
+    /**
+     * Close the connections not used for longer than the idle timeout.
+     */
+    public synchronized void closeIdle() {
+        closeIdle(Clock.getClock().currentTimeMillis());
+    }
+
+    /**
+     * Close every pooled connection. Connections in use are closed when they
+     * are given back.
+     */
+    public synchronized void close() {
+        for (int i = 0; i < leastRecentlyUsed.size(); i++) {
+            PooledConnection connection = (PooledConnection) leastRecentlyUsed.elementAt(i);
+            connection.pooled = false;
+            if (!connection.inUse) {
+                close(connection);
+            }
+        }
+        connections.clear();
+        leastRecentlyUsed.removeAllElements();
+    }
+
+    private void closeIdle(long now) {
+        int i = 0;
+        while (i < leastRecentlyUsed.size()) {
+            PooledConnection connection = (PooledConnection) leastRecentlyUsed.elementAt(i);
+            if (!connection.inUse && now - connection.lastUsed >= idleTimeout) {
+                leastRecentlyUsed.removeElementAt(i);
+                connections.remove(connection.key);
+                close(connection);
+                expired++;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private boolean evict() {
+        for (int i = 0; i < leastRecentlyUsed.size(); i++) {
+            PooledConnection connection = (PooledConnection) leastRecentlyUsed.elementAt(i);
+            if (!connection.inUse) {
+                leastRecentlyUsed.removeElementAt(i);
+                connections.remove(connection.key);
+                close(connection);
+                evicted++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private PooledConnection open(String key, boolean pooled) throws IOException {
+        RadiogramConnection radiogramConnection = (RadiogramConnection) Connector.open("radiogram://" + key);
+        Datagram datagram;
+
+        try {
+            datagram = radiogramConnection.newDatagram(radiogramConnection.getMaximumLength());
+        } catch (IOException ex) {
+            radiogramConnection.close();
+            throw ex;
+        }
+
+        opened++;
+        return new PooledConnection(key, radiogramConnection, datagram, pooled);
+    }
+
+    private void close(PooledConnection connection) {
+        try {
+            connection.connection.close();
+        } catch (IOException ex) {
+            if (SystemContext.isUSBConnected() & SystemContext.isDebugActive()) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Get the number of pooled connections.
+     *
+     * @return The number of pooled connections.
+     */
+    public synchronized int size() {
+        return connections.size();
+    }
+
+    /**
+     * Get the maximum number of pooled connections.
+     *
+     * @return The capacity of the pool.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of connections opened, inside or outside the pool.
+     *
+     * @return The number of connections opened.
+     */
+    public synchronized long getOpened() {
+        return opened;
+    }
+
+    /**
+     * Get the number of times a pooled connection has been reused.
+     *
+     * @return The number of reuses.
+     */
+    public synchronized long getReused() {
+        return reused;
+    }
+
+    /**
+     * Get the number of connections closed to make room for another one.
+     *
+     * @return The number of evicted connections.
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Get the number of connections closed because of the idle timeout.
+     *
+     * @return The number of expired connections.
+     */
+    public synchronized long getExpired() {
+        return expired;
+    }
+
+    public synchronized String toString() {
+        return "RadiogramConnectionPool[size=" + connections.size() + "/" + capacity
+                + ", opened=" + opened + ", reused=" + reused
+                + ", evicted=" + evicted + ", expired=" + expired + "]";
+    }
+
+    /**
+     * A radiogram connection handed out by the pool, together with its
+     * datagram.
+     */
+    public static class PooledConnection {
+
+        private final String key;
+        private final RadiogramConnection connection;
+        private final Datagram datagram;
+        private boolean pooled;
+        private boolean inUse;
+        private long lastUsed;
+
+        private PooledConnection(String key, RadiogramConnection connection, Datagram datagram, boolean pooled) {
+            this.key = key;
+            this.connection = connection;
+            this.datagram = datagram;
+            this.pooled = pooled;
+        }
+
+        /**
+         * Get the connection.
+         *
+         * @return The radiogram connection.
+         */
+        public RadiogramConnection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Get the datagram to be written and sent through the connection.
+         *
+         * @return The datagram.
+         */
+        public Datagram getDatagram() {
+            return datagram;
+        }
+
+        /**
+         * Send the datagram through the connection.
+         *
+         * @throws IOException If the datagram cannot be sent.
+         */
+        public void send() throws IOException {
+            connection.send(datagram);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.replay;
+
+import java.util.Vector;
+
+/**
+ * Summary of a trace replay: how many cycles have been replayed, how the
+ * replayed decisions differ from the recorded ones, and how long it took.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class ReplayReport {
+
+    private static final int MAXIMUM_DIFFERENCES = 20;
+
+    private long cycles;
+    private long recordedTriggers;
+    private long replayedTriggers;
+    private long matchingTriggers;
+    private long missingTriggers;
+    private long extraTriggers;
+    private long eventDifferences;
+    private long deltaCRDifferences;
+    private long nodeDegreeReferenceDifferences;
+    private long reasonerErrors;
+
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private long elapsedTime;
+
+    private Vector differences;
+
+    /**
+     * Public constructor of an empty report.
+     */
+    public ReplayReport() {
+        this.differences = new Vector();
+        this.firstTimestamp = -1;
+    }
+
+    void addCycle(long timestamp) {
+        cycles++;
+        if (firstTimestamp < 0) {
+            firstTimestamp = timestamp;
+        }
+        lastTimestamp = timestamp;
+    }
+
+    void addRecordedTrigger() {
+        recordedTriggers++;
+    }
+
+    void addReplayedTrigger() {
+        replayedTriggers++;
+    }
+
+    void addMatchingTrigger() {
+        matchingTriggers++;
+    }
+
+    void addMissingTrigger(String description) {
+        missingTriggers++;
+        addDifference(description);
+    }
+
+    void addExtraTrigger(String description) {
+        extraTriggers++;
+        addDifference(description);
+    }
+
+    void addEventDifference(String description) {
+        eventDifferences++;
+        addDifference(description);
+    }
+
+    void addDeltaCRDifference(String description) {
+        deltaCRDifferences++;
+        addDifference(description);
+    }
+
+    void addNodeDegreeReferenceDifference() {
+        nodeDegreeReferenceDifferences++;
+    }
+
+    void addReasonerError(String description) {
+        reasonerErrors++;
+        addDifference(description);
+    }
+
+    void setElapsedTime(long elapsedTime) {
+        this.elapsedTime = elapsedTime;
+    }
+
+    private void addDifference(String description) {
+        if (differences.size() < MAXIMUM_DIFFERENCES) {
+            differences.addElement(description);
+        }
+    }
+
+    /**
+     * Get the number of monitoring cycles replayed.
+     *
+     * @return The number of cycles.
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Get the number of cycles whose replayed decision differs from the
+     * recorded one, either in the trigger, the event or delta_cr.
+     *
+     * @return The number of decision differences.
+     */
+    public long getDecisionDifferences() {
+        return missingTriggers + extraTriggers + eventDifferences + deltaCRDifferences + reasonerErrors;
+    }
+
+    /**
+     * Get the span of recorded time replayed.
+     *
+     * @return The replayed time in milliseconds.
+     */
+    public long getReplayedTime() {
+        return firstTimestamp < 0 ? 0 : lastTimestamp - firstTimestamp;
+    }
+
+    /**
+     * Get the time spent replaying.
+     *
+     * @return The elapsed time in milliseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Returns the report as text.
+     *
+     * @return A string representation of the report.
+     */
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("Cycles replayed: ").append(cycles).append('\n');
+        buffer.append("Recorded time: ").append(getReplayedTime() / 1000).append(" s\n");
+        buffer.append("Replay time: ").append(elapsedTime).append(" ms\n");
+        buffer.append("Triggers recorded/replayed/matching: ").append(recordedTriggers).append('/').append(replayedTriggers).append('/').append(matchingTriggers).append('\n');
+        buffer.append("Missing triggers: ").append(missingTriggers).append('\n');
+        buffer.append("Extra triggers: ").append(extraTriggers).append('\n');
+        buffer.append("Event differences: ").append(eventDifferences).append('\n');
+        buffer.append("delta_cr differences: ").append(deltaCRDifferences).append('\n');
+        buffer.append("ND_R differences: ").append(nodeDegreeReferenceDifferences).append('\n');
+        buffer.append("Reasoner errors: ").append(reasonerErrors).append('\n');
+        for (int index = 0; index < differences.size(); index++) {
+            buffer.append("  ").append((String) differences.elementAt(index)).append('\n');
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.replay;
+
+import java.util.Vector;
+
+/**
+ * One record of a trace dumped from the record store of a mote. Two kinds of
+ * records are recognized:
+ * <ul>
+ * <li>{@link #STATUS} records, written by
+ * {@code PowerScalingMonitor.recordStatus} once per monitoring cycle:
+ * sequence, timestamp, ND, maximum battery, available battery, PTX, ND_R,
+ * KSI_ND, k_CR, E_cr, next hop, neighbors...</li>
+ * <li>{@link #DECISION} records, written by the reasoners every time they are
+ * triggered: address, timestamp, ND, PTX, battery, delta_cr, delta_nd, event
+ * URN, error.</li>
+ * </ul>
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class TraceRecord {
+
+    /** Monitoring cycle record. */
+    public static final int STATUS = 1;
+    /** Reasoner decision record. */
+    public static final int DECISION = 2;
+
+    private static final String LOG_DELIMITER = ": ";
+    private static final int STATUS_FIELDS = 11;
+    private static final int DECISION_FIELDS = 9;
+
+    private int type;
+    private long timestamp;
+    private int nodeDegree;
+    private int transmissionPower;
+    private double batteryLevel;
+    private double maximumBatteryLevel;
+    private int nodeDegreeReference;
+    private double ksiND;
+    private double kCR;
+    private double deltaCR;
+    private String event;
+    private String address;
+
+    private TraceRecord() {
+    }
+
+    /**
+     * Parses a line of a dumped trace.
+     *
+     * @param line The line.
+     * @return The record, or null if the line is not a record of the trace.
+     */
+    public static TraceRecord parse(String line) {
+        // Records logged as text are prefixed by the date and the level
+        int delimiter = -1;
+        int next;
+        while ((next = line.indexOf(LOG_DELIMITER, delimiter + 1)) >= 0) {
+            delimiter = next;
+        }
+        if (delimiter >= 0) {
+            line = line.substring(delimiter + LOG_DELIMITER.length());
+        }
+
+        Vector fields = split(line);
+        TraceRecord record = new TraceRecord();
+
+        try {
+            if (fields.size() >= DECISION_FIELDS && field(fields, 7).startsWith("urn:")) {
+                record.type = DECISION;
+                record.address = field(fields, 0);
+                record.timestamp = Long.parseLong(field(fields, 1));
+                record.nodeDegree = Integer.parseInt(field(fields, 2));
+                record.transmissionPower = Integer.parseInt(field(fields, 3));
+                record.batteryLevel = Double.parseDouble(field(fields, 4));
+                record.deltaCR = Double.parseDouble(field(fields, 5));
+                record.event = field(fields, 7);
+                return record;
+            }
+
+            if (fields.size() >= STATUS_FIELDS) {
+                record.type = STATUS;
+                record.timestamp = Long.parseLong(field(fields, 1));
+                record.nodeDegree = Integer.parseInt(field(fields, 2));
+                record.maximumBatteryLevel = Double.parseDouble(field(fields, 3));
+                record.batteryLevel = Double.parseDouble(field(fields, 4));
+                record.transmissionPower = Integer.parseInt(field(fields, 5));
+                record.nodeDegreeReference = Integer.parseInt(field(fields, 6));
+                record.ksiND = Double.parseDouble(field(fields, 7));
+                record.kCR = Double.parseDouble(field(fields, 8));
+                return record;
+            }
+        } catch (NumberFormatException ex) {
+            // Not a record of the trace
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the kind of record.
+     *
+     * @return {@link #STATUS} or {@link #DECISION}.
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Get the time at which the record was written.
+     *
+     * @return The timestamp in milliseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Get the recorded node degree.
+     *
+     * @return The node degree.
+     */
+    public int getNodeDegree() {
+        return nodeDegree;
+    }
+
+    /**
+     * Get the recorded transmission power.
+     *
+     * @return The transmission power in dBm.
+     */
+    public int getTransmissionPower() {
+        return transmissionPower;
+    }
+
+    /**
+     * Get the recorded available battery capacity.
+     *
+     * @return The battery level in mAh.
+     */
+    public double getBatteryLevel() {
+        return batteryLevel;
+    }
+
+    /**
+     * Get the recorded maximum battery capacity ({@link #STATUS} only).
+     *
+     * @return The maximum battery level in mAh.
+     */
+    public double getMaximumBatteryLevel() {
+        return maximumBatteryLevel;
+    }
+
+    /**
+     * Get the recorded node degree reference ({@link #STATUS} only).
+     *
+     * @return The node degree reference, ND_R.
+     */
+    public int getNodeDegreeReference() {
+        return nodeDegreeReference;
+    }
+
+    /**
+     * Get the recorded node degree tolerance ({@link #STATUS} only).
+     *
+     * @return KSI_ND.
+     */
+    public double getKsiND() {
+        return ksiND;
+    }
+
+    /**
+     * Get the recorded communication range gain ({@link #STATUS} only).
+     *
+     * @return k_CR.
+     */
+    public double getKCR() {
+        return kCR;
+    }
+
+    /**
+     * Get the recorded communication range variation ({@link #DECISION}
+     * only).
+     *
+     * @return delta_cr.
+     */
+    public double getDeltaCR() {
+        return deltaCR;
+    }
+
+    /**
+     * Get the recorded event URN ({@link #DECISION} only).
+     *
+     * @return The event URN.
+     */
+    public String getEvent() {
+        return event;
+    }
+
+    /**
+     * Get the recorded address of the mote ({@link #DECISION} only).
+     *
+     * @return The IEEE address as a dotted hex string.
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    private static String field(Vector fields, int index) {
+        return (String) fields.elementAt(index);
+    }
+
+    private static Vector split(String line) {
+        Vector fields = new Vector();
+        int start = 0;
+        int end;
+
+        while ((end = line.indexOf(',', start)) >= 0) {
+            fields.addElement(line.substring(start, end).trim());
+            start = end + 1;
+        }
+        if (start < line.length()) {
+            fields.addElement(line.substring(start).trim());
+        }
+
+        return fields;
+    }
+}
@@ -0,0 +1,404 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.replay;
+
+import com.sun.spot.core.util.Properties;
+import eu.artemis.demanes.datatypes.ANES_BUNDLE;
+import eu.artemis.demanes.datatypes.ANES_URN;
+import eu.artemis.demanes.datatypes.ANES_URN_Exception;
+import eu.artemis.demanes.exceptions.ActionInvocationException;
+import eu.artemis.demanes.exceptions.InexistentActionID;
+import eu.artemis.demanes.exceptions.InexistentObservationID;
+import eu.artemis.demanes.exceptions.NonExistentKeyException;
+import eu.artemis.demanes.exceptions.ObservationInvocationException;
+import eu.artemis.demanes.impl.SunSPOT.common.DEMANESResources;
+import eu.artemis.demanes.impl.SunSPOT.common.RadioProperties;
+import eu.artemis.demanes.impl.SunSPOT.common.ReasonerProperties;
+import eu.artemis.demanes.impl.SunSPOT.common.ReconfigurationContext;
+import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.common.TriggerPolicyProperties;
+import eu.artemis.demanes.impl.SunSPOT.fuzzyReasoner.PowerScalingControllerFactory;
+import eu.artemis.demanes.impl.SunSPOT.reconfiguration.PowerScalingMonitor.rules.PowerScalingTrigger;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.VirtualClock;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
+import eu.artemis.demanes.reconfiguration.ActionProvider;
+import eu.artemis.demanes.reconfiguration.ObservationProvider;
+import eu.artemis.demanes.reconfiguration.Reasoner;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Enumeration;
+import java.util.Vector;
+
+/**
+ * Replays a trace dumped from the record store of a mote (see
+ * {@code SunSPOTPowerController.dumpRecordHistory}) through the trigger rules
+ * and a {@link Reasoner}, and reports how the replayed decisions differ from
+ * the recorded ones.
+ *
+ * Every {@link TraceRecord#STATUS} record is a monitoring cycle. The recorded
+ * node degree and battery level are observed again, the transmission power is
+ * the one recorded in the previous cycle (the status is recorded after the
+ * actuation), and the decision is compared with the
+ * {@link TraceRecord#DECISION} record written in the same cycle, if any. The
+ * node degree reference is resynchronized with the recorded one after every
+ * cycle, so a difference does not propagate to the following cycles.
+ *
+ * Time is taken from a {@link VirtualClock} that follows the timestamps of the
+ * trace, so the replay runs as fast as the host allows. It does not access the
+ * hardware, so it runs on the host with the SunSPOT libraries in the
+ * classpath.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class TraceReplayer {
+
+    /** Default reasoner, the one used by {@code SunSPOTPowerController}. */
+    public static final String DEFAULT_REASONER = "PTInterp1DFDM";
+    /** Default radio channel. */
+    public static final int DEFAULT_CHANNEL = 26;
+
+    private static final double DELTA_CR_TOLERANCE = 1.0E-6;
+
+    private String reasonerName;
+    private Properties overrides;
+    private int channel;
+
+    private VirtualClock clock;
+    private Properties properties;
+    private PowerScalingTrigger trigger;
+    private Reasoner reasoner;
+
+    // Values observed by the reasoner
+    private int nodeDegree;
+    private double batteryLevel;
+    private int transmissionPower;
+    private ANES_URN cause;
+    private Double error;
+
+    // Value actuated by the reasoner
+    private double deltaCR;
+    private boolean actuated;
+
+    /**
+     * Public constructor.
+     *
+     * @param reasonerName The descriptor of the reasoner, as used in the
+     * {@link PowerScalingControllerFactory}.
+     * @param overrides Reconfiguration properties overriding the default ones,
+     * for instance the contents of {@code reconfiguration.conf}. It can be
+     * null.
+     * @param channel The radio channel used by the mote.
+     */
+    public TraceReplayer(String reasonerName, Properties overrides, int channel) {
+        this.reasonerName = reasonerName;
+        this.overrides = overrides;
+        this.channel = channel;
+    }
+
+    /**
+     * Replays a trace.
+     *
+     * @param trace The trace, as dumped from the record store.
+     * @return The report of the replay.
+     * @throws IOException If the trace can not be read.
+     */
+    public ReplayReport replay(InputStream trace) throws IOException {
+        ReplayReport report = new ReplayReport();
+        Reader reader = new InputStreamReader(trace);
+        Clock systemClock = Clock.getClock();
+        Logger logger = SystemContext.getLogger();
+        Level logLevel = logger.getLevel();
+        long start = System.currentTimeMillis();
+
+        clock = new VirtualClock();
+        properties = null;
+        Clock.setClock(clock);
+        logger.setOff();
+
+        try {
+            TraceRecord decision = null;
+            int previousTransmissionPower = Integer.MIN_VALUE;
+            String line;
+
+            while ((line = readLine(reader)) != null) {
+                TraceRecord record = TraceRecord.parse(line);
+
+                if (record == null) {
+                    continue;
+                }
+
+                if (record.getType() == TraceRecord.DECISION) {
+                    decision = record;
+                    continue;
+                }
+
+                if (previousTransmissionPower == Integer.MIN_VALUE) {
+                    previousTransmissionPower = (decision != null) ? decision.getTransmissionPower() : record.getTransmissionPower();
+                }
+
+                replayCycle(record, decision, previousTransmissionPower, report);
+
+                previousTransmissionPower = record.getTransmissionPower();
+                decision = null;
+            }
+        } finally {
+            Clock.setClock(systemClock);
+            logger.setLevel(logLevel);
+        }
+
+        report.setElapsedTime(System.currentTimeMillis() - start);
+        return report;
+    }
+
+    private void replayCycle(TraceRecord status, TraceRecord decision, int ptx, ReplayReport report) {
+        boolean fired;
+        boolean failed = false;
+
+        clock.setTime(status.getTimestamp());
+        report.addCycle(status.getTimestamp());
+
+        if (properties == null) {
+            setUp(status);
+        }
+
+        // Parameters that can be changed through the remote management
+        properties.setProperty(TriggerPolicyProperties.KSI_ND_PROPERTY, Integer.toString((int) status.getKsiND()));
+        properties.setProperty(ReasonerProperties.KCR_PROPERTY, Double.toString(status.getKCR()));
+
+        nodeDegree = status.getNodeDegree();
+        batteryLevel = status.getBatteryLevel();
+        transmissionPower = ptx;
+        actuated = false;
+
+        fired = trigger.evaluate(nodeDegree, batteryLevel, RadioProperties.getPTXIndex(channel, ptx));
+
+        if (fired) {
+            report.addReplayedTrigger();
+            try {
+                cause = ANES_URN.create(trigger.getEvent());
+                error = new Double(trigger.getError());
+                reasoner.trigger();
+            } catch (ANES_URN_Exception ex) {
+                failed = true;
+                report.addReasonerError(describe(status, "invalid event " + trigger.getEvent()));
+            } catch (RuntimeException ex) {
+                failed = true;
+                report.addReasonerError(describe(status, ex.toString()));
+            }
+        }
+
+        if (decision != null) {
+            report.addRecordedTrigger();
+        }
+
+        if (decision != null && fired) {
+            if (failed) {
+                // Already reported
+            } else if (!decision.getEvent().equals(trigger.getEvent())) {
+                report.addEventDifference(describe(status, "recorded " + decision.getEvent() + ", replayed " + trigger.getEvent()));
+            } else if (!actuated || Math.abs(decision.getDeltaCR() - deltaCR) > DELTA_CR_TOLERANCE) {
+                report.addDeltaCRDifference(describe(status, "recorded delta_cr " + decision.getDeltaCR() + ", replayed " + (actuated ? Double.toString(deltaCR) : "none")));
+            } else {
+                report.addMatchingTrigger();
+            }
+        } else if (decision != null) {
+            report.addMissingTrigger(describe(status, "recorded " + decision.getEvent() + ", not replayed"));
+        } else if (fired && !failed) {
+            report.addExtraTrigger(describe(status, "replayed " + trigger.getEvent() + " with delta_cr " + deltaCR + ", not recorded"));
+        }
+
+        String ND_R = Integer.toString(status.getNodeDegreeReference());
+        if (!ND_R.equals(properties.getProperty(ReasonerProperties.ND_R_PROPERTY))) {
+            report.addNodeDegreeReferenceDifference();
+            properties.setProperty(ReasonerProperties.ND_R_PROPERTY, ND_R);
+        }
+    }
+
+    private void setUp(TraceRecord status) {
+        ReconfigurationContext context = new ReconfigurationContext(status.getMaximumBatteryLevel(), channel);
+        properties = context.getProperties();
+
+        if (overrides != null) {
+            Enumeration keys = overrides.keys();
+            while (keys.hasMoreElements()) {
+                String key = (String) keys.nextElement();
+                properties.setProperty(key, overrides.getProperty(key));
+            }
+        }
+
+        context.updateProperties(properties, status.getMaximumBatteryLevel());
+        properties.setProperty(ReasonerProperties.ND_R_PROPERTY, Integer.toString(status.getNodeDegreeReference()));
+
+        trigger = new PowerScalingTrigger(properties);
+
+        reasoner = PowerScalingControllerFactory.getInstance(reasonerName, properties);
+        if (reasoner == null) {
+            throw new IllegalArgumentException("TraceReplayer: Unknown reasoner " + reasonerName);
+        }
+        reasoner.setObservationProvider(new ReplayObservationProvider());
+        reasoner.setActuationProvider(new ReplayActionProvider());
+    }
+
+    private String describe(TraceRecord status, String difference) {
+        return "t=" + status.getTimestamp() + " ND=" + status.getNodeDegree() + " BL=" + status.getBatteryLevel() + ": " + difference;
+    }
+
+    private static String readLine(Reader reader) throws IOException {
+        StringBuffer line = new StringBuffer();
+        int character;
+
+        while ((character = reader.read()) >= 0) {
+            if (character == '\n') {
+                return line.toString();
+            }
+            if (character != '\r') {
+                line.append((char) character);
+            }
+        }
+
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    /**
+     * Replays the trace in the resource named in the first argument and
+     * prints the report. The optional second and third arguments are the
+     * reasoner and the radio channel. The {@code reconfiguration.conf}
+     * resource, if present, overrides the default reconfiguration properties
+     * as it does in the mote.
+     *
+     * @param args The trace resource, the reasoner and the radio channel.
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: TraceReplayer <trace resource> [reasoner] [channel]");
+            return;
+        }
+
+        String reasonerName = (args.length > 1) ? args[1] : DEFAULT_REASONER;
+        int channel = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_CHANNEL;
+
+        try {
+            InputStream trace = TraceReplayer.class.getResourceAsStream(args[0]);
+            if (trace == null) {
+                System.out.println("Trace " + args[0] + " not found");
+                return;
+            }
+
+            Properties overrides = new Properties();
+            InputStream reconfFile = TraceReplayer.class.getResourceAsStream("/reconfiguration.conf");
+            if (reconfFile != null) {
+                overrides.load(reconfFile);
+            }
+
+            ReplayReport report = new TraceReplayer(reasonerName, overrides, channel).replay(trace);
+            System.out.println(report.toString());
+        } catch (IOException ex) {
+            System.out.println("Error reading the trace: " + ex.getMessage());
+        }
+    }
+
+    // PRIVATE CLASSES
+    private class ReplayObservationProvider implements ObservationProvider {
+
+        /**
+         * Get the observations replayed from the trace.
+         *
+         * @return The URN of the replayed observations.
+         */
+        public Vector getObservations() {
+            Vector observations = new Vector();
+            observations.addElement(DEMANESResources.NDObservationURN);
+            observations.addElement(DEMANESResources.BLObservationURN);
+            observations.addElement(DEMANESResources.PTXObservationURN);
+            observations.addElement(DEMANESResources.TriggerReasonURN);
+            observations.addElement(DEMANESResources.TriggerReasonValueURN);
+            return observations;
+        }
+
+        /**
+         * Get the replayed value of an observation.
+         *
+         * @param id The URN of the observation.
+         * @return The value of the observation in the replayed cycle.
+         * @throws InexistentObservationID If the observation is not replayed.
+         * @throws ObservationInvocationException Never.
+         */
+        public Object getValue(ANES_URN id) throws InexistentObservationID, ObservationInvocationException {
+            String urn = id.toString();
+
+            if (urn.equals(DEMANESResources.NDObservationURN)) {
+                return new Integer(nodeDegree);
+            } else if (urn.equals(DEMANESResources.BLObservationURN)) {
+                return new Double(batteryLevel);
+            } else if (urn.equals(DEMANESResources.PTXObservationURN)) {
+                return new Integer(transmissionPower);
+            } else if (urn.equals(DEMANESResources.TriggerReasonURN)) {
+                return cause;
+            } else if (urn.equals(DEMANESResources.TriggerReasonValueURN)) {
+                return error;
+            }
+
+            throw new InexistentObservationID(id);
+        }
+    }
+
+    private class ReplayActionProvider implements ActionProvider {
+
+        /**
+         * Get the actions captured by the replay.
+         *
+         * @return The URN of the captured actions.
+         */
+        public Vector getActions() {
+            Vector actions = new Vector();
+            actions.addElement(DEMANESResources.PTActionURN);
+            return actions;
+        }
+
+        /**
+         * Capture the variation of the communication range decided by the
+         * reasoner.
+         *
+         * @param id The URN of the action.
+         * @param arguments The arguments of the action.
+         * @throws InexistentActionID If the action is not captured.
+         * @throws ActionInvocationException If there is no delta_cr argument.
+         */
+        public void invoke(ANES_URN id, ANES_BUNDLE arguments) throws InexistentActionID, ActionInvocationException {
+            if (!id.toString().equals(DEMANESResources.PTActionURN)) {
+                throw new InexistentActionID(id);
+            }
+
+            try {
+                deltaCR = ((Double) arguments.get(DEMANESResources.DELTA_CR_KEY)).doubleValue();
+                actuated = true;
+            } catch (NonExistentKeyException ex) {
+                throw new ActionInvocationException(id, ex);
+            }
+        }
+    }
+}
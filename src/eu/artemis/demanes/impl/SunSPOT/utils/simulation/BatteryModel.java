@@ -0,0 +1,99 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.simulation;
+
+/**
+ * Stand-in for the battery of a simulated node. It is drained by the supply
+ * current of the node over time.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class BatteryModel {
+
+    /** Default capacity, the one of the SunSPOT battery, in mAh. */
+    public static final double DEFAULT_CAPACITY = 720.0;
+
+    private static final double MILLISECONDS_PER_HOUR = 3600000.0;
+
+    private double maximumCapacity;
+    private double availableCapacity;
+
+    /**
+     * Public constructor of a fully charged battery.
+     *
+     * @param maximumCapacity The capacity of the battery in mAh.
+     */
+    public BatteryModel(double maximumCapacity) {
+        this.maximumCapacity = maximumCapacity;
+        this.availableCapacity = maximumCapacity;
+    }
+
+    /**
+     * Drain the battery.
+     *
+     * @param current The supply current in mA.
+     * @param millis The time the current is drawn, in milliseconds.
+     */
+    public void drain(double current, long millis) {
+        availableCapacity -= current * millis / MILLISECONDS_PER_HOUR;
+        if (availableCapacity < 0) {
+            availableCapacity = 0;
+        }
+    }
+
+    /**
+     * Get the capacity of the battery.
+     *
+     * @return The capacity in mAh.
+     */
+    public double getMaximumCapacity() {
+        return maximumCapacity;
+    }
+
+    /**
+     * Get the remaining capacity of the battery.
+     *
+     * @return The remaining capacity in mAh.
+     */
+    public double getAvailableCapacity() {
+        return availableCapacity;
+    }
+
+    /**
+     * Get the capacity already drained from the battery.
+     *
+     * @return The drained capacity in mAh.
+     */
+    public double getConsumedCapacity() {
+        return maximumCapacity - availableCapacity;
+    }
+
+    /**
+     * Indicate whether the battery is depleted.
+     *
+     * @return True if there is no capacity left, false otherwise.
+     */
+    public boolean isDepleted() {
+        return availableCapacity <= 0;
+    }
+}
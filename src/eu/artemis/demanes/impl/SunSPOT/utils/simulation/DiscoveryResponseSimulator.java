@@ -0,0 +1,252 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.simulation;
+
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.ondemand.OnDemandNeighborDiscoveryRequester;
+import eu.artemis.demanes.impl.SunSPOT.utils.neighbordiscovery.ondemand.OnDemandNeighborDiscoveryResponder;
+import java.util.Random;
+
+/**
+ * Simulates the responses to a single neighbor discovery request on a shared
+ * channel, to compare answering at once with spreading the responses over the
+ * response window of the request.
+ *
+ * Every neighbor hears the request and, after a short processing time and the
+ * delay drawn by {@link OnDemandNeighborDiscoveryResponder#drawDelay(Random, int)},
+ * accesses the channel with the unslotted CSMA-CA of IEEE 802.15.4: it backs
+ * off a random number of periods, senses the channel and transmits if it is
+ * idle, or backs off again with a larger exponent until it gives up. All the
+ * neighbors are in range of each other, so two frames collide only when
+ * they are sent within the turnaround time of the radio, and then both are
+ * lost. The requester counts the responses received without collision within
+ * the response window plus the grace time.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class DiscoveryResponseSimulator {
+
+    /** Duration of a backoff period in microseconds. */
+    public static final long BACKOFF_PERIOD = 320;
+    /** Time in microseconds between sensing the channel idle and transmitting. */
+    public static final long TURNAROUND = 192;
+    /** Initial backoff exponent. */
+    public static final int MINIMUM_BACKOFF_EXPONENT = 3;
+    /** Maximum backoff exponent. */
+    public static final int MAXIMUM_BACKOFF_EXPONENT = 5;
+    /** Number of backoffs before giving up the transmission. */
+    public static final int MAXIMUM_BACKOFFS = 4;
+    /** Maximum time in microseconds spent processing the request before answering. */
+    public static final long PROCESSING_TIME = 1000;
+
+    private final Random randomGenerator;
+    private final long airtime;
+
+    private long[] attempt;
+    private int[] backoffs;
+    private int[] exponent;
+    private long[] start;
+    private boolean[] failed;
+
+    private int received;
+    private int collided;
+    private int accessFailures;
+    private int late;
+
+    /**
+     * Public constructor.
+     *
+     * @param airtime The airtime of a response in milliseconds.
+     * @param seed The seed of the random generator.
+     */
+    public DiscoveryResponseSimulator(long airtime, long seed) {
+        this.airtime = airtime * 1000;
+        this.randomGenerator = new Random(seed);
+    }
+
+    /**
+     * Simulates the responses of a number of neighbors to one request.
+     *
+     * @param neighbors The number of neighbors that answer.
+     * @param responseWindow The response window of the request in
+     * milliseconds, or 0 to answer at once.
+     */
+    public void round(int neighbors, int responseWindow) {
+        attempt = new long[neighbors];
+        backoffs = new int[neighbors];
+        exponent = new int[neighbors];
+        start = new long[neighbors];
+        failed = new boolean[neighbors];
+
+        for (int i = 0; i < neighbors; i++) {
+            long delay = OnDemandNeighborDiscoveryResponder.drawDelay(randomGenerator, responseWindow) * 1000;
+            exponent[i] = MINIMUM_BACKOFF_EXPONENT;
+            start[i] = -1;
+            attempt[i] = delay + (long) (randomGenerator.nextDouble() * PROCESSING_TIME) + backoff(MINIMUM_BACKOFF_EXPONENT);
+        }
+
+        // Channel accesses are handled in time order, so that every node senses
+        // the transmissions decided before it
+        int next;
+        while ((next = nextAttempt()) >= 0) {
+            long now = attempt[next];
+            attempt[next] = -1;
+            if (isBusy(now)) {
+                backoffs[next]++;
+                if (backoffs[next] > MAXIMUM_BACKOFFS) {
+                    failed[next] = true;
+                    accessFailures++;
+                } else {
+                    exponent[next] = Math.min(exponent[next] + 1, MAXIMUM_BACKOFF_EXPONENT);
+                    attempt[next] = now + backoff(exponent[next]);
+                }
+            } else {
+                start[next] = now + TURNAROUND;
+            }
+        }
+
+        long deadline = (responseWindow + OnDemandNeighborDiscoveryRequester.RESPONSE_GRACE) * 1000L;
+        for (int i = 0; i < neighbors; i++) {
+            if (failed[i]) {
+                continue;
+            }
+            if (collides(i)) {
+                collided++;
+            } else if (responseWindow > 0 && start[i] + airtime > deadline) {
+                late++;
+            } else {
+                received++;
+            }
+        }
+    }
+
+    private long backoff(int exponent) {
+        return randomGenerator.nextInt(1 << exponent) * BACKOFF_PERIOD;
+    }
+
+    private int nextAttempt() {
+        int next = -1;
+        for (int i = 0; i < attempt.length; i++) {
+            if (attempt[i] >= 0 && (next < 0 || attempt[i] < attempt[next])) {
+                next = i;
+            }
+        }
+        return next;
+    }
+
+    private boolean isBusy(long time) {
+        for (int i = 0; i < start.length; i++) {
+            if (start[i] >= 0 && start[i] <= time && time < start[i] + airtime) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean collides(int frame) {
+        for (int i = 0; i < start.length; i++) {
+            if (i != frame && start[i] >= 0 && start[i] < start[frame] + airtime && start[frame] < start[i] + airtime) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Clear the counters.
+     */
+    public void reset() {
+        received = 0;
+        collided = 0;
+        accessFailures = 0;
+        late = 0;
+    }
+
+    /**
+     * Get the number of responses received by the requester.
+     *
+     * @return The responses received.
+     */
+    public int getReceived() {
+        return received;
+    }
+
+    /**
+     * Get the number of responses lost in a collision.
+     *
+     * @return The responses collided.
+     */
+    public int getCollided() {
+        return collided;
+    }
+
+    /**
+     * Get the number of responses never sent because the channel was busy.
+     *
+     * @return The channel access failures.
+     */
+    public int getAccessFailures() {
+        return accessFailures;
+    }
+
+    /**
+     * Get the number of responses received after the response window.
+     *
+     * @return The late responses.
+     */
+    public int getLate() {
+        return late;
+    }
+
+    /**
+     * Compares answering at once with spreading the responses over the window
+     * given by {@link OnDemandNeighborDiscoveryRequester#responseWindowFor(long)}
+     * for growing numbers of neighbors, and prints the mean results per
+     * request. The optional arguments are the number of requests per case and
+     * the seed.
+     *
+     * @param args The number of requests and seed.
+     */
+    public static void main(String[] args) {
+        int requests = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+        int[] neighbors = {5, 10, 20, 50, 80, 120};
+
+        DiscoveryResponseSimulator simulator = new DiscoveryResponseSimulator(RadioModel.DEFAULT_AIRTIME, seed);
+
+        System.out.println("neighbors,window,mean_degree,collided,access_failures,late");
+        for (int i = 0; i < neighbors.length; i++) {
+            int[] windows = {0, OnDemandNeighborDiscoveryRequester.responseWindowFor(neighbors[i])};
+            for (int j = 0; j < windows.length; j++) {
+                simulator.reset();
+                for (int k = 0; k < requests; k++) {
+                    simulator.round(neighbors[i], windows[j]);
+                }
+                System.out.println(neighbors[i] + "," + windows[j]
+                        + "," + ((double) simulator.getReceived() / requests)
+                        + "," + ((double) simulator.getCollided() / requests)
+                        + "," + ((double) simulator.getAccessFailures() / requests)
+                        + "," + ((double) simulator.getLate() / requests));
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.simulation;
+
+import eu.artemis.demanes.impl.SunSPOT.communications.ConfigurationDissemination;
+import eu.artemis.demanes.impl.SunSPOT.common.RadioProperties;
+import eu.artemis.demanes.impl.SunSPOT.utils.trickle.TrickleDissemination;
+import eu.artemis.demanes.impl.SunSPOT.utils.trickle.TrickleTimer;
+import java.util.Random;
+
+/**
+ * Simulates the dissemination of a configuration by Trickle gossip, as done
+ * by {@link ConfigurationDissemination}, to measure how long a new version
+ * takes to reach the whole fleet and how many broadcasts it costs.
+ *
+ * Every node runs a {@link TrickleDissemination} holding the same version
+ * for a warm-up period, so that the timers have backed off as in a stable
+ * network. Then a new version is injected at the first node, as the base
+ * station would do with a single message, and time advances in ticks until
+ * every node reachable from it holds the new version. Each broadcast is heard
+ * by the nodes in range, the frames being lost with the packet loss of the
+ * radio model. Collisions are not modelled.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class DisseminationSimulator {
+
+    /** Time step of the simulation in milliseconds. */
+    public static final long TICK = 50;
+    /** Default warm-up period in milliseconds. */
+    public static final long DEFAULT_WARMUP = 300000;
+    /** Default maximum time in milliseconds to wait for the convergence. */
+    public static final long DEFAULT_MAXIMUM_TIME = 600000;
+
+    private static final int OLD_VERSION = 1;
+    private static final int NEW_VERSION = 2;
+
+    private final RadioModel radio;
+    private final double range;
+    private final long minimumInterval;
+    private final int doublings;
+    private final int redundancy;
+    private final Random random;
+
+    private double[] x;
+    private double[] y;
+    private int[][] neighbors;
+
+    private int reachable;
+    private int reached;
+    private long convergenceTime;
+    private long warmupBroadcasts;
+    private long broadcasts;
+    private long suppressions;
+
+    /**
+     * Public constructor.
+     *
+     * @param radio The radio model shared by all the nodes.
+     * @param ptxIndex The transmission power index of every node.
+     * @param minimumInterval The minimum interval of the Trickle timers.
+     * @param doublings The number of doublings of the minimum interval.
+     * @param redundancy The redundancy constant.
+     * @param seed The seed for the placement, the timers and the frame losses.
+     */
+    public DisseminationSimulator(RadioModel radio, int ptxIndex, long minimumInterval, int doublings, int redundancy, long seed) {
+        this.radio = radio;
+        this.range = radio.getRange(ptxIndex);
+        this.minimumInterval = minimumInterval;
+        this.doublings = doublings;
+        this.redundancy = redundancy;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Places nodes at random in a square area.
+     *
+     * @param count The number of nodes.
+     * @param side The side of the area, in meters.
+     */
+    public void deploy(int count, double side) {
+        x = new double[count];
+        y = new double[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = random.nextDouble() * side;
+            y[i] = random.nextDouble() * side;
+        }
+        findNeighbors();
+    }
+
+    /**
+     * Runs the warm-up and the dissemination of a new version.
+     *
+     * @param warmup The warm-up period in milliseconds.
+     * @param maximumTime The maximum time in milliseconds to wait for every
+     * reachable node to hold the new version.
+     */
+    public void run(long warmup, long maximumTime) {
+        int count = x.length;
+        TrickleDissemination[] nodes = new TrickleDissemination[count];
+        boolean[] updated = new boolean[count];
+
+        for (int i = 0; i < count; i++) {
+            nodes[i] = new TrickleDissemination(new TrickleTimer(minimumInterval, doublings, redundancy, random));
+            nodes[i].update(OLD_VERSION, 0);
+        }
+
+        long now = 0;
+        broadcasts = 0;
+        while (now < warmup) {
+            now += TICK;
+            step(nodes, updated, now);
+        }
+        warmupBroadcasts = broadcasts;
+
+        long injection = now;
+        nodes[0].update(NEW_VERSION, now);
+        updated[0] = true;
+        reached = 1;
+        broadcasts = 0;
+        long lastUpdate = now;
+
+        while (reached < reachable && now - injection < maximumTime) {
+            now += TICK;
+            int before = reached;
+            step(nodes, updated, now);
+            if (reached > before) {
+                lastUpdate = now;
+            }
+        }
+
+        convergenceTime = (reached == reachable) ? lastUpdate - injection : -1;
+        suppressions = 0;
+        for (int i = 0; i < count; i++) {
+            suppressions += nodes[i].getTimer().getSuppressionCount();
+        }
+    }
+
+    private void step(TrickleDissemination[] nodes, boolean[] updated, long now) {
+        for (int i = 0; i < nodes.length; i++) {
+            if (!nodes[i].poll(now)) {
+                continue;
+            }
+
+            broadcasts++;
+            int version = nodes[i].getVersion();
+            for (int k = 0; k < neighbors[i].length; k++) {
+                int j = neighbors[i][k];
+                if (!delivered()) {
+                    continue;
+                }
+                if (nodes[j].heard(version, now) == TrickleDissemination.NEWER) {
+                    nodes[j].update(version, now);
+                    if (version == NEW_VERSION && !updated[j]) {
+                        updated[j] = true;
+                        reached++;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean delivered() {
+        return radio.getPacketLoss() == 0 || random.nextDouble() >= radio.getPacketLoss();
+    }
+
+    /**
+     * Finds the nodes in range of every node, and the number of nodes the
+     * first one can reach in any number of hops.
+     */
+    private void findNeighbors() {
+        int count = x.length;
+        int[] found = new int[count];
+
+        neighbors = new int[count][];
+        for (int i = 0; i < count; i++) {
+            int size = 0;
+            for (int j = 0; j < count; j++) {
+                double dx = x[i] - x[j];
+                double dy = y[i] - y[j];
+                if (j != i && Math.sqrt(dx * dx + dy * dy) <= range) {
+                    found[size++] = j;
+                }
+            }
+            neighbors[i] = new int[size];
+            System.arraycopy(found, 0, neighbors[i], 0, size);
+        }
+
+        boolean[] visited = new boolean[count];
+        int[] queue = new int[count];
+        int head = 0;
+        int tail = 0;
+        if (count > 0) {
+            visited[0] = true;
+            queue[tail++] = 0;
+        }
+        while (head < tail) {
+            int i = queue[head++];
+            for (int k = 0; k < neighbors[i].length; k++) {
+                int j = neighbors[i][k];
+                if (!visited[j]) {
+                    visited[j] = true;
+                    queue[tail++] = j;
+                }
+            }
+        }
+        reachable = tail;
+    }
+
+    /**
+     * Get the number of nodes reachable from the node where the new version
+     * is injected.
+     *
+     * @return The reachable nodes, including the first one.
+     */
+    public int getReachable() {
+        return reachable;
+    }
+
+    /**
+     * Get the number of nodes holding the new version at the end.
+     *
+     * @return The nodes reached, including the first one.
+     */
+    public int getReached() {
+        return reached;
+    }
+
+    /**
+     * Get the time from the injection until every reachable node holds the
+     * new version.
+     *
+     * @return The convergence time in milliseconds, or -1 if it was not
+     * reached within the maximum time.
+     */
+    public long getConvergenceTime() {
+        return convergenceTime;
+    }
+
+    /**
+     * Get the number of broadcasts during the warm-up, which is the cost of
+     * keeping a stable fleet consistent.
+     *
+     * @return The warm-up broadcasts.
+     */
+    public long getWarmupBroadcasts() {
+        return warmupBroadcasts;
+    }
+
+    /**
+     * Get the number of broadcasts from the injection until the end.
+     *
+     * @return The dissemination broadcasts.
+     */
+    public long getBroadcasts() {
+        return broadcasts;
+    }
+
+    /**
+     * Get the number of broadcasts suppressed during the whole run.
+     *
+     * @return The suppressed broadcasts.
+     */
+    public long getSuppressions() {
+        return suppressions;
+    }
+
+    /**
+     * Disseminates a new version over fleets of growing size in an area of
+     * growing side, so the density stays the same, and prints the results.
+     * The base station sends a single message in every case, where unicasts
+     * would take one per node. The optional arguments are the number of nodes
+     * of the largest fleet, the area per node in square meters, the seed and
+     * the packet loss.
+     *
+     * @param args The number of nodes, area per node, seed and packet loss.
+     */
+    public static void main(String[] args) {
+        int maximumNodes = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        double areaPerNode = (args.length > 1) ? Double.parseDouble(args[1]) : 100.0;
+        long seed = (args.length > 2) ? Long.parseLong(args[2]) : 1;
+        double packetLoss = (args.length > 3) ? Double.parseDouble(args[3]) : 0.1;
+
+        RadioModel radio = new RadioModel(FleetSimulator.DEFAULT_CHANNEL, RadioModel.DEFAULT_REFERENCE_LOSS, RadioModel.DEFAULT_PATH_LOSS_EXPONENT, RadioModel.DEFAULT_SENSITIVITY, packetLoss);
+        // Half the maximum power, so that the larger fleets take several hops
+        int ptxIndex = (RadioProperties.getMinimumPTXIndex(radio.getChannel()) + RadioProperties.getMaximumPTXIndex(radio.getChannel())) / 2;
+
+        System.out.println("nodes,reachable,reached,convergence_ms,broadcasts,warmup_broadcasts,suppressed");
+        for (int nodes = 25; nodes <= maximumNodes; nodes *= 2) {
+            DisseminationSimulator simulator = new DisseminationSimulator(radio, ptxIndex,
+                    ConfigurationDissemination.DEFAULT_MINIMUM_INTERVAL, ConfigurationDissemination.DEFAULT_DOUBLINGS, ConfigurationDissemination.DEFAULT_REDUNDANCY, seed);
+            simulator.deploy(nodes, Math.sqrt(nodes * areaPerNode));
+            simulator.run(DEFAULT_WARMUP, DEFAULT_MAXIMUM_TIME);
+            System.out.println(nodes + "," + simulator.getReachable() + "," + simulator.getReached()
+                    + "," + simulator.getConvergenceTime() + "," + simulator.getBroadcasts()
+                    + "," + simulator.getWarmupBroadcasts() + "," + simulator.getSuppressions());
+        }
+    }
+}
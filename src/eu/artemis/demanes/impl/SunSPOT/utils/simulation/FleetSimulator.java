@@ -0,0 +1,485 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.simulation;
+
+import com.sun.spot.core.util.Properties;
+import eu.artemis.demanes.impl.SunSPOT.common.RadioProperties;
+import eu.artemis.demanes.impl.SunSPOT.common.ReconfigurationContext;
+import eu.artemis.demanes.impl.SunSPOT.common.SystemContext;
+import eu.artemis.demanes.impl.SunSPOT.common.TriggerPolicyProperties;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.Clock;
+import eu.artemis.demanes.impl.SunSPOT.utils.clock.VirtualClock;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Level;
+import eu.artemis.demanes.impl.SunSPOT.utils.logging.Logger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Simulates a fleet of nodes running the power scaling control loop in a
+ * single JVM, so that its convergence, message overhead and energy can be
+ * studied at deployment sizes that can not be built with motes.
+ *
+ * Every monitoring cycle all the nodes perform a neighbor discovery round:
+ * each live node broadcasts a request, every node in its range answers, and
+ * the answers heard back make up the node degree. Then each node runs its
+ * {@link SimulatedNode#cycle(int)} and sends a status report. Batteries are
+ * drained by the radio, listening all the time and transmitting the frames of
+ * the cycle, and by the rest of the board. Time is taken from a
+ * {@link VirtualClock}, so the simulation runs as fast as the host allows.
+ *
+ * Nodes are stepped one after the other in the calling thread, which keeps
+ * the simulation deterministic for a given seed and avoids a thread per node.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class FleetSimulator {
+
+    /** Default reasoner, the one used by {@code SunSPOTPowerController}. */
+    public static final String DEFAULT_REASONER = "PTInterp1DFDM";
+    /** Default radio channel. */
+    public static final int DEFAULT_CHANNEL = 26;
+    /** Default supply current of the board apart from the radio, in mA. */
+    public static final double DEFAULT_BOARD_CURRENT = 20.0;
+    /** Default number of cycles without changes to consider the fleet converged. */
+    public static final int DEFAULT_STABLE_CYCLES = 10;
+
+    private static final long DEFAULT_INTERVAL = 2000;
+
+    private String reasonerName;
+    private Properties overrides;
+    private RadioModel radio;
+    private double batteryCapacity;
+    private double boardCurrent;
+    private int stableCycles;
+
+    private Vector nodes;
+    private Random random;
+
+    private PrintStream sampleOutput;
+    private int sampleInterval;
+
+    // Neighborhoods within the maximum range, as parallel arrays
+    private int[][] candidates;
+    private double[][] distances;
+
+    /**
+     * Public constructor.
+     *
+     * @param reasonerName The descriptor of the reasoner, as used in the
+     * {@code PowerScalingControllerFactory}.
+     * @param overrides Reconfiguration properties overriding the default ones
+     * of every node. It can be null.
+     * @param radio The radio model shared by all the nodes.
+     * @param batteryCapacity The capacity of the batteries, in mAh.
+     * @param seed The seed for the placement of the nodes and the frame losses.
+     */
+    public FleetSimulator(String reasonerName, Properties overrides, RadioModel radio, double batteryCapacity, long seed) {
+        this.reasonerName = reasonerName;
+        this.overrides = overrides;
+        this.radio = radio;
+        this.batteryCapacity = batteryCapacity;
+        this.boardCurrent = DEFAULT_BOARD_CURRENT;
+        this.stableCycles = DEFAULT_STABLE_CYCLES;
+        this.nodes = new Vector();
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Set the supply current of the board apart from the radio.
+     *
+     * @param boardCurrent The supply current in mA.
+     */
+    public void setBoardCurrent(double boardCurrent) {
+        this.boardCurrent = boardCurrent;
+    }
+
+    /**
+     * Set the number of cycles without changes of transmission power after
+     * which the fleet is considered converged.
+     *
+     * @param stableCycles The number of cycles.
+     */
+    public void setStableCycles(int stableCycles) {
+        this.stableCycles = stableCycles;
+    }
+
+    /**
+     * Print a line of comma separated values with the state of the fleet
+     * every {@code sampleInterval} cycles: cycle, time, triggers, PTX changes,
+     * messages, mean ND, mean PTX and minimum battery left.
+     *
+     * @param output The output for the samples, or null for no samples.
+     * @param sampleInterval The number of cycles between samples.
+     */
+    public void setSampling(PrintStream output, int sampleInterval) {
+        this.sampleOutput = output;
+        this.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * Add a node to the fleet.
+     *
+     * @param x The x coordinate of the node, in meters.
+     * @param y The y coordinate of the node, in meters.
+     * @return The new node.
+     */
+    public SimulatedNode addNode(double x, double y) {
+        ReconfigurationContext context = new ReconfigurationContext(batteryCapacity, radio.getChannel());
+        Properties properties = context.getProperties();
+
+        if (overrides != null) {
+            Enumeration keys = overrides.keys();
+            while (keys.hasMoreElements()) {
+                String key = (String) keys.nextElement();
+                properties.setProperty(key, overrides.getProperty(key));
+            }
+        }
+
+        context.updateProperties(properties, batteryCapacity);
+
+        SimulatedNode node = new SimulatedNode(nodes.size(), x, y, properties, reasonerName, radio, new BatteryModel(batteryCapacity));
+        nodes.addElement(node);
+        candidates = null;
+        return node;
+    }
+
+    /**
+     * Add nodes placed at random in a square area.
+     *
+     * @param count The number of nodes.
+     * @param side The side of the area, in meters.
+     */
+    public void deploy(int count, double side) {
+        for (int index = 0; index < count; index++) {
+            addNode(random.nextDouble() * side, random.nextDouble() * side);
+        }
+    }
+
+    /**
+     * Get the nodes of the fleet.
+     *
+     * @return The list of {@link SimulatedNode} objects.
+     */
+    public Vector getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Run the simulation.
+     *
+     * @param cycles The number of monitoring cycles to simulate.
+     * @return The report of the simulation.
+     */
+    public SimulationReport run(int cycles) {
+        int count = nodes.size();
+        SimulationReport report = new SimulationReport(count, stableCycles);
+        Clock systemClock = Clock.getClock();
+        VirtualClock clock = new VirtualClock();
+        Logger logger = SystemContext.getLogger();
+        Level logLevel = logger.getLevel();
+        long start = System.currentTimeMillis();
+
+        Clock.setClock(clock);
+        logger.setOff();
+
+        try {
+            if (candidates == null) {
+                findNeighborhoods();
+            }
+
+            SimulatedNode[] fleet = new SimulatedNode[count];
+            nodes.copyInto(fleet);
+
+            int[] nodeDegrees = new int[count];
+            int[] sent = new int[count];
+            int[] received = new int[count];
+            boolean[] depleted = new boolean[count];
+            long interval = Long.parseLong(fleet.length > 0 ? fleet[0].getProperties().getProperty(TriggerPolicyProperties.TRIGGER_INTERVAL_PROPERTY, Long.toString(DEFAULT_INTERVAL)) : Long.toString(DEFAULT_INTERVAL));
+            long airtime = radio.getAirtime();
+
+            for (int cycle = 0; cycle < cycles; cycle++) {
+                long requests = 0;
+                long responses = 0;
+                long reports = 0;
+                long triggers = 0;
+                long powerChanges = 0;
+
+                clock.advance(interval);
+                long time = clock.currentTimeMillis();
+
+                for (int i = 0; i < count; i++) {
+                    nodeDegrees[i] = 0;
+                    sent[i] = 0;
+                    received[i] = 0;
+                }
+
+                // Neighbor discovery round
+                for (int i = 0; i < count; i++) {
+                    if (depleted[i]) {
+                        continue;
+                    }
+
+                    double range = radio.getRange(fleet[i].getPTXIndex());
+                    int[] neighbors = candidates[i];
+                    double[] neighborDistances = distances[i];
+
+                    requests++;
+                    sent[i]++;
+
+                    for (int k = 0; k < neighbors.length; k++) {
+                        int j = neighbors[k];
+                        double distance = neighborDistances[k];
+
+                        if (depleted[j] || distance > range || !delivered()) {
+                            continue;
+                        }
+
+                        // j hears the request and answers it
+                        received[j]++;
+                        sent[j]++;
+                        responses++;
+
+                        if (distance <= radio.getRange(fleet[j].getPTXIndex()) && delivered()) {
+                            received[i]++;
+                            nodeDegrees[i]++;
+                        }
+                    }
+                }
+
+                // Control loop, status report and energy
+                for (int i = 0; i < count; i++) {
+                    if (depleted[i]) {
+                        continue;
+                    }
+
+                    int ptxIndex = fleet[i].getPTXIndex();
+                    if (fleet[i].cycle(nodeDegrees[i])) {
+                        triggers++;
+                    }
+                    if (fleet[i].getPTXIndex() != ptxIndex) {
+                        powerChanges++;
+                    }
+
+                    reports++;
+                    sent[i]++;
+
+                    BatteryModel battery = fleet[i].getBattery();
+                    long transmitting = sent[i] * airtime;
+                    battery.drain(boardCurrent, interval);
+                    battery.drain(radio.getTransmitCurrent(ptxIndex), transmitting);
+                    battery.drain(radio.getReceiveCurrent(), Math.max(0, interval - transmitting));
+
+                    if (battery.isDepleted()) {
+                        depleted[i] = true;
+                        report.addDepletion(time);
+                    }
+                }
+
+                report.addCycle(time);
+                report.addTriggers(triggers);
+                report.addPowerChanges(powerChanges, time);
+                report.addMessages(requests, responses, reports);
+
+                if (sampleOutput != null && sampleInterval > 0 && (cycle + 1) % sampleInterval == 0) {
+                    sample(fleet, cycle + 1, time, triggers, powerChanges, requests + responses + reports);
+                }
+            }
+
+            setFinalState(fleet, report);
+        } finally {
+            Clock.setClock(systemClock);
+            logger.setLevel(logLevel);
+        }
+
+        report.setElapsedTime(System.currentTimeMillis() - start);
+        return report;
+    }
+
+    private boolean delivered() {
+        return radio.getPacketLoss() == 0 || random.nextDouble() >= radio.getPacketLoss();
+    }
+
+    /**
+     * Finds, for every node, the nodes within the maximum range. The nodes do
+     * not move, so it is done once, using a grid of cells as wide as the
+     * maximum range so only the surrounding cells have to be checked.
+     */
+    private void findNeighborhoods() {
+        int count = nodes.size();
+        double cell = radio.getMaximumRange();
+        double minimumX = Double.MAX_VALUE;
+        double minimumY = Double.MAX_VALUE;
+        double maximumX = -Double.MAX_VALUE;
+        double maximumY = -Double.MAX_VALUE;
+
+        SimulatedNode[] fleet = new SimulatedNode[count];
+        nodes.copyInto(fleet);
+
+        for (int i = 0; i < count; i++) {
+            minimumX = Math.min(minimumX, fleet[i].getX());
+            minimumY = Math.min(minimumY, fleet[i].getY());
+            maximumX = Math.max(maximumX, fleet[i].getX());
+            maximumY = Math.max(maximumY, fleet[i].getY());
+        }
+
+        int columns = (count == 0) ? 1 : (int) ((maximumX - minimumX) / cell) + 1;
+        int rows = (count == 0) ? 1 : (int) ((maximumY - minimumY) / cell) + 1;
+        int[] cellHeads = new int[columns * rows];
+        int[] cellNext = new int[count];
+        int[] column = new int[count];
+        int[] row = new int[count];
+
+        for (int c = 0; c < cellHeads.length; c++) {
+            cellHeads[c] = -1;
+        }
+
+        for (int i = 0; i < count; i++) {
+            column[i] = (int) ((fleet[i].getX() - minimumX) / cell);
+            row[i] = (int) ((fleet[i].getY() - minimumY) / cell);
+            cellNext[i] = cellHeads[row[i] * columns + column[i]];
+            cellHeads[row[i] * columns + column[i]] = i;
+        }
+
+        candidates = new int[count][];
+        distances = new double[count][];
+        int[] foundNodes = new int[count];
+        double[] foundDistances = new double[count];
+
+        for (int i = 0; i < count; i++) {
+            int found = 0;
+
+            for (int r = Math.max(0, row[i] - 1); r <= Math.min(rows - 1, row[i] + 1); r++) {
+                for (int c = Math.max(0, column[i] - 1); c <= Math.min(columns - 1, column[i] + 1); c++) {
+                    for (int j = cellHeads[r * columns + c]; j >= 0; j = cellNext[j]) {
+                        if (j == i) {
+                            continue;
+                        }
+
+                        double dx = fleet[i].getX() - fleet[j].getX();
+                        double dy = fleet[i].getY() - fleet[j].getY();
+                        double distance = Math.sqrt(dx * dx + dy * dy);
+
+                        if (distance <= cell) {
+                            foundNodes[found] = j;
+                            foundDistances[found] = distance;
+                            found++;
+                        }
+                    }
+                }
+            }
+
+            candidates[i] = new int[found];
+            distances[i] = new double[found];
+            System.arraycopy(foundNodes, 0, candidates[i], 0, found);
+            System.arraycopy(foundDistances, 0, distances[i], 0, found);
+        }
+    }
+
+    private void sample(SimulatedNode[] fleet, int cycle, long time, long triggers, long powerChanges, long messages) {
+        double nodeDegrees = 0;
+        double ptx = 0;
+        double minimumBattery = Double.MAX_VALUE;
+
+        for (int i = 0; i < fleet.length; i++) {
+            nodeDegrees += fleet[i].getNodeDegree();
+            ptx += RadioProperties.getPTXatIndex(radio.getChannel(), fleet[i].getPTXIndex());
+            minimumBattery = Math.min(minimumBattery, fleet[i].getBattery().getAvailableCapacity());
+        }
+
+        StringBuffer line = new StringBuffer();
+        line.append(cycle).append(',').append(time).append(',');
+        line.append(triggers).append(',').append(powerChanges).append(',').append(messages).append(',');
+        line.append(nodeDegrees / fleet.length).append(',').append(ptx / fleet.length).append(',').append(minimumBattery);
+        sampleOutput.println(line.toString());
+    }
+
+    private void setFinalState(SimulatedNode[] fleet, SimulationReport report) {
+        double consumed = 0;
+        double minimumBattery = fleet.length > 0 ? Double.MAX_VALUE : 0;
+        double nodeDegrees = 0;
+        double ptx = 0;
+        int isolated = 0;
+        long reasonerErrors = 0;
+
+        for (int i = 0; i < fleet.length; i++) {
+            consumed += fleet[i].getBattery().getConsumedCapacity();
+            minimumBattery = Math.min(minimumBattery, fleet[i].getBattery().getAvailableCapacity());
+            nodeDegrees += fleet[i].getNodeDegree();
+            ptx += RadioProperties.getPTXatIndex(radio.getChannel(), fleet[i].getPTXIndex());
+            reasonerErrors += fleet[i].getReasonerErrors();
+            if (fleet[i].getNodeDegree() == 0) {
+                isolated++;
+            }
+        }
+
+        int count = Math.max(1, fleet.length);
+        report.setFinalState(consumed, minimumBattery, nodeDegrees / count, ptx / count, isolated, reasonerErrors);
+    }
+
+    /**
+     * Simulates a fleet placed at random and prints the report. The optional
+     * arguments are the number of nodes, the side of the area in meters, the
+     * number of cycles, the seed, the sample interval in cycles and the
+     * reasoner. The {@code reconfiguration.conf} resource, if present,
+     * overrides the default reconfiguration properties of every node as it
+     * does in the mote.
+     *
+     * @param args The number of nodes, side, cycles, seed, sample interval and
+     * reasoner.
+     */
+    public static void main(String[] args) {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+        double side = (args.length > 1) ? Double.parseDouble(args[1]) : 100.0;
+        int cycles = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        long seed = (args.length > 3) ? Long.parseLong(args[3]) : 1;
+        int sampleInterval = (args.length > 4) ? Integer.parseInt(args[4]) : 0;
+        String reasonerName = (args.length > 5) ? args[5] : DEFAULT_REASONER;
+
+        Properties overrides = new Properties();
+        try {
+            InputStream reconfFile = FleetSimulator.class.getResourceAsStream("/reconfiguration.conf");
+            if (reconfFile != null) {
+                overrides.load(reconfFile);
+            }
+        } catch (IOException ex) {
+            System.out.println("Error reading reconfiguration.conf: " + ex.getMessage());
+            return;
+        }
+
+        // The nodes log through the logger of the system, so keep it quiet
+        SystemContext.getLogger().setOff();
+
+        FleetSimulator simulator = new FleetSimulator(reasonerName, overrides, new RadioModel(DEFAULT_CHANNEL), BatteryModel.DEFAULT_CAPACITY, seed);
+        simulator.deploy(count, side);
+        if (sampleInterval > 0) {
+            System.out.println("cycle,time,triggers,ptx_changes,messages,mean_nd,mean_ptx,min_battery");
+            simulator.setSampling(System.out, sampleInterval);
+        }
+
+        System.out.println(simulator.run(cycles).toString());
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.simulation;
+
+import com.sun.squawk.util.MathUtils;
+import eu.artemis.demanes.impl.SunSPOT.common.RadioProperties;
+
+/**
+ * Stand-in for the radio of a simulated node. Connectivity follows a
+ * log-distance path loss model: two nodes are in range when the power
+ * transmitted, minus the path loss at their distance, is above the receiver
+ * sensitivity. The supply current of the transmitter is interpolated from the
+ * CC2420 data sheet.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class RadioModel {
+
+    /** Default path loss at the reference distance of 1 m, in dB. */
+    public static final double DEFAULT_REFERENCE_LOSS = 40.0;
+    /** Default path loss exponent. */
+    public static final double DEFAULT_PATH_LOSS_EXPONENT = 3.0;
+    /** Default receiver sensitivity, in dBm. */
+    public static final double DEFAULT_SENSITIVITY = -94.0;
+    /** Default probability of losing a frame. */
+    public static final double DEFAULT_PACKET_LOSS = 0.0;
+    /** Default time on air of a frame, in milliseconds. */
+    public static final long DEFAULT_AIRTIME = 4;
+    /** Supply current of the receiver, in mA. */
+    public static final double RECEIVE_CURRENT = 18.8;
+
+    /** Transmission powers of the CC2420 data sheet, in dBm. */
+    private static final double[] DATASHEET_PTX = {-25, -15, -10, -7, -5, -3, -1, 0};
+    /** Supply current for each of the data sheet transmission powers, in mA. */
+    private static final double[] DATASHEET_CURRENT = {8.5, 9.9, 11.2, 12.5, 13.9, 15.2, 16.5, 17.4};
+
+    private int channel;
+    private double packetLoss;
+    private long airtime;
+
+    private double[] ranges;
+    private double[] transmitCurrents;
+
+    /**
+     * Public constructor of a radio model with the default parameters.
+     *
+     * @param channel The radio channel, which determines the available
+     * transmission powers.
+     */
+    public RadioModel(int channel) {
+        this(channel, DEFAULT_REFERENCE_LOSS, DEFAULT_PATH_LOSS_EXPONENT, DEFAULT_SENSITIVITY, DEFAULT_PACKET_LOSS);
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param channel The radio channel, which determines the available
+     * transmission powers.
+     * @param referenceLoss The path loss at 1 m, in dB.
+     * @param exponent The path loss exponent.
+     * @param sensitivity The receiver sensitivity, in dBm.
+     * @param packetLoss The probability of losing a frame, between 0 and 1.
+     */
+    public RadioModel(int channel, double referenceLoss, double exponent, double sensitivity, double packetLoss) {
+        if (exponent <= 0 || packetLoss < 0 || packetLoss > 1) {
+            throw new IllegalArgumentException("RadioModel: Invalid path loss exponent or packet loss.");
+        }
+
+        this.channel = channel;
+        this.packetLoss = packetLoss;
+        this.airtime = DEFAULT_AIRTIME;
+
+        int maximumIndex = RadioProperties.getMaximumPTXIndex(channel);
+        this.ranges = new double[maximumIndex + 1];
+        this.transmitCurrents = new double[maximumIndex + 1];
+
+        for (int index = 0; index <= maximumIndex; index++) {
+            int ptx = RadioProperties.getPTXatIndex(channel, index);
+            ranges[index] = MathUtils.pow(10, (ptx - referenceLoss - sensitivity) / (10 * exponent));
+            transmitCurrents[index] = interpolateCurrent(ptx);
+        }
+    }
+
+    private static double interpolateCurrent(double ptx) {
+        if (ptx <= DATASHEET_PTX[0]) {
+            return DATASHEET_CURRENT[0];
+        }
+
+        for (int index = 1; index < DATASHEET_PTX.length; index++) {
+            if (ptx <= DATASHEET_PTX[index]) {
+                double fraction = (ptx - DATASHEET_PTX[index - 1]) / (DATASHEET_PTX[index] - DATASHEET_PTX[index - 1]);
+                return DATASHEET_CURRENT[index - 1] + fraction * (DATASHEET_CURRENT[index] - DATASHEET_CURRENT[index - 1]);
+            }
+        }
+
+        return DATASHEET_CURRENT[DATASHEET_CURRENT.length - 1];
+    }
+
+    /**
+     * Get the radio channel.
+     *
+     * @return The radio channel.
+     */
+    public int getChannel() {
+        return channel;
+    }
+
+    /**
+     * Get the range of a transmission.
+     *
+     * @param ptxIndex The index of the transmission power.
+     * @return The range in meters.
+     */
+    public double getRange(int ptxIndex) {
+        return ranges[ptxIndex];
+    }
+
+    /**
+     * Get the range at the maximum transmission power of the channel.
+     *
+     * @return The range in meters.
+     */
+    public double getMaximumRange() {
+        return ranges[ranges.length - 1];
+    }
+
+    /**
+     * Get the supply current while transmitting.
+     *
+     * @param ptxIndex The index of the transmission power.
+     * @return The supply current in mA.
+     */
+    public double getTransmitCurrent(int ptxIndex) {
+        return transmitCurrents[ptxIndex];
+    }
+
+    /**
+     * Get the supply current while receiving or listening.
+     *
+     * @return The supply current in mA.
+     */
+    public double getReceiveCurrent() {
+        return RECEIVE_CURRENT;
+    }
+
+    /**
+     * Get the time on air of a frame.
+     *
+     * @return The time on air in milliseconds.
+     */
+    public long getAirtime() {
+        return airtime;
+    }
+
+    /**
+     * Get the probability of losing a frame.
+     *
+     * @return The probability, between 0 and 1.
+     */
+    public double getPacketLoss() {
+        return packetLoss;
+    }
+}
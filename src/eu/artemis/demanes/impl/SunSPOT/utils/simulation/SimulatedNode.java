@@ -0,0 +1,423 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.simulation;
+
+import com.sun.spot.core.util.Properties;
+import com.sun.squawk.util.MathUtils;
+import eu.artemis.demanes.datatypes.ANES_BUNDLE;
+import eu.artemis.demanes.datatypes.ANES_URN;
+import eu.artemis.demanes.datatypes.ANES_URN_Exception;
+import eu.artemis.demanes.exceptions.ActionInvocationException;
+import eu.artemis.demanes.exceptions.NonExistentKeyException;
+import eu.artemis.demanes.exceptions.ObservationInvocationException;
+import eu.artemis.demanes.impl.SunSPOT.common.DEMANESResources;
+import eu.artemis.demanes.impl.SunSPOT.common.PTActionProperties;
+import eu.artemis.demanes.impl.SunSPOT.common.RadioProperties;
+import eu.artemis.demanes.impl.SunSPOT.fuzzyReasoner.PowerScalingControllerFactory;
+import eu.artemis.demanes.impl.SunSPOT.reconfiguration.ORAMediatorForSunSPOT;
+import eu.artemis.demanes.impl.SunSPOT.reconfiguration.PowerScalingMonitor.PowerScalingMonitor;
+import eu.artemis.demanes.impl.SunSPOT.reconfiguration.PowerScalingMonitor.rules.PowerScalingTrigger;
+import eu.artemis.demanes.reconfiguration.Action;
+import eu.artemis.demanes.reconfiguration.Actuator;
+import eu.artemis.demanes.reconfiguration.Observation;
+import eu.artemis.demanes.reconfiguration.Observer;
+import eu.artemis.demanes.reconfiguration.Reasoner;
+import eu.artemis.demanes.reconfiguration.TriggerPolicy;
+import eu.artemis.demanes.reconfiguration.Triggerable;
+import java.util.Vector;
+
+/**
+ * A simulated node runs the same ORA stack as the mote: an
+ * {@link ORAMediatorForSunSPOT} with the reasoner created by the
+ * {@link PowerScalingControllerFactory}, the trigger rules of the
+ * {@code PowerScalingMonitor} and the power transmission action. Instead of
+ * the monitoring thread, the trigger policy is driven by the
+ * {@link FleetSimulator} once per monitoring cycle, and the hardware is
+ * replaced by a {@link RadioModel} and a {@link BatteryModel}.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class SimulatedNode implements TriggerPolicy, Observer {
+
+    private int index;
+    private double x;
+    private double y;
+
+    private Properties properties;
+    private RadioModel radio;
+    private BatteryModel battery;
+
+    private int state;
+    private Vector triggerables;
+    private Vector observations;
+    private PowerScalingTrigger trigger;
+    private ORAMediatorForSunSPOT mediator;
+
+    // Observed values
+    private int nodeDegree;
+    private ANES_URN cause;
+    private double error;
+
+    // Actuator state, as in PowerTransmissionActuator
+    private double cr;
+    private double CR0;
+    private int ptxIndex;
+
+    private long triggers;
+    private long reasonerErrors;
+
+    /**
+     * Public constructor.
+     *
+     * @param index The index of the node in the fleet.
+     * @param x The x coordinate of the node, in meters.
+     * @param y The y coordinate of the node, in meters.
+     * @param properties The reconfiguration properties of the node.
+     * @param reasonerName The descriptor of the reasoner, as used in the
+     * {@link PowerScalingControllerFactory}.
+     * @param radio The radio model.
+     * @param battery The battery of the node.
+     */
+    public SimulatedNode(int index, double x, double y, Properties properties, String reasonerName, RadioModel radio, BatteryModel battery) {
+        this.index = index;
+        this.x = x;
+        this.y = y;
+        this.properties = properties;
+        this.radio = radio;
+        this.battery = battery;
+
+        this.state = PowerScalingMonitor.CREATED;
+        this.triggerables = new Vector();
+        this.trigger = new PowerScalingTrigger(properties);
+
+        this.CR0 = Double.parseDouble(properties.getProperty(PTActionProperties.CR0_PROPERTY, Double.toString(RadioProperties.getMinimumPTXIndex(radio.getChannel()))));
+        this.cr = 0;
+        this.ptxIndex = clampPTXIndex((int) MathUtils.round(CR0));
+
+        this.observations = new Vector();
+        this.observations.addElement(new NodeObservation(DEMANESResources.NDObservationURN));
+        this.observations.addElement(new NodeObservation(DEMANESResources.BLObservationURN));
+        this.observations.addElement(new NodeObservation(DEMANESResources.PTXObservationURN));
+        this.observations.addElement(new NodeObservation(DEMANESResources.TriggerReasonURN));
+        this.observations.addElement(new NodeObservation(DEMANESResources.TriggerReasonValueURN));
+
+        Reasoner reasoner = PowerScalingControllerFactory.getInstance(reasonerName, properties);
+        if (reasoner == null) {
+            throw new IllegalArgumentException("SimulatedNode: Unknown reasoner " + reasonerName);
+        }
+
+        this.mediator = new ORAMediatorForSunSPOT();
+        this.mediator.registerObserver(this);
+        this.mediator.registerActuator(new NodeActuator());
+        this.mediator.setReasoner(reasoner);
+        this.mediator.setTriggeringPolicy(this);
+    }
+
+    /**
+     * Runs a monitoring cycle: the trigger rules are evaluated with the node
+     * degree discovered in the cycle and, if they fire, the reasoner is
+     * triggered through the mediator.
+     *
+     * @param nodeDegree The node degree discovered in the cycle.
+     * @return True if the reasoner has been triggered, false otherwise.
+     */
+    public boolean cycle(int nodeDegree) {
+        this.nodeDegree = nodeDegree;
+
+        if (state != PowerScalingMonitor.STARTED || battery.isDepleted()) {
+            return false;
+        }
+
+        if (!trigger.evaluate(nodeDegree, battery.getAvailableCapacity(), ptxIndex)) {
+            return false;
+        }
+
+        try {
+            cause = ANES_URN.create(trigger.getEvent());
+            error = trigger.getError();
+        } catch (ANES_URN_Exception ex) {
+            reasonerErrors++;
+            return false;
+        }
+
+        triggers++;
+        for (int cursor = 0; cursor < triggerables.size(); cursor++) {
+            try {
+                ((Triggerable) triggerables.elementAt(cursor)).trigger();
+            } catch (RuntimeException ex) {
+                reasonerErrors++;
+            }
+        }
+
+        return true;
+    }
+
+    private int clampPTXIndex(int index) {
+        if (index > RadioProperties.getMaximumPTXIndex(radio.getChannel())) {
+            return RadioProperties.getMaximumPTXIndex(radio.getChannel());
+        }
+        if (index < RadioProperties.getMinimumPTXIndex(radio.getChannel())) {
+            return RadioProperties.getMinimumPTXIndex(radio.getChannel());
+        }
+        return index;
+    }
+
+    /**
+     * Get the index of the node in the fleet.
+     *
+     * @return The index of the node.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the x coordinate of the node.
+     *
+     * @return The x coordinate in meters.
+     */
+    public double getX() {
+        return x;
+    }
+
+    /**
+     * Get the y coordinate of the node.
+     *
+     * @return The y coordinate in meters.
+     */
+    public double getY() {
+        return y;
+    }
+
+    /**
+     * Get the reconfiguration properties of the node.
+     *
+     * @return The reconfiguration properties.
+     */
+    public Properties getProperties() {
+        return properties;
+    }
+
+    /**
+     * Get the battery of the node.
+     *
+     * @return The battery.
+     */
+    public BatteryModel getBattery() {
+        return battery;
+    }
+
+    /**
+     * Get the current transmission power.
+     *
+     * @return The index of the transmission power.
+     */
+    public int getPTXIndex() {
+        return ptxIndex;
+    }
+
+    /**
+     * Get the node degree discovered in the last cycle.
+     *
+     * @return The node degree.
+     */
+    public int getNodeDegree() {
+        return nodeDegree;
+    }
+
+    /**
+     * Get the number of times the reasoner has been triggered.
+     *
+     * @return The number of triggers.
+     */
+    public long getTriggers() {
+        return triggers;
+    }
+
+    /**
+     * Get the number of failed reasoner invocations.
+     *
+     * @return The number of errors.
+     */
+    public long getReasonerErrors() {
+        return reasonerErrors;
+    }
+
+    // TRIGGER POLICY
+    public void registerTriggerable(Triggerable t) {
+        if (t != null && !triggerables.contains(t)) {
+            triggerables.addElement(t);
+        }
+    }
+
+    public void unregisterTriggerable(Triggerable t) {
+        triggerables.removeElement(t);
+    }
+
+    public void start() {
+        if (state == PowerScalingMonitor.CREATED || state == PowerScalingMonitor.DIED) {
+            state = PowerScalingMonitor.STARTED;
+        }
+    }
+
+    public void stop() {
+        if (state == PowerScalingMonitor.STARTED || state == PowerScalingMonitor.SUSPENDED) {
+            state = PowerScalingMonitor.DIED;
+            trigger.reset();
+        }
+    }
+
+    public void suspend() {
+        if (state == PowerScalingMonitor.STARTED) {
+            state = PowerScalingMonitor.SUSPENDED;
+        }
+    }
+
+    public void resume() {
+        if (state == PowerScalingMonitor.SUSPENDED) {
+            state = PowerScalingMonitor.STARTED;
+        }
+    }
+
+    // OBSERVER
+    public Vector getObservations() {
+        return observations;
+    }
+
+    // PRIVATE CLASSES
+    private class NodeObservation implements Observation {
+
+        private String urn;
+        private ANES_URN id;
+
+        private NodeObservation(String urn) {
+            this.urn = urn;
+            try {
+                this.id = ANES_URN.create(urn);
+            } catch (ANES_URN_Exception ex) {
+                throw new IllegalStateException("SimulatedNode: Invalid observation URN " + urn);
+            }
+        }
+
+        /**
+         * Gets the ID of the observation.
+         *
+         * @return the ANES_URN of observation.
+         */
+        public ANES_URN getObservationID() {
+            return id;
+        }
+
+        /**
+         * Get the simulated value of the observation.
+         *
+         * @return The value of the observation in the current cycle.
+         * @throws ObservationInvocationException Never.
+         */
+        public Object getValue() throws ObservationInvocationException {
+            if (urn.equals(DEMANESResources.NDObservationURN)) {
+                return new Integer(nodeDegree);
+            } else if (urn.equals(DEMANESResources.BLObservationURN)) {
+                return new Double(battery.getAvailableCapacity());
+            } else if (urn.equals(DEMANESResources.PTXObservationURN)) {
+                return new Integer(RadioProperties.getPTXatIndex(radio.getChannel(), ptxIndex));
+            } else if (urn.equals(DEMANESResources.TriggerReasonURN)) {
+                return cause;
+            } else {
+                return new Double(error);
+            }
+        }
+    }
+
+    private class NodeActuator implements Actuator {
+
+        private Vector actions;
+
+        private NodeActuator() {
+            this.actions = new Vector();
+            this.actions.addElement(new PowerTransmissionAction());
+        }
+
+        /**
+         * Get the list of actions provided by this actuator.
+         *
+         * @return A Vector containing the list of actions.
+         */
+        public Vector getActions() {
+            return actions;
+        }
+    }
+
+    private class PowerTransmissionAction implements Action {
+
+        private ANES_URN id;
+
+        private PowerTransmissionAction() {
+            try {
+                this.id = ANES_URN.create(DEMANESResources.PTActionURN);
+            } catch (ANES_URN_Exception ex) {
+                throw new IllegalStateException("SimulatedNode: Invalid action URN " + DEMANESResources.PTActionURN);
+            }
+        }
+
+        /**
+         * Get the {@code ANES_URN} for this action.
+         *
+         * @return The {@code ANES_URN}.
+         */
+        public ANES_URN getActionID() {
+            return id;
+        }
+
+        /**
+         * Updates the simulated transmission power the same way as the
+         * {@code PowerTransmissionActuator} does.
+         *
+         * @param arguments The set of arguments required for the action.
+         * @throws ActionInvocationException If there is no delta_cr argument.
+         */
+        public void invoke(ANES_BUNDLE arguments) throws ActionInvocationException {
+            double delta_cr;
+
+            try {
+                delta_cr = ((Double) arguments.get(DEMANESResources.DELTA_CR_KEY)).doubleValue();
+            } catch (NonExistentKeyException ex) {
+                throw new ActionInvocationException(id, ex);
+            }
+
+            if (Double.isNaN(delta_cr)) {
+                return;
+            }
+
+            cr += delta_cr;
+
+            int index = (int) MathUtils.round(cr + CR0);
+            int clamped = clampPTXIndex(index);
+            if (clamped != index) {
+                cr -= delta_cr;
+            }
+
+            ptxIndex = clamped;
+        }
+    }
+}
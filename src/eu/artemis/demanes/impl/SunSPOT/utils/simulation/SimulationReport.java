@@ -0,0 +1,202 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.simulation;
+
+/**
+ * Summary of a fleet simulation: convergence of the transmission powers,
+ * message overhead of the neighbor discovery and the status reports, and
+ * energy drained from the batteries.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class SimulationReport {
+
+    private int nodes;
+    private long cycles;
+    private long simulatedTime;
+    private long elapsedTime;
+
+    private long triggers;
+    private long powerChanges;
+    private long reasonerErrors;
+    private long lastPowerChangeTime;
+    private long lastPowerChangeCycle;
+    private long stableCycles;
+
+    private long discoveryRequests;
+    private long discoveryResponses;
+    private long statusReports;
+
+    private double consumedCapacity;
+    private double minimumAvailableCapacity;
+    private int depletedNodes;
+    private long firstDepletionTime;
+
+    private double meanNodeDegree;
+    private double meanPTX;
+    private int isolatedNodes;
+
+    SimulationReport(int nodes, long stableCycles) {
+        this.nodes = nodes;
+        this.stableCycles = stableCycles;
+        this.lastPowerChangeCycle = -1;
+        this.firstDepletionTime = -1;
+    }
+
+    void addCycle(long time) {
+        cycles++;
+        simulatedTime = time;
+    }
+
+    void addTriggers(long triggers) {
+        this.triggers += triggers;
+    }
+
+    void addPowerChanges(long powerChanges, long time) {
+        if (powerChanges > 0) {
+            this.powerChanges += powerChanges;
+            this.lastPowerChangeTime = time;
+            this.lastPowerChangeCycle = cycles;
+        }
+    }
+
+    void addMessages(long requests, long responses, long reports) {
+        discoveryRequests += requests;
+        discoveryResponses += responses;
+        statusReports += reports;
+    }
+
+    void addDepletion(long time) {
+        depletedNodes++;
+        if (firstDepletionTime < 0) {
+            firstDepletionTime = time;
+        }
+    }
+
+    void setFinalState(double consumedCapacity, double minimumAvailableCapacity, double meanNodeDegree, double meanPTX, int isolatedNodes, long reasonerErrors) {
+        this.consumedCapacity = consumedCapacity;
+        this.minimumAvailableCapacity = minimumAvailableCapacity;
+        this.meanNodeDegree = meanNodeDegree;
+        this.meanPTX = meanPTX;
+        this.isolatedNodes = isolatedNodes;
+        this.reasonerErrors = reasonerErrors;
+    }
+
+    void setElapsedTime(long elapsedTime) {
+        this.elapsedTime = elapsedTime;
+    }
+
+    /**
+     * Indicate whether the transmission powers have converged, that is, no
+     * node has changed its transmission power during the last cycles.
+     *
+     * @return True if the fleet has converged, false otherwise.
+     */
+    public boolean isConverged() {
+        return cycles - lastPowerChangeCycle > stableCycles;
+    }
+
+    /**
+     * Get the simulated time of the last change of transmission power in the
+     * fleet.
+     *
+     * @return The convergence time in milliseconds.
+     */
+    public long getConvergenceTime() {
+        return lastPowerChangeTime;
+    }
+
+    /**
+     * Get the number of messages sent by the whole fleet.
+     *
+     * @return The number of messages.
+     */
+    public long getMessages() {
+        return discoveryRequests + discoveryResponses + statusReports;
+    }
+
+    /**
+     * Get the capacity drained from all the batteries.
+     *
+     * @return The drained capacity in mAh.
+     */
+    public double getConsumedCapacity() {
+        return consumedCapacity;
+    }
+
+    /**
+     * Get the number of monitoring cycles simulated.
+     *
+     * @return The number of cycles.
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Get the simulated time.
+     *
+     * @return The simulated time in milliseconds.
+     */
+    public long getSimulatedTime() {
+        return simulatedTime;
+    }
+
+    /**
+     * Get the time spent simulating.
+     *
+     * @return The elapsed time in milliseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Returns the report as text.
+     *
+     * @return A string representation of the report.
+     */
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("Nodes: ").append(nodes).append('\n');
+        buffer.append("Cycles simulated: ").append(cycles).append('\n');
+        buffer.append("Simulated time: ").append(simulatedTime / 1000).append(" s\n");
+        buffer.append("Simulation time: ").append(elapsedTime).append(" ms\n");
+        buffer.append("Triggers: ").append(triggers).append('\n');
+        buffer.append("PTX changes: ").append(powerChanges).append('\n');
+        buffer.append("Reasoner errors: ").append(reasonerErrors).append('\n');
+        buffer.append("Converged: ").append(isConverged() ? "yes" : "no").append(", last PTX change at ").append(lastPowerChangeTime / 1000).append(" s\n");
+        buffer.append("Messages (ND requests/ND responses/status): ").append(getMessages()).append(" (").append(discoveryRequests).append('/').append(discoveryResponses).append('/').append(statusReports).append(")\n");
+        buffer.append("Energy drained: ").append(consumedCapacity).append(" mAh\n");
+        buffer.append("Minimum battery left: ").append(minimumAvailableCapacity).append(" mAh\n");
+        buffer.append("Depleted nodes: ").append(depletedNodes);
+        if (firstDepletionTime >= 0) {
+            buffer.append(", first at ").append(firstDepletionTime / 1000).append(" s");
+        }
+        buffer.append('\n');
+        buffer.append("Mean ND: ").append(meanNodeDegree).append('\n');
+        buffer.append("Mean PTX: ").append(meanPTX).append(" dBm\n");
+        buffer.append("Isolated nodes: ").append(isolatedNodes).append('\n');
+        return buffer.toString();
+    }
+}
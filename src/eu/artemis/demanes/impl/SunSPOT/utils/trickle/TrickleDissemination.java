@@ -0,0 +1,154 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.trickle;
+
+/**
+ * Dissemination of a versioned item, such as a configuration, by Trickle
+ * gossip (RFC 6206, section 6). The node broadcasts the version it holds when
+ * its {@link TrickleTimer} tells so, and compares the versions heard from
+ * its neighbors with its own:
+ * <ul>
+ * <li>The same version is a consistent transmission, which may suppress the
+ * next broadcast of the node.</li>
+ * <li>An older version is an inconsistency: the timer goes back to the
+ * minimum interval, so the neighbor is updated soon.</li>
+ * <li>A newer version is reported to the owner, which adopts it with
+ * {@link #update(int, long)} once it has been applied. That is also an
+ * inconsistency, so the new version spreads quickly.</li>
+ * </ul>
+ * Once every node holds the same version the broadcasts back off to the
+ * maximum interval, and most of them are suppressed. Versions are 16 bits
+ * long and wrap around. The class does not send or receive anything, so the
+ * same logic runs on the motes and in the simulator.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class TrickleDissemination {
+
+    /** The version heard is older than the one held. */
+    public static final int OLDER = -1;
+    /** The version heard is the one held. */
+    public static final int CONSISTENT = 0;
+    /** The version heard is newer than the one held. */
+    public static final int NEWER = 1;
+
+    private final TrickleTimer timer;
+    private boolean holding;
+    private int version;
+    private long updates;
+
+    /**
+     * Creates a new dissemination holding no version yet.
+     *
+     * @param timer The Trickle timer deciding when to broadcast.
+     */
+    public TrickleDissemination(TrickleTimer timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * Compares a version heard from a neighbor with the one held, and updates
+     * the timer accordingly.
+     *
+     * @param version The version heard.
+     * @param now The current time in milliseconds.
+     * @return {@link #OLDER}, {@link #CONSISTENT} or {@link #NEWER}. Any
+     * version is newer when none is held.
+     */
+    public synchronized int heard(int version, long now) {
+        if (!holding) {
+            return NEWER;
+        }
+
+        int comparison = (short) (version - this.version);
+        if (comparison > 0) {
+            return NEWER;
+        }
+        if (comparison == 0) {
+            timer.hearConsistent();
+            return CONSISTENT;
+        }
+        timer.hearInconsistent(now);
+        return OLDER;
+    }
+
+    /**
+     * Adopts a new version, to be broadcast from now on.
+     *
+     * @param version The new version.
+     * @param now The current time in milliseconds.
+     */
+    public synchronized void update(int version, long now) {
+        this.version = version;
+        this.holding = true;
+        updates++;
+        timer.hearInconsistent(now);
+    }
+
+    /**
+     * Advances the timer and checks if the version held has to be broadcast.
+     *
+     * @param now The current time in milliseconds.
+     * @return true when a version is held and the timer tells to broadcast.
+     */
+    public synchronized boolean poll(long now) {
+        return holding && timer.poll(now);
+    }
+
+    /**
+     * Checks if a version is held.
+     *
+     * @return true once a version has been adopted.
+     */
+    public synchronized boolean isHolding() {
+        return holding;
+    }
+
+    /**
+     * Get the version held.
+     *
+     * @return The version, meaningless if none is held.
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the number of versions adopted.
+     *
+     * @return The number of updates.
+     */
+    public synchronized long getUpdates() {
+        return updates;
+    }
+
+    /**
+     * Get the timer deciding when to broadcast, which keeps the count of
+     * broadcasts performed and suppressed.
+     *
+     * @return The Trickle timer.
+     */
+    public TrickleTimer getTimer() {
+        return timer;
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 2014-2015 Universidad Politécnica de Madrid (UPM).
+ *
+ * Authors:
+ *    José-Fernan Martínez Ortega
+ *    Vicente Hernández Díaz
+ *    Néstor Lucas Martínez
+ *    Yuanjiang Huang
+ *    Raúl del Toro Matamoros
+ * 
+ * This software is distributed under a dual-license scheme:
+ *
+ * - For academic uses: Licensed under GNU Affero General Public License as
+ *                      published by the Free Software Foundation, either
+ *                      version 3 of the License, or (at your option) any
+ *                      later version.
+ * 
+ * - For any other use: Licensed under the Apache License, Version 2.0.
+ * 
+ * You can get a copy of the license terms in licences/LICENSE.
+ */
+package eu.artemis.demanes.impl.SunSPOT.utils.trickle;
+
+import java.util.Random;
+
+/**
+ * Trickle timer (RFC 6206) deciding when a node transmits to keep some state
+ * consistent with its neighbors.
+ * <p>
+ * Time is divided in intervals, and in every interval the node transmits once
+ * at a random time between the half and the end of the interval, unless it
+ * has already heard at least <i>k</i> consistent transmissions, the
+ * redundancy constant. Each interval doubles the previous one, from the
+ * minimum interval up to the minimum interval doubled a given number of
+ * times, while everything stays consistent. An inconsistency takes the
+ * interval back to the minimum. In a stable network the transmissions
+ * decrease logarithmically, while a change is reacted to within the minimum
+ * interval.
+ * <p>
+ * The timer has no thread of its own: the owner calls {@link #poll(long)}
+ * periodically with the current time, and the timer tells if it is time to
+ * transmit. The granularity of the timer is therefore the polling period.
+ *
+ * @author N&eacute;stor Lucas Mart&iacute;nez
+ * @version 1.0.0
+ */
+public class TrickleTimer {
+
+    private final long minimumInterval;
+    private final long maximumInterval;
+    private final int redundancy;
+    private final Random randomGenerator;
+
+    private long interval;
+    private long intervalStart;
+    private long transmissionTime;
+    private int counter;
+    private boolean decided;
+    private boolean started;
+
+    private long transmissions;
+    private long suppressions;
+    private long resets;
+
+    /**
+     * Creates a new Trickle timer.
+     *
+     * @param minimumInterval The minimum interval in milliseconds, Imin.
+     * @param doublings The number of times the minimum interval can be
+     * doubled, so that the maximum interval is Imin * 2^doublings.
+     * @param redundancy The redundancy constant, k. With 0 the transmissions
+     * are never suppressed.
+     */
+    public TrickleTimer(long minimumInterval, int doublings, int redundancy) {
+        this(minimumInterval, doublings, redundancy, new Random());
+    }
+
+    /**
+     * Creates a new Trickle timer drawing its transmission times from the
+     * given random generator, so that a simulation can be repeated.
+     *
+     * @param minimumInterval The minimum interval in milliseconds, Imin.
+     * @param doublings The number of times the minimum interval can be
+     * doubled, so that the maximum interval is Imin * 2^doublings.
+     * @param redundancy The redundancy constant, k. With 0 the transmissions
+     * are never suppressed.
+     * @param randomGenerator The random generator.
+     */
+    public TrickleTimer(long minimumInterval, int doublings, int redundancy, Random randomGenerator) {
+        if (minimumInterval < 2 || doublings < 0 || doublings > 16 || redundancy < 0) {
+            throw new IllegalArgumentException("TrickleTimer: Invalid parameters Imin " + minimumInterval + ", doublings " + doublings + ", k " + redundancy + ".");
+        }
+
+        this.minimumInterval = minimumInterval;
+        this.maximumInterval = minimumInterval << doublings;
+        this.redundancy = redundancy;
+        this.randomGenerator = randomGenerator;
+    }
+
+    /**
+     * Starts the timer with the minimum interval.
+     *
+     * @param now The current time in milliseconds.
+     */
+    public synchronized void start(long now) {
+        this.started = true;
+        this.interval = minimumInterval;
+        beginInterval(now);
+    }
+
+    /**
+     * Records a consistent transmission heard from a neighbor.
+     */
+    public synchronized void hearConsistent() {
+        counter++;
+    }
+
+    /**
+     * Records an inconsistency. The timer goes back to the minimum interval,
+     * unless it is already there.
+     *
+     * @param now The current time in milliseconds.
+     */
+    public synchronized void hearInconsistent(long now) {
+        if (!started) {
+            start(now);
+            return;
+        }
+        if (interval != minimumInterval) {
+            resets++;
+            interval = minimumInterval;
+            beginInterval(now);
+        }
+    }
+
+    /**
+     * Advances the timer to the current time and checks if the node has to
+     * transmit.
+     *
+     * @param now The current time in milliseconds.
+     * @return true once per interval, when its transmission time has been
+     * reached and fewer than k consistent transmissions have been heard.
+     */
+    public synchronized boolean poll(long now) {
+        if (!started) {
+            start(now);
+        }
+
+        // The transmission of an interval that has just ended is still done,
+        // late, as the polling period may be as long as the minimum interval
+        boolean transmit = false;
+        if (!decided && now >= transmissionTime) {
+            decided = true;
+            if (redundancy > 0 && counter >= redundancy) {
+                suppressions++;
+            } else {
+                transmissions++;
+                transmit = true;
+            }
+        }
+
+        while (now - intervalStart >= interval) {
+            long end = intervalStart + interval;
+            interval = Math.min(interval * 2, maximumInterval);
+            beginInterval(end);
+        }
+
+        return transmit;
+    }
+
+    private void beginInterval(long start) {
+        intervalStart = start;
+        transmissionTime = start + interval / 2 + (long) randomGenerator.nextInt((int) Math.min(interval - interval / 2, Integer.MAX_VALUE));
+        counter = 0;
+        decided = false;
+    }
+
+    /**
+     * Get the time of the next event of the timer: the transmission time of
+     * the current interval while it has not been decided, or the end of the
+     * interval otherwise. Polling the timer earlier has no effect.
+     *
+     * @return The time of the next event in milliseconds.
+     */
+    public synchronized long getNextEventTime() {
+        return decided ? intervalStart + interval : transmissionTime;
+    }
+
+    /**
+     * Get the maximum interval.
+     *
+     * @return The maximum interval in milliseconds.
+     */
+    public long getMaximumInterval() {
+        return maximumInterval;
+    }
+
+    /**
+     * Get the current interval.
+     *
+     * @return The current interval in milliseconds.
+     */
+    public synchronized long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Get the number of transmissions allowed by the timer.
+     *
+     * @return The number of transmissions.
+     */
+    public synchronized long getTransmissionCount() {
+        return transmissions;
+    }
+
+    /**
+     * Get the number of transmissions suppressed by the redundancy constant.
+     *
+     * @return The number of suppressed transmissions.
+     */
+    public synchronized long getSuppressionCount() {
+        return suppressions;
+    }
+
+    /**
+     * Get the number of times the interval went back to the minimum because
+     * of an inconsistency.
+     *
+     * @return The number of resets.
+     */
+    public synchronized long getResetCount() {
+        return resets;
+    }
+}